@@ -10,6 +10,18 @@ public interface SarosConstants {
   public static final String XMPP_FEATURE_NAMESPACE = "saros";
   /** Sub-namespace for the server. It is used advertise when a server is active. */
   public static final String NAMESPACE_SERVER = XMPP_FEATURE_NAMESPACE + ".server";
+  /**
+   * Sub-namespace for the binary activity codec. It is used to advertise that activities can be
+   * received in binary form.
+   */
+  public static final String NAMESPACE_BINARY_ACTIVITIES = XMPP_FEATURE_NAMESPACE + ".binary";
+  /**
+   * Sub-namespace for sequence numbers in transfer descriptions. It is used to advertise that
+   * activities can be received with a sequence number that is transmitted outside of the activities
+   * extension, so that the extension can be shared with other recipients.
+   */
+  public static final String NAMESPACE_SEQUENCE_NUMBERS =
+      XMPP_FEATURE_NAMESPACE + ".sequence-numbers";
   /**
    * The name of the resource identifier used by Saros when connecting to the XMPP server (for
    * instance when logging in as john@doe.com, Saros will connect using john@doe.com/Saros)
@@ -1,14 +1,69 @@
 package saros.activities;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import saros.activities.EditorActivity.Type;
+import saros.activities.ProgressActivity.ProgressAction;
+import saros.session.User;
 
-/** Optimizer for activities. */
+/**
+ * Optimizer for activities. The optimizer applies a list of {@linkplain Rule rules} that each mark
+ * the activities which can be dropped without changing the result of executing the activities.
+ */
 public class ActivityOptimizer {
 
+  /**
+   * A reduction rule of the {@link ActivityOptimizer}. A rule must only mark activities whose
+   * effect is either superseded by a later activity or already achieved by an earlier activity.
+   * Rules are applied independently of each other to the same list of activities.
+   */
+  public interface Rule {
+
+    /**
+     * Marks the activities that can be dropped.
+     *
+     * @param activities the activities to optimize
+     * @param drop the indices of the activities that will be dropped
+     */
+    public void apply(List<IActivity> activities, BitSet drop);
+  }
+
+  private static final List<Rule> DEFAULT_RULES =
+      Collections.unmodifiableList(
+          Arrays.<Rule>asList(
+              new SelectionAndViewportRule(),
+              new ProgressRule(),
+              new EditorRule(),
+              new FollowRule(),
+              new FolderCreatedRule()));
+
+  private static final ActivityOptimizer DEFAULT = new ActivityOptimizer(DEFAULT_RULES);
+
+  private final List<Rule> rules;
+
+  /**
+   * Creates an optimizer that applies the given rules.
+   *
+   * @param rules the rules to apply
+   * @see #getDefaultRules()
+   */
+  public ActivityOptimizer(List<Rule> rules) {
+    this.rules = new ArrayList<Rule>(rules);
+  }
+
+  /** Returns the rules that are applied by {@link #optimize}. */
+  public static List<Rule> getDefaultRules() {
+    return DEFAULT_RULES;
+  }
+
   /**
    * Tries to reduce the number of {@link IActivity activities} so that:
    *
@@ -28,48 +83,208 @@ public class ActivityOptimizer {
    * @return a list which may contains a reduced amount of activities
    */
   public static List<IActivity> optimize(Collection<IActivity> activities) {
+    return DEFAULT.reduce(activities);
+  }
 
-    List<IActivity> result = new ArrayList<IActivity>(activities.size());
+  /**
+   * Reduces the number of {@link IActivity activities} by applying the rules of this optimizer.
+   *
+   * @param activities a collection containing the activities to optimize
+   * @return a list which may contains a reduced amount of activities
+   * @see #optimize(Collection)
+   */
+  public List<IActivity> reduce(Collection<IActivity> activities) {
 
-    boolean[] dropActivityIdx = new boolean[activities.size()];
+    final List<IActivity> input = new ArrayList<IActivity>(activities);
 
-    Map<SPath, Integer> selections = new HashMap<SPath, Integer>();
-    Map<SPath, Integer> viewports = new HashMap<SPath, Integer>();
+    if (input.size() < 2) return input;
 
-    /*
-     * keep only the latest selection/viewport activities per project and
-     * path
-     */
+    final BitSet drop = new BitSet(input.size());
+
+    for (final Rule rule : rules) rule.apply(input, drop);
+
+    if (drop.isEmpty()) return input;
+
+    final List<IActivity> result = new ArrayList<IActivity>(input.size() - drop.cardinality());
 
-    int activityIdx = 0;
+    for (int i = drop.nextClearBit(0); i < input.size(); i = drop.nextClearBit(i + 1))
+      result.add(input.get(i));
 
-    for (IActivity activity : activities) {
+    return result;
+  }
 
-      if (activity instanceof TextSelectionActivity) {
-        SPath path = ((TextSelectionActivity) activity).getPath();
+  private static List<Object> key(Object... values) {
+    return Arrays.asList(values);
+  }
 
-        Integer idx = selections.get(path);
+  /** Keeps only the latest selection and viewport activity per user and path. */
+  static final class SelectionAndViewportRule implements Rule {
 
-        if (idx != null) dropActivityIdx[idx] = true;
+    @Override
+    public void apply(List<IActivity> activities, BitSet drop) {
+      final Map<List<Object>, Integer> latest = new HashMap<List<Object>, Integer>();
 
-        selections.put(path, activityIdx);
-      } else if (activity instanceof ViewportActivity) {
-        SPath path = ((ViewportActivity) activity).getPath();
+      for (int i = 0; i < activities.size(); i++) {
+        final IActivity activity = activities.get(i);
 
-        Integer idx = viewports.get(path);
+        if (!(activity instanceof TextSelectionActivity || activity instanceof ViewportActivity))
+          continue;
 
-        if (idx != null) dropActivityIdx[idx] = true;
+        final Integer idx =
+            latest.put(
+                key(
+                    activity.getClass(),
+                    activity.getSource(),
+                    ((IResourceActivity) activity).getPath()),
+                i);
 
-        viewports.put(path, activityIdx);
+        if (idx != null) drop.set(idx);
       }
+    }
+  }
+
+  /**
+   * Drops progress updates that are superseded by a later update of the same progress. The first
+   * update of a run is always kept because the remote progress indicators treat the very first
+   * update of a progress differently. All updates except the first are dropped if the progress is
+   * done or canceled afterwards. Updates that carry a task name are never dropped.
+   */
+  static final class ProgressRule implements Rule {
+
+    @Override
+    public void apply(List<IActivity> activities, BitSet drop) {
+      // index of the last update of the current run, -1 if only the first update was seen
+      final Map<List<Object>, Integer> runs = new HashMap<List<Object>, Integer>();
+
+      for (int i = 0; i < activities.size(); i++) {
+        final IActivity activity = activities.get(i);
+
+        if (!(activity instanceof ProgressActivity)) continue;
+
+        final ProgressActivity progress = (ProgressActivity) activity;
+        final List<Object> key = key(progress.getProgressID(), progress.getTarget());
+        final ProgressAction action = progress.getAction();
+
+        if (action == ProgressAction.UPDATE && progress.getTaskName() == null) {
+          final Integer last = runs.put(key, runs.containsKey(key) ? i : -1);
+
+          if (last != null && last != -1) drop.set(last);
+
+          continue;
+        }
 
-      activityIdx++;
+        final Integer last = runs.remove(key);
+
+        if (last != null
+            && last != -1
+            && (action == ProgressAction.DONE || action == ProgressAction.CANCEL)) drop.set(last);
+      }
     }
+  }
+
+  /**
+   * Drops repeated editor activations of the same editor and repeated saves of the same file. An
+   * activation is only repeated if the user did not activate, close or save any other editor in
+   * between. A save is only repeated if the file was not changed in between. File system
+   * modifications reset both as they may delete or move files with open editors.
+   */
+  static final class EditorRule implements Rule {
 
-    activityIdx = 0;
+    @Override
+    public void apply(List<IActivity> activities, BitSet drop) {
+      final Map<User, SPath> activeEditors = new HashMap<User, SPath>();
+      final Set<List<Object>> savedFiles = new HashSet<List<Object>>();
 
-    for (IActivity activity : activities) if (!dropActivityIdx[activityIdx++]) result.add(activity);
+      for (int i = 0; i < activities.size(); i++) {
+        final IActivity activity = activities.get(i);
 
-    return result;
+        if (activity instanceof EditorActivity) {
+          final EditorActivity editorActivity = (EditorActivity) activity;
+          final User source = activity.getSource();
+          final SPath path = editorActivity.getPath();
+
+          if (editorActivity.getType() == Type.ACTIVATED) {
+            if (activeEditors.containsKey(source) && equals(activeEditors.get(source), path))
+              drop.set(i);
+            else activeEditors.put(source, path);
+
+            continue;
+          }
+
+          activeEditors.remove(source);
+
+          if (editorActivity.getType() == Type.SAVED) {
+            if (!savedFiles.add(key(source, path))) drop.set(i);
+
+            continue;
+          }
+        }
+
+        if (!(activity instanceof IResourceActivity)
+            || activity instanceof TextSelectionActivity
+            || activity instanceof ViewportActivity) continue;
+
+        // files may have been deleted or moved, so their editors may have been closed
+        if (activity instanceof IFileSystemModificationActivity) {
+          activeEditors.clear();
+          savedFiles.clear();
+          continue;
+        }
+
+        final SPath path = ((IResourceActivity) activity).getPath();
+
+        savedFiles.removeIf(saved -> equals(saved.get(1), path));
+      }
+    }
+
+    private static boolean equals(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+
+  /**
+   * Keeps only the latest follow mode change per user. Only the last change matters because a
+   * {@link StartFollowingActivity} replaces any previous follow mode state of the user and a {@link
+   * StopFollowingActivity} ends it.
+   */
+  static final class FollowRule implements Rule {
+
+    @Override
+    public void apply(List<IActivity> activities, BitSet drop) {
+      final Map<User, Integer> latest = new HashMap<User, Integer>();
+
+      for (int i = 0; i < activities.size(); i++) {
+        final IActivity activity = activities.get(i);
+
+        if (!(activity instanceof StartFollowingActivity
+            || activity instanceof StopFollowingActivity)) continue;
+
+        final Integer idx = latest.put(activity.getSource(), i);
+
+        if (idx != null) drop.set(idx);
+      }
+    }
+  }
+
+  /**
+   * Drops the creation of folders that were already created before. Every other file system
+   * modification resets the known folders as it may delete or move them.
+   */
+  static final class FolderCreatedRule implements Rule {
+
+    @Override
+    public void apply(List<IActivity> activities, BitSet drop) {
+      final Set<SPath> createdFolders = new HashSet<SPath>();
+
+      for (int i = 0; i < activities.size(); i++) {
+        final IActivity activity = activities.get(i);
+
+        if (activity instanceof FolderCreatedActivity) {
+          if (!createdFolders.add(((FolderCreatedActivity) activity).getPath())) drop.set(i);
+        } else if (activity instanceof IFileSystemModificationActivity) {
+          createdFolders.clear();
+        }
+      }
+    }
   }
 }
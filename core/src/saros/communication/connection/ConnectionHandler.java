@@ -56,8 +56,12 @@ public class ConnectionHandler {
         public void connectionStateChanged(Connection connection, ConnectionState state) {
 
           if (state == ConnectionState.CONNECTING) {
-            ServiceDiscoveryManager.getInstanceFor(connection)
-                .addFeature(SarosConstants.XMPP_FEATURE_NAMESPACE);
+            final ServiceDiscoveryManager discoveryManager =
+                ServiceDiscoveryManager.getInstanceFor(connection);
+
+            discoveryManager.addFeature(SarosConstants.XMPP_FEATURE_NAMESPACE);
+            discoveryManager.addFeature(SarosConstants.NAMESPACE_BINARY_ACTIVITIES);
+            discoveryManager.addFeature(SarosConstants.NAMESPACE_SEQUENCE_NUMBERS);
           }
 
           final Exception error =
@@ -217,7 +221,9 @@ public class ConnectionHandler {
 
       if (preferences.forceIBBTransport())
         connectionManager.setServices(IConnectionManager.IBB_SERVICE);
-      else connectionManager.setServices(/* use all */ -1);
+      else if (preferences.isDirectTCPTransportEnabled())
+        connectionManager.setServices(/* use all */ -1);
+      else connectionManager.setServices(~IConnectionManager.TCP_SERVICE);
 
       connectionService.connect(
           createConnectionConfiguration(domain, server, port, useTLS, useSASL), username, password);
@@ -0,0 +1,36 @@
+package saros.communication.extensions;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+
+/**
+ * Acknowledges the receipt of all sequenced activities up to (excluding) the given sequence number.
+ * The sender of the activities no longer has to keep them for a replay after the session connection
+ * was re-established.
+ */
+@XStreamAlias(/* ActivitiesAcknowledged */ "ADOSACK")
+public class ActivitiesAcknowledgedExtension extends SarosSessionPacketExtension {
+
+  public static final Provider PROVIDER = new Provider();
+
+  @XStreamAlias("nsn")
+  @XStreamAsAttribute
+  private final int nextSequenceNumber;
+
+  public ActivitiesAcknowledgedExtension(String sessionID, int nextSequenceNumber) {
+    super(sessionID);
+    this.nextSequenceNumber = nextSequenceNumber;
+  }
+
+  /** Returns the sequence number of the first activity that was not received yet. */
+  public int getNextSequenceNumber() {
+    return nextSequenceNumber;
+  }
+
+  public static class Provider
+      extends SarosSessionPacketExtension.Provider<ActivitiesAcknowledgedExtension> {
+    private Provider() {
+      super("adosack", ActivitiesAcknowledgedExtension.class);
+    }
+  }
+}
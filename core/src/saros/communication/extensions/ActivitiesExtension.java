@@ -58,6 +58,12 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
 
   public static final Provider PROVIDER = new Provider();
 
+  /**
+   * Sequence number of an extension whose sequence number is not part of the extension itself but
+   * transmitted alongside it, see {@link saros.net.IReceiver#SEQUENCE_NUMBER_PROPERTY}.
+   */
+  public static final int NO_SEQUENCE_NUMBER = -1;
+
   @XStreamImplicit private final List<IActivity> activities;
 
   @XStreamAlias("seq")
@@ -73,6 +79,7 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
    * @param activities the {@linkplain IActivity activities} that should be included in this
    *     extension
    * @param sequenceNumber the sequence number of the <b>first</b> {@linkplain IActivity activity}
+   *     or {@link #NO_SEQUENCE_NUMBER} if it is transmitted separately
    */
   public ActivitiesExtension(String sessionID, List<IActivity> activities, int sequenceNumber) {
     super(sessionID);
@@ -96,7 +103,7 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
    * <p>All other sequence numbers can be recalculated where the sequence number of the activity
    * from <code>getActivities().get(x)</code> is <code>getSequenceNumber() + x</code>.
    *
-   * @return
+   * @return the sequence number or {@link #NO_SEQUENCE_NUMBER} if it is transmitted separately
    */
   public int getSequenceNumber() {
     return sequenceNumber;
@@ -0,0 +1,119 @@
+package saros.communication.extensions;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.provider.ProviderManager;
+import saros.net.IBinaryPacketExtension;
+import saros.net.IBinaryPacketExtensionProvider;
+import saros.net.xmpp.JID;
+
+/**
+ * Packet extension that transmits an {@link ActivitiesExtension} in the binary form of the {@link
+ * BinaryActivityCodec}. The receiving side turns it back into an {@link ActivitiesExtension} so
+ * that receivers of activities do not have to care about the codec that was used.
+ */
+public final class BinaryActivitiesExtension implements IBinaryPacketExtension {
+
+  public static final String ELEMENT_NAME = "ados";
+
+  public static final String NAMESPACE = SarosPacketExtension.EXTENSION_NAMESPACE + ".binary";
+
+  public static final Provider PROVIDER = new Provider();
+
+  private final ActivitiesExtension extension;
+
+  private final byte[] data;
+
+  /** The users and paths the binary form refers to, see {@link BinaryActivityCodec#delivered}. */
+  private final BinaryActivityCodec.References references;
+
+  BinaryActivitiesExtension(
+      final ActivitiesExtension extension,
+      final byte[] data,
+      final BinaryActivityCodec.References references) {
+    this.extension = extension;
+    this.data = data;
+    this.references = references;
+  }
+
+  /** Returns the wrapped extension. */
+  public ActivitiesExtension getActivitiesExtension() {
+    return extension;
+  }
+
+  BinaryActivityCodec.References getReferences() {
+    return references;
+  }
+
+  @Override
+  public String getElementName() {
+    return ELEMENT_NAME;
+  }
+
+  @Override
+  public String getNamespace() {
+    return NAMESPACE;
+  }
+
+  /** Returns the binary form of the wrapped extension that was encoded on creation. */
+  @Override
+  public byte[] toByteArray() {
+    return data;
+  }
+
+  /**
+   * Returns the XML representation which contains the Base64 encoded binary form, see {@link
+   * IBinaryPacketExtension}.
+   */
+  @Override
+  public String toXML() {
+    return "<"
+        + ELEMENT_NAME
+        + " xmlns=\""
+        + NAMESPACE
+        + "\"><"
+        + DATA_ELEMENT_NAME
+        + ">"
+        + Base64.getEncoder().encodeToString(data)
+        + "</"
+        + DATA_ELEMENT_NAME
+        + "></"
+        + ELEMENT_NAME
+        + ">";
+  }
+
+  /**
+   * Parses binary activities extensions with the codec of the currently running session and returns
+   * them as {@linkplain ActivitiesExtension#PROVIDER XML packet extensions}.
+   */
+  public static final class Provider implements IBinaryPacketExtensionProvider {
+
+    private final AtomicReference<BinaryActivityCodec> currentCodec =
+        new AtomicReference<BinaryActivityCodec>();
+
+    private Provider() {
+      ProviderManager.getInstance().addExtensionProvider(ELEMENT_NAME, NAMESPACE, this);
+    }
+
+    void setCodec(final BinaryActivityCodec codec) {
+      currentCodec.set(codec);
+    }
+
+    void resetCodec(final BinaryActivityCodec codec) {
+      currentCodec.compareAndSet(codec, null);
+    }
+
+    @Override
+    public PacketExtension parseExtension(
+        final JID sender, final byte[] data, final int offset, final int length)
+        throws IOException {
+      final BinaryActivityCodec codec = currentCodec.get();
+
+      if (codec == null) throw new IOException("no session is running");
+
+      return ActivitiesExtension.PROVIDER.create(codec.decode(sender, data, offset, length));
+    }
+  }
+}
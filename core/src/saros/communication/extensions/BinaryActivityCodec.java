@@ -0,0 +1,818 @@
+package saros.communication.extensions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
+import saros.SarosConstants;
+import saros.activities.ChecksumActivity;
+import saros.activities.EditorActivity;
+import saros.activities.IActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.SPath;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+import saros.annotations.Component;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.Timestamp;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.SplitOperation;
+import saros.concurrent.jupiter.internal.text.TimestampOperation;
+import saros.filesystem.IPath;
+import saros.filesystem.IPathFactory;
+import saros.filesystem.IProject;
+import saros.net.xmpp.JID;
+import saros.net.xmpp.discovery.DiscoveryManager;
+import saros.repackaged.picocontainer.Startable;
+import saros.session.ISarosSession;
+import saros.session.User;
+
+/**
+ * Hand written binary codec for {@linkplain ActivitiesExtension activities extensions}. The
+ * activities that are created most often, i.e Jupiter activities, selections, viewports, checksums
+ * and editor activities, are encoded field by field. All other activities are embedded in their XML
+ * form.
+ *
+ * <p>Users and paths are interned in session scoped dictionaries. The first packet that refers to a
+ * user or path defines a small integer ID for it, all further packets only contain the ID. The
+ * definitions are tracked per recipient and sent again if a packet is addressed to a recipient that
+ * did not receive them yet, so a shared packet is decodable by all of its recipients. A recipient
+ * is only assumed to know the definitions of a packet once it was {@linkplain #delivered delivered}
+ * to it, so packets that are lost before do not leave the recipient with undefined IDs.
+ *
+ * <p>The codec is only used for recipients that advertise {@link
+ * SarosConstants#NAMESPACE_BINARY_ACTIVITIES} as a service discovery feature. It can be disabled by
+ * setting the system property <code>saros.session.BINARY_ACTIVITY_CODEC</code> to <code>false
+ * </code>.
+ */
+@Component
+public class BinaryActivityCodec implements Startable {
+
+  private static final Logger LOG = Logger.getLogger(BinaryActivityCodec.class);
+
+  private static final boolean ENABLED =
+      Boolean.parseBoolean(System.getProperty("saros.session.BINARY_ACTIVITY_CODEC", "true"));
+
+  private static final int FORMAT_VERSION = 2;
+
+  /** Maximum number of users and paths in a dictionary, larger sessions fall back to XML. */
+  private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+  private static final int XML_ACTIVITY = 0;
+  private static final int JUPITER_ACTIVITY = 1;
+  private static final int TEXT_SELECTION_ACTIVITY = 2;
+  private static final int VIEWPORT_ACTIVITY = 3;
+  private static final int CHECKSUM_ACTIVITY = 4;
+  private static final int EDITOR_ACTIVITY = 5;
+
+  private static final int NO_OPERATION = 0;
+  private static final int INSERT_OPERATION = 1;
+  private static final int DELETE_OPERATION = 2;
+  private static final int SPLIT_OPERATION = 3;
+  private static final int TIMESTAMP_OPERATION = 4;
+
+  /** Thrown if an activity cannot be encoded field by field and must be embedded as XML. */
+  private static class UnsupportedActivityException extends Exception {
+    private static final long serialVersionUID = 1L;
+  }
+
+  private final ISarosSession session;
+  private final IPathFactory pathFactory;
+  private final DiscoveryManager discoveryManager;
+
+  private final Set<JID> queriedRecipients =
+      Collections.newSetFromMap(new ConcurrentHashMap<JID, Boolean>());
+
+  private final OutgoingDictionary outgoing = new OutgoingDictionary();
+
+  private final Map<JID, IncomingDictionary> incoming =
+      new ConcurrentHashMap<JID, IncomingDictionary>();
+
+  /** The users and paths this side has assigned IDs to and which recipient knows which ID. */
+  private static final class OutgoingDictionary {
+    private final Map<JID, Integer> userIDs = new HashMap<JID, Integer>();
+    private final List<JID> users = new ArrayList<JID>();
+
+    private final Map<SPath, Integer> pathIDs = new HashMap<SPath, Integer>();
+    private final List<String> pathProjectIDs = new ArrayList<String>();
+    private final List<String> paths = new ArrayList<String>();
+
+    private final Map<JID, BitSet> definedUsers = new HashMap<JID, BitSet>();
+    private final Map<JID, BitSet> definedPaths = new HashMap<JID, BitSet>();
+  }
+
+  /** The users and paths a peer has defined for the activities it sends to this side. */
+  private static final class IncomingDictionary {
+    private final List<JID> userJIDs = new ArrayList<JID>();
+    private final List<User> users = new ArrayList<User>();
+
+    private final List<String> pathProjectIDs = new ArrayList<String>();
+    private final List<IPath> paths = new ArrayList<IPath>();
+    private final List<SPath> resolvedPaths = new ArrayList<SPath>();
+  }
+
+  /** The IDs of the users and paths that are referred to by encoded activities. */
+  static final class References {
+    private final BitSet users = new BitSet();
+    private final BitSet paths = new BitSet();
+
+    private void addAll(final References references) {
+      users.or(references.users);
+      paths.or(references.paths);
+    }
+  }
+
+  public BinaryActivityCodec(
+      ISarosSession session, IPathFactory pathFactory, DiscoveryManager discoveryManager) {
+    this.session = session;
+    this.pathFactory = pathFactory;
+    this.discoveryManager = discoveryManager;
+  }
+
+  @Override
+  public void start() {
+    BinaryActivitiesExtension.PROVIDER.setCodec(this);
+  }
+
+  @Override
+  public void stop() {
+    BinaryActivitiesExtension.PROVIDER.resetCodec(this);
+  }
+
+  /**
+   * Checks if activities can be sent to the given recipient in binary form. If the features of the
+   * recipient are not known yet they are queried in the background and the activities are sent as
+   * XML meanwhile.
+   *
+   * <p>This method does <b>not</b> perform any I/O operation and will return immediately.
+   *
+   * @param recipient the recipient of the activities
+   * @return <code>true</code> if the recipient supports the binary codec
+   */
+  public boolean isSupportedBy(final JID recipient) {
+    if (!ENABLED) return false;
+
+    final Boolean supported =
+        discoveryManager.isFeatureSupported(recipient, SarosConstants.NAMESPACE_BINARY_ACTIVITIES);
+
+    if (supported == null && queriedRecipients.add(recipient))
+      discoveryManager.queryFeatureSupport(
+          recipient, SarosConstants.NAMESPACE_BINARY_ACTIVITIES, true);
+
+    return Boolean.TRUE.equals(supported);
+  }
+
+  /**
+   * Encodes the given extension for the given recipients and wraps the result so that it can be
+   * sent to them. The recipients <b>must</b> receive the extensions in the order they were created
+   * by this method.
+   *
+   * @param extension the extension to wrap
+   * @param recipients the recipients of the extension
+   * @return a binary packet extension containing the given extension
+   */
+  public BinaryActivitiesExtension create(
+      final ActivitiesExtension extension, final Collection<JID> recipients) {
+    final References references = new References();
+
+    return new BinaryActivitiesExtension(
+        extension, encode(extension, recipients, references), references);
+  }
+
+  /**
+   * Marks the users and paths the given extension refers to as known by the given recipient, so
+   * that extensions which are created afterwards no longer contain their definitions. Must be
+   * called once the extension was sent to the recipient. Extensions that are never delivered leave
+   * the dictionary state of the recipient untouched.
+   *
+   * @param extension an extension that was created by {@link #create}
+   * @param recipient the recipient the extension was sent to
+   */
+  public void delivered(final BinaryActivitiesExtension extension, final JID recipient) {
+    synchronized (outgoing) {
+      final References references = extension.getReferences();
+
+      outgoing.definedUsers.computeIfAbsent(recipient, jid -> new BitSet()).or(references.users);
+      outgoing.definedPaths.computeIfAbsent(recipient, jid -> new BitSet()).or(references.paths);
+    }
+  }
+
+  /**
+   * Discards the dictionary state that is shared with the given peer. Must be called when the peer
+   * leaves the session.
+   *
+   * @param jid the JID of the peer
+   */
+  public void reset(final JID jid) {
+    synchronized (outgoing) {
+      outgoing.definedUsers.remove(jid);
+      outgoing.definedPaths.remove(jid);
+    }
+
+    incoming.remove(jid);
+  }
+
+  /**
+   * Encodes the given extension for the given recipients. The dictionary definitions that are not
+   * known by all of the recipients yet are included.
+   *
+   * @param extension the extension to encode
+   * @param recipients the recipients of the encoded extension
+   * @return the binary form of the extension
+   */
+  public byte[] encode(final ActivitiesExtension extension, final Collection<JID> recipients) {
+    return encode(extension, recipients, new References());
+  }
+
+  private byte[] encode(
+      final ActivitiesExtension extension,
+      final Collection<JID> recipients,
+      final References references) {
+    final ByteArrayOutputStream data = new ByteArrayOutputStream(256);
+    final DataOutputStream out = new DataOutputStream(data);
+
+    synchronized (outgoing) {
+      try {
+        final List<IActivity> activities = extension.getActivities();
+
+        final ByteArrayOutputStream activitiesData = new ByteArrayOutputStream(256);
+
+        for (final IActivity activity : activities) {
+          final ByteArrayOutputStream activityData = new ByteArrayOutputStream(64);
+          final References activityReferences = new References();
+
+          try {
+            writeActivity(new DataOutputStream(activityData), activity, activityReferences);
+            references.addAll(activityReferences);
+          } catch (UnsupportedActivityException e) {
+            activityData.reset();
+
+            final DataOutputStream activityOut = new DataOutputStream(activityData);
+            activityOut.writeByte(XML_ACTIVITY);
+            writeString(activityOut, toXML(extension.getSessionID(), activity));
+          }
+
+          activityData.writeTo(activitiesData);
+        }
+
+        out.writeByte(FORMAT_VERSION);
+        writeString(out, extension.getSessionID());
+        writeVarInt(out, extension.getSequenceNumber());
+
+        writeDefinitions(out, references, recipients);
+
+        writeVarInt(out, activities.size());
+        activitiesData.writeTo(out);
+
+        out.flush();
+      } catch (IOException e) {
+        // cannot happen as all data is written to memory
+        throw new IllegalStateException(e);
+      }
+    }
+
+    return data.toByteArray();
+  }
+
+  /**
+   * Decodes an extension that was encoded by {@link #encode} and sent by the given peer.
+   *
+   * @param sender the peer that sent the extension
+   * @param data the binary form of the extension
+   * @return the decoded extension
+   * @throws IOException if the data is malformed
+   */
+  public ActivitiesExtension decode(final JID sender, final byte[] data) throws IOException {
+    return decode(sender, data, 0, data.length);
+  }
+
+  /**
+   * Decodes an extension that was encoded by {@link #encode} and sent by the given peer.
+   *
+   * @param sender the peer that sent the extension
+   * @param data the buffer that contains the binary form of the extension
+   * @param offset the offset of the binary form in the buffer
+   * @param length the length of the binary form
+   * @return the decoded extension
+   * @throws IOException if the data is malformed
+   */
+  public ActivitiesExtension decode(
+      final JID sender, final byte[] data, final int offset, final int length) throws IOException {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+
+    final int version = in.readUnsignedByte();
+
+    if (version != FORMAT_VERSION)
+      throw new IOException("unsupported binary activity format version: " + version);
+
+    final String sessionID = readString(in);
+    final int sequenceNumber = readVarInt(in);
+
+    final IncomingDictionary dictionary =
+        incoming.computeIfAbsent(sender, jid -> new IncomingDictionary());
+
+    synchronized (dictionary) {
+      readDefinitions(in, dictionary);
+
+      final int count = readVarInt(in);
+
+      if (count < 0) throw new IOException("invalid number of activities: " + count);
+
+      final List<IActivity> activities = new ArrayList<IActivity>(Math.min(count, 1024));
+
+      try {
+        for (int i = 0; i < count; i++) activities.add(readActivity(in, dictionary));
+      } catch (IllegalArgumentException e) {
+        throw new IOException("invalid activity: " + e.getMessage(), e);
+      }
+
+      return new ActivitiesExtension(sessionID, activities, sequenceNumber);
+    }
+  }
+
+  /**
+   * Writes the definitions of all referenced users and paths that are not known by at least one of
+   * the recipients.
+   */
+  private void writeDefinitions(
+      final DataOutputStream out, final References references, final Collection<JID> recipients)
+      throws IOException {
+
+    final BitSet users = undefined(references.users, outgoing.definedUsers, recipients);
+    final BitSet paths = undefined(references.paths, outgoing.definedPaths, recipients);
+
+    writeVarInt(out, users.cardinality());
+
+    for (int id = users.nextSetBit(0); id >= 0; id = users.nextSetBit(id + 1)) {
+      writeVarInt(out, id);
+      writeString(out, outgoing.users.get(id).toString());
+    }
+
+    writeVarInt(out, paths.cardinality());
+
+    for (int id = paths.nextSetBit(0); id >= 0; id = paths.nextSetBit(id + 1)) {
+      writeVarInt(out, id);
+      writeString(out, outgoing.pathProjectIDs.get(id));
+      writeString(out, outgoing.paths.get(id));
+    }
+  }
+
+  /** Returns the referenced IDs that are not known by at least one of the recipients. */
+  private static BitSet undefined(
+      final BitSet referenced, final Map<JID, BitSet> defined, final Collection<JID> recipients) {
+
+    final BitSet result = new BitSet();
+
+    for (final JID recipient : recipients) {
+      final BitSet unknown = (BitSet) referenced.clone();
+      final BitSet known = defined.get(recipient);
+
+      if (known != null) unknown.andNot(known);
+
+      result.or(unknown);
+    }
+
+    return result;
+  }
+
+  private void readDefinitions(final DataInputStream in, final IncomingDictionary dictionary)
+      throws IOException {
+
+    for (int i = 0, count = readVarInt(in); i < count; i++) {
+      final int id = readDictionaryID(in);
+      final JID jid = new JID(readString(in));
+
+      set(dictionary.userJIDs, id, jid);
+      set(dictionary.users, id, null);
+    }
+
+    for (int i = 0, count = readVarInt(in); i < count; i++) {
+      final int id = readDictionaryID(in);
+      final String projectID = readString(in);
+      final String path = readString(in);
+
+      try {
+        set(dictionary.paths, id, pathFactory.fromString(path));
+      } catch (IllegalArgumentException e) {
+        throw new IOException("invalid path: " + path, e);
+      }
+
+      set(dictionary.pathProjectIDs, id, projectID);
+      set(dictionary.resolvedPaths, id, null);
+    }
+  }
+
+  private static <T> void set(final List<T> list, final int index, final T value) {
+    while (list.size() <= index) list.add(null);
+
+    list.set(index, value);
+  }
+
+  private static int readDictionaryID(final DataInputStream in) throws IOException {
+    final int id = readVarInt(in);
+
+    if (id < 0 || id >= MAX_DICTIONARY_SIZE) throw new IOException("invalid dictionary id: " + id);
+
+    return id;
+  }
+
+  private void writeActivity(
+      final DataOutputStream out, final IActivity activity, final References references)
+      throws IOException, UnsupportedActivityException {
+
+    if (activity instanceof JupiterActivity) {
+      final JupiterActivity jupiterActivity = (JupiterActivity) activity;
+
+      out.writeByte(JUPITER_ACTIVITY);
+      writeUser(out, activity.getSource(), references);
+      writePath(out, jupiterActivity.getPath(), references);
+      writeTimestamp(out, jupiterActivity.getTimestamp());
+      writeOperation(out, jupiterActivity.getOperation());
+
+    } else if (activity instanceof TextSelectionActivity) {
+      final TextSelectionActivity selection = (TextSelectionActivity) activity;
+
+      out.writeByte(TEXT_SELECTION_ACTIVITY);
+      writeUser(out, activity.getSource(), references);
+      writePath(out, selection.getPath(), references);
+      writeVarInt(out, selection.getOffset());
+      writeVarInt(out, selection.getLength());
+
+    } else if (activity instanceof ViewportActivity) {
+      final ViewportActivity viewport = (ViewportActivity) activity;
+
+      out.writeByte(VIEWPORT_ACTIVITY);
+      writeUser(out, activity.getSource(), references);
+      writePath(out, viewport.getPath(), references);
+      writeVarInt(out, viewport.getStartLine());
+      writeVarInt(out, viewport.getNumberOfLines());
+
+    } else if (activity instanceof ChecksumActivity) {
+      final ChecksumActivity checksum = (ChecksumActivity) activity;
+
+      out.writeByte(CHECKSUM_ACTIVITY);
+      writeUser(out, activity.getSource(), references);
+      writePath(out, checksum.getPath(), references);
+      out.writeLong(checksum.getHash());
+      out.writeLong(checksum.getLength());
+      out.writeBoolean(checksum.getTimestamp() != null);
+
+      if (checksum.getTimestamp() != null) writeTimestamp(out, checksum.getTimestamp());
+
+    } else if (activity instanceof EditorActivity) {
+      final EditorActivity editorActivity = (EditorActivity) activity;
+
+      out.writeByte(EDITOR_ACTIVITY);
+      writeUser(out, activity.getSource(), references);
+      writeVarInt(out, editorActivity.getType().ordinal());
+      out.writeBoolean(editorActivity.getPath() != null);
+
+      if (editorActivity.getPath() != null) writePath(out, editorActivity.getPath(), references);
+
+    } else {
+      throw new UnsupportedActivityException();
+    }
+  }
+
+  private IActivity readActivity(final DataInputStream in, final IncomingDictionary dictionary)
+      throws IOException {
+    final int type = in.readUnsignedByte();
+
+    switch (type) {
+      case XML_ACTIVITY:
+        return fromXML(readString(in));
+
+      case JUPITER_ACTIVITY:
+        {
+          final User source = readUser(in, dictionary);
+          final SPath path = readPath(in, dictionary);
+          final Timestamp timestamp = readTimestamp(in);
+
+          return new JupiterActivity(timestamp, readOperation(in), source, path);
+        }
+
+      case TEXT_SELECTION_ACTIVITY:
+        {
+          final User source = readUser(in, dictionary);
+          final SPath path = readPath(in, dictionary);
+          final int offset = readVarInt(in);
+
+          return new TextSelectionActivity(source, offset, readVarInt(in), path);
+        }
+
+      case VIEWPORT_ACTIVITY:
+        {
+          final User source = readUser(in, dictionary);
+          final SPath path = readPath(in, dictionary);
+          final int startLine = readVarInt(in);
+
+          return new ViewportActivity(source, startLine, readVarInt(in), path);
+        }
+
+      case CHECKSUM_ACTIVITY:
+        {
+          final User source = readUser(in, dictionary);
+          final SPath path = readPath(in, dictionary);
+          final long hash = in.readLong();
+          final long length = in.readLong();
+          final Timestamp timestamp = in.readBoolean() ? readTimestamp(in) : null;
+
+          return new ChecksumActivity(source, path, hash, length, timestamp);
+        }
+
+      case EDITOR_ACTIVITY:
+        {
+          final User source = readUser(in, dictionary);
+          final EditorActivity.Type[] types = EditorActivity.Type.values();
+          final int editorType = readVarInt(in);
+
+          if (editorType < 0 || editorType >= types.length)
+            throw new IOException("invalid editor activity type: " + editorType);
+
+          final SPath path = in.readBoolean() ? readPath(in, dictionary) : null;
+
+          return new EditorActivity(source, types[editorType], path);
+        }
+
+      default:
+        throw new IOException("invalid activity type: " + type);
+    }
+  }
+
+  private void writeOperation(final DataOutputStream out, final Operation operation)
+      throws IOException, UnsupportedActivityException {
+
+    if (operation instanceof InsertOperation) {
+      final InsertOperation insert = (InsertOperation) operation;
+
+      out.writeByte(INSERT_OPERATION);
+      writeVarInt(out, insert.getPosition());
+      writeVarInt(out, insert.getOrigin());
+      writeString(out, insert.getText());
+
+    } else if (operation instanceof DeleteOperation) {
+      final DeleteOperation delete = (DeleteOperation) operation;
+
+      out.writeByte(DELETE_OPERATION);
+      writeVarInt(out, delete.getPosition());
+      writeString(out, delete.getText());
+
+    } else if (operation instanceof SplitOperation) {
+      final SplitOperation split = (SplitOperation) operation;
+
+      out.writeByte(SPLIT_OPERATION);
+      writeOperation(out, split.getFirst());
+      writeOperation(out, split.getSecond());
+
+    } else if (operation instanceof NoOperation) {
+      out.writeByte(NO_OPERATION);
+
+    } else if (operation instanceof TimestampOperation) {
+      out.writeByte(TIMESTAMP_OPERATION);
+
+    } else {
+      throw new UnsupportedActivityException();
+    }
+  }
+
+  private Operation readOperation(final DataInputStream in) throws IOException {
+    final int type = in.readUnsignedByte();
+
+    try {
+      switch (type) {
+        case INSERT_OPERATION:
+          {
+            final int position = readVarInt(in);
+            final int origin = readVarInt(in);
+
+            return new InsertOperation(position, readString(in), origin);
+          }
+
+        case DELETE_OPERATION:
+          {
+            final int position = readVarInt(in);
+
+            return new DeleteOperation(position, readString(in));
+          }
+
+        case SPLIT_OPERATION:
+          {
+            final Operation first = readOperation(in);
+
+            return new SplitOperation(first, readOperation(in));
+          }
+
+        case NO_OPERATION:
+          return new NoOperation();
+
+        case TIMESTAMP_OPERATION:
+          return new TimestampOperation();
+
+        default:
+          throw new IOException("invalid operation type: " + type);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new IOException("invalid operation: " + e.getMessage(), e);
+    }
+  }
+
+  private static void writeTimestamp(final DataOutputStream out, final Timestamp timestamp)
+      throws IOException, UnsupportedActivityException {
+
+    if (!(timestamp instanceof JupiterVectorTime)) throw new UnsupportedActivityException();
+
+    final JupiterVectorTime vectorTime = (JupiterVectorTime) timestamp;
+
+    writeVarInt(out, vectorTime.getLocalOperationCount());
+    writeVarInt(out, vectorTime.getRemoteOperationCount());
+  }
+
+  private static Timestamp readTimestamp(final DataInputStream in) throws IOException {
+    final int localOperationCount = readVarInt(in);
+    final int remoteOperationCount = readVarInt(in);
+
+    try {
+      return new JupiterVectorTime(localOperationCount, remoteOperationCount);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("invalid timestamp: " + e.getMessage(), e);
+    }
+  }
+
+  private void writeUser(final DataOutputStream out, final User user, final References references)
+      throws IOException, UnsupportedActivityException {
+
+    final JID jid = user.getJID();
+
+    Integer id = outgoing.userIDs.get(jid);
+
+    if (id == null) {
+      if (outgoing.users.size() >= MAX_DICTIONARY_SIZE) throw new UnsupportedActivityException();
+
+      id = outgoing.users.size();
+      outgoing.userIDs.put(jid, id);
+      outgoing.users.add(jid);
+    }
+
+    references.users.set(id);
+    writeVarInt(out, id);
+  }
+
+  /**
+   * Reads a user of the session. Activities of users that are unknown, e.g because they already
+   * left the session, get a user that is not part of the session so that these activities are
+   * dropped as usual.
+   */
+  private User readUser(final DataInputStream in, final IncomingDictionary dictionary)
+      throws IOException {
+
+    final int id = readVarInt(in);
+
+    final JID jid = id >= 0 && id < dictionary.userJIDs.size() ? dictionary.userJIDs.get(id) : null;
+
+    if (jid == null) throw new IOException("undefined user id: " + id);
+
+    final User cached = dictionary.users.get(id);
+
+    // users that left the session will never be part of it again
+    if (cached != null && cached.isInSession()) return cached;
+
+    final User user = session.getUser(jid);
+
+    if (user == null) return new User(jid, false, false, null);
+
+    dictionary.users.set(id, user);
+
+    return user;
+  }
+
+  private void writePath(final DataOutputStream out, final SPath path, final References references)
+      throws IOException, UnsupportedActivityException {
+
+    Integer id = outgoing.pathIDs.get(path);
+
+    if (id == null) {
+      final String projectID = session.getProjectID(path.getProject());
+
+      // let the XML marshalling report the error
+      if (projectID == null || outgoing.paths.size() >= MAX_DICTIONARY_SIZE)
+        throw new UnsupportedActivityException();
+
+      id = outgoing.paths.size();
+      outgoing.pathIDs.put(path, id);
+      outgoing.pathProjectIDs.add(projectID);
+      outgoing.paths.add(pathFactory.fromPath(path.getProjectRelativePath()));
+    }
+
+    references.paths.set(id);
+    writeVarInt(out, id);
+  }
+
+  private SPath readPath(final DataInputStream in, final IncomingDictionary dictionary)
+      throws IOException {
+
+    final int id = readVarInt(in);
+
+    final IPath path = id >= 0 && id < dictionary.paths.size() ? dictionary.paths.get(id) : null;
+
+    if (path == null) throw new IOException("undefined path id: " + id);
+
+    final String projectID = dictionary.pathProjectIDs.get(id);
+    final IProject project = session.getProject(projectID);
+
+    if (project == null) {
+      LOG.error(
+          "Could not create SPath because there is no shared project for id '" + projectID + "'");
+      return null;
+    }
+
+    final SPath cached = dictionary.resolvedPaths.get(id);
+
+    if (cached != null && cached.getProject().equals(project)) return cached;
+
+    final SPath resolved = new SPath(project, path);
+
+    dictionary.resolvedPaths.set(id, resolved);
+
+    return resolved;
+  }
+
+  private static String toXML(final String sessionID, final IActivity activity) {
+    return ActivitiesExtension.PROVIDER
+        .create(
+            new ActivitiesExtension(
+                sessionID,
+                Collections.singletonList(activity),
+                ActivitiesExtension.NO_SEQUENCE_NUMBER))
+        .toXML();
+  }
+
+  private static IActivity fromXML(final String xml) throws IOException {
+    final ActivitiesExtension extension = ActivitiesExtension.PROVIDER.parseString(xml);
+
+    if (extension == null || extension.getActivities().size() != 1)
+      throw new IOException("invalid embedded activity: " + xml);
+
+    return extension.getActivities().get(0);
+  }
+
+  private static void writeString(final DataOutputStream out, final String value)
+      throws IOException {
+    final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+
+    writeVarInt(out, data.length);
+    out.write(data);
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final int length = readVarInt(in);
+
+    if (length < 0 || length > in.available())
+      throw new IOException("invalid string length: " + length);
+
+    final byte[] data = new byte[length];
+    in.readFully(data);
+
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  /** Writes a zigzag encoded variable length integer, small absolute values need fewer bytes. */
+  private static void writeVarInt(final DataOutputStream out, final int value) throws IOException {
+    int bits = (value << 1) ^ (value >> 31);
+
+    while ((bits & ~0x7F) != 0) {
+      out.writeByte((bits & 0x7F) | 0x80);
+      bits >>>= 7;
+    }
+
+    out.writeByte(bits);
+  }
+
+  private static int readVarInt(final DataInputStream in) throws IOException {
+    int bits = 0;
+
+    for (int shift = 0; shift < 32; shift += 7) {
+      final int b = in.readUnsignedByte();
+
+      bits |= (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) return (bits >>> 1) ^ -(bits & 1);
+    }
+
+    throw new IOException("malformed variable length integer");
+  }
+}
@@ -2,9 +2,9 @@ package saros.communication.extensions;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
-import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.packet.Packet;
+import saros.net.ExtensionPacketFilter;
 
 public abstract class InvitationExtension extends SarosPacketExtension {
 
@@ -27,20 +27,20 @@ public abstract class InvitationExtension extends SarosPacketExtension {
       super(elementName, classes);
     }
 
-    public PacketFilter getPacketFilter(final String invitationID) {
+    public ExtensionPacketFilter getPacketFilter(final String invitationID) {
 
-      return new AndFilter(
-          super.getPacketFilter(),
-          new PacketFilter() {
-            @Override
-            public boolean accept(Packet packet) {
-              InvitationExtension extension = getPayload(packet);
+      return super.getPacketFilter()
+          .and(
+              new PacketFilter() {
+                @Override
+                public boolean accept(Packet packet) {
+                  InvitationExtension extension = getPayload(packet);
 
-              if (extension == null) return false;
+                  if (extension == null) return false;
 
-              return invitationID.equals(extension.getNegotiationID());
-            }
-          });
+                  return invitationID.equals(extension.getNegotiationID());
+                }
+              });
     }
   }
 }
@@ -0,0 +1,82 @@
+package saros.communication.extensions;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import java.util.ArrayList;
+import java.util.List;
+import saros.misc.xstream.XStreamExtensionProvider;
+
+/**
+ * Packet containing the addresses a peer accepts direct TCP connections on. It is sent as the
+ * result of a request for a specific connection and carries a one-time token the connecting side
+ * has to present after the TCP connection is established.
+ *
+ * <p>The request contains the connection ID and the addresses of the requesting host, so that the
+ * peer can tell whether both run on the same host. A response without any address indicates that
+ * the peer does not accept direct TCP connections.
+ */
+@XStreamAlias(/* TCPAddressExchangeExtension */ "TCPAEX")
+public class TCPAddressExchangeExtension {
+
+  public static final Provider PROVIDER = new Provider();
+
+  @XStreamAlias("id")
+  @XStreamAsAttribute
+  private final String connectionID;
+
+  @XStreamAlias("token")
+  @XStreamAsAttribute
+  private String token;
+
+  @XStreamAlias("port")
+  @XStreamAsAttribute
+  private int port;
+
+  @XStreamAlias("addresses")
+  private List<String> addresses;
+
+  public TCPAddressExchangeExtension(final String connectionID) {
+    this.connectionID = connectionID;
+  }
+
+  public TCPAddressExchangeExtension(final String connectionID, final List<String> addresses) {
+    this.connectionID = connectionID;
+    this.addresses = new ArrayList<String>(addresses);
+  }
+
+  public TCPAddressExchangeExtension(
+      final String connectionID, final String token, final int port, final List<String> addresses) {
+    this.connectionID = connectionID;
+    this.token = token;
+    this.port = port;
+    this.addresses = new ArrayList<String>(addresses);
+  }
+
+  public String getConnectionID() {
+    return connectionID;
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Returns the host addresses.
+   *
+   * @return the host addresses, never <code>null</code>
+   */
+  public List<String> getAddresses() {
+    return addresses == null ? new ArrayList<String>() : addresses;
+  }
+
+  public static class Provider extends XStreamExtensionProvider<TCPAddressExchangeExtension> {
+
+    private Provider() {
+      super(SarosPacketExtension.EXTENSION_NAMESPACE, "tcpaex", TCPAddressExchangeExtension.class);
+    }
+  }
+}
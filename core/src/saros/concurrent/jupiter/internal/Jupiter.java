@@ -20,9 +20,6 @@
  */
 package saros.concurrent.jupiter.internal;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import org.apache.log4j.Logger;
@@ -34,8 +31,9 @@ import saros.concurrent.jupiter.InclusionTransformation;
 import saros.concurrent.jupiter.Operation;
 import saros.concurrent.jupiter.Timestamp;
 import saros.concurrent.jupiter.TransformationException;
-import saros.concurrent.jupiter.internal.text.GOTOInclusionTransformation;
 import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.OperationNormalizer;
+import saros.concurrent.jupiter.internal.text.TableGOTOInclusionTransformation;
 import saros.concurrent.jupiter.internal.text.TimestampOperation;
 import saros.session.User;
 
@@ -47,8 +45,18 @@ public class Jupiter implements Algorithm {
   /** The inclusion transformation function used to transform operations. */
   protected InclusionTransformation inclusion;
 
-  /** The vector time, representing the number of processed JupiterActivities, of this algorithm. */
-  protected JupiterVectorTime vectorTime;
+  /**
+   * The local component of the vector time of this algorithm: the number of JupiterActivities
+   * generated by this site. The counters are kept as primitives so that processing an activity does
+   * not allocate a new {@link JupiterVectorTime}.
+   */
+  protected int localOperationCount;
+
+  /**
+   * The remote component of the vector time of this algorithm: the number of JupiterActivities
+   * received from the other site.
+   */
+  protected int remoteOperationCount;
 
   /**
    * Flag indicating whether this algorithm is used on the client-side. In some situations, the
@@ -57,11 +65,10 @@ public class Jupiter implements Algorithm {
   protected final boolean isClientSide;
 
   /**
-   * A list that contains the JupiterActivities sent to the server which are to be acknowledged by
-   * the server before they can be removed. This list corresponds to the 'outgoing' list in the
-   * Jupiter pseudo code description.
+   * The operations sent to the server which are to be acknowledged by the server before they can be
+   * removed. This corresponds to the 'outgoing' list in the Jupiter pseudo code description.
    */
-  protected final List<OperationWrapper> ackJupiterActivityList;
+  private final OutstandingOperations ackJupiterActivityList;
 
   /**
    * Class constructor that creates a new Jupiter algorithm.
@@ -69,24 +76,22 @@ public class Jupiter implements Algorithm {
    * @param isClientSide true if the algorithm resides on the client side
    */
   public Jupiter(boolean isClientSide) {
-    this.inclusion = new GOTOInclusionTransformation();
-    this.vectorTime = new JupiterVectorTime(0, 0);
+    this.inclusion = new TableGOTOInclusionTransformation();
     this.isClientSide = isClientSide;
-    this.ackJupiterActivityList = new ArrayList<OperationWrapper>();
+    this.ackJupiterActivityList = new OutstandingOperations();
   }
 
   @Override
   public JupiterActivity generateJupiterActivity(Operation op, User source, SPath editor) {
 
     // send(op, myMsgs, otherMsgs);
-    JupiterActivity jupiterActivity = new JupiterActivity(this.vectorTime, op, source, editor);
+    JupiterActivity jupiterActivity = new JupiterActivity(getVectorTime(), op, source, editor);
 
     // add(op, myMsgs) to outgoing;
-    this.ackJupiterActivityList.add(
-        new OperationWrapper(op, this.vectorTime.getLocalOperationCount()));
+    this.ackJupiterActivityList.add(op, this.localOperationCount);
 
     // myMsgs = myMsgs + 1;
-    this.vectorTime = this.vectorTime.incrementLocalOperationCount();
+    this.localOperationCount++;
 
     return jupiterActivity;
   }
@@ -104,7 +109,7 @@ public class Jupiter implements Algorithm {
    */
   public boolean isCurrent(Timestamp timestamp) throws TransformationException {
 
-    int localOperationCount = this.vectorTime.getLocalOperationCount();
+    int localOperationCount = this.localOperationCount;
     if (timestamp == null) {
       /**
        * If this timestamp is null, this means it was sent to us while we still had {@link
@@ -159,7 +164,7 @@ public class Jupiter implements Algorithm {
     discardAcknowledgedOperations((JupiterVectorTime) timestamp);
 
     Operation newOp = transform(jupiterActivity.getOperation());
-    this.vectorTime = this.vectorTime.incrementRemoteOperationCount();
+    this.remoteOperationCount++;
     return newOp;
   }
 
@@ -175,8 +180,7 @@ public class Jupiter implements Algorithm {
     int[] result = new int[indices.length];
     System.arraycopy(indices, 0, result, 0, indices.length);
     for (int i = 0; i < this.ackJupiterActivityList.size(); i++) {
-      OperationWrapper wrap = this.ackJupiterActivityList.get(i);
-      Operation ack = wrap.getOperation();
+      Operation ack = this.ackJupiterActivityList.getOperation(i);
       for (int k = 0; k < indices.length; k++) {
         result[k] = transformIndex(result[k], ack);
       }
@@ -205,21 +209,16 @@ public class Jupiter implements Algorithm {
    * @param time the remote JupiterVectorTime
    */
   protected void discardAcknowledgedOperations(JupiterVectorTime time) {
-    Iterator<OperationWrapper> iter = this.ackJupiterActivityList.iterator();
-    while (iter.hasNext()) {
-      OperationWrapper wrap = iter.next();
-      if (wrap.getLocalOperationCount() < time.getRemoteOperationCount()) {
-        iter.remove();
-      }
-    }
+    this.ackJupiterActivityList.discardAcknowledged(time.getRemoteOperationCount());
     // ASSERT msg.myMsgs == otherMsgs
-    assert time.getLocalOperationCount() == this.vectorTime.getRemoteOperationCount()
+    assert time.getLocalOperationCount() == this.remoteOperationCount
         : "msg.myMsgs != otherMsgs !!";
   }
 
   /**
    * Transforms an operation with the operations in the outgoing queue {@link
-   * #ackJupiterActivityList}.
+   * #ackJupiterActivityList}. The operations in the queue are replaced by their transformed
+   * versions. All transformed operations are normalized by the {@link OperationNormalizer}.
    *
    * @param newOp the operation to be transformed
    * @return the transformed operation
@@ -229,8 +228,7 @@ public class Jupiter implements Algorithm {
     for (int ackJupiterActivityListCnt = 0;
         ackJupiterActivityListCnt < this.ackJupiterActivityList.size();
         ackJupiterActivityListCnt++) {
-      OperationWrapper wrap = this.ackJupiterActivityList.get(ackJupiterActivityListCnt);
-      Operation existingOp = wrap.getOperation();
+      Operation existingOp = this.ackJupiterActivityList.getOperation(ackJupiterActivityListCnt);
 
       Operation transformedOp;
 
@@ -241,11 +239,14 @@ public class Jupiter implements Algorithm {
         transformedOp = this.inclusion.transform(newOp, existingOp, Boolean.FALSE);
         existingOp = this.inclusion.transform(existingOp, newOp, Boolean.TRUE);
       }
-      this.ackJupiterActivityList.set(
-          ackJupiterActivityListCnt,
-          new OperationWrapper(existingOp, wrap.getLocalOperationCount()));
+      /*
+       * normalize both results, otherwise split operations keep growing with
+       * every further transformation
+       */
+      this.ackJupiterActivityList.setOperation(
+          ackJupiterActivityListCnt, OperationNormalizer.normalize(existingOp));
 
-      newOp = transformedOp;
+      newOp = OperationNormalizer.normalize(transformedOp);
     }
     return newOp;
   }
@@ -259,53 +260,17 @@ public class Jupiter implements Algorithm {
   protected void checkPreconditions(JupiterVectorTime time) throws TransformationException {
     if (!this.ackJupiterActivityList.isEmpty()
         && (time.getRemoteOperationCount()
-            < this.ackJupiterActivityList.get(0).getLocalOperationCount())) {
+            < this.ackJupiterActivityList.getLocalOperationCount(0))) {
       throw new TransformationException("Precondition #1 violated.");
-    } else if (time.getRemoteOperationCount() > this.vectorTime.getLocalOperationCount()) {
+    } else if (time.getRemoteOperationCount() > this.localOperationCount) {
       throw new TransformationException(
           "precondition #2 violated (Remote vector time is greater than local vector time).");
-    } else if (time.getLocalOperationCount() != this.vectorTime.getRemoteOperationCount()) {
+    } else if (time.getLocalOperationCount() != this.remoteOperationCount) {
       throw new TransformationException(
           "Precondition #3 violated (Vector time does not match): "
               + time
               + " , "
-              + this.vectorTime);
-    }
-  }
-
-  /**
-   * This is a simple helper class used in the implementation of the Jupiter algorithm. A
-   * OperationWrapper instance is created with an operation and the current local operation count
-   * and inserted into the outgoing queue (see {@link Jupiter#ackJupiterActivityList}).
-   *
-   * @valueObject Instances of this class should be treated as value objects and should be treated
-   *     as immutable.
-   * @see Jupiter#generateJupiterActivity(Operation, User, SPath)
-   * @see Jupiter#receiveJupiterActivity(JupiterActivity)
-   */
-  protected static class OperationWrapper {
-
-    protected final Operation op;
-
-    protected final int count;
-
-    OperationWrapper(Operation op, int count) {
-      this.op = op;
-      this.count = count;
-    }
-
-    Operation getOperation() {
-      return this.op;
-    }
-
-    int getLocalOperationCount() {
-      return this.count;
-    }
-
-    /** {@inheritDoc} */
-    @Override
-    public String toString() {
-      return ("OperationWrapper(" + this.op + ", " + this.count + ")");
+              + getVectorTime());
     }
   }
 
@@ -329,7 +294,12 @@ public class Jupiter implements Algorithm {
 
   @Override
   public synchronized Timestamp getTimestamp() {
-    return this.vectorTime;
+    return getVectorTime();
+  }
+
+  /** Returns a snapshot of the current vector time of this algorithm. */
+  private JupiterVectorTime getVectorTime() {
+    return new JupiterVectorTime(this.localOperationCount, this.remoteOperationCount);
   }
 
   /**
@@ -343,16 +313,37 @@ public class Jupiter implements Algorithm {
 
   @Override
   public void updateVectorTime(Timestamp timestamp) throws TransformationException {
-    if (this.ackJupiterActivityList.size() > 0) {
+    if (!this.ackJupiterActivityList.isEmpty()) {
       throw new TransformationException(
           "ackJupiterActivityList have entries. Update Vector time failed.");
     }
     int local = timestamp.getComponents()[0];
     int remote = timestamp.getComponents()[1];
-    this.vectorTime = new JupiterVectorTime(local, remote);
+    if (local < 0 || remote < 0) {
+      throw new IllegalArgumentException("operation counts cannot be negative");
+    }
+    this.localOperationCount = local;
+    this.remoteOperationCount = remote;
+  }
+
+  /**
+   * Returns whether the other site has acknowledged all operations of this algorithm that changed
+   * the document. Unacknowledged NoOperations, e.g. heartbeats, are ignored as they do not affect
+   * the transformation of incoming operations.
+   */
+  public boolean isAcknowledged() {
+    return this.ackJupiterActivityList.containsOnlyNoOperations();
+  }
+
+  /**
+   * Returns the approximate number of bytes this algorithm and the operations it keeps occupy on
+   * the heap.
+   */
+  public long estimateSize() {
+    return 32 + this.ackJupiterActivityList.estimateSize();
   }
 
   public ChecksumActivity withTimestamp(ChecksumActivity checksumActivity) {
-    return checksumActivity.withTimestamp(this.vectorTime);
+    return checksumActivity.withTimestamp(getVectorTime());
   }
 }
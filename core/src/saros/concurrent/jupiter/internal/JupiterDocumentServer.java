@@ -3,6 +3,7 @@ package saros.concurrent.jupiter.internal;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import saros.activities.ChecksumActivity;
 import saros.activities.JupiterActivity;
@@ -10,6 +11,7 @@ import saros.activities.SPath;
 import saros.concurrent.jupiter.Operation;
 import saros.concurrent.jupiter.Timestamp;
 import saros.concurrent.jupiter.TransformationException;
+import saros.concurrent.jupiter.internal.text.NoOperation;
 import saros.session.User;
 
 /**
@@ -21,11 +23,31 @@ public class JupiterDocumentServer {
 
   private static final Logger LOG = Logger.getLogger(JupiterDocumentServer.class);
 
+  /* approximate heap sizes in bytes used by the size estimates */
+
+  /** This server including the empty proxy map. */
+  private static final long SERVER_SIZE = 64;
+
+  /** An entry of the proxy map, the proxy itself is estimated by {@link Jupiter#estimateSize()}. */
+  private static final long PROXY_ENTRY_SIZE = 32;
+
+  /** An empty checkpoint map. */
+  private static final long CHECKPOINT_SIZE = 48;
+
+  /** An entry of a checkpoint map including its {@link JupiterVectorTime}. */
+  private static final long CHECKPOINT_ENTRY_SIZE = 56;
+
   /** List of proxy clients. */
   private final HashMap<User, Jupiter> proxies = new HashMap<User, Jupiter>();
 
   private final SPath editor;
 
+  /** Time (see {@link System#nanoTime()}) the last operation that changed the document was seen. */
+  private long lastModified = System.nanoTime();
+
+  /** Once evicted, this server must no longer be used. */
+  private boolean isEvicted;
+
   /**
    * Create a new JupiterDocument (server-side) representing the document identified by the given
    * SPath
@@ -42,9 +64,16 @@ public class JupiterDocumentServer {
     return proxies.remove(user) != null;
   }
 
-  // FIXME why is this not synchronized ?!
-  public Map<User, JupiterActivity> transformJupiterActivity(final JupiterActivity activity)
-      throws TransformationException {
+  /**
+   * Transforms the activity of a client into the activities for all other clients.
+   *
+   * @return the transformed activities or <code>null</code> if this server was {@linkplain
+   *     #evict(long) evicted}
+   */
+  public synchronized Map<User, JupiterActivity> transformJupiterActivity(
+      final JupiterActivity activity) throws TransformationException {
+
+    if (isEvicted) return null;
 
     final Map<User, JupiterActivity> result = new HashMap<User, JupiterActivity>();
 
@@ -64,6 +93,8 @@ public class JupiterDocumentServer {
 
     final Operation op = sourceProxy.receiveJupiterActivity(activity);
 
+    if (!(op instanceof NoOperation)) lastModified = System.nanoTime();
+
     // 2. Generate outgoing JupiterActivities for all other clients and the
     // host
     for (final Entry<User, Jupiter> entry : proxies.entrySet()) {
@@ -105,9 +136,17 @@ public class JupiterDocumentServer {
     if (removeProxyClient(user)) addProxyClient(user);
   }
 
-  public Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
+  /**
+   * Adds the timestamps of the other clients to the checksum of a client.
+   *
+   * @return the checksums for the other clients or <code>null</code> if this server was {@linkplain
+   *     #evict(long) evicted}
+   */
+  public synchronized Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
       throws TransformationException {
 
+    if (isEvicted) return null;
+
     final Map<User, ChecksumActivity> result = new HashMap<User, ChecksumActivity>();
 
     final User source = activity.getSource();
@@ -136,4 +175,72 @@ public class JupiterDocumentServer {
 
     return result;
   }
+
+  /**
+   * Evicts this server if no operation changed the document for the given time and every client has
+   * acknowledged all operations that changed the document. The state of an evicted server consists
+   * of the vector times of its proxies only, so it can be restored by a new server with {@link
+   * #restore(Map)} without resetting the clients.
+   *
+   * @param idleTime the time in milliseconds the document must not have been changed
+   * @return the vector times of all proxies or <code>null</code> if this server was not evicted
+   */
+  public synchronized Map<User, JupiterVectorTime> evict(final long idleTime) {
+    if (isEvicted || System.nanoTime() - lastModified < TimeUnit.MILLISECONDS.toNanos(idleTime))
+      return null;
+
+    for (final Jupiter proxy : proxies.values()) if (!proxy.isAcknowledged()) return null;
+
+    final Map<User, JupiterVectorTime> checkpoint = new HashMap<User, JupiterVectorTime>();
+
+    for (final Entry<User, Jupiter> entry : proxies.entrySet())
+      checkpoint.put(entry.getKey(), (JupiterVectorTime) entry.getValue().getTimestamp());
+
+    isEvicted = true;
+    proxies.clear();
+
+    return checkpoint;
+  }
+
+  /**
+   * Restores the vector times of the proxies of an {@linkplain #evict(long) evicted} server.
+   * Proxies of users that are not part of the checkpoint keep their initial vector time.
+   *
+   * @param checkpoint the vector times of the proxies of the evicted server
+   */
+  public synchronized void restore(final Map<User, JupiterVectorTime> checkpoint) {
+    for (final Entry<User, Jupiter> entry : proxies.entrySet()) {
+      final JupiterVectorTime vectorTime = checkpoint.get(entry.getKey());
+
+      if (vectorTime == null) continue;
+
+      try {
+        entry.getValue().updateVectorTime(vectorTime);
+      } catch (TransformationException e) {
+        LOG.error("failed to restore vector time of user: " + entry.getKey(), e);
+      }
+    }
+  }
+
+  /**
+   * Returns the approximate number of bytes this server and the operations it keeps occupy on the
+   * heap.
+   */
+  public synchronized long estimateSize() {
+    long bytes = SERVER_SIZE;
+
+    for (final Jupiter proxy : proxies.values()) bytes += PROXY_ENTRY_SIZE + proxy.estimateSize();
+
+    return bytes;
+  }
+
+  /**
+   * Returns the approximate number of bytes the given checkpoint of an {@linkplain #evict(long)
+   * evicted} server occupies on the heap.
+   *
+   * @param checkpoint the vector times of the proxies of the evicted server
+   */
+  public static long estimateSize(final Map<User, JupiterVectorTime> checkpoint) {
+    return CHECKPOINT_SIZE + checkpoint.size() * CHECKPOINT_ENTRY_SIZE;
+  }
 }
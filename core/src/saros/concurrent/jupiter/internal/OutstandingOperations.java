@@ -0,0 +1,154 @@
+package saros.concurrent.jupiter.internal;
+
+import java.util.Arrays;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.text.ITextOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+
+/**
+ * The operations a {@link Jupiter} instance has sent to the other site which are not acknowledged
+ * yet, together with the local operation count at the time each operation was generated. This
+ * corresponds to the 'outgoing' list in the Jupiter pseudo code description.
+ *
+ * <p>The operations are stored in a ring buffer. Operations are always acknowledged in the order
+ * they were generated, so discarding acknowledged operations only advances the head of the buffer
+ * and transforming an operation replaces it in place. Neither allocates, the buffer only grows when
+ * more operations are outstanding than ever before.
+ *
+ * <p>This class is not thread safe.
+ */
+final class OutstandingOperations {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private Operation[] operations = new Operation[INITIAL_CAPACITY];
+
+  private int[] localOperationCounts = new int[INITIAL_CAPACITY];
+
+  /** Position of the oldest operation in the buffer. */
+  private int head;
+
+  private int size;
+
+  /**
+   * Appends an operation that was just sent to the other site.
+   *
+   * @param operation the operation
+   * @param localOperationCount the local operation count before the operation was generated
+   */
+  void add(final Operation operation, final int localOperationCount) {
+    if (size == operations.length) grow();
+
+    final int position = position(size);
+
+    operations[position] = operation;
+    localOperationCounts[position] = localOperationCount;
+    size++;
+  }
+
+  /** Returns the number of outstanding operations. */
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Returns the operation at the given index, the oldest outstanding operation has the index 0. */
+  Operation getOperation(final int index) {
+    return operations[position(checkIndex(index))];
+  }
+
+  /** Replaces the operation at the given index, e.g. by its transformed version. */
+  void setOperation(final int index, final Operation operation) {
+    operations[position(checkIndex(index))] = operation;
+  }
+
+  /** Returns the local operation count the operation at the given index was generated at. */
+  int getLocalOperationCount(final int index) {
+    return localOperationCounts[position(checkIndex(index))];
+  }
+
+  /**
+   * Discards all operations that were generated at a local operation count less than the given
+   * remote operation count of the other site, i.e. all operations the other site has processed.
+   *
+   * @param remoteOperationCount the number of our operations the other site has processed
+   */
+  void discardAcknowledged(final int remoteOperationCount) {
+    while (size > 0 && localOperationCounts[head] < remoteOperationCount) {
+      operations[head] = null;
+      head = (head + 1) & (operations.length - 1);
+      size--;
+    }
+  }
+
+  /**
+   * Returns whether all outstanding operations are NoOperations, e.g. heartbeats. Those do not
+   * affect the transformation of other operations.
+   */
+  boolean containsOnlyNoOperations() {
+    for (int i = 0; i < size; i++) if (!(getOperation(i) instanceof NoOperation)) return false;
+
+    return true;
+  }
+
+  /**
+   * Returns the approximate number of bytes this buffer and its operations occupy on the heap,
+   * assuming compressed object references.
+   */
+  long estimateSize() {
+    // object, two array headers and one reference and count per slot
+    long bytes = 24 + 2 * 16 + operations.length * 8L;
+
+    for (int i = 0; i < size; i++) {
+      for (final ITextOperation operation : getOperation(i).getTextOperations())
+        // operation object, string object, character array
+        bytes += 24 + 24 + 16 + operation.getTextLength() * 2L;
+    }
+
+    return bytes;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder("OutstandingOperations[");
+
+    for (int i = 0; i < size; i++) {
+      if (i > 0) builder.append(", ");
+
+      builder.append('(').append(getOperation(i)).append(", ");
+      builder.append(getLocalOperationCount(i)).append(')');
+    }
+
+    return builder.append(']').toString();
+  }
+
+  private int position(final int index) {
+    return (head + index) & (operations.length - 1);
+  }
+
+  private int checkIndex(final int index) {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+
+    return index;
+  }
+
+  /** Doubles the capacity and moves the oldest operation to the start of the buffer. */
+  private void grow() {
+    final int capacity = operations.length;
+
+    final Operation[] newOperations = Arrays.copyOf(operations, capacity * 2);
+    final int[] newLocalOperationCounts = Arrays.copyOf(localOperationCounts, capacity * 2);
+
+    // the buffer is full, so the operations before the head are the newest ones
+    System.arraycopy(operations, 0, newOperations, capacity, head);
+    System.arraycopy(localOperationCounts, 0, newLocalOperationCounts, capacity, head);
+    Arrays.fill(newOperations, 0, head, null);
+
+    operations = newOperations;
+    localOperationCounts = newLocalOperationCounts;
+  }
+}
@@ -0,0 +1,140 @@
+package saros.concurrent.jupiter.internal.text;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import saros.concurrent.jupiter.Operation;
+
+/**
+ * Brings operations into a compact canonical form. Transforming delete operations against
+ * concurrent insert operations produces nested {@link SplitOperation}s, which may contain {@link
+ * NoOperation}s or several deletes of adjacent text. Without normalization these trees keep growing
+ * with every further transformation.
+ *
+ * <p>A normalized operation is either a single {@link NoOperation}, a single text operation or a
+ * left-nested chain of split operations over text operations. NoOperations are dropped and
+ * consecutive insert operations or consecutive delete operations that touch or overlap each other
+ * are merged into one operation. The normalized operation has the same effect on the document as
+ * the original one.
+ */
+public final class OperationNormalizer {
+
+  private OperationNormalizer() {
+    // NOP
+  }
+
+  /**
+   * Returns the normalized form of the given operation. Operations that are not split operations
+   * are returned unchanged.
+   *
+   * @param operation the operation to normalize
+   * @return the normalized operation
+   */
+  public static Operation normalize(final Operation operation) {
+    if (!(operation instanceof SplitOperation)) return operation;
+
+    final List<Operation> operations = flatten(operation);
+    final List<Operation> result = new ArrayList<Operation>(operations.size());
+
+    for (final Operation next : operations) {
+      result.add(next);
+
+      // a merged operation may now also touch its predecessor
+      while (result.size() > 1) {
+        final int last = result.size() - 1;
+        final Operation merged = merge(result.get(last - 1), result.get(last));
+
+        if (merged == null) break;
+
+        result.remove(last);
+        result.set(last - 1, merged);
+      }
+    }
+
+    return compose(result);
+  }
+
+  /**
+   * Returns the operations the given operation consists of in the order they are executed.
+   * NoOperations are omitted.
+   */
+  static List<Operation> flatten(final Operation operation) {
+    final List<Operation> result = new ArrayList<Operation>();
+    final Deque<Operation> pending = new ArrayDeque<Operation>();
+
+    pending.push(operation);
+
+    while (!pending.isEmpty()) {
+      final Operation current = pending.pop();
+
+      if (current instanceof SplitOperation) {
+        pending.push(((SplitOperation) current).getSecond());
+        pending.push(((SplitOperation) current).getFirst());
+      } else if (!(current instanceof NoOperation)) {
+        result.add(current);
+      }
+    }
+
+    return result;
+  }
+
+  /** Returns a single operation that executes the given operations in order. */
+  static Operation compose(final List<Operation> operations) {
+    if (operations.isEmpty()) return new NoOperation();
+
+    Operation result = operations.get(0);
+
+    for (int i = 1; i < operations.size(); i++)
+      result = new SplitOperation(result, operations.get(i));
+
+    return result;
+  }
+
+  /**
+   * Returns a single operation that has the same effect as executing the first and then the second
+   * operation or <code>null</code> if the operations can not be merged.
+   */
+  private static Operation merge(final Operation first, final Operation second) {
+    if (first instanceof InsertOperation && second instanceof InsertOperation)
+      return merge((InsertOperation) first, (InsertOperation) second);
+
+    if (first instanceof DeleteOperation && second instanceof DeleteOperation)
+      return merge((DeleteOperation) first, (DeleteOperation) second);
+
+    return null;
+  }
+
+  /*
+   * Ins(5,"abc") + Ins(7,"xy") -> Ins(5,"abxyc"), the second insert must
+   * start within or directly after the text of the first one
+   */
+  private static Operation merge(final InsertOperation first, final InsertOperation second) {
+    final int offset = second.getPosition() - first.getPosition();
+
+    if (offset < 0 || offset > first.getTextLength()) return null;
+
+    final String text = first.getText();
+
+    return new InsertOperation(
+        first.getPosition(),
+        text.substring(0, offset) + second.getText() + text.substring(offset),
+        first.getOrigin());
+  }
+
+  /*
+   * Del(5,"abc") + Del(3,"xyz") -> Del(3,"xyabcz"), the text deleted first
+   * must have been located within or directly before or after the text
+   * deleted second
+   */
+  private static Operation merge(final DeleteOperation first, final DeleteOperation second) {
+    final int offset = first.getPosition() - second.getPosition();
+
+    if (offset < 0 || offset > second.getTextLength()) return null;
+
+    final String text = second.getText();
+
+    return new DeleteOperation(
+        second.getPosition(), text.substring(0, offset) + first.getText() + text.substring(offset));
+  }
+}
@@ -0,0 +1,169 @@
+package saros.concurrent.jupiter.internal.text;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import saros.concurrent.jupiter.Operation;
+
+/**
+ * GOTO inclusion transformation that produces the same results as {@link
+ * GOTOInclusionTransformation} but is tuned for the hot path of the Jupiter algorithm.
+ *
+ * <p>The operation types are mapped to a compact kind and the transformation function for a pair of
+ * operations is looked up in a two-dimensional table. Transforming an insert or delete operation
+ * against another insert or delete operation therefore neither recurses nor allocates anything
+ * except the transformed operation itself.
+ *
+ * <p>{@link SplitOperation}s are not transformed recursively. Both operations are flattened into
+ * the sequence of text operations they consist of and the sequences are transformed against each
+ * other iteratively, like in the well known transformation grid. {@link NoOperation}s inside a
+ * split operation are dropped as they neither change the document nor affect the transformation of
+ * other operations. The result is therefore not always structurally equal to the result of {@link
+ * GOTOInclusionTransformation} but always has the same effect on the document.
+ */
+public class TableGOTOInclusionTransformation extends GOTOInclusionTransformation {
+
+  private static final int NO_OPERATION = 0;
+  private static final int INSERT = 1;
+  private static final int DELETE = 2;
+  private static final int SPLIT = 3;
+
+  private static final int KINDS = 4;
+
+  /** Transformation function for a pair of operations of specific kinds. */
+  private interface Transformation {
+    Operation transform(Operation op1, Operation op2, boolean privileged);
+  }
+
+  /** The transformation functions indexed by the kinds of the two operations. */
+  private final Transformation[][] table = new Transformation[KINDS][KINDS];
+
+  public TableGOTOInclusionTransformation() {
+    for (int kind = 0; kind < KINDS; kind++) {
+      table[SPLIT][kind] = this::transformFlattened;
+      table[kind][SPLIT] = this::transformFlattened;
+    }
+
+    for (int kind = 0; kind < KINDS; kind++) {
+      // a NoOperation is not affected
+      table[NO_OPERATION][kind] = (op1, op2, privileged) -> op1;
+      // if the context is a NoOperation, op1 is returned unchanged
+      table[kind][NO_OPERATION] = (op1, op2, privileged) -> op1;
+    }
+
+    table[INSERT][INSERT] =
+        (op1, op2, privileged) ->
+            transform((InsertOperation) op1, (InsertOperation) op2, privileged);
+
+    table[INSERT][DELETE] =
+        (op1, op2, privileged) -> transform((InsertOperation) op1, (DeleteOperation) op2);
+
+    table[DELETE][INSERT] =
+        (op1, op2, privileged) -> transform((DeleteOperation) op1, (InsertOperation) op2);
+
+    table[DELETE][DELETE] =
+        (op1, op2, privileged) -> transform((DeleteOperation) op1, (DeleteOperation) op2);
+  }
+
+  @Override
+  public Operation transform(Operation op1, Operation op2, Object param) {
+    return dispatch(op1, op2, (Boolean) param);
+  }
+
+  /**
+   * Transforms two operations of which at least one is a split operation by transforming the
+   * sequences of their text operations against each other.
+   */
+  private Operation transformFlattened(Operation op1, Operation op2, boolean privileged) {
+    final List<Operation> sequence = OperationNormalizer.flatten(op1);
+    final List<Operation> context = OperationNormalizer.flatten(op2);
+
+    final List<Operation> result = new ArrayList<Operation>(sequence.size());
+
+    for (final Operation operation : sequence) transform(operation, context, privileged, result);
+
+    return OperationNormalizer.compose(result);
+  }
+
+  /**
+   * Transforms a text operation against the given sequence of text operations and appends the parts
+   * of the transformed operation to the result. The operations of the context are replaced by their
+   * versions transformed against the operation, so that they can serve as the context of the next
+   * operation of the same sequence.
+   */
+  private void transform(
+      final Operation operation,
+      final List<Operation> context,
+      final boolean privileged,
+      final List<Operation> result) {
+
+    /*
+     * The parts of the operation transformed so far. An operation only
+     * breaks into several parts if it is a delete operation, and a delete
+     * operation never breaks the operations of the context.
+     */
+    List<Operation> parts = new ArrayList<Operation>(2);
+    parts.add(operation);
+
+    List<Operation> transformedParts = new ArrayList<Operation>(2);
+
+    for (int i = 0; i < context.size() && !parts.isEmpty(); i++) {
+      Operation contextOperation = context.get(i);
+
+      for (final Operation part : parts) {
+        addFlattened(transformedParts, dispatch(part, contextOperation, privileged));
+        contextOperation = dispatch(contextOperation, part, !privileged);
+      }
+
+      if (contextOperation instanceof SplitOperation || contextOperation instanceof NoOperation) {
+        final List<Operation> contextParts = OperationNormalizer.flatten(contextOperation);
+
+        context.remove(i);
+        context.addAll(i, contextParts);
+        i += contextParts.size() - 1;
+      } else {
+        context.set(i, contextOperation);
+      }
+
+      final List<Operation> swap = parts;
+      parts = transformedParts;
+      transformedParts = swap;
+      transformedParts.clear();
+    }
+
+    result.addAll(parts);
+  }
+
+  /** Transforms the operations with the function the table holds for their kinds. */
+  private Operation dispatch(Operation op1, Operation op2, boolean privileged) {
+    return table[kind(op1, op2)][kind(op2, op1)].transform(op1, op2, privileged);
+  }
+
+  /** Appends the given operation or, if it is a split operation, its parts. */
+  private static void addFlattened(final List<Operation> result, final Operation operation) {
+    if (operation instanceof SplitOperation) {
+      result.addAll(OperationNormalizer.flatten(operation));
+    } else if (!(operation instanceof NoOperation)) {
+      result.add(operation);
+    }
+  }
+
+  /**
+   * Returns the kind of the operation.
+   *
+   * @param operation the operation
+   * @param other the other operation of the pair, only used for the error message
+   * @throws InvalidParameterException if the operation can not be transformed
+   */
+  private static int kind(final Operation operation, final Operation other) {
+    if (operation instanceof InsertOperation) return INSERT;
+
+    if (operation instanceof DeleteOperation) return DELETE;
+
+    if (operation instanceof SplitOperation) return SPLIT;
+
+    if (operation instanceof NoOperation) return NO_OPERATION;
+
+    throw new InvalidParameterException("op1: " + operation + ", op2: " + other);
+  }
+}
@@ -30,6 +30,8 @@
  *       Algorithm
  *   <li>{@link saros.concurrent.jupiter.internal.text.GOTOInclusionTransformation} is an
  *       implementation of the transformation function of the Jupiter Algorithm
+ *   <li>{@link saros.concurrent.jupiter.internal.text.TableGOTOInclusionTransformation} is the
+ *       table dispatched variant of it that is used by the Jupiter Algorithm
  * </ul>
  */
 package saros.concurrent.jupiter;
@@ -4,8 +4,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import saros.activities.ChecksumActivity;
+import saros.activities.EditorActivity;
 import saros.activities.FileActivity;
 import saros.activities.IActivity;
 import saros.activities.IActivityReceiver;
@@ -13,10 +16,14 @@ import saros.activities.JupiterActivity;
 import saros.activities.QueueItem;
 import saros.activities.SPath;
 import saros.concurrent.jupiter.TransformationException;
+import saros.editor.IEditorManager;
+import saros.editor.ISharedEditorListener;
 import saros.repackaged.picocontainer.Startable;
 import saros.session.ISarosSession;
 import saros.session.ISessionListener;
 import saros.session.User;
+import saros.synchronize.UISynchronizer;
+import saros.util.NamedThreadFactory;
 
 /**
  * The ConcurrentDocumentServer is responsible for coordinating all JupiterActivities.
@@ -31,10 +38,45 @@ public class ConcurrentDocumentServer implements Startable {
 
   private static Logger LOG = Logger.getLogger(ConcurrentDocumentServer.class);
 
+  /**
+   * Time in milliseconds after which the Jupiter state of a document that nobody has open and that
+   * was not changed is evicted, see {@link JupiterServer#evictIdleDocuments(long)}. A value of 0
+   * disables the eviction.
+   */
+  private static final long EVICTION_IDLE_TIME =
+      Long.getLong("saros.session.JUPITER_EVICTION_IDLE_TIME", 10 * 60 * 1000L);
+
   private final ISarosSession sarosSession;
 
   private final JupiterServer server;
 
+  private final IEditorManager editorManager;
+
+  private final UISynchronizer synchronizer;
+
+  private ScheduledThreadPoolExecutor evictionExecutor;
+
+  /**
+   * Tracks the editors of the host, so that the documents the host has open are not evicted. The
+   * editor activities of the host are not necessarily seen by the server, e.g for editors that were
+   * already open when the session started.
+   */
+  private final ISharedEditorListener sharedEditorListener =
+      new ISharedEditorListener() {
+
+        @Override
+        public void editorActivated(final User user, final SPath filePath) {
+          if (filePath != null && user.equals(sarosSession.getLocalUser()))
+            server.editorOpened(filePath, user);
+        }
+
+        @Override
+        public void editorClosed(final User user, final SPath filePath) {
+          if (filePath != null && user.equals(sarosSession.getLocalUser()))
+            server.editorClosed(filePath, user);
+        }
+      };
+
   /** {@link ISessionListener} for updating Jupiter documents on the host. */
   private final ISessionListener sessionListener =
       new ISessionListener() {
@@ -50,24 +92,67 @@ public class ConcurrentDocumentServer implements Startable {
         }
       };
 
-  public ConcurrentDocumentServer(final ISarosSession sarosSession) {
+  public ConcurrentDocumentServer(
+      final ISarosSession sarosSession,
+      final IEditorManager editorManager,
+      final UISynchronizer synchronizer) {
+    this(sarosSession, editorManager, synchronizer, new JupiterServer(sarosSession));
+  }
+
+  /** Creates a ConcurrentDocumentServer that uses the given JupiterServer. For testing purposes. */
+  ConcurrentDocumentServer(
+      final ISarosSession sarosSession,
+      final IEditorManager editorManager,
+      final UISynchronizer synchronizer,
+      final JupiterServer server) {
     this.sarosSession = sarosSession;
-    this.server = new JupiterServer(sarosSession);
+    this.editorManager = editorManager;
+    this.synchronizer = synchronizer;
+    this.server = server;
   }
 
   @Override
   public void start() {
     sarosSession.addListener(sessionListener);
+
+    if (sarosSession.isHost()) {
+      editorManager.addSharedEditorListener(sharedEditorListener);
+
+      // the open editors are only accessed by the UI thread
+      synchronizer.asyncExec(
+          () -> {
+            final User localUser = sarosSession.getLocalUser();
+
+            for (final SPath path : editorManager.getOpenEditors())
+              server.editorOpened(path, localUser);
+          });
+    }
+
+    if (EVICTION_IDLE_TIME <= 0) return;
+
+    evictionExecutor =
+        new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("Jupiter-Eviction", false));
+
+    evictionExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+    evictionExecutor.scheduleWithFixedDelay(
+        () -> server.evictIdleDocuments(EVICTION_IDLE_TIME),
+        EVICTION_IDLE_TIME,
+        EVICTION_IDLE_TIME,
+        TimeUnit.MILLISECONDS);
   }
 
   @Override
   public void stop() {
     sarosSession.removeListener(sessionListener);
+    editorManager.removeSharedEditorListener(sharedEditorListener);
+
+    if (evictionExecutor != null) evictionExecutor.shutdown();
   }
 
   /**
    * Dispatched the activity to the internal ActivityReceiver. The ActivityReceiver will remove
-   * FileDocuments when the file has been deleted.
+   * FileDocuments when the file has been deleted and tracks the editors opened by the users.
    *
    * @param activity Activity to be dispatched
    */
@@ -83,6 +168,17 @@ public class ConcurrentDocumentServer implements Startable {
             server.removePath(activity.getPath());
           }
         }
+
+        @Override
+        public void receive(final EditorActivity activity) {
+          if (activity.getPath() == null) return;
+
+          if (activity.getType() == EditorActivity.Type.ACTIVATED) {
+            server.editorOpened(activity.getPath(), activity.getSource());
+          } else if (activity.getType() == EditorActivity.Type.CLOSED) {
+            server.editorClosed(activity.getPath(), activity.getSource());
+          }
+        }
       };
 
   /**
@@ -1,14 +1,21 @@
 package saros.concurrent.management;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Logger;
 import saros.activities.ChecksumActivity;
 import saros.activities.JupiterActivity;
 import saros.activities.SPath;
+import saros.concurrent.jupiter.Timestamp;
 import saros.concurrent.jupiter.TransformationException;
 import saros.concurrent.jupiter.internal.JupiterDocumentServer;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.NoOperation;
 import saros.session.ISarosSession;
 import saros.session.User;
 
@@ -16,17 +23,38 @@ import saros.session.User;
  * A JupiterServer manages Jupiter server instances for a number of users AND number of paths.
  *
  * <p>(in contrast to a JupiterDocumentServer which only handles a single path)
+ *
+ * <p>Activities are transformed under the lock of their document only, so activities of different
+ * documents can be transformed concurrently. Adding and removing users or documents is serialized
+ * by the monitor of this object.
+ *
+ * <p>Documents that are no longer edited can be {@linkplain #evictIdleDocuments(long) evicted}.
+ * Only the vector times of an evicted document are kept. The document is restored transparently
+ * with these vector times when the next activity for it arrives, so the clients do not notice the
+ * eviction.
  */
 public class JupiterServer {
 
+  private static final Logger LOG = Logger.getLogger(JupiterServer.class);
+
   /**
    * Jupiter server instance documents
    *
    * @host
    */
-  private final HashMap<SPath, JupiterDocumentServer> concurrentDocuments =
-      new HashMap<SPath, JupiterDocumentServer>();
+  private final Map<SPath, JupiterDocumentServer> concurrentDocuments =
+      new ConcurrentHashMap<SPath, JupiterDocumentServer>();
 
+  /**
+   * The vector times of the proxies of evicted documents. Guarded by the monitor of this object.
+   */
+  private final Map<SPath, Map<User, JupiterVectorTime>> checkpoints =
+      new HashMap<SPath, Map<User, JupiterVectorTime>>();
+
+  /** The users that have an editor open for a document. Guarded by the monitor of this object. */
+  private final Map<SPath, Set<User>> openEditors = new HashMap<SPath, Set<User>>();
+
+  /** Guarded by the monitor of this object. */
   private final Set<User> currentClients = new HashSet<User>();
 
   private final ISarosSession sarosSession;
@@ -37,6 +65,8 @@ public class JupiterServer {
 
   public synchronized void removePath(final SPath path) {
     concurrentDocuments.remove(path);
+    checkpoints.remove(path);
+    openEditors.remove(path);
   }
 
   public synchronized void addUser(final User user) {
@@ -52,6 +82,30 @@ public class JupiterServer {
     for (final JupiterDocumentServer server : concurrentDocuments.values()) {
       server.removeProxyClient(user);
     }
+
+    // the user starts with new vector times when joining again
+    for (final Map<User, JupiterVectorTime> checkpoint : checkpoints.values())
+      checkpoint.remove(user);
+
+    for (final Set<User> users : openEditors.values()) users.remove(user);
+
+    openEditors.values().removeIf(Set::isEmpty);
+  }
+
+  /** Notes that the given user has opened or activated an editor for the given document. */
+  public synchronized void editorOpened(final SPath path, final User user) {
+    openEditors.computeIfAbsent(path, p -> new HashSet<User>()).add(user);
+  }
+
+  /** Notes that the given user has closed the editor for the given document. */
+  public synchronized void editorClosed(final SPath path, final User user) {
+    final Set<User> users = openEditors.get(path);
+
+    if (users == null) return;
+
+    users.remove(user);
+
+    if (users.isEmpty()) openEditors.remove(path);
   }
 
   /**
@@ -66,7 +120,20 @@ public class JupiterServer {
    * SarosSessionMapper to also track the resources and not just the projects
    * that are already shared for every user individually.
    */
-  private synchronized JupiterDocumentServer getServer(final SPath path) {
+  private JupiterDocumentServer getServer(final SPath path) {
+
+    final JupiterDocumentServer existingServer = concurrentDocuments.get(path);
+
+    if (existingServer != null) return existingServer;
+
+    return createServer(path);
+  }
+
+  /**
+   * Creates the JupiterDocumentServer for the given path unless it was created in the meantime.
+   * Creation is serialized with {@link #addUser} and {@link #removeUser} so that no user is missed.
+   */
+  private synchronized JupiterDocumentServer createServer(final SPath path) {
 
     JupiterDocumentServer docServer = concurrentDocuments.get(path);
 
@@ -87,28 +154,154 @@ public class JupiterServer {
 
       docServer.addProxyClient(sarosSession.getHost());
 
+      final Map<User, JupiterVectorTime> checkpoint = checkpoints.remove(path);
+
+      if (checkpoint != null) docServer.restore(checkpoint);
+
       concurrentDocuments.put(path, docServer);
     }
     return docServer;
   }
 
+  /*
+   * Synchronized so that the document can not be evicted while the proxy of
+   * the user is reset.
+   */
   public synchronized void reset(final SPath path, final User user) {
     getServer(path).reset(user);
   }
 
-  public synchronized Map<User, JupiterActivity> transform(final JupiterActivity activity)
+  public Map<User, JupiterActivity> transform(final JupiterActivity activity)
       throws TransformationException {
 
-    final JupiterDocumentServer docServer = getServer(activity.getPath());
+    final SPath path = activity.getPath();
+
+    while (true) {
+      final JupiterDocumentServer docServer = concurrentDocuments.get(path);
+
+      if (docServer == null
+          && activity.getOperation() instanceof NoOperation
+          && acknowledgeEvicted(activity)) return Collections.emptyMap();
+
+      final Map<User, JupiterActivity> result =
+          (docServer != null ? docServer : createServer(path)).transformJupiterActivity(activity);
 
-    return docServer.transformJupiterActivity(activity);
+      // null if the document was evicted in the meantime
+      if (result != null) return result;
+    }
   }
 
-  public synchronized Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
+  public Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
       throws TransformationException {
 
-    final JupiterDocumentServer docServer = getServer(activity.getPath());
+    while (true) {
+      final Map<User, ChecksumActivity> result =
+          getServer(activity.getPath()).withTimestamp(activity);
+
+      // null if the document was evicted in the meantime
+      if (result != null) return result;
+    }
+  }
+
+  /**
+   * Applies a NoOperation, i.e. a heartbeat that acknowledges operations, to the checkpoint of an
+   * evicted document so that heartbeats do not restore the document. Unlike for a restored document
+   * the NoOperation is not forwarded to the other users. Their vector times stay in sync as neither
+   * side counts it.
+   *
+   * @return <code>true</code> if the activity was applied, <code>false</code> if the document has
+   *     to be restored to transform the activity
+   */
+  private synchronized boolean acknowledgeEvicted(final JupiterActivity activity) {
+    final SPath path = activity.getPath();
+
+    if (concurrentDocuments.containsKey(path)) return false;
+
+    final Map<User, JupiterVectorTime> checkpoint = checkpoints.get(path);
+
+    if (checkpoint == null) return false;
+
+    final User source = activity.getSource();
+    final JupiterVectorTime proxyTime = checkpoint.get(source);
+    final Timestamp timestamp = activity.getTimestamp();
+
+    if (proxyTime == null || !(timestamp instanceof JupiterVectorTime)) return false;
+
+    final JupiterVectorTime time = (JupiterVectorTime) timestamp;
+
+    // let the restored document report activities that violate the preconditions
+    if (time.getLocalOperationCount() != proxyTime.getRemoteOperationCount()
+        || time.getRemoteOperationCount() > proxyTime.getLocalOperationCount()) return false;
+
+    checkpoint.put(source, proxyTime.incrementRemoteOperationCount());
+
+    return true;
+  }
+
+  /**
+   * Evicts all documents that nobody has an open editor for, that were not changed for the given
+   * time and whose operations were acknowledged by all users.
+   *
+   * @param idleTime the time in milliseconds a document must not have been changed
+   * @return the number of evicted documents
+   */
+  public synchronized int evictIdleDocuments(final long idleTime) {
+    int evicted = 0;
+    long evictedBytes = 0;
+
+    for (final SPath path : new ArrayList<SPath>(concurrentDocuments.keySet())) {
+      if (openEditors.containsKey(path)) continue;
+
+      /*
+       * Remove the server first, transformations that want to access the
+       * document in the meantime wait for the checkpoint in createServer.
+       */
+      final JupiterDocumentServer docServer = concurrentDocuments.remove(path);
+      final long size = docServer.estimateSize();
+
+      final Map<User, JupiterVectorTime> checkpoint = docServer.evict(idleTime);
+
+      if (checkpoint == null) {
+        concurrentDocuments.put(path, docServer);
+        continue;
+      }
+
+      checkpoints.put(path, checkpoint);
+      evicted++;
+      evictedBytes += size;
+    }
+
+    if (evicted > 0)
+      LOG.debug(
+          "evicted "
+              + evicted
+              + " idle documents (~"
+              + evictedBytes
+              + " bytes), "
+              + concurrentDocuments.size()
+              + " documents remain");
+
+    return evicted;
+  }
+
+  /**
+   * Returns the approximate number of bytes the Jupiter state of every document occupies on the
+   * heap. Evicted documents are included with the size of their checkpoint.
+   */
+  public synchronized Map<SPath, Long> getMemoryUsage() {
+    final Map<SPath, Long> usage = new HashMap<SPath, Long>();
+
+    for (final Map.Entry<SPath, JupiterDocumentServer> entry : concurrentDocuments.entrySet())
+      usage.put(entry.getKey(), entry.getValue().estimateSize());
+
+    for (final Map.Entry<SPath, Map<User, JupiterVectorTime>> entry : checkpoints.entrySet())
+      usage.put(entry.getKey(), JupiterDocumentServer.estimateSize(entry.getValue()));
+
+    return usage;
+  }
 
-    return docServer.withTimestamp(activity);
+  /** Returns whether the given document is evicted. For testing purposes only. */
+  synchronized boolean isEvicted(final SPath path) {
+    return checkpoints.containsKey(path) && !concurrentDocuments.containsKey(path);
   }
 }
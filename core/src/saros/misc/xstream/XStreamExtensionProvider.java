@@ -32,7 +32,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 import org.apache.log4j.Logger;
-import org.jivesoftware.smack.filter.PacketExtensionFilter;
 import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Packet;
@@ -41,6 +40,7 @@ import org.jivesoftware.smack.provider.IQProvider;
 import org.jivesoftware.smack.provider.PacketExtensionProvider;
 import org.jivesoftware.smack.provider.ProviderManager;
 import org.xmlpull.v1.XmlPullParser;
+import saros.net.ExtensionPacketFilter;
 
 /**
  * Flexible extension provider using XStream to serialize arbitrary data objects.
@@ -265,8 +265,8 @@ public class XStreamExtensionProvider<T> implements PacketExtensionProvider, IQP
    * PacketFilter for Packets which contain a PacketExtension matching the {@link
    * XStreamExtensionProvider#elementName} and {@link XStreamExtensionProvider#namespace}.
    */
-  public PacketFilter getPacketFilter() {
-    return new PacketExtensionFilter(getElementName(), getNamespace());
+  public ExtensionPacketFilter getPacketFilter() {
+    return new ExtensionPacketFilter(getElementName(), getNamespace());
   }
 
   public String getNamespace() {
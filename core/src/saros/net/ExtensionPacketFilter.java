@@ -0,0 +1,71 @@
+package saros.net;
+
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.Packet;
+
+/**
+ * Filters packets that contain a {@link org.jivesoftware.smack.packet.PacketExtension} with a
+ * specific element name and namespace and that are accepted by an optional further condition.
+ *
+ * <p>Unlike a generic {@link PacketFilter} this filter reveals the extension it is interested in.
+ * The {@link IReceiver} uses this to dispatch a packet only to the listeners whose filter can
+ * accept it at all, so listeners should prefer this filter over an {@link AndFilter} that combines
+ * a {@link org.jivesoftware.smack.filter.PacketExtensionFilter} with further filters.
+ */
+public final class ExtensionPacketFilter implements PacketFilter {
+
+  private final String elementName;
+
+  private final String namespace;
+
+  private final PacketFilter condition;
+
+  /**
+   * Creates a filter that accepts all packets containing an extension with the given element name
+   * and namespace.
+   *
+   * @param elementName the element name of the extension
+   * @param namespace the namespace of the extension
+   */
+  public ExtensionPacketFilter(final String elementName, final String namespace) {
+    this(elementName, namespace, null);
+  }
+
+  private ExtensionPacketFilter(
+      final String elementName, final String namespace, final PacketFilter condition) {
+    if (elementName == null) throw new NullPointerException("elementName is null");
+
+    if (namespace == null) throw new NullPointerException("namespace is null");
+
+    this.elementName = elementName;
+    this.namespace = namespace;
+    this.condition = condition;
+  }
+
+  /**
+   * Returns a filter for the same extension that additionally requires the packet to be accepted by
+   * the given condition.
+   *
+   * @param filter the additional condition
+   * @return a new filter, this filter is not changed
+   */
+  public ExtensionPacketFilter and(final PacketFilter filter) {
+    return new ExtensionPacketFilter(
+        elementName, namespace, condition == null ? filter : new AndFilter(condition, filter));
+  }
+
+  public String getElementName() {
+    return elementName;
+  }
+
+  public String getNamespace() {
+    return namespace;
+  }
+
+  @Override
+  public boolean accept(final Packet packet) {
+    return packet.getExtension(elementName, namespace) != null
+        && (condition == null || condition.accept(packet));
+  }
+}
@@ -0,0 +1,27 @@
+package saros.net;
+
+import org.jivesoftware.smack.packet.PacketExtension;
+
+/**
+ * A {@link PacketExtension} that is marshalled into a compact binary form instead of XML. Binary
+ * packet extensions can only be sent with {@link ITransmitter#send(String, saros.net.xmpp.JID,
+ * PacketExtension, int)} and its overloads. The receiving side needs an {@link
+ * IBinaryPacketExtensionProvider} that is registered for the element name and namespace of the
+ * extension at the Smack <code>ProviderManager</code>.
+ *
+ * <p>The {@linkplain #toXML() XML representation} of a binary packet extension contains the Base64
+ * encoded binary form as text of a single {@link #DATA_ELEMENT_NAME} child element. Extensions in
+ * this form that are received over the XMPP server are parsed by the same provider.
+ */
+public interface IBinaryPacketExtension extends PacketExtension {
+
+  /** Name of the child element that contains the binary form in the XML representation. */
+  public static final String DATA_ELEMENT_NAME = "data";
+
+  /**
+   * Returns the binary form of this extension.
+   *
+   * @return the binary form of this extension
+   */
+  public byte[] toByteArray();
+}
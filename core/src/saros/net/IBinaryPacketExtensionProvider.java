@@ -0,0 +1,58 @@
+package saros.net;
+
+import java.io.IOException;
+import org.jivesoftware.smack.packet.DefaultPacketExtension;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.provider.PacketExtensionProvider;
+import org.xmlpull.v1.XmlPullParser;
+import saros.net.xmpp.JID;
+
+/**
+ * Provider that parses the binary form of an {@link IBinaryPacketExtension}. The provider must be
+ * registered for the element name and namespace of the extension at the Smack <code>
+ * ProviderManager</code>.
+ */
+public interface IBinaryPacketExtensionProvider extends PacketExtensionProvider {
+
+  /**
+   * Parses the binary form of a packet extension.
+   *
+   * @param sender the sender of the packet extension
+   * @param data the buffer that contains the binary form of the packet extension
+   * @param offset the offset of the binary form in the buffer
+   * @param length the length of the binary form
+   * @return the parsed packet extension
+   * @throws IOException if the data cannot be parsed
+   */
+  public PacketExtension parseExtension(JID sender, byte[] data, int offset, int length)
+      throws IOException;
+
+  /**
+   * Parses the {@linkplain IBinaryPacketExtension XML representation} of a binary packet extension
+   * into a {@link DefaultPacketExtension} that holds the Base64 encoded binary form as value of
+   * {@link IBinaryPacketExtension#DATA_ELEMENT_NAME}. The binary form is parsed once the sender of
+   * the packet is known, see {@link #parseExtension(JID, byte[], int, int)}.
+   */
+  @Override
+  public default PacketExtension parseExtension(XmlPullParser parser) throws Exception {
+    final DefaultPacketExtension extension =
+        new DefaultPacketExtension(parser.getName(), parser.getNamespace());
+
+    final int depth = parser.getDepth();
+
+    while (true) {
+      final int eventType = parser.next();
+
+      if (eventType == XmlPullParser.END_DOCUMENT)
+        throw new IOException("unexpected end of the binary packet extension");
+
+      if (eventType == XmlPullParser.END_TAG && parser.getDepth() == depth) break;
+
+      if (eventType == XmlPullParser.START_TAG
+          && IBinaryPacketExtension.DATA_ELEMENT_NAME.equals(parser.getName()))
+        extension.setValue(IBinaryPacketExtension.DATA_ELEMENT_NAME, parser.nextText());
+    }
+
+    return extension;
+  }
+}
@@ -23,7 +23,7 @@ public interface IPacketInterceptor {
    *
    * @param connectID
    * @param description
-   * @param payload
+   * @param payload the payload as it is sent, i.e compressed if the description says so
    * @return <code>true</code> if the packet should be send, <code>false</code> if the packet should
    *     be dropped
    */
@@ -6,6 +6,14 @@ import org.jivesoftware.smack.packet.Packet;
 
 public interface IReceiver {
 
+  /**
+   * Name of the packet property that contains the sequence number of a packet that was sent with
+   * {@link ITransmitter#send(String, saros.net.xmpp.JID,
+   * org.jivesoftware.smack.packet.PacketExtension, int)}. The value of the property is an {@link
+   * Integer}.
+   */
+  public static final String SEQUENCE_NUMBER_PROPERTY = "saros.net.sequenceNumber";
+
   /**
    * @JTourBusStop 5, Architecture Overview, Network Layer - Receiver:
    *
@@ -74,6 +74,26 @@ public interface ITransmitter {
   public void send(String connectionID, JID recipient, PacketExtension extension)
       throws IOException;
 
+  /**
+   * Sends the given {@link PacketExtension} to the given {@link JID} using a direct stream
+   * connection. The given sequence number is transmitted alongside the extension instead of being
+   * part of it and is available as the {@link IReceiver#SEQUENCE_NUMBER_PROPERTY} property of the
+   * packet on the receiving side.
+   *
+   * <p>If the extension is a {@link SharedPacketExtension} it is only marshalled and compressed
+   * once regardless of how many recipients it is sent to.
+   *
+   * @param connectionID the id of the connection
+   * @param recipient the recipient of the extension
+   * @param extension the extension to send
+   * @param sequenceNumber the sequence number to transmit alongside the extension, must not be
+   *     negative
+   * @throws IOException if an I/O error occurs
+   */
+  public void send(
+      String connectionID, JID recipient, PacketExtension extension, int sequenceNumber)
+      throws IOException;
+
   public default void addTransferListener(ITransferListener listener) {
     // NOP
   }
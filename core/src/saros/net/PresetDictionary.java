@@ -0,0 +1,129 @@
+package saros.net;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.Inflater;
+import org.apache.log4j.Logger;
+import saros.annotations.Component;
+import saros.net.xmpp.JID;
+
+/**
+ * Preset dictionaries for the deflate compression of packet extensions. Packet extensions are
+ * mostly short XML documents which share a lot of element and attribute names with each other but
+ * hardly any with the preceding data of the same packet. A dictionary that already contains those
+ * strings allows the compressor to refer to them from the very first byte.
+ *
+ * <p>Dictionaries are identified by their version, {@link #NONE} stands for no dictionary. A
+ * released dictionary is never changed nor removed, a new dictionary is added with the next version
+ * instead. Two peers can therefore use any dictionary up to the lower one of their latest versions.
+ * The peers exchange their latest versions during the {@linkplain saros.versioning.VersionManager
+ * version exchange}.
+ *
+ * <p>The version of the dictionary is not transmitted along with the compressed data. The zlib
+ * header of data that was compressed with a preset dictionary contains the Adler-32 checksum of the
+ * dictionary which is used to look it up again, see {@link #setDictionary(Inflater)}.
+ *
+ * <p>New dictionaries are generated with the <code>saros.net.util.PresetDictionaryGenerator</code>
+ * tool of the test sources.
+ */
+@Component(module = "net")
+public class PresetDictionary {
+
+  private static final Logger LOG = Logger.getLogger(PresetDictionary.class);
+
+  /** The version that stands for no dictionary at all. */
+  public static final int NONE = 0;
+
+  private static final String[] DICTIONARIES = {null, PresetDictionaryData.VERSION_1};
+
+  /** The version of the latest dictionary. */
+  public static final int LATEST_VERSION = DICTIONARIES.length - 1;
+
+  private static final Map<Long, Integer> VERSIONS_BY_CHECKSUM = createChecksumIndex();
+
+  private final Map<JID, Integer> remoteVersions = new ConcurrentHashMap<JID, Integer>();
+
+  /**
+   * Returns the dictionary of the given version.
+   *
+   * @param version the version of the dictionary
+   * @return the dictionary or <code>null</code> if there is no dictionary with the given version
+   */
+  public static byte[] getDictionary(final int version) {
+    if (version <= NONE || version > LATEST_VERSION) return null;
+
+    return DICTIONARIES[version].getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Sets the preset dictionary that the given inflater needs to continue.
+   *
+   * @param inflater an inflater that {@linkplain Inflater#needsDictionary() needs a dictionary}
+   * @return <code>true</code> if the dictionary was set, <code>false</code> if the dictionary is
+   *     unknown
+   */
+  public static boolean setDictionary(final Inflater inflater) {
+    final Integer version = VERSIONS_BY_CHECKSUM.get(inflater.getAdler() & 0xFFFFFFFFL);
+
+    if (version == null) return false;
+
+    inflater.setDictionary(getDictionary(version));
+    return true;
+  }
+
+  /**
+   * Sets the latest dictionary version of the given peer as announced during the version exchange.
+   *
+   * @param jid the resource qualified JID of the peer
+   * @param version the announced version or <code>null</code> if the peer announced no version
+   */
+  public void setRemoteVersion(final JID jid, final String version) {
+    int remoteVersion = NONE;
+
+    if (version != null) {
+      try {
+        remoteVersion = Math.max(NONE, Integer.parseInt(version.trim()));
+      } catch (NumberFormatException e) {
+        LOG.warn("invalid dictionary version announced by " + jid + ": " + version);
+      }
+    }
+
+    if (LOG.isDebugEnabled())
+      LOG.debug("latest dictionary version of " + jid + " is " + remoteVersion);
+
+    remoteVersions.put(jid, remoteVersion);
+  }
+
+  /**
+   * Returns the version of the dictionary to use when compressing data for the given peer.
+   *
+   * @param jid the resource qualified JID of the peer
+   * @return the latest version both sides know or {@link #NONE} if the peer did not announce a
+   *     version
+   */
+  public int getVersion(final JID jid) {
+    final Integer remoteVersion = remoteVersions.get(jid);
+
+    if (remoteVersion == null) return NONE;
+
+    return Math.min(LATEST_VERSION, remoteVersion);
+  }
+
+  private static Map<Long, Integer> createChecksumIndex() {
+    final Map<Long, Integer> index = new HashMap<Long, Integer>();
+
+    for (int version = NONE + 1; version <= LATEST_VERSION; version++) {
+      final Adler32 checksum = new Adler32();
+      checksum.update(getDictionary(version));
+
+      if (index.put(checksum.getValue(), version) != null)
+        throw new IllegalStateException("dictionary checksums are not unique");
+    }
+
+    return Collections.unmodifiableMap(index);
+  }
+}
@@ -0,0 +1,81 @@
+package saros.net;
+
+/**
+ * The preset dictionaries of the {@link PresetDictionary}. The content of a released dictionary
+ * must never be changed.
+ *
+ * <p>This file is generated, new dictionaries are created with the <code>
+ * saros.net.util.PresetDictionaryGenerator</code> tool of the test sources.
+ */
+final class PresetDictionaryData {
+
+  private PresetDictionaryData() {
+    // NOP
+  }
+
+  /** Generated from about 10,000 marshalled activities extensions, 4096 bytes. */
+  static final String VERSION_1 =
+      "=\"2238\" remote=\"86\"/><o class=\"insertOp\" position=\"1803\" origin="
+          + "\"1803\"><text>v</text>ocal=\"1833\" remote=\"67\"/><o class=\"insertOp"
+          + "\" position=\"1568\" origin=\"1568\"><text>m</text>ocal=\"1636\" remote="
+          + "\"63\"/><o class=\"insertOp\" position=\"1461\" origin=\"1461\"><text>%0"
+          + "A</text>local=\"2063\" remote=\"80\"/><o class=\"insertOp\" position=\"1"
+          + "702\" origin=\"1702\"><text>u</text>ocal=\"1301\" remote=\"52\"/><o clas"
+          + "s=\"insertOp\" position=\"1264\" origin=\"1264\"><text>%3D</text>sid=\"8"
+          + "8669\" seq=\"46\"><jupiterActivity source=\"2hktff%40jabber.ccc.de%2FSar"
+          + "os\"><p i=\"3638236\" p=\"3q8lvh%2F3elr6.md\"/><urce=\"1fdsmm%40xmpp.exa"
+          + "mple.com%2FSaros\" o=\"559\" l=\"0\"><p i=\"7951572\" p=\"lib%2F3qvy2h%2"
+          + "F9tu4s.java\"/></te sid=\"48504\" seq=\"325\"><jupiterActivity source=\""
+          + "2p3nx4%40xmpp.example.com%2FSaros\"><p i=\"8698229\" p=\"src%2F2ft5x2%2F"
+          + "4n34u.proper1rqi1a%2F2pnxe.py\"/><t class=\"vectorTime\" local=\"157\" r"
+          + "emote=\"7\"/><o class=\"insertOp\" position=\"590\" origin=\"590\"><text"
+          + ">p</text>\" sid=\"95226\" seq=\"14\"><textSelectionActivity source=\"ym8"
+          + "0o%40jabber.org%2FSaros\" o=\"2792\" l=\"0\"><p i=\"4011565\" p=\"lib%2F"
+          + "4dqqcl%\" sid=\"74982\" seq=\"54\"><jupiterActivity source=\"25atrr%40xm"
+          + "pp.example.com%2FSaros\"><p i=\"4001042\" p=\"lib%2F1lls78%2F17nry.java"
+          + "\"/\" sid=\"54900\" seq=\"62\"><textSelectionActivity source=\"2wghhv%40"
+          + "im.example.net%2FSaros\" o=\"4824\" l=\"0\"><p i=\"3789215\" p=\"lib%2F3"
+          + "n\" sid=\"34818\" seq=\"-1\"><viewportActivity source=\"1yea4r%40jabber."
+          + "org%2FSaros\" o=\"60\" l=\"47\"><p i=\"3577387\" p=\"src%2F1n3xj5%2F9jy8"
+          + "uk4v.md\"/><t class=\"vectorTime\" local=\"996\" remote=\"40\"/><o class"
+          + "=\"insertOp\" position=\"1107\" origin=\"1107\"><text>+</text><p i=\"789"
+          + "0723\" p=\"src%2Ftest%2Fjava%2F35z56q%2F3m2yv.xml\"/><t class=\"vectorTi"
+          + "me\" local=\"19\" remote=\"2\"/><o class=\"noOp\"/></jupiurce=\"1eghc4%4"
+          + "0jabber.ccc.de%2FSaros\" type=\"ACTIVATED\"><p i=\"7678895\" p=\"src%2Ft"
+          + "est%2Fjava%2F2920gq%2F4chn.js\"/></editorA4f1m%2F164gk.py\"/><t class=\""
+          + "vectorTime\" local=\"125\" remote=\"4\"/><o class=\"insertOp\" position="
+          + "\"586\" origin=\"586\"><text>%7B</text>\" sid=\"18627\" seq=\"371\"><vie"
+          + "wportActivity source=\"1zxsy9%40jabber.ccc.de%2FSaros\" o=\"289\" l=\"50"
+          + "\"><p i=\"3376082\" p=\"src%2Fleibw%21ib58h%2F89xmp.md\"/><t class=\"vec"
+          + "torTime\" local=\"122\" remote=\"5\"/><o class=\"insertOp\" position=\"5"
+          + "63\" origin=\"563\"><text>s</text>\" sid=\"65348\" seq=\"138\"><jupiterA"
+          + "ctivity source=\"33tejh%40jabber.org%2FSaros\"><p i=\"4173066\" p=\"src%"
+          + "2F2f7s51%2F4q11m.js\"/><t c\" sid=\"8831\" seq=\"26\"><checksumActivity "
+          + "source=\"157u2h%40im.example.net%2FSaros\" hash=\"1473674373\" length=\""
+          + "9899\"><p i=\"3749411\" ce=\"w27d0%40xmpp.example.com%2FSaros\"><p refer"
+          + "ence=\"../../jupiterActivity/p\"/><t class=\"vectorTime\" local=\"153\" "
+          + "remote=\"3\"/><o curce=\"41f7vr%40saros-con.imp.fu-berlin.de%2FSaros\" o"
+          + "=\"1570\" l=\"0\"><p i=\"2778117\" p=\"src%2Fmain%2Fjava%2F33r2sq%2F60wh"
+          + "n.js\"/></teurce=\"1wewi7%40saros-con.imp.fu-berlin.de%2FSaros\" o=\"20"
+          + "\" l=\"52\"><p i=\"2778117\" p=\"src%2Ftest%2Fjava%2Fhal7h%2F32n9u.java"
+          + "\"/></vi8\" remote=\"1\"/><o class=\"insertOp\" position=\"575\" origin="
+          + "\"575\"><text>%29</text></o></jupiterActivity><jupiterActivity source=\""
+          + "487584\" p=\"test%2Fjunit%2F3sa78u%2Ffyl0.properties\"/><jupiterTimestam"
+          + "p class=\"vectorTime\" local=\"54\" remote=\"2\"/></checksumActiviturce="
+          + "\"3pfe86%40jabber.ccc.de%2FSaros\" o=\"149\" l=\"44\"><p i=\"8436075\" p"
+          + "=\"lib%2F14af3p%2F9kxdx.properties\"/></viewportActivit=\"42028\" seq=\""
+          + "331\"><editorActivity source=\"39iord%40im.example.net%2FSaros\" type=\""
+          + "SAVED\"><p i=\"8224248\" p=\"src%2Ftest%2Fjava%2F3class=\"deleteOp\" pos"
+          + "ition=\"548\"><text>e</text></o></jupiterActivity><textSelectionActivity"
+          + " source=\"wdb4i%40xmpp.example.com%2FSa sid=\"69543\" seq=\"1\"><jupiter"
+          + "Activity source=\"2axkld%40jabber.org%2FSaros\"><p i=\"2778117\" p=\"src"
+          + "%2Fmain%2Fjava%2Fjblkz%2F8uk4v.m3\" seq=\"-1\"><jupiterActivity source="
+          + "\"2j2du3%40jabber.org%2FSaros\"><p i=\"3850064\" p=\"src%2Fmain%2Fjava%2"
+          + "F1wg6fp%2F4xbrm.xml\"/><t v.java\"/><t class=\"vectorTime\" local=\"10\""
+          + " remote=\"0\"/><o class=\"insertOp\" position=\"509\" origin=\"509\"><te"
+          + "xt>i</text></o></jupite.imp.fu-berlin.de%2FSaros\" o=\"536\" l=\"0\"><p "
+          + "reference=\"../../jupiterActivity/p\"/></textSelectionActivity></payload"
+          + "></ados><ados xmlns=\"saros\"><payload class=\"ADOS\" v=\"SPXV1\" sid=\""
+          + "4568\" seq=\"-1\"><textSelectionActivity source=\"3ycso1%40saros-con.imp"
+          + ".fu";
+}
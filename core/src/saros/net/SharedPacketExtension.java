@@ -0,0 +1,76 @@
+package saros.net;
+
+import java.nio.charset.StandardCharsets;
+import org.jivesoftware.smack.packet.PacketExtension;
+
+/**
+ * Wraps a {@link PacketExtension} that is going to be sent to multiple recipients. The {@link
+ * ITransmitter} marshals and compresses the wrapped extension only once and shares the resulting
+ * data among all recipients. The wrapped extension therefore <b>must not</b> be modified after this
+ * wrapper was created.
+ *
+ * <p>Per recipient information like sequence numbers must not be part of the wrapped extension. Use
+ * {@link ITransmitter#send(String, saros.net.xmpp.JID, PacketExtension, int)} to transmit it
+ * alongside the shared data.
+ */
+public final class SharedPacketExtension implements PacketExtension {
+
+  private final PacketExtension extension;
+
+  private String xml;
+
+  private byte[] data;
+
+  public SharedPacketExtension(final PacketExtension extension) {
+    if (extension == null) throw new NullPointerException("extension is null");
+
+    this.extension = extension;
+  }
+
+  /**
+   * Returns the wrapped extension.
+   *
+   * @return the wrapped extension
+   */
+  public PacketExtension getExtension() {
+    return extension;
+  }
+
+  @Override
+  public String getElementName() {
+    return extension.getElementName();
+  }
+
+  @Override
+  public String getNamespace() {
+    return extension.getNamespace();
+  }
+
+  /** Returns the XML representation of the wrapped extension which is only computed once. */
+  @Override
+  public synchronized String toXML() {
+    if (xml == null) xml = extension.toXML();
+
+    return xml;
+  }
+
+  /**
+   * Returns the marshalled form of the wrapped extension which is only computed once. {@linkplain
+   * IBinaryPacketExtension Binary extensions} are marshalled into their binary form, all other
+   * extensions into their UTF-8 encoded XML representation.
+   */
+  public synchronized byte[] toByteArray() {
+    if (data != null) return data;
+
+    if (extension instanceof IBinaryPacketExtension)
+      data = ((IBinaryPacketExtension) extension).toByteArray();
+    else data = toXML().getBytes(StandardCharsets.UTF_8);
+
+    return data;
+  }
+
+  @Override
+  public String toString() {
+    return "SharedPacketExtension [extension=" + extension + "]";
+  }
+}
@@ -2,18 +2,25 @@ package saros.net.internal;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.net.ProtocolException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 import org.apache.log4j.Logger;
+import saros.net.internal.CompressionSelector.Compression;
 import saros.net.stream.ByteStream;
+import saros.net.stream.SelectableByteStream;
 import saros.net.stream.StreamMode;
 import saros.net.xmpp.JID;
 
@@ -26,6 +33,21 @@ import saros.net.xmpp.JID;
  * <p>send() is a reentrant method for sending data. Any number of threads can call it in parallel.
  * <b>Note:</b> The maximum number of concurrent threads is 32 !
  *
+ * <p>If both sides support it, the data of each direction is compressed with a single deflate
+ * stream that lasts as long as the connection. Every chunk is flushed with {@link
+ * Deflater#SYNC_FLUSH} so it can be inflated as soon as it arrives, while the compression history
+ * of all previous chunks is kept. Small and repetitive packets like activities therefore compress
+ * far better than with a new deflate stream per packet. Support is announced by a namespace update
+ * for {@link #STREAM_COMPRESSION_FEATURE} which older clients just add to their cache. The
+ * compression level of each packet is chosen by a {@link CompressionSelector}.
+ *
+ * <p>Incoming data is read by a receiver thread of its own per connection by default. If the
+ * receive model is set to <code>SELECTOR</code> with the property <code>
+ * saros.net.binarychannel.RECEIVE_MODEL</code>, connections over a {@link SelectableByteStream} are
+ * read by the threads of a shared {@link ReceiveSelector} instead, so that idle connections do not
+ * occupy a thread. Those threads only process the data that is already available, partially
+ * received frames are kept in a buffer of the connection until their remainder arrives.
+ *
  * @author sszuecs
  * @author coezbek
  * @author srossbach
@@ -46,12 +68,100 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     private static final int ELEMENT_NAME_UPDATE = 0x65;
   }
 
+  private static class Flag {
+    /* flags of the transfer description, do not exceed 0xFF ! */
+
+    private static final int COMPRESSED = 0x01;
+
+    /*
+     * the transfer description is followed by a sequence number, older clients cannot read this so
+     * it must only be used for recipients that advertise SarosConstants.NAMESPACE_SEQUENCE_NUMBERS
+     */
+    private static final int SEQUENCE_NUMBER = 0x02;
+
+    /* the data chunks are compressed with the deflate stream of the connection */
+    private static final int STREAM_COMPRESSED = 0x04;
+  }
+
   /** Max size of data chunks */
   private static final int CHUNKSIZE = 32 * 1024 - 1;
 
+  /**
+   * Max size of data chunks before stream compression, chosen so that incompressible data still
+   * fits into {@link #CHUNKSIZE} after compression.
+   */
+  private static final int STREAM_COMPRESSION_CHUNKSIZE = CHUNKSIZE / 2;
+
+  /** Namespace that is announced by connections that support stream compression. */
+  static final String STREAM_COMPRESSION_FEATURE = "saros.net.feature.stream-compression";
+
+  /**
+   * Upper bound of the initial payload buffer size, the buffer grows beyond it if more data arrives
+   * so that a corrupted chunk count does not cause a huge allocation.
+   */
+  private static final int MAX_INITIAL_PAYLOAD_BUFFER_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * Packets larger than this size in bytes are bulk packets. Their chunks are sent one by one so
+   * that smaller packets can be sent in between.
+   */
+  private static final int BULK_THRESHOLD =
+      Integer.getInteger("saros.net.binarychannel.BULK_THRESHOLD", 16 * 1024);
+
+  /**
+   * Max size of the chunks of bulk packets on slow connections. Smaller chunks shorten the time a
+   * small packet has to wait for the chunk that is currently sent.
+   */
+  private static final int SLOW_CONNECTION_BULK_CHUNKSIZE = 8 * 1024;
+
+  private static final boolean STREAM_COMPRESSION =
+      Boolean.valueOf(System.getProperty("saros.net.binarychannel.STREAM_COMPRESSION", "true"));
+
+  /**
+   * Receive model of the connections, <code>THREAD</code> for a receiver thread per connection or
+   * <code>SELECTOR</code> for the shared {@link ReceiveSelector}.
+   */
+  private static final String RECEIVE_MODEL =
+      System.getProperty("saros.net.binarychannel.RECEIVE_MODEL", "THREAD");
+
+  /** Initial size of the buffer that collects the incoming frames for a {@link ReceiveSelector}. */
+  private static final int INITIAL_RECEIVE_BUFFER_SIZE = 8 * 1024;
+
   private IByteStreamConnectionListener listener;
   private ReceiverThread receiveThread;
 
+  /** The selector that reads the data, <code>null</code> if a receiver thread is used. */
+  private ReceiveSelector receiveSelector;
+
+  /** Held while the data is read by a thread of the {@link #receiveSelector}. */
+  private final Object receiveLock = new Object();
+
+  /**
+   * Collects the incoming data until a frame is complete if the connection is read by the {@link
+   * #receiveSelector}. A partially received frame is kept until the rest of it arrives, so no thread
+   * of the selector ever waits for the data of a single connection.
+   */
+  private ByteBuffer receiveBuffer;
+
+  /** Reads the complete frames out of the {@link #receiveBuffer}. */
+  private final InputStream receiveBufferStream =
+      new InputStream() {
+
+        @Override
+        public int read() {
+          return receiveBuffer.hasRemaining() ? receiveBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+          if (!receiveBuffer.hasRemaining()) return -1;
+
+          len = Math.min(len, receiveBuffer.remaining());
+          receiveBuffer.get(b, off, len);
+          return len;
+        }
+      };
+
   private final JID remoteAddress;
   private final JID localAddress;
 
@@ -62,8 +172,7 @@ public class BinaryChannelConnection implements IByteStreamConnection {
   private boolean connected;
   private boolean initialized;
 
-  private Map<Integer, ByteArrayOutputStream> pendingFragmentedPackets =
-      new HashMap<Integer, ByteArrayOutputStream>();
+  private Map<Integer, PendingPayload> pendingPayloads = new HashMap<Integer, PendingPayload>();
   private Map<Integer, BinaryXMPPExtension> pendingXMPPExtensions =
       new HashMap<Integer, BinaryXMPPExtension>();
 
@@ -82,6 +191,42 @@ public class BinaryChannelConnection implements IByteStreamConnection {
   private int nextNamespaceId = 0;
   private int nextElementNameId = 0;
 
+  /** Compresses outgoing chunks, only set once the remote side announced stream compression. */
+  private volatile Deflater deflater;
+
+  /** Inflates incoming chunks, only set if stream compression was announced to the remote side. */
+  private Inflater inflater;
+
+  /** Compressed size of incoming stream compressed packets that are still transmitted. */
+  private Map<Integer, Long> pendingCompressedSizes = new HashMap<Integer, Long>();
+
+  private final CompressionSelector compressionSelector;
+
+  private final SendScheduler scheduler = new SendScheduler();
+
+  /** Max size of the chunks of bulk packets that are not stream compressed. */
+  private final int bulkChunkSize;
+
+  private final byte[] compressionBuffer = new byte[CHUNKSIZE];
+
+  /** Receives the chunks of stream compressed packets before they are inflated. */
+  private final byte[] compressedChunkBuffer = new byte[CHUNKSIZE];
+
+  private final BufferPool bufferPool = BufferPool.SHARED;
+
+  /**
+   * The payload of a packet whose chunks are still received. The chunks are written directly into a
+   * single pooled buffer that is passed on as the payload of the packet.
+   */
+  private static class PendingPayload {
+    private byte[] buffer;
+    private int length;
+
+    private PendingPayload(byte[] buffer) {
+      this.buffer = buffer;
+    }
+  }
+
   private class ReceiverThread extends Thread {
 
     @Override
@@ -95,20 +240,71 @@ public class BinaryChannelConnection implements IByteStreamConnection {
           if (receiver != null) receiver.receive(extension);
         }
 
-      } catch (SocketException e) {
-        LOG.debug(connection + " connection closed locally: " + e.getMessage());
-      } catch (EOFException e) {
-        LOG.debug(connection + " connection closed remotely:" + e.getMessage());
-      } catch (IOException e) {
-        LOG.error(connection + " network error: " + e.getMessage(), e);
       } catch (Exception e) {
-        LOG.error(connection + " internal error: " + e.getMessage(), e);
+        logReceiveFailure(e);
       } finally {
+        if (inflater != null) inflater.end();
+
         close();
       }
     }
   }
 
+  /**
+   * Reads the data that is available on the stream if the connection is read by a {@link
+   * ReceiveSelector} and processes all frames that are complete. Never waits for more data.
+   *
+   * @return <code>false</code> if the connection is closed
+   */
+  private boolean receiveAvailableFrames() {
+    synchronized (receiveLock) {
+      try {
+        int read;
+
+        do {
+          read = ((SelectableByteStream) stream).readAvailable(receiveBuffer);
+
+          if (read == -1) throw new EOFException("end of stream reached");
+
+          receiveBuffer.flip();
+
+          int frameLength;
+
+          while ((frameLength = getFrameLength(receiveBuffer)) != -1
+              && frameLength <= receiveBuffer.remaining()) {
+            final BinaryXMPPExtension extension = readNextFrame();
+            if (extension != null && receiver != null) receiver.receive(extension);
+          }
+
+          // keep the partial frame until its remainder arrives
+          if (frameLength > receiveBuffer.capacity())
+            receiveBuffer = ByteBuffer.allocate(frameLength).put(receiveBuffer);
+          else receiveBuffer.compact();
+
+        } while (read > 0);
+
+        return true;
+
+      } catch (Exception e) {
+        logReceiveFailure(e);
+      }
+
+      endInflater();
+    }
+
+    close();
+    return false;
+  }
+
+  private void logReceiveFailure(Exception e) {
+    if (e instanceof SocketException || e instanceof ClosedChannelException)
+      LOG.debug(this + " connection closed locally: " + e.getMessage());
+    else if (e instanceof EOFException)
+      LOG.debug(this + " connection closed remotely:" + e.getMessage());
+    else if (e instanceof IOException) LOG.error(this + " network error: " + e.getMessage(), e);
+    else LOG.error(this + " internal error: " + e.getMessage(), e);
+  }
+
   private IBinaryXMPPExtensionReceiver receiver;
 
   public BinaryChannelConnection(
@@ -126,6 +322,11 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     this.stream = stream;
     this.stream.setReadTimeout(0); // keep connection alive
     this.mode = mode;
+    this.compressionSelector = new CompressionSelector(mode);
+    this.bulkChunkSize =
+        mode == StreamMode.TCP || mode == StreamMode.SOCKS5_DIRECT
+            ? CHUNKSIZE
+            : SLOW_CONNECTION_BULK_CHUNKSIZE;
 
     outputStream = new DataOutputStream(new BufferedOutputStream(stream.getOutputStream()));
     inputStream = new DataInputStream(new BufferedInputStream(stream.getInputStream()));
@@ -146,11 +347,49 @@ public class BinaryChannelConnection implements IByteStreamConnection {
      * it is ok to start the receiver a bit later because the data will be
      * already buffered by SMACK or the OS
      */
+    if (STREAM_COMPRESSION) announceStreamCompression();
+
+    connected = true;
+    initialized = true;
+
+    if (receiveSelector == null && "SELECTOR".equals(RECEIVE_MODEL)) {
+      try {
+        receiveSelector = ReceiveSelector.getShared();
+      } catch (IOException e) {
+        LOG.warn("failed to open receive selector, using a receiver thread", e);
+      }
+    }
+
+    if (receiveSelector != null && stream instanceof SelectableByteStream) {
+      receiveBuffer = ByteBuffer.allocate(INITIAL_RECEIVE_BUFFER_SIZE);
+      inputStream = new DataInputStream(receiveBufferStream);
+
+      receiveSelector.register(
+          ((SelectableByteStream) stream).getChannel(), this::receiveAvailableFrames);
+
+      return;
+    }
+
     receiveThread = new ReceiverThread();
     receiveThread.setName("BinaryChannel-" + remoteAddress.getName());
     receiveThread.start();
-    connected = true;
-    initialized = true;
+  }
+
+  /**
+   * Sets the selector that reads the data of this connection if its stream is selectable. Must be
+   * called before the connection is initialized. For testing purposes only.
+   */
+  void setReceiveSelector(ReceiveSelector receiveSelector) {
+    this.receiveSelector = receiveSelector;
+  }
+
+  /**
+   * Returns <code>true</code> if all data that is sent over this connection is compressed, so that
+   * the content passed to {@link #send} should not be compressed anymore.
+   */
+  @Override
+  public boolean isCompressing() {
+    return deflater != null;
   }
 
   @Override
@@ -174,12 +413,19 @@ public class BinaryChannelConnection implements IByteStreamConnection {
         LOG.error("failed to gracefully close connection " + this, e);
       } finally {
         connected = false;
+
+        if (deflater != null) deflater.end();
+
+        deflater = null;
       }
     }
 
-    assert receiveThread != null;
-
-    if (Thread.currentThread() != receiveThread) {
+    if (receiveThread == null) {
+      // waits until a receive thread of the selector noticed the closed stream
+      synchronized (receiveLock) {
+        endInflater();
+      }
+    } else if (Thread.currentThread() != receiveThread) {
       try {
         receiveThread.join(TERMINATE_TIMEOUT);
       } catch (InterruptedException e) {
@@ -214,11 +460,19 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
     if (fragmentId < 0) throw new IOException("concurrent access threshold exceeded");
 
+    final boolean bulk = content.length > BULK_THRESHOLD;
+
+    boolean hasTurn = false;
+
     try {
 
       Integer namespaceId;
       Integer elementNameId;
 
+      // the whole packet is sent in a single turn unless it is a bulk packet
+      scheduler.acquire(!bulk);
+      hasTurn = true;
+
       synchronized (this) {
         boolean sendUpdate = false;
 
@@ -271,16 +525,43 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
       assert content.length > 0;
 
-      int chunks = ((content.length - 1) / CHUNKSIZE) + 1;
+      // content that is already compressed will not get any smaller
+      final Compression compression =
+          isCompressing() && !data.compressContent()
+              ? compressionSelector.select()
+              : Compression.NONE;
+
+      final boolean streamCompress = compression != Compression.NONE;
+
+      final int chunkSize;
+
+      if (streamCompress) chunkSize = STREAM_COMPRESSION_CHUNKSIZE;
+      else if (bulk) chunkSize = bulkChunkSize;
+      else chunkSize = CHUNKSIZE;
+
+      int chunks = ((content.length - 1) / chunkSize) + 1;
 
       sendTransferDescription(
-          fragmentId, chunks, namespaceId, elementNameId, data.compressContent());
+          fragmentId,
+          chunks,
+          namespaceId,
+          elementNameId,
+          data.compressContent(),
+          streamCompress,
+          data.getSequenceNumber());
+
+      if (bulk) {
+        scheduler.release();
+        hasTurn = false;
+      }
 
-      splitAndSend(content, chunks, fragmentId);
+      splitAndSend(content, chunks, chunkSize, compression, fragmentId, bulk);
     } catch (IOException e) {
       close();
       throw e;
     } finally {
+      if (hasTurn) scheduler.release();
+
       idPool.freeID(fragmentId);
     }
   }
@@ -295,150 +576,279 @@ public class BinaryChannelConnection implements IByteStreamConnection {
   private BinaryXMPPExtension readNextXMPPExtension() throws IOException {
 
     while (!Thread.currentThread().isInterrupted()) {
+      final BinaryXMPPExtension extension = readNextFrame();
 
-      final int opcode = inputStream.readUnsignedByte();
+      if (extension != null) return extension;
+    }
 
-      if (opcode == -1) throw new EOFException("no stream data available");
+    // clear the interrupt flag
+    Thread.interrupted();
+    throw new InterruptedIOException("interrupted while reading stream data");
+  }
 
-      final int fragmentId;
+  /**
+   * Returns the length of the frame that starts at the position of the given buffer.
+   *
+   * @return the length of the frame or -1 if the buffer does not contain enough data to determine
+   *     it
+   */
+  private static int getFrameLength(ByteBuffer buffer) {
+    final int start = buffer.position();
+    final int available = buffer.remaining();
 
-      final int id;
-      final String name;
+    if (available < 1) return -1;
 
-      switch (opcode) {
-        case Opcode.TRANSFERDESCRIPTION:
-          fragmentId = inputStream.readShort();
-          final int chunks = inputStream.readInt();
+    switch (buffer.get(start) & 0xFF) {
+      case Opcode.TRANSFERDESCRIPTION:
+        // opcode, id, chunks, namespace id, element name id, flags and optional sequence number
+        if (available < 11) return -1;
 
-          if (LOG.isTraceEnabled()) {
-            LOG.trace(
-                "processing opcode 0x"
-                    + Integer.toHexString(opcode).toUpperCase()
-                    + " [TFD]: id="
-                    + fragmentId
-                    + ", chunks="
-                    + chunks);
-          }
+        return (buffer.get(start + 10) & Flag.SEQUENCE_NUMBER) != 0 ? 15 : 11;
 
-          final int namespaceId = inputStream.readUnsignedByte();
-          final int elementNameId = inputStream.readUnsignedShort();
-          final int compressed = inputStream.readUnsignedByte();
+      case Opcode.DATA:
+        // opcode, id, payload length and payload
+        if (available < 7) return -1;
 
-          final String namespace = inNamespaceCache.get(Integer.valueOf(namespaceId));
+        final int payloadLength = buffer.getInt(start + 3);
 
-          final String elementName = inElementNameCache.get(Integer.valueOf(elementNameId));
+        // a corrupted payload length is reported by readNextFrame
+        return payloadLength > 0 && payloadLength <= CHUNKSIZE ? 7 + payloadLength : 7;
 
-          final TransferDescription transferDescription = TransferDescription.newDescription();
+      case Opcode.NAMESPACE_UPDATE:
+        // opcode, id and the name in modified UTF-8 prefixed with its length
+        if (available < 4) return -1;
 
-          transferDescription.setSender(remoteAddress);
-          transferDescription.setRecipient(localAddress);
-          transferDescription.setNamespace(namespace);
-          transferDescription.setElementName(elementName);
-          transferDescription.setCompressContent(compressed == 1);
+        return 4 + (buffer.getShort(start + 2) & 0xFFFF);
 
-          BinaryXMPPExtension oldTransferObject =
-              pendingXMPPExtensions.put(
-                  fragmentId, new BinaryXMPPExtension(mode, transferDescription, chunks));
+      case Opcode.ELEMENT_NAME_UPDATE:
+        if (available < 5) return -1;
 
-          if (oldTransferObject != null)
-            throw new IOException("replaced a XMPP extension that is still transmitted");
-          break;
+        return 5 + (buffer.getShort(start + 3) & 0xFFFF);
 
-        case Opcode.DATA:
-          fragmentId = inputStream.readShort();
-          final int payloadLength = inputStream.readInt();
+      default:
+        // an unknown opcode is reported by readNextFrame
+        return 1;
+    }
+  }
 
-          if (LOG.isTraceEnabled()) {
-            LOG.trace(
-                "processing opcode 0x"
-                    + Integer.toHexString(opcode).toUpperCase()
-                    + " [DATA]: id="
-                    + fragmentId
-                    + ", DATA len="
-                    + payloadLength
-                    + " bytes");
-          }
+  /**
+   * Reads the next frame from the stream.
+   *
+   * @return the transfer object the frame completed or <code>null</code> if the frame did not
+   *     complete a transfer object
+   * @throws IOException If the associated socket broke, while reading or if the socket has already
+   *     been disposed.
+   */
+  private BinaryXMPPExtension readNextFrame() throws IOException {
+    final int opcode = inputStream.readUnsignedByte();
 
-          if (payloadLength <= 0 || payloadLength > CHUNKSIZE)
-            throw new ProtocolException(
-                "payload length field contains corrupted value: 0 < "
-                    + payloadLength
-                    + " <= "
-                    + CHUNKSIZE);
+    if (opcode == -1) throw new EOFException("no stream data available");
 
-          byte[] payload = new byte[payloadLength];
-          inputStream.readFully(payload);
+    final int fragmentId;
 
-          ByteArrayOutputStream out = pendingFragmentedPackets.get(fragmentId);
+    final int id;
+    final String name;
 
-          if (out == null) {
-            out = new ByteArrayOutputStream(payloadLength * 2);
-            pendingFragmentedPackets.put(fragmentId, out);
-          }
+    switch (opcode) {
+      case Opcode.TRANSFERDESCRIPTION:
+        fragmentId = inputStream.readShort();
+        final int chunks = inputStream.readInt();
 
-          out.write(payload);
-          out.flush();
+        if (LOG.isTraceEnabled()) {
+          LOG.trace(
+              "processing opcode 0x"
+                  + Integer.toHexString(opcode).toUpperCase()
+                  + " [TFD]: id="
+                  + fragmentId
+                  + ", chunks="
+                  + chunks);
+        }
 
-          if (!pendingXMPPExtensions.get(fragmentId).isLastChunk()) break;
+        final int namespaceId = inputStream.readUnsignedByte();
+        final int elementNameId = inputStream.readUnsignedShort();
+        final int flags = inputStream.readUnsignedByte();
 
-          pendingFragmentedPackets.remove(fragmentId);
+        final int sequenceNumber =
+            (flags & Flag.SEQUENCE_NUMBER) != 0
+                ? inputStream.readInt()
+                : TransferDescription.NO_SEQUENCE_NUMBER;
 
-          BinaryXMPPExtension fullyReceivedTransferObject =
-              pendingXMPPExtensions.remove(fragmentId);
+        final String namespace = inNamespaceCache.get(Integer.valueOf(namespaceId));
 
-          payload = out.toByteArray();
-          out = null; // help GC
+        final String elementName = inElementNameCache.get(Integer.valueOf(elementNameId));
 
-          fullyReceivedTransferObject.setPayload(payload.length, payload);
+        final TransferDescription transferDescription = TransferDescription.newDescription();
 
-          return fullyReceivedTransferObject;
+        transferDescription.setSender(remoteAddress);
+        transferDescription.setRecipient(localAddress);
+        transferDescription.setNamespace(namespace);
+        transferDescription.setElementName(elementName);
+        transferDescription.setCompressContent((flags & Flag.COMPRESSED) != 0);
+        transferDescription.setSequenceNumber(sequenceNumber);
 
-        case Opcode.ELEMENT_NAME_UPDATE:
-          if (LOG.isTraceEnabled()) {
-            LOG.trace(
-                "processing opcode 0x" + Integer.toHexString(opcode).toUpperCase() + " [ENU]");
-          }
+        if ((flags & Flag.STREAM_COMPRESSED) != 0) {
+          if (inflater == null) throw new ProtocolException("stream compression was not announced");
 
-          id = inputStream.readUnsignedShort();
-          name = inputStream.readUTF();
-          inElementNameCache.put(Integer.valueOf(id), name);
+          pendingCompressedSizes.put(fragmentId, 0L);
+        }
 
-          if (LOG.isTraceEnabled())
-            LOG.trace(
-                "updated incoming element name cache, id: " + id + " , element name: " + name);
+        BinaryXMPPExtension oldTransferObject =
+            pendingXMPPExtensions.put(
+                fragmentId, new BinaryXMPPExtension(mode, transferDescription, chunks));
+
+        if (oldTransferObject != null)
+          throw new IOException("replaced a XMPP extension that is still transmitted");
+        break;
+
+      case Opcode.DATA:
+        fragmentId = inputStream.readShort();
+        final int payloadLength = inputStream.readInt();
+
+        if (LOG.isTraceEnabled()) {
+          LOG.trace(
+              "processing opcode 0x"
+                  + Integer.toHexString(opcode).toUpperCase()
+                  + " [DATA]: id="
+                  + fragmentId
+                  + ", DATA len="
+                  + payloadLength
+                  + " bytes");
+        }
 
-          break;
+        if (payloadLength <= 0 || payloadLength > CHUNKSIZE)
+          throw new ProtocolException(
+              "payload length field contains corrupted value: 0 < "
+                  + payloadLength
+                  + " <= "
+                  + CHUNKSIZE);
 
-        case Opcode.NAMESPACE_UPDATE:
-          if (LOG.isTraceEnabled()) {
-            LOG.trace(
-                "processing opcode 0x" + Integer.toHexString(opcode).toUpperCase() + " [NSU]");
-          }
+        final BinaryXMPPExtension pendingExtension = pendingXMPPExtensions.get(fragmentId);
 
-          id = inputStream.readUnsignedByte();
-          name = inputStream.readUTF();
-          inNamespaceCache.put(Integer.valueOf(id), name);
+        if (pendingExtension == null)
+          throw new ProtocolException("received data for unknown transfer: id=" + fragmentId);
 
-          if (LOG.isTraceEnabled())
-            LOG.trace("updated incoming namespace cache, id: " + id + " , namespace: " + name);
+        final Long compressedSize = pendingCompressedSizes.get(fragmentId);
 
-          break;
+        PendingPayload pendingPayload = pendingPayloads.get(fragmentId);
 
-        default:
-          close();
-          throw new ProtocolException(
-              "unknown opcode: 0x" + Integer.toHexString(opcode).toUpperCase());
-      }
+        if (pendingPayload == null) {
+          // all chunks except the last one have the size of the first chunk
+          final int chunkSize =
+              compressedSize != null ? STREAM_COMPRESSION_CHUNKSIZE : payloadLength;
+
+          pendingPayload =
+              new PendingPayload(
+                  bufferPool.acquire(
+                      (int)
+                          Math.min(
+                              (long) chunkSize * pendingExtension.getMissingChunkCount(),
+                              MAX_INITIAL_PAYLOAD_BUFFER_SIZE)));
+
+          pendingPayloads.put(fragmentId, pendingPayload);
+        }
+
+        if (compressedSize != null) {
+          pendingCompressedSizes.put(fragmentId, compressedSize + payloadLength);
+          inputStream.readFully(compressedChunkBuffer, 0, payloadLength);
+          inflate(compressedChunkBuffer, payloadLength, pendingPayload);
+        } else {
+          ensureCapacity(pendingPayload, payloadLength);
+          inputStream.readFully(pendingPayload.buffer, pendingPayload.length, payloadLength);
+          pendingPayload.length += payloadLength;
+        }
+
+        if (!pendingExtension.isLastChunk()) break;
+
+        pendingPayloads.remove(fragmentId);
+        pendingXMPPExtensions.remove(fragmentId);
+
+        final Long transferredSize = pendingCompressedSizes.remove(fragmentId);
+
+        pendingExtension.setPayload(
+            transferredSize != null ? transferredSize : pendingPayload.length,
+            pendingPayload.buffer,
+            pendingPayload.length,
+            bufferPool);
+
+        return pendingExtension;
+
+      case Opcode.ELEMENT_NAME_UPDATE:
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("processing opcode 0x" + Integer.toHexString(opcode).toUpperCase() + " [ENU]");
+        }
+
+        id = inputStream.readUnsignedShort();
+        name = inputStream.readUTF();
+        inElementNameCache.put(Integer.valueOf(id), name);
+
+        if (LOG.isTraceEnabled())
+          LOG.trace("updated incoming element name cache, id: " + id + " , element name: " + name);
+
+        break;
+
+      case Opcode.NAMESPACE_UPDATE:
+        if (LOG.isTraceEnabled()) {
+          LOG.trace("processing opcode 0x" + Integer.toHexString(opcode).toUpperCase() + " [NSU]");
+        }
+
+        id = inputStream.readUnsignedByte();
+        name = inputStream.readUTF();
+        inNamespaceCache.put(Integer.valueOf(id), name);
+
+        if (STREAM_COMPRESSION && STREAM_COMPRESSION_FEATURE.equals(name))
+          enableStreamCompression();
+
+        if (LOG.isTraceEnabled())
+          LOG.trace("updated incoming namespace cache, id: " + id + " , namespace: " + name);
+
+        break;
+
+      default:
+        close();
+        throw new ProtocolException(
+            "unknown opcode: 0x" + Integer.toHexString(opcode).toUpperCase());
     }
 
-    // clear the interrupt flag
-    Thread.interrupted();
-    throw new InterruptedIOException("interrupted while reading stream data");
+    return null;
   }
 
-  private synchronized void sendData(int fragmentId, byte[] data, int offset, int length)
+  private synchronized void sendData(
+      int fragmentId, byte[] data, int offset, int length, Compression compression)
       throws IOException {
 
+    if (compression != Compression.NONE) {
+      if (deflater == null) throw new EOFException("connection is closed");
+
+      final long compressionStartTime = System.nanoTime();
+      final int uncompressedLength = length;
+
+      // a new level only applies after the next call to deflate
+      deflater.setLevel(compression.getLevel());
+      deflater.setInput(data, offset, length);
+
+      length = 0;
+
+      // a level change returns before all input is consumed
+      do {
+        length +=
+            deflater.deflate(
+                compressionBuffer, length, compressionBuffer.length - length, Deflater.SYNC_FLUSH);
+
+        // a full buffer means that the deflater may still have pending output
+        if (length == compressionBuffer.length)
+          throw new IOException("compressed data exceeds chunk size");
+
+      } while (!deflater.needsInput());
+
+      compressionSelector.compressed(
+          compression, uncompressedLength, length, System.nanoTime() - compressionStartTime);
+
+      data = compressionBuffer;
+      offset = 0;
+    }
+
+    final long transmissionStartTime = System.nanoTime();
+
     if (LOG.isTraceEnabled()) {
       LOG.trace("sending data: id=" + fragmentId + ", len=" + length + " bytes");
     }
@@ -448,10 +858,18 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     outputStream.writeInt(length);
     outputStream.write(data, offset, length);
     outputStream.flush();
+
+    compressionSelector.transmitted(length, System.nanoTime() - transmissionStartTime);
   }
 
   private synchronized void sendTransferDescription(
-      int fragmentId, int chunks, int namespaceId, int elementNameId, boolean compress)
+      int fragmentId,
+      int chunks,
+      int namespaceId,
+      int elementNameId,
+      boolean compress,
+      boolean streamCompress,
+      int sequenceNumber)
       throws IOException {
 
     if (LOG.isTraceEnabled()) {
@@ -463,26 +881,122 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     outputStream.writeInt(chunks);
     outputStream.write(namespaceId);
     outputStream.writeShort(elementNameId);
-    outputStream.write(compress ? 1 : 0);
+
+    final boolean hasSequenceNumber = sequenceNumber != TransferDescription.NO_SEQUENCE_NUMBER;
+
+    int flags = 0;
+
+    if (compress) flags |= Flag.COMPRESSED;
+
+    if (streamCompress) flags |= Flag.STREAM_COMPRESSED;
+
+    if (hasSequenceNumber) flags |= Flag.SEQUENCE_NUMBER;
+
+    outputStream.write(flags);
+
+    if (hasSequenceNumber) outputStream.writeInt(sequenceNumber);
+
     outputStream.flush();
   }
 
-  /** Splits the given data into chunks of CHUNKSIZE to send the BinaryPackets. */
-  private void splitAndSend(byte[] data, int chunks, int fragmentId) throws IOException {
+  /**
+   * Splits the given data into chunks of the given size to send the BinaryPackets. The chunks of a
+   * bulk packet are sent in separate turns of the {@link SendScheduler}, otherwise the caller must
+   * already hold the turn.
+   */
+  private void splitAndSend(
+      byte[] data, int chunks, int chunkSize, Compression compression, int fragmentId, boolean bulk)
+      throws IOException {
 
     int offset = 0;
     int length = 0;
 
     while (chunks-- > 0) {
 
-      length = Math.min(data.length - offset, CHUNKSIZE);
+      length = Math.min(data.length - offset, chunkSize);
 
-      sendData(fragmentId, data, offset, length);
+      if (bulk) scheduler.acquire(false);
+
+      try {
+        sendData(fragmentId, data, offset, length, compression);
+      } finally {
+        if (bulk) scheduler.release();
+      }
 
       offset += length;
     }
   }
 
+  /**
+   * Announces to the remote side that this side is able to inflate stream compressed data. This is
+   * done with a namespace update which older clients just add to their namespace cache.
+   */
+  private void announceStreamCompression() {
+    inflater = new Inflater();
+
+    try {
+      synchronized (this) {
+        final Integer namespaceId = Integer.valueOf(nextNamespaceId++);
+        outNamespaceCache.put(STREAM_COMPRESSION_FEATURE, namespaceId);
+
+        outputStream.write(Opcode.NAMESPACE_UPDATE);
+        outputStream.write(namespaceId);
+        outputStream.writeUTF(STREAM_COMPRESSION_FEATURE);
+        outputStream.flush();
+      }
+    } catch (IOException e) {
+      // the receiver thread will notice that the stream is broken
+      LOG.warn("failed to announce stream compression on connection " + this, e);
+    }
+  }
+
+  private void endInflater() {
+    if (inflater != null) inflater.end();
+
+    inflater = null;
+  }
+
+  private synchronized void enableStreamCompression() {
+    if (!connected || deflater != null) return;
+
+    LOG.debug(this + " remote side supports stream compression");
+
+    deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /** Inflates a chunk of the incoming deflate stream and appends the result to the payload. */
+  private void inflate(byte[] data, int length, PendingPayload payload) throws IOException {
+    inflater.setInput(data, 0, length);
+
+    try {
+      while (true) {
+        ensureCapacity(payload, 1);
+
+        final int count =
+            inflater.inflate(
+                payload.buffer, payload.length, payload.buffer.length - payload.length);
+
+        payload.length += count;
+
+        // a full buffer means that there may be more output pending
+        if (payload.length == payload.buffer.length) continue;
+
+        if (inflater.needsInput()) break;
+
+        if (count == 0) throw new ProtocolException("unexpected end of compression stream");
+      }
+    } catch (DataFormatException e) {
+      throw new ProtocolException("corrupted stream compressed data: " + e.getMessage());
+    }
+  }
+
+  /** Ensures that the given number of bytes can be appended to the payload. */
+  private void ensureCapacity(PendingPayload payload, int length) {
+    if (payload.buffer.length - payload.length >= length) return;
+
+    payload.buffer = bufferPool.grow(payload.buffer, payload.length, payload.length + length);
+  }
+
   @Override
   public String toString() {
     return "[mode=" + getMode() + ", id=" + connectionID + "]" + " " + remoteAddress;
@@ -10,6 +10,8 @@ public final class BinaryXMPPExtension {
   private long transferredSize;
   private long uncompressedSize;
   private byte[] payload;
+  private int payloadLength;
+  private BufferPool payloadPool;
   private long transferDuration;
   private StreamMode transferMode;
 
@@ -26,11 +28,41 @@ public final class BinaryXMPPExtension {
   /**
    * Returns the XMPP packet extension in binary form. <b>Note:</b>The returned byte array <b>must
    * not</b> be modified directly.
+   *
+   * <p>If the payload is stored in a larger buffer, it is copied into an array of its exact size
+   * first. Use {@link #getPayloadBuffer()} and {@link #getPayloadLength()} to avoid this copy.
    */
   byte[] getPayload() {
+    if (payload != null && payload.length != payloadLength) {
+      final byte[] data = new byte[payloadLength];
+      System.arraycopy(payload, 0, data, 0, payloadLength);
+
+      release();
+      payload = data;
+    }
+
     return payload;
   }
 
+  /**
+   * Returns the buffer that contains the XMPP packet extension in binary form. Only the first
+   * {@link #getPayloadLength()} bytes of the buffer belong to the payload. <b>Note:</b>The returned
+   * byte array <b>must not</b> be modified directly.
+   */
+  byte[] getPayloadBuffer() {
+    return payload;
+  }
+
+  /** Returns the length of the XMPP packet extension in binary form. */
+  int getPayloadLength() {
+    return payloadLength;
+  }
+
+  /** Returns the number of chunks that are still missing. */
+  int getMissingChunkCount() {
+    return chunkCount;
+  }
+
   /** Returns the transfer description of this transfer object. */
   // public for STF
   public TransferDescription getTransferDescription() {
@@ -65,13 +97,42 @@ public final class BinaryXMPPExtension {
    * @throws IllegalStateException if there are still missing chunks, see also {@link #isLastChunk}
    */
   void setPayload(long originalSize, byte[] data) {
+    setPayload(originalSize, data, data.length, null);
+  }
+
+  /**
+   * Sets the data for this XMPP packet extension. The previous payload is released if it was
+   * acquired from a pool.
+   *
+   * @param originalSize the original size of the received data
+   * @param buffer the buffer that contains the binary form of the XMPP packet extension
+   * @param length the length of the binary form of the XMPP packet extension
+   * @param pool the pool the buffer was acquired from or <code>null</code>
+   * @throws IllegalStateException if there are still missing chunks, see also {@link #isLastChunk}
+   */
+  void setPayload(long originalSize, byte[] buffer, int length, BufferPool pool) {
 
     if (chunkCount > 0)
       throw new IllegalStateException("there are chunks missing: " + chunkCount + " > 0");
 
-    payload = data;
+    if (payload != buffer) release();
+
+    payload = buffer;
+    payloadLength = length;
+    payloadPool = pool;
     transferredSize = originalSize;
-    uncompressedSize = data.length;
+    uncompressedSize = length;
+  }
+
+  /**
+   * Returns the payload buffer to the pool it was acquired from. The payload <b>must not</b> be
+   * accessed anymore after this call.
+   */
+  void release() {
+    if (payloadPool != null) payloadPool.release(payload);
+
+    payloadPool = null;
+    payload = null;
   }
 
   /**
@@ -0,0 +1,139 @@
+package saros.net.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte arrays that are used to receive and decompress packet extensions. The buffers are
+ * grouped into size classes of powers of two, so a buffer that is handed out may be larger than
+ * requested. Buffers that are released are kept for reuse until the pool retains {@link
+ * #MAX_RETAINED_SIZE} bytes, further buffers are left to the garbage collector.
+ *
+ * <p>The pool keeps track of the number of bytes it had to allocate and the number of bytes it
+ * handed out, so its effectiveness can be measured.
+ *
+ * <p>This class is thread safe.
+ */
+final class BufferPool {
+
+  /** Maximum number of bytes that are retained by the shared pool. */
+  static final long MAX_RETAINED_SIZE =
+      Long.getLong("saros.net.bufferpool.MAX_RETAINED_SIZE", 32L * 1024 * 1024);
+
+  /** The pool that is shared by all connections. */
+  static final BufferPool SHARED = new BufferPool(MAX_RETAINED_SIZE);
+
+  private static final int MIN_SIZE_CLASS = 10; // 1 KB
+
+  private static final int MAX_SIZE_CLASS = 30; // 1 GB
+
+  @SuppressWarnings("unchecked")
+  private final Queue<byte[]>[] buffers = new Queue[MAX_SIZE_CLASS + 1];
+
+  private final long maxRetainedSize;
+
+  private final AtomicLong retainedSize = new AtomicLong();
+
+  private final AtomicLong allocatedSize = new AtomicLong();
+
+  private final AtomicLong acquiredSize = new AtomicLong();
+
+  BufferPool(final long maxRetainedSize) {
+    this.maxRetainedSize = maxRetainedSize;
+
+    for (int sizeClass = MIN_SIZE_CLASS; sizeClass <= MAX_SIZE_CLASS; sizeClass++)
+      buffers[sizeClass] = new ConcurrentLinkedQueue<byte[]>();
+  }
+
+  /**
+   * Returns a buffer with at least the given size. The content of the buffer is undefined.
+   *
+   * @param size the minimum size of the buffer
+   * @return a buffer that is at least as large as the given size
+   */
+  byte[] acquire(final int size) {
+    final int sizeClass = getSizeClass(size);
+
+    if (sizeClass > MAX_SIZE_CLASS) {
+      allocatedSize.addAndGet(size);
+      acquiredSize.addAndGet(size);
+      return new byte[size];
+    }
+
+    byte[] buffer = buffers[sizeClass].poll();
+
+    if (buffer != null) {
+      retainedSize.addAndGet(-buffer.length);
+    } else {
+      buffer = new byte[1 << sizeClass];
+      allocatedSize.addAndGet(buffer.length);
+    }
+
+    acquiredSize.addAndGet(buffer.length);
+
+    return buffer;
+  }
+
+  /**
+   * Returns a larger buffer that starts with the given number of bytes of the given buffer. The
+   * given buffer is released.
+   *
+   * @param buffer the buffer to grow
+   * @param length the number of bytes of the buffer that must be kept
+   * @param size the minimum size of the new buffer
+   * @return a buffer that is at least as large as the given size
+   */
+  byte[] grow(final byte[] buffer, final int length, final int size) {
+    final byte[] newBuffer = acquire(Math.max(size, buffer.length * 2));
+
+    System.arraycopy(buffer, 0, newBuffer, 0, length);
+    release(buffer);
+
+    return newBuffer;
+  }
+
+  /**
+   * Returns the buffer to the pool. The buffer <b>must not</b> be used anymore after this call.
+   *
+   * @param buffer a buffer that was acquired from this pool
+   */
+  void release(final byte[] buffer) {
+    final int length = buffer.length;
+
+    // buffers of other sizes were not allocated by this pool
+    if (Integer.bitCount(length) != 1) return;
+
+    final int sizeClass = Integer.numberOfTrailingZeros(length);
+
+    if (sizeClass < MIN_SIZE_CLASS || sizeClass > MAX_SIZE_CLASS) return;
+
+    if (retainedSize.addAndGet(length) > maxRetainedSize) {
+      retainedSize.addAndGet(-length);
+      return;
+    }
+
+    buffers[sizeClass].offer(buffer);
+  }
+
+  /** Returns the number of bytes the pool had to allocate because no buffer could be reused. */
+  long getAllocatedSize() {
+    return allocatedSize.get();
+  }
+
+  /** Returns the number of bytes the pool handed out. */
+  long getAcquiredSize() {
+    return acquiredSize.get();
+  }
+
+  /** Returns the number of bytes of the buffers that are currently kept for reuse. */
+  long getRetainedSize() {
+    return retainedSize.get();
+  }
+
+  private static int getSizeClass(final int size) {
+    if (size <= 1 << MIN_SIZE_CLASS) return MIN_SIZE_CLASS;
+
+    return 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+}
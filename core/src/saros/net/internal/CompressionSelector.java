@@ -0,0 +1,196 @@
+package saros.net.internal;
+
+import java.util.zip.Deflater;
+import saros.net.stream.StreamMode;
+
+/**
+ * Selects the compression for the packets that are sent over a single connection. The selector
+ * estimates the time it takes to compress and transmit a byte with every available {@linkplain
+ * Compression compression} and selects the one with the lowest estimate. The estimates are based on
+ * the observed compression ratios and compression times as well as on the measured throughput of
+ * the connection. Until enough measurements are available the throughput is estimated from the
+ * {@link StreamMode} of the connection.
+ *
+ * <p>The selection is re-evaluated every {@link #EVALUATION_INTERVAL} packets. To keep the
+ * estimates of the compressions that are currently not selected up to date, one packet per interval
+ * is sent with one of them.
+ *
+ * <p>This class is thread safe.
+ */
+final class CompressionSelector {
+
+  /** The available compressions, all of them produce data that can be inflated. */
+  enum Compression {
+    NONE(Deflater.NO_COMPRESSION),
+    FAST(Deflater.BEST_SPEED),
+    DEFLATE(Deflater.DEFAULT_COMPRESSION);
+
+    private final int level;
+
+    private Compression(final int level) {
+      this.level = level;
+    }
+
+    /** Returns the {@link Deflater} level of the compression. */
+    int getLevel() {
+      return level;
+    }
+  }
+
+  /** Number of packets after which the selection is re-evaluated. */
+  static final int EVALUATION_INTERVAL =
+      Integer.getInteger("saros.net.compression.EVALUATION_INTERVAL", 64);
+
+  /** Compression that is always selected if set, e.g <code>NONE</code> or <code>DEFLATE</code>. */
+  private static final Compression FIXED_COMPRESSION = getFixedCompression();
+
+  /** Transfers of fewer bytes mostly measure latency instead of throughput. */
+  private static final int MIN_THROUGHPUT_MEASUREMENT_SIZE = 1024;
+
+  /** Weight of a new measurement in the exponentially weighted moving averages. */
+  private static final double ALPHA = 0.25;
+
+  private static final Compression[] COMPRESSIONS = Compression.values();
+
+  /** Compressed size per uncompressed byte. */
+  private final double[] ratios = new double[COMPRESSIONS.length];
+
+  /** Compression time in nanoseconds per uncompressed byte. */
+  private final double[] costs = new double[COMPRESSIONS.length];
+
+  /** Transmission time in nanoseconds per byte. */
+  private double transmissionCost;
+
+  private Compression selected;
+
+  private int packets;
+
+  private int nextProbe;
+
+  /**
+   * Creates a selector for a connection of the given stream mode.
+   *
+   * @param mode the stream mode of the connection
+   */
+  CompressionSelector(final StreamMode mode) {
+    ratios[Compression.NONE.ordinal()] = 1D;
+    ratios[Compression.FAST.ordinal()] = 0.6D;
+    ratios[Compression.DEFLATE.ordinal()] = 0.5D;
+
+    costs[Compression.NONE.ordinal()] = 0D;
+    costs[Compression.FAST.ordinal()] = 10D;
+    costs[Compression.DEFLATE.ordinal()] = 30D;
+
+    transmissionCost = getInitialTransmissionCost(mode);
+
+    selected = evaluate();
+  }
+
+  /**
+   * Returns the compression to use for the next packet.
+   *
+   * @return the compression to use
+   */
+  synchronized Compression select() {
+    if (FIXED_COMPRESSION != null) return FIXED_COMPRESSION;
+
+    if (++packets < EVALUATION_INTERVAL) return selected;
+
+    packets = 0;
+    selected = evaluate();
+
+    // probe one of the other compressions to keep its estimates up to date
+    nextProbe = (nextProbe + 1) % COMPRESSIONS.length;
+
+    if (COMPRESSIONS[nextProbe] == selected) nextProbe = (nextProbe + 1) % COMPRESSIONS.length;
+
+    return COMPRESSIONS[nextProbe];
+  }
+
+  /**
+   * Records the result of compressing data.
+   *
+   * @param compression the compression that was used
+   * @param uncompressedSize the size of the data before compression
+   * @param compressedSize the size of the data after compression
+   * @param nanos the time it took to compress the data in nanoseconds
+   */
+  synchronized void compressed(
+      final Compression compression,
+      final long uncompressedSize,
+      final long compressedSize,
+      final long nanos) {
+
+    if (compression == Compression.NONE || uncompressedSize <= 0) return;
+
+    final int idx = compression.ordinal();
+
+    ratios[idx] = average(ratios[idx], (double) compressedSize / uncompressedSize);
+    costs[idx] = average(costs[idx], (double) nanos / uncompressedSize);
+  }
+
+  /**
+   * Records the transmission of data.
+   *
+   * @param size the number of bytes that were transmitted
+   * @param nanos the time it took to transmit the data in nanoseconds
+   */
+  synchronized void transmitted(final long size, final long nanos) {
+    if (size < MIN_THROUGHPUT_MEASUREMENT_SIZE) return;
+
+    transmissionCost = average(transmissionCost, (double) nanos / size);
+  }
+
+  /** Returns the compression that is currently selected. For testing purposes only. */
+  synchronized Compression getSelected() {
+    return selected;
+  }
+
+  private Compression evaluate() {
+    Compression best = Compression.NONE;
+    double bestCost = Double.MAX_VALUE;
+
+    for (final Compression compression : COMPRESSIONS) {
+      final int idx = compression.ordinal();
+      final double cost = costs[idx] + ratios[idx] * transmissionCost;
+
+      if (cost < bestCost) {
+        best = compression;
+        bestCost = cost;
+      }
+    }
+
+    return best;
+  }
+
+  private static double average(final double average, final double value) {
+    return average + ALPHA * (value - average);
+  }
+
+  private static Compression getFixedCompression() {
+    final String value = System.getProperty("saros.net.compression.FIXED_COMPRESSION");
+
+    if (value == null) return null;
+
+    try {
+      return Compression.valueOf(value);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Returns the estimated transmission time in nanoseconds per byte of the given stream mode. */
+  private static double getInitialTransmissionCost(final StreamMode mode) {
+    switch (mode) {
+      case TCP:
+      case SOCKS5_DIRECT:
+        return 10D; // ~ 100 MB/s
+
+      case SOCKS5_MEDIATED:
+        return 1000D; // ~ 1 MB/s
+
+      default:
+        return 50000D; // ~ 20 KB/s
+    }
+  }
+}
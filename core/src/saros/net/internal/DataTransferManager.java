@@ -16,6 +16,7 @@ import org.jivesoftware.smack.Connection;
 import saros.annotations.Component;
 import saros.context.IContextKeyBindings.IBBStreamService;
 import saros.context.IContextKeyBindings.Socks5StreamService;
+import saros.context.IContextKeyBindings.TCPStreamService;
 import saros.net.ConnectionState;
 import saros.net.IConnectionManager;
 import saros.net.stream.IStreamService;
@@ -50,6 +51,8 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
 
   private int serviceMask = -1;
 
+  private final IStreamService directService;
+
   private final IStreamService mainService;
 
   private final IStreamService fallbackService;
@@ -136,9 +139,11 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
 
   public DataTransferManager(
       XMPPConnectionService connectionService,
+      @Nullable @TCPStreamService IStreamService directService,
       @Nullable @Socks5StreamService IStreamService mainService,
       @Nullable @IBBStreamService IStreamService fallbackService) {
 
+    this.directService = directService;
     this.fallbackService = fallbackService;
     this.mainService = mainService;
     this.setStreamServices();
@@ -317,17 +322,27 @@ public class DataTransferManager implements IConnectionListener, IConnectionMana
     }
   }
 
+  /**
+   * Sets the stream services in the order they are tried when establishing a connection. A direct
+   * TCP connection is preferred as it needs neither a proxy nor the XMPP server to transfer data.
+   * SOCKS5 is tried next as it may still find a direct or at least a mediated connection. IBB
+   * always works but is by far the slowest, so it is only used if everything else failed.
+   */
   private void setStreamServices() {
     boolean useIBB;
     boolean useSocks5;
+    boolean useTCP;
 
     synchronized (this) {
       useIBB = (serviceMask & IBB_SERVICE) != 0;
       useSocks5 = (serviceMask & SOCKS5_SERVICE) != 0;
+      useTCP = (serviceMask & TCP_SERVICE) != 0;
     }
 
     streamServices.clear();
 
+    if (useTCP && directService != null) streamServices.add(directService);
+
     if (useSocks5 && mainService != null) streamServices.add(mainService);
 
     if (useIBB && fallbackService != null) streamServices.add(fallbackService);
@@ -36,6 +36,14 @@ public interface IByteStreamConnection {
    */
   public String getConnectionID();
 
+  /**
+   * Returns whether the connection compresses all data it sends by itself. Data that is sent over
+   * such a connection should not be compressed in advance.
+   *
+   * @return <code>true</code> if the connection compresses the data, <code>false</code> otherwise
+   */
+  public boolean isCompressing();
+
   public StreamMode getMode();
 
   public void setBinaryXMPPExtensionReceiver(IBinaryXMPPExtensionReceiver receiver);
@@ -0,0 +1,176 @@
+package saros.net.internal;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.apache.log4j.Logger;
+import saros.util.NamedThreadFactory;
+
+/**
+ * Receives the data of many connections with a single selector thread and a bounded pool of receive
+ * threads. The selector thread waits until data arrives on any of the registered channels and then
+ * hands the channel over to a receive thread, which reads the available data. While the data is
+ * read the channel is not selected again, so the data of a single connection is always read by one
+ * thread at a time and in order. Connections that are idle therefore do not occupy a thread at all.
+ *
+ * <p>This class is thread safe.
+ */
+final class ReceiveSelector {
+
+  private static final Logger LOG = Logger.getLogger(ReceiveSelector.class);
+
+  /** Callback that reads the data of a registered channel. */
+  interface Receiver {
+
+    /**
+     * Reads the data that is currently available. This method must not wait for more data, as a
+     * connection whose remote side stalls would otherwise occupy a receive thread.
+     *
+     * @return <code>true</code> if the channel should be selected again, <code>false</code> if the
+     *     connection is closed
+     */
+    boolean receive();
+  }
+
+  /** Number of threads that read the data of the channels of the shared selector. */
+  static final int RECEIVE_THREADS =
+      Integer.getInteger(
+          "saros.net.binarychannel.RECEIVE_THREADS",
+          Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+  private static ReceiveSelector shared;
+
+  private final Selector selector;
+
+  private final ExecutorService receivePool;
+
+  /** Changes of the registrations, they are applied by the selector thread. */
+  private final Queue<Runnable> pendingChanges = new ConcurrentLinkedQueue<Runnable>();
+
+  /**
+   * Creates a selector that reads the data of its channels with the given number of threads. The
+   * threads are daemon threads that run until {@link #shutdown()} is called.
+   *
+   * @param threads the number of receive threads
+   * @throws IOException if the selector could not be opened
+   */
+  ReceiveSelector(final int threads) throws IOException {
+    selector = Selector.open();
+    receivePool =
+        Executors.newFixedThreadPool(
+            threads, daemon(new NamedThreadFactory("BinaryChannel-Receive-")));
+
+    daemon(new NamedThreadFactory("BinaryChannel-Selector", false)).newThread(this::select).start();
+  }
+
+  /**
+   * Returns the selector that is shared by all connections.
+   *
+   * @return the shared selector
+   * @throws IOException if the shared selector could not be opened
+   */
+  static synchronized ReceiveSelector getShared() throws IOException {
+    if (shared == null) shared = new ReceiveSelector(RECEIVE_THREADS);
+
+    return shared;
+  }
+
+  /**
+   * Registers the given channel. The receiver is called every time data is available until it
+   * returns <code>false</code> or the channel is closed.
+   *
+   * @param channel a channel in non-blocking mode
+   * @param receiver the receiver that reads the data of the channel
+   */
+  void register(final SelectableChannel channel, final Receiver receiver) {
+    changeRegistration(
+        () -> {
+          try {
+            channel.register(selector, SelectionKey.OP_READ, receiver);
+          } catch (ClosedChannelException e) {
+            receivePool.execute(receiver::receive);
+          }
+        });
+  }
+
+  /** Stops the selector thread and the receive threads. For testing purposes only. */
+  void shutdown() {
+    try {
+      selector.close();
+    } catch (IOException e) {
+      LOG.warn("failed to close selector", e);
+    }
+
+    receivePool.shutdown();
+  }
+
+  private void select() {
+    try {
+      while (selector.isOpen()) {
+        selector.select();
+
+        Runnable change;
+
+        while ((change = pendingChanges.poll()) != null) change.run();
+
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+
+          try {
+            // the channel is not selected again until its data was read
+            key.interestOps(0);
+            receivePool.execute(() -> receive(key));
+          } catch (CancelledKeyException e) {
+            // the channel was closed in the meantime
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.error("receive selector failed, no more data is received", e);
+    } catch (RuntimeException e) {
+      if (selector.isOpen()) LOG.error("receive selector failed, no more data is received", e);
+    }
+  }
+
+  private void receive(final SelectionKey key) {
+    final Receiver receiver = (Receiver) key.attachment();
+
+    if (!receiver.receive()) {
+      key.cancel();
+      return;
+    }
+
+    changeRegistration(
+        () -> {
+          if (key.isValid()) key.interestOps(SelectionKey.OP_READ);
+        });
+  }
+
+  /**
+   * Applies the change on the selector thread as the registrations must not change while selecting.
+   */
+  private void changeRegistration(final Runnable change) {
+    pendingChanges.add(change);
+    selector.wakeup();
+  }
+
+  private static ThreadFactory daemon(final ThreadFactory factory) {
+    return runnable -> {
+      final Thread thread = factory.newThread(runnable);
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,71 @@
+package saros.net.internal;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides which of the threads that concurrently send over a single connection may write its next
+ * frame. Only one thread holds the turn at a time. Waiting urgent senders always get the turn
+ * before waiting bulk senders, so a small packet only has to wait until the frame that is currently
+ * written is complete. Bulk senders request a new turn for every frame and get it in the order of
+ * their requests, so concurrent bulk transfers share the connection in a round robin fashion.
+ *
+ * <p>This class is thread safe.
+ */
+final class SendScheduler {
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition turnReleased = lock.newCondition();
+
+  private final Queue<Object> bulkRequests = new ArrayDeque<Object>();
+
+  private int urgentRequests;
+
+  private boolean busy;
+
+  /**
+   * Waits until the calling thread gets the turn to write.
+   *
+   * @param urgent <code>true</code> to get the turn before all waiting bulk senders
+   */
+  void acquire(final boolean urgent) {
+    lock.lock();
+
+    try {
+      if (urgent) {
+        urgentRequests++;
+
+        while (busy) turnReleased.awaitUninterruptibly();
+
+        urgentRequests--;
+      } else {
+        final Object request = new Object();
+        bulkRequests.add(request);
+
+        while (busy || urgentRequests > 0 || bulkRequests.peek() != request)
+          turnReleased.awaitUninterruptibly();
+
+        bulkRequests.remove();
+      }
+
+      busy = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Releases the turn of the calling thread. */
+  void release() {
+    lock.lock();
+
+    try {
+      busy = false;
+      turnReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
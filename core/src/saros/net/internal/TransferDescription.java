@@ -10,6 +10,9 @@ import saros.net.xmpp.JID;
  */
 public class TransferDescription {
 
+  /** Value of the sequence number if the transfer does not carry a sequence number. */
+  public static final int NO_SEQUENCE_NUMBER = -1;
+
   private TransferDescription() {
     // NOP
   }
@@ -25,6 +28,9 @@ public class TransferDescription {
   /** Field used to indicate that the payload may be compressed. */
   private boolean compress;
 
+  /** Sequence number that is transmitted alongside the payload. */
+  private int sequenceNumber = NO_SEQUENCE_NUMBER;
+
   public static TransferDescription newDescription() {
     return new TransferDescription();
   }
@@ -74,6 +80,20 @@ public class TransferDescription {
     return compress;
   }
 
+  TransferDescription setSequenceNumber(int sequenceNumber) {
+    this.sequenceNumber = sequenceNumber;
+    return this;
+  }
+
+  /**
+   * Returns the sequence number that is transmitted alongside the payload.
+   *
+   * @return the sequence number or {@link #NO_SEQUENCE_NUMBER} if there is none
+   */
+  public int getSequenceNumber() {
+    return sequenceNumber;
+  }
+
   @Override
   public String toString() {
     return "TransferDescription [elementName="
@@ -86,6 +106,8 @@ public class TransferDescription {
         + sender
         + ", compress="
         + compress
+        + ", sequenceNumber="
+        + sequenceNumber
         + "]";
   }
 }
@@ -1,19 +1,29 @@
 package saros.net.internal;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.Connection;
 import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.DefaultPacketExtension;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
@@ -24,15 +34,31 @@ import org.xmlpull.v1.XmlPullParser;
 import saros.annotations.Component;
 import saros.net.ConnectionState;
 import saros.net.DispatchThreadContext;
+import saros.net.ExtensionPacketFilter;
+import saros.net.IBinaryPacketExtension;
+import saros.net.IBinaryPacketExtensionProvider;
 import saros.net.IPacketInterceptor;
 import saros.net.IReceiver;
 import saros.net.ITransferListener;
 import saros.net.PacketCollector;
 import saros.net.PacketCollector.CancelHook;
+import saros.net.PresetDictionary;
 import saros.net.stream.StreamMode;
 import saros.net.xmpp.IConnectionListener;
+import saros.net.xmpp.JID;
 import saros.net.xmpp.XMPPConnectionService;
-
+import saros.util.NamedThreadFactory;
+
+/**
+ * Receives packets from the XMPP connection and binary XMPP extensions from the byte stream
+ * connections and dispatches them to the registered listeners on the dispatch thread.
+ *
+ * <p>Binary XMPP extensions are decoded (decompressed and deserialized) on a pool of decode threads
+ * before they are handed over to the dispatch thread. Extensions of the same sender that were
+ * received over the same connection are dispatched in the order they were received, no matter in
+ * which order their decoding finishes. Extensions of other senders or connections do not have to
+ * wait until a large extension is decoded.
+ */
 @Component(module = "net")
 public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
 
@@ -40,10 +66,102 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
 
   private static final int CHUNKSIZE = 16 * 1024;
 
+  /** Maximum number of threads that decode binary XMPP extensions concurrently. */
+  private static final int DECODE_THREADS =
+      Integer.getInteger(
+          "saros.net.receiver.DECODE_THREADS",
+          Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+  /** A received extension that is decoded and waits to be dispatched. */
+  private static class DecodeTask {
+    private final BinaryXMPPExtension extension;
+
+    /**
+     * The decoded packet, <code>null</code> if decoding failed or is left to the dispatch thread
+     */
+    private Packet packet;
+
+    /** The provider that parses the payload on the dispatch thread */
+    private IBinaryPacketExtensionProvider binaryProvider;
+
+    private boolean decoded;
+
+    private DecodeTask(final BinaryXMPPExtension extension) {
+      this.extension = extension;
+    }
+  }
+
   private final DispatchThreadContext dispatchThreadContext;
 
+  private final ThreadPoolExecutor decodeExecutor;
+
+  /**
+   * The extensions that are not dispatched yet in the order they were received, grouped by sender
+   * and connection ID. Guarded by itself.
+   */
+  private final Map<String, Queue<DecodeTask>> pendingExtensions =
+      new HashMap<String, Queue<DecodeTask>>();
+
+  /** A listener and the filter it was registered with. */
+  private static class Registration {
+    private final PacketListener listener;
+    private final PacketFilter filter;
+
+    private Registration(final PacketListener listener, final PacketFilter filter) {
+      this.listener = listener;
+      this.filter = filter;
+    }
+
+    private void dispatch(final Packet packet) {
+      if (filter == null || filter.accept(packet)) listener.processPacket(packet);
+    }
+  }
+
+  /**
+   * Immutable snapshot of the registered listeners. Listeners whose filter is an {@link
+   * ExtensionPacketFilter} are indexed by the extension the filter requires, all others have to be
+   * offered every packet.
+   */
+  private static class ListenerIndex {
+    private final Map<String, List<Registration>> indexed;
+    private final List<Registration> unindexed;
+
+    private ListenerIndex(final Map<PacketListener, PacketFilter> listeners) {
+      indexed = new HashMap<String, List<Registration>>();
+      unindexed = new ArrayList<Registration>();
+
+      for (final Entry<PacketListener, PacketFilter> entry : listeners.entrySet()) {
+        final Registration registration = new Registration(entry.getKey(), entry.getValue());
+
+        if (!(entry.getValue() instanceof ExtensionPacketFilter)) {
+          unindexed.add(registration);
+          continue;
+        }
+
+        final ExtensionPacketFilter filter = (ExtensionPacketFilter) entry.getValue();
+
+        indexed
+            .computeIfAbsent(
+                key(filter.getElementName(), filter.getNamespace()),
+                k -> new ArrayList<Registration>())
+            .add(registration);
+      }
+    }
+
+    private static String key(final String elementName, final String namespace) {
+      return namespace + ":" + elementName;
+    }
+  }
+
+  /** The registered listeners, guarded by itself. */
   private final Map<PacketListener, PacketFilter> listeners =
-      Collections.synchronizedMap(new HashMap<PacketListener, PacketFilter>());
+      new HashMap<PacketListener, PacketFilter>();
+
+  /**
+   * The listeners the packets are dispatched to. The index is replaced whenever a listener is added
+   * or removed, so dispatching never has to copy or lock the registrations.
+   */
+  private volatile ListenerIndex listenerIndex = new ListenerIndex(listeners);
 
   private final CopyOnWriteArrayList<ITransferListener> transferListeners =
       new CopyOnWriteArrayList<>();
@@ -51,7 +169,8 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
   private final CopyOnWriteArrayList<IPacketInterceptor> packetInterceptors =
       new CopyOnWriteArrayList<>();
 
-  private XmlPullParser parser;
+  /** One parser per decode thread as the parsers are not thread safe. */
+  private final ThreadLocal<XmlPullParser> parser = ThreadLocal.withInitial(() -> new MXParser());
 
   private final PacketListener smackPacketListener =
       new PacketListener() {
@@ -86,7 +205,23 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
       DataTransferManager dataTransferManager) {
 
     this.dispatchThreadContext = dispatchThreadContext;
-    this.parser = new MXParser();
+
+    final NamedThreadFactory threadFactory = new NamedThreadFactory("XMPPReceiver-Decode-");
+
+    this.decodeExecutor =
+        new ThreadPoolExecutor(
+            DECODE_THREADS,
+            DECODE_THREADS,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            runnable -> {
+              final Thread thread = threadFactory.newThread(runnable);
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    this.decodeExecutor.allowCoreThreadTimeOut(true);
 
     connectionService.addListener(connectionListener);
     dataTransferManager.addConnectionListener(
@@ -96,19 +231,28 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
               final String connectionId,
               final IByteStreamConnection connection,
               final boolean incomingRequest) {
-            connection.setBinaryXMPPExtensionReceiver(XMPPReceiver.this);
+            connection.setBinaryXMPPExtensionReceiver(
+                extension -> receive(connectionId, extension));
           }
         });
   }
 
   @Override
   public void addPacketListener(PacketListener listener, PacketFilter filter) {
-    listeners.put(listener, filter);
+    synchronized (listeners) {
+      listeners.put(listener, filter);
+      listenerIndex = new ListenerIndex(listeners);
+    }
   }
 
   @Override
   public void removePacketListener(PacketListener listener) {
-    listeners.remove(listener);
+    synchronized (listeners) {
+      if (!listeners.containsKey(listener)) return;
+
+      listeners.remove(listener);
+      listenerIndex = new ListenerIndex(listeners);
+    }
   }
 
   @Override
@@ -137,7 +281,7 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
         new Runnable() {
           @Override
           public void run() {
-            forwardPacket(packet);
+            if (parseBinaryExtensions(packet)) forwardPacket(packet);
           }
         });
   }
@@ -160,80 +304,230 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
 
   @Override
   public void receive(BinaryXMPPExtension extension) {
-    dispatchThreadContext.executeAsDispatch(
-        new Runnable() {
+    receive(null, extension);
+  }
 
-          @Override
-          public void run() {
+  /**
+   * Decodes the extension on a decode thread and dispatches it after all extensions that were
+   * previously received from the same sender over the same connection are dispatched.
+   */
+  private void receive(final String connectionId, final BinaryXMPPExtension extension) {
 
-            Packet packet = convertBinaryXMPPExtension(extension);
+    boolean dispatchPacket = true;
 
-            if (packet != null) forwardPacket(packet);
+    for (IPacketInterceptor packetInterceptor : packetInterceptors)
+      dispatchPacket &= packetInterceptor.receivedPacket(extension);
+
+    if (!dispatchPacket) return;
+
+    if (LOG.isTraceEnabled())
+      LOG.trace(
+          "received binary XMPP extension: "
+              + extension.getTransferDescription()
+              + ", size: "
+              + extension.getCompressedSize()
+              + ", RX time: "
+              + extension.getTransferDuration()
+              + " ms ["
+              + extension.getTransferMode()
+              + "]");
+
+    final String key = extension.getTransferDescription().getSender() + "/" + connectionId;
+    final DecodeTask task = new DecodeTask(extension);
+
+    synchronized (pendingExtensions) {
+      Queue<DecodeTask> pending = pendingExtensions.get(key);
+
+      if (pending == null) {
+        pending = new ArrayDeque<DecodeTask>();
+        pendingExtensions.put(key, pending);
+      }
+
+      pending.add(task);
+    }
+
+    decodeExecutor.execute(
+        () -> {
+          try {
+            decode(task);
+          } catch (RuntimeException e) {
+            LOG.error(
+                "could not decode binary XMPP extension: " + extension.getTransferDescription(), e);
+          } finally {
+            dispatchDecoded(key, task);
           }
         });
   }
 
+  /**
+   * Marks the task as decoded and hands all decoded extensions that are now next in line for the
+   * given key over to the dispatch thread.
+   */
+  private void dispatchDecoded(final String key, final DecodeTask task) {
+    synchronized (pendingExtensions) {
+      task.decoded = true;
+
+      final Queue<DecodeTask> pending = pendingExtensions.get(key);
+
+      while (!pending.isEmpty() && pending.peek().decoded) {
+        final DecodeTask next = pending.poll();
+
+        if (next.packet != null || next.binaryProvider != null)
+          dispatchThreadContext.executeAsDispatch(() -> dispatch(next));
+      }
+
+      if (pending.isEmpty()) pendingExtensions.remove(key);
+    }
+  }
+
+  /**
+   * Parses the payload of the task if this was left to the dispatch thread and dispatches the
+   * resulting packet.
+   *
+   * @sarosThread must be called from the Dispatch Thread
+   */
+  private void dispatch(final DecodeTask task) {
+    Packet packet = task.packet;
+
+    if (task.binaryProvider != null) {
+      final BinaryXMPPExtension extension = task.extension;
+      final TransferDescription description = extension.getTransferDescription();
+
+      try {
+        packet =
+            createPacket(
+                description,
+                task.binaryProvider.parseExtension(
+                    description.getSender(),
+                    extension.getPayloadBuffer(),
+                    0,
+                    extension.getPayloadLength()));
+      } catch (Exception e) {
+        LOG.error("could not deserialize transfer object payload: " + e.getMessage(), e);
+        return;
+      } finally {
+        extension.release();
+      }
+    }
+
+    forwardPacket(packet);
+  }
+
   /**
    * Dispatches the packet to all registered listeners.
    *
    * @sarosThread must be called from the Dispatch Thread
    */
   private void forwardPacket(Packet packet) {
-    Map<PacketListener, PacketFilter> copy;
+    final ListenerIndex index = listenerIndex;
 
-    synchronized (listeners) {
-      copy = new HashMap<PacketListener, PacketFilter>(listeners);
+    for (final Registration registration : index.unindexed) registration.dispatch(packet);
+
+    if (index.indexed.isEmpty()) return;
+
+    final Collection<PacketExtension> extensions = packet.getExtensions();
+
+    // a packet may contain several extensions of the same kind
+    final Set<String> dispatchedKeys = extensions.size() > 1 ? new HashSet<String>() : null;
+
+    for (final PacketExtension extension : extensions) {
+      final String key = ListenerIndex.key(extension.getElementName(), extension.getNamespace());
+
+      if (dispatchedKeys != null && !dispatchedKeys.add(key)) continue;
+
+      final List<Registration> registrations = index.indexed.get(key);
+
+      if (registrations == null) continue;
+
+      for (final Registration registration : registrations) registration.dispatch(packet);
     }
-    for (Entry<PacketListener, PacketFilter> entry : copy.entrySet()) {
-      PacketListener listener = entry.getKey();
-      PacketFilter filter = entry.getValue();
+  }
 
-      if (filter == null || filter.accept(packet)) {
-        listener.processPacket(packet);
+  /**
+   * Replaces the XML representations of {@linkplain IBinaryPacketExtension binary extensions} that
+   * were received over the XMPP server with the extensions parsed by their binary providers.
+   *
+   * @return <code>false</code> if an extension could not be parsed and the packet must be dropped
+   * @sarosThread must be called from the Dispatch Thread
+   */
+  private boolean parseBinaryExtensions(final Packet packet) {
+    for (final PacketExtension extension : new ArrayList<PacketExtension>(packet.getExtensions())) {
+      if (!(extension instanceof DefaultPacketExtension)) continue;
+
+      final Object provider =
+          ProviderManager.getInstance()
+              .getExtensionProvider(extension.getElementName(), extension.getNamespace());
+
+      if (!(provider instanceof IBinaryPacketExtensionProvider)) continue;
+
+      final String value =
+          ((DefaultPacketExtension) extension).getValue(IBinaryPacketExtension.DATA_ELEMENT_NAME);
+
+      if (value == null) {
+        LOG.error("binary extension received from " + packet.getFrom() + " has no binary form");
+        return false;
+      }
+
+      try {
+        final byte[] data = Base64.getDecoder().decode(value.trim());
+
+        packet.removeExtension(extension);
+        packet.addExtension(
+            ((IBinaryPacketExtensionProvider) provider)
+                .parseExtension(new JID(packet.getFrom()), data, 0, data.length));
+      } catch (Exception e) {
+        LOG.error("could not deserialize binary extension received from " + packet.getFrom(), e);
+        return false;
       }
     }
+
+    return true;
   }
 
   /**
-   * Deserializes the payload of an {@link BinaryXMPPExtension} back to its original {@link
-   * PacketExtension} and returns a new packet containing the deserialized packet extension.
+   * Decompresses the payload of the task's {@link BinaryXMPPExtension} and deserializes it back to
+   * its original {@link PacketExtension}. The resulting packet is stored in the task.
    *
-   * <p>This method is <b>not</b> thread safe and <b>must not</b> accessed by multiple threads
-   * concurrently.
+   * <p>Payloads of {@linkplain IBinaryPacketExtensionProvider binary providers} are only
+   * decompressed. Their providers may keep state across the packets of a sender (e.g dictionaries)
+   * and must therefore parse the packets in order, so parsing is left to the dispatch thread.
+   *
+   * <p>This method is called by the decode threads, each of them uses its own parser.
    */
-  private Packet convertBinaryXMPPExtension(BinaryXMPPExtension extension) {
+  private void decode(final DecodeTask task) {
 
-    boolean dispatchPacket = true;
+    final BinaryXMPPExtension extension = task.extension;
 
-    for (IPacketInterceptor packetInterceptor : packetInterceptors)
-      dispatchPacket &= packetInterceptor.receivedPacket(extension);
+    try {
+      final Object provider = inflateAndLookup(extension);
 
-    if (!dispatchPacket) return null;
+      if (provider instanceof IBinaryPacketExtensionProvider) {
+        task.binaryProvider = (IBinaryPacketExtensionProvider) provider;
+        return;
+      }
 
-    if (LOG.isTraceEnabled())
-      LOG.trace(
-          "received binary XMPP extension: "
-              + extension.getTransferDescription()
-              + ", size: "
-              + extension.getCompressedSize()
-              + ", RX time: "
-              + extension.getTransferDuration()
-              + " ms ["
-              + extension.getTransferMode()
-              + "]");
+      if (provider != null) task.packet = parseBinaryXMPPExtension(extension, provider);
 
-    if (extension.getTransferDescription().compressContent()) {
-      byte[] payload = extension.getPayload();
-      long compressedPayloadLength = payload.length;
+    } finally {
+      if (task.binaryProvider == null) extension.release();
+    }
+  }
+
+  /**
+   * Decompresses the payload of the extension and returns the provider that deserializes it.
+   *
+   * @return the provider or <code>null</code> if the payload could not be decompressed or no
+   *     provider is installed
+   */
+  private Object inflateAndLookup(final BinaryXMPPExtension extension) {
 
+    if (extension.getTransferDescription().compressContent()) {
       try {
-        payload = inflate(payload);
+        inflate(extension);
       } catch (IOException e) {
         LOG.error("could not decompress extension payload", e);
         return null;
       }
-
-      extension.setPayload(compressedPayloadLength, payload);
     }
 
     notifyDataReceived(
@@ -248,9 +542,7 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
     String namespace = description.getNamespace();
     // IQ provider?
 
-    PacketExtensionProvider provider =
-        (PacketExtensionProvider)
-            ProviderManager.getInstance().getExtensionProvider(name, namespace);
+    final Object provider = ProviderManager.getInstance().getExtensionProvider(name, namespace);
 
     if (provider == null) {
       LOG.warn(
@@ -259,33 +551,51 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
               + "' and element name '"
               + name
               + "' is installed");
-      return null;
     }
 
+    return provider;
+  }
+
+  private Packet parseBinaryXMPPExtension(
+      final BinaryXMPPExtension extension, final Object provider) {
+
     PacketExtension packetExtension = null;
 
     try {
-      parser.setInput(new ByteArrayInputStream(extension.getPayload()), "UTF-8");
+      final XmlPullParser xmlParser = parser.get();
+
+      xmlParser.setInput(
+          new ByteArrayInputStream(extension.getPayloadBuffer(), 0, extension.getPayloadLength()),
+          "UTF-8");
       /*
        * We have to skip the empty start tag because Smack expects a
        * parser that already has started parsing.
        */
-      parser.next();
-      packetExtension = provider.parseExtension(parser);
+      xmlParser.next();
+      packetExtension = ((PacketExtensionProvider) provider).parseExtension(xmlParser);
     } catch (Exception e) {
       LOG.error("could not deserialize transfer object payload: " + e.getMessage(), e);
 
       // just to be safe
-      parser = new MXParser();
+      parser.set(new MXParser());
       return null;
     }
 
+    return createPacket(extension.getTransferDescription(), packetExtension);
+  }
+
+  private static Packet createPacket(
+      final TransferDescription description, final PacketExtension packetExtension) {
+
     Packet packet = new Message();
     packet.setPacketID(Packet.ID_NOT_AVAILABLE);
     packet.setFrom(description.getSender().toString());
     packet.setTo(description.getRecipient().toString());
     packet.addExtension(packetExtension);
 
+    if (description.getSequenceNumber() != TransferDescription.NO_SEQUENCE_NUMBER)
+      packet.setProperty(SEQUENCE_NUMBER_PROPERTY, description.getSequenceNumber());
+
     return packet;
   }
 
@@ -304,24 +614,51 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
     }
   }
 
-  private static byte[] inflate(byte[] input) throws IOException {
+  /**
+   * Inflates the payload of the extension into a pooled buffer and replaces the payload with it.
+   */
+  private static void inflate(BinaryXMPPExtension extension) throws IOException {
+
+    final BufferPool pool = BufferPool.SHARED;
+
+    final int inputLength = extension.getPayloadLength();
 
-    ByteArrayOutputStream bos;
     Inflater decompressor = new Inflater();
 
-    decompressor.setInput(input, 0, input.length);
-    bos = new ByteArrayOutputStream(input.length);
+    decompressor.setInput(extension.getPayloadBuffer(), 0, inputLength);
+
+    byte[] buf = pool.acquire(Math.min(inputLength * 4, CHUNKSIZE * 64));
+    int length = 0;
 
-    byte[] buf = new byte[CHUNKSIZE];
+    boolean success = false;
 
     try {
       while (!decompressor.finished()) {
-        int count = decompressor.inflate(buf);
-        bos.write(buf, 0, count);
+        if (length == buf.length) buf = pool.grow(buf, length, length + CHUNKSIZE);
+
+        int count = decompressor.inflate(buf, length, buf.length - length);
+
+        if (count == 0) {
+          if (decompressor.needsDictionary() && PresetDictionary.setDictionary(decompressor))
+            continue;
+
+          if (decompressor.needsDictionary())
+            throw new IOException("data was compressed with an unknown preset dictionary");
+
+          if (decompressor.needsInput()) throw new IOException("compressed data is truncated");
+        }
+
+        length += count;
       }
-      return bos.toByteArray();
+
+      extension.setPayload(inputLength, buf, length, pool);
+      success = true;
     } catch (DataFormatException e) {
       throw new IOException("failed to inflate data", e);
+    } finally {
+      decompressor.end();
+
+      if (!success) pool.release(buf);
     }
   }
 }
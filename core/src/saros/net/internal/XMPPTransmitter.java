@@ -21,7 +21,11 @@ package saros.net.internal;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.Deflater;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.Connection;
@@ -30,9 +34,13 @@ import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
 import saros.annotations.Component;
 import saros.net.ConnectionState;
+import saros.net.IBinaryPacketExtension;
 import saros.net.IPacketInterceptor;
 import saros.net.ITransferListener;
 import saros.net.ITransmitter;
+import saros.net.PresetDictionary;
+import saros.net.SharedPacketExtension;
+import saros.net.internal.CompressionSelector.Compression;
 import saros.net.stream.StreamMode;
 import saros.net.xmpp.IConnectionListener;
 import saros.net.xmpp.JID;
@@ -53,6 +61,50 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
 
   private static final int CHUNKSIZE = 16 * 1024;
 
+  /**
+   * The marshalled form of a packet extension. The compressed forms are only created once they are
+   * needed, i.e if the extension is sent over a connection that does not compress data by itself.
+   */
+  private static class MarshalledPacketExtension {
+    private final byte[] data;
+    private final byte[][][] compressedData =
+        new byte[PresetDictionary.LATEST_VERSION + 1][Compression.values().length][];
+
+    private MarshalledPacketExtension(byte[] data) {
+      this.data = data;
+    }
+
+    /**
+     * Returns the data in the given compression using the preset dictionary of the given version.
+     * The time that is needed to compress the data is reported to the given selector.
+     */
+    private synchronized byte[] getData(
+        final Compression compression,
+        final int dictionaryVersion,
+        final CompressionSelector selector) {
+
+      if (compression == Compression.NONE) return data;
+
+      final int idx = compression.ordinal();
+
+      if (compressedData[dictionaryVersion][idx] == null) {
+        final long startTime = System.nanoTime();
+
+        compressedData[dictionaryVersion][idx] =
+            deflate(
+                data, compression.getLevel(), PresetDictionary.getDictionary(dictionaryVersion));
+
+        selector.compressed(
+            compression,
+            data.length,
+            compressedData[dictionaryVersion][idx].length,
+            System.nanoTime() - startTime);
+      }
+
+      return compressedData[dictionaryVersion][idx];
+    }
+  }
+
   private final DataTransferManager dataManager;
 
   private Connection connection;
@@ -65,9 +117,27 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
 
   private volatile JID localJid;
 
-  public XMPPTransmitter(DataTransferManager dataManager, XMPPConnectionService connectionService) {
+  /**
+   * Already marshalled shared packet extensions. The entries are removed as soon as the sender has
+   * released the shared packet extension.
+   */
+  private final Map<SharedPacketExtension, MarshalledPacketExtension> sharedPacketExtensions =
+      Collections.synchronizedMap(
+          new WeakHashMap<SharedPacketExtension, MarshalledPacketExtension>());
+
+  /** The compression selectors of the connections that do not compress data by themselves. */
+  private final Map<IByteStreamConnection, CompressionSelector> compressionSelectors =
+      Collections.synchronizedMap(new WeakHashMap<IByteStreamConnection, CompressionSelector>());
+
+  private final PresetDictionary presetDictionary;
+
+  public XMPPTransmitter(
+      DataTransferManager dataManager,
+      XMPPConnectionService connectionService,
+      PresetDictionary presetDictionary) {
     connectionService.addListener(this);
     this.dataManager = dataManager;
+    this.presetDictionary = presetDictionary;
   }
 
   @Override
@@ -78,6 +148,13 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
   @Override
   public void send(String connectionID, JID recipient, PacketExtension extension)
       throws IOException {
+    send(connectionID, recipient, extension, TransferDescription.NO_SEQUENCE_NUMBER);
+  }
+
+  @Override
+  public void send(
+      String connectionID, JID recipient, PacketExtension extension, int sequenceNumber)
+      throws IOException {
 
     final JID currentLocalJid = localJid;
 
@@ -91,6 +168,16 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
 
     if (connection == null) connection = dataManager.connect(recipient);
 
+    final MarshalledPacketExtension marshalledExtension = marshal(extension);
+
+    final CompressionSelector selector =
+        connection.isCompressing() ? null : getCompressionSelector(connection);
+
+    final Compression compression =
+        selector != null && marshalledExtension.data.length > PACKET_EXTENSION_COMPRESS_THRESHOLD
+            ? selector.select()
+            : Compression.NONE;
+
     /*
      * The TransferDescription can be created out of the session, the name
      * and namespace of the packet extension and standard values and thus
@@ -101,15 +188,16 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
             .setSender(currentLocalJid)
             .setRecipient(recipient)
             .setElementName(extension.getElementName())
-            .setNamespace(extension.getNamespace());
-
-    byte[] data = extension.toXML().getBytes("UTF-8");
-
-    if (data.length > PACKET_EXTENSION_COMPRESS_THRESHOLD) {
-      transferDescription.setCompressContent(true);
-    }
-
-    sendPacketExtension(connection, transferDescription, data);
+            .setNamespace(extension.getNamespace())
+            .setCompressContent(compression != Compression.NONE)
+            .setSequenceNumber(sequenceNumber);
+
+    sendPacketExtension(
+        connection,
+        transferDescription,
+        marshalledExtension.getData(compression, presetDictionary.getVersion(recipient), selector),
+        marshalledExtension.data.length,
+        selector);
   }
 
   @Override
@@ -189,14 +277,18 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
   }
 
   private void sendPacketExtension(
-      final IByteStreamConnection connection, final TransferDescription description, byte[] payload)
+      final IByteStreamConnection connection,
+      final TransferDescription description,
+      final byte[] data,
+      final long sizeUncompressed,
+      final CompressionSelector selector)
       throws IOException {
 
     boolean sendPacket = true;
 
     final String connectionId = connection.getConnectionID();
     for (IPacketInterceptor packetInterceptor : packetInterceptors)
-      sendPacket &= packetInterceptor.sendPacket(connectionId, description, payload);
+      sendPacket &= packetInterceptor.sendPacket(connectionId, description, data);
 
     if (!sendPacket) return;
 
@@ -205,29 +297,72 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
           "send "
               + description
               + ", data len="
-              + payload.length
+              + sizeUncompressed
               + " byte(s), connection="
               + connection);
 
-    long sizeUncompressed = payload.length;
-
-    if (description.compressContent()) payload = deflate(payload);
-
-    final long transferStartTime = System.currentTimeMillis();
+    final long transferStartTime = System.nanoTime();
 
     try {
-      connection.send(description, payload);
+      connection.send(description, data);
     } catch (IOException e) {
       log.error(
           "failed to send " + description + ", connection=" + connection + ":" + e.getMessage(), e);
       throw e;
     }
 
+    final long transferDuration = System.nanoTime() - transferStartTime;
+
+    if (selector != null) selector.transmitted(data.length, transferDuration);
+
     notifyDataSent(
         connection.getMode(),
-        payload.length,
+        data.length,
         sizeUncompressed,
-        System.currentTimeMillis() - transferStartTime);
+        TimeUnit.NANOSECONDS.toMillis(transferDuration));
+  }
+
+  private CompressionSelector getCompressionSelector(final IByteStreamConnection connection) {
+    synchronized (compressionSelectors) {
+      return compressionSelectors.computeIfAbsent(
+          connection, c -> new CompressionSelector(c.getMode()));
+    }
+  }
+
+  /**
+   * Marshals the given packet extension. If the packet extension is a {@link SharedPacketExtension}
+   * this is only done once and the result is reused for further calls.
+   */
+  private MarshalledPacketExtension marshal(final PacketExtension extension) throws IOException {
+
+    if (!(extension instanceof SharedPacketExtension)) return marshalInternal(extension);
+
+    final SharedPacketExtension sharedExtension = (SharedPacketExtension) extension;
+
+    synchronized (sharedExtension) {
+      MarshalledPacketExtension marshalledExtension = sharedPacketExtensions.get(sharedExtension);
+
+      if (marshalledExtension == null) {
+        marshalledExtension = marshalInternal(sharedExtension);
+        sharedPacketExtensions.put(sharedExtension, marshalledExtension);
+      }
+
+      return marshalledExtension;
+    }
+  }
+
+  private static MarshalledPacketExtension marshalInternal(final PacketExtension extension)
+      throws IOException {
+
+    final byte[] data;
+
+    if (extension instanceof SharedPacketExtension)
+      data = ((SharedPacketExtension) extension).toByteArray();
+    else if (extension instanceof IBinaryPacketExtension)
+      data = ((IBinaryPacketExtension) extension).toByteArray();
+    else data = extension.toXML().getBytes("UTF-8");
+
+    return new MarshalledPacketExtension(data);
   }
 
   private void notifyDataSent(
@@ -245,21 +380,28 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
     }
   }
 
-  private static byte[] deflate(byte[] input) {
+  private static byte[] deflate(byte[] input, int level, byte[] dictionary) {
+
+    Deflater compressor = new Deflater(level);
 
-    Deflater compressor = new Deflater(Deflater.DEFLATED);
-    compressor.setInput(input);
-    compressor.finish();
+    try {
+      if (dictionary != null) compressor.setDictionary(dictionary);
 
-    ByteArrayOutputStream bos = new ByteArrayOutputStream(input.length);
+      compressor.setInput(input);
+      compressor.finish();
 
-    byte[] buf = new byte[CHUNKSIZE];
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(input.length);
 
-    while (!compressor.finished()) {
-      int count = compressor.deflate(buf);
-      bos.write(buf, 0, count);
-    }
+      byte[] buf = new byte[CHUNKSIZE];
 
-    return bos.toByteArray();
+      while (!compressor.finished()) {
+        int count = compressor.deflate(buf);
+        bos.write(buf, 0, count);
+      }
+
+      return bos.toByteArray();
+    } finally {
+      compressor.end();
+    }
   }
 }
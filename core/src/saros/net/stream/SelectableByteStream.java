@@ -0,0 +1,30 @@
+package saros.net.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * A byte stream whose incoming data can be awaited with a {@link java.nio.channels.Selector}
+ * instead of a blocking read. This allows a single thread to wait for the data of many streams.
+ */
+public interface SelectableByteStream extends ByteStream {
+
+  /**
+   * Returns the channel the data of this stream is read from. The channel is in non-blocking mode
+   * and may be registered with a selector for {@link java.nio.channels.SelectionKey#OP_READ}. It
+   * must not be read from directly, use {@link #readAvailable(ByteBuffer)} instead.
+   *
+   * @return the channel of this stream
+   */
+  public SelectableChannel getChannel();
+
+  /**
+   * Reads the data that is currently available without waiting for more data to arrive.
+   *
+   * @param buffer the buffer to read the data into
+   * @return the number of bytes read, possibly zero, or -1 if the end of the stream was reached
+   * @throws IOException if an I/O error occurs
+   */
+  public int readAvailable(ByteBuffer buffer) throws IOException;
+}
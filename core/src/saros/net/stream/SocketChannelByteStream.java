@@ -0,0 +1,198 @@
+package saros.net.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Byte stream over a non-blocking {@link SocketChannel}. Reads and writes wait on their own
+ * selector, so one thread can read while another thread writes.
+ *
+ * <p>The streams of {@link java.net.Socket#getInputStream()} and {@link
+ * java.net.Socket#getOutputStream()} of a socket that belongs to a channel cannot be used for that
+ * purpose, as some Java versions do not allow a write while a read is blocking on the same channel.
+ */
+public class SocketChannelByteStream implements SelectableByteStream {
+
+  private final SocketChannel channel;
+
+  private final Selector readSelector;
+
+  private final Selector writeSelector;
+
+  private final Object readLock = new Object();
+
+  private final Object writeLock = new Object();
+
+  private final InputStream in =
+      new InputStream() {
+
+        @Override
+        public int read() throws IOException {
+          final byte[] b = new byte[1];
+
+          return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+          return SocketChannelByteStream.this.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+          SocketChannelByteStream.this.close();
+        }
+      };
+
+  private final OutputStream out =
+      new OutputStream() {
+
+        @Override
+        public void write(final int b) throws IOException {
+          write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+          SocketChannelByteStream.this.write(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void close() throws IOException {
+          SocketChannelByteStream.this.close();
+        }
+      };
+
+  private volatile int readTimeout;
+
+  /**
+   * Creates a byte stream over the given connected channel. The channel is switched to non-blocking
+   * mode.
+   *
+   * @param channel a connected socket channel
+   * @throws IOException if the channel could not be registered
+   */
+  public SocketChannelByteStream(final SocketChannel channel) throws IOException {
+    if (channel == null) throw new NullPointerException("channel is null");
+
+    this.channel = channel;
+
+    channel.configureBlocking(false);
+
+    readSelector = Selector.open();
+    writeSelector = Selector.open();
+
+    try {
+      channel.register(readSelector, SelectionKey.OP_READ);
+      channel.register(writeSelector, SelectionKey.OP_WRITE);
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  @Override
+  public SocketChannel getChannel() {
+    return channel;
+  }
+
+  @Override
+  public int readAvailable(final ByteBuffer buffer) throws IOException {
+    synchronized (readLock) {
+      return channel.read(buffer);
+    }
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return in;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return out;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      // wakes up threads that are waiting for data
+      readSelector.close();
+      writeSelector.close();
+    }
+  }
+
+  @Override
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  @Override
+  public void setReadTimeout(final int timeout) {
+    readTimeout = timeout;
+  }
+
+  @Override
+  public String toString() {
+    return "SocketChannelByteStream [" + channel + "]";
+  }
+
+  private int read(final ByteBuffer buffer) throws IOException {
+    if (!buffer.hasRemaining()) return 0;
+
+    final int timeout = readTimeout;
+    final long deadline = System.currentTimeMillis() + timeout;
+
+    try {
+      synchronized (readLock) {
+        while (true) {
+          final int read = channel.read(buffer);
+
+          if (read != 0) return read;
+
+          long wait = 0;
+
+          if (timeout > 0) {
+            wait = deadline - System.currentTimeMillis();
+
+            if (wait <= 0) throw new SocketTimeoutException("read timed out");
+          }
+
+          readSelector.select(wait);
+          readSelector.selectedKeys().clear();
+
+          if (!channel.isOpen()) throw new ClosedChannelException();
+        }
+      }
+    } catch (ClosedSelectorException e) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  private void write(final ByteBuffer buffer) throws IOException {
+    try {
+      synchronized (writeLock) {
+        while (buffer.hasRemaining()) {
+          if (channel.write(buffer) != 0) continue;
+
+          writeSelector.select();
+          writeSelector.selectedKeys().clear();
+
+          if (!channel.isOpen()) throw new ClosedChannelException();
+        }
+      }
+    } catch (ClosedSelectorException e) {
+      throw new ClosedChannelException();
+    }
+  }
+}
@@ -1,63 +1,782 @@
 package saros.net.stream;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
 import org.jivesoftware.smack.Connection;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Packet;
+import saros.communication.extensions.TCPAddressExchangeExtension;
 import saros.net.internal.BinaryChannelConnection;
 import saros.net.internal.IByteStreamConnection;
 import saros.net.internal.IByteStreamConnectionListener;
+import saros.net.util.NetworkingUtils;
 import saros.net.xmpp.JID;
+import saros.util.NamedThreadFactory;
 
-// TODO rewrite IStreamService interface
-
+/**
+ * This stream service establishes direct TCP connections.
+ *
+ * <p>Every initialized service listens on one port of each local address with non-blocking server
+ * sockets. To connect to a peer the service asks the peer over XMPP for the addresses and the port
+ * it listens on. The request contains the addresses of the requesting host, so the peer only
+ * includes its loopback address in the answer if both run on the same host. The peer answers with
+ * its addresses and a one-time token that is bound to the requesting JID and the connection ID. The
+ * service then connects to all addresses at once, keeps the first connection that is established
+ * and presents the token. The peer accepts the connection only if the token is valid, so that
+ * nobody else than the requesting peer is able to use it.
+ *
+ * <p>Connections are established with <code>TCP_NODELAY</code> and use the {@link
+ * BinaryChannelConnection} framing like all other stream services.
+ *
+ * <p>A peer that does not run this service, e.g an older Saros version, does not answer the address
+ * request. Connecting to it fails after the {@linkplain #ADDRESS_RESPONSE_TIMEOUT response
+ * timeout}, so that the next stream service can be tried. The whole attempt to establish a
+ * connection never takes longer than {@link #CONNECT_BUDGET}.
+ *
+ * <p>As the service accepts connections from the network, it is only used if direct TCP
+ * connections are enabled in the preferences, see {@link
+ * saros.preferences.Preferences#isDirectTCPTransportEnabled()}.
+ */
 public class TCPTransport implements IStreamService {
 
-  private volatile IByteStreamConnectionListener currentListener;
+  private static final Logger LOG = Logger.getLogger(TCPTransport.class);
+
+  private static final Random TOKEN_GENERATOR = new SecureRandom();
+
+  /** Port to listen on for incoming connections, 0 for a random port. */
+  private static final int PORT = Integer.getInteger("saros.net.tcp.PORT", 0);
+
+  private static final boolean TCP_NODELAY =
+      Boolean.valueOf(System.getProperty("saros.net.tcp.TCP_NODELAY", "true"));
+
+  /** Timeout for the local side on how long it should wait for the addresses of the remote side. */
+  private static final int ADDRESS_RESPONSE_TIMEOUT =
+      Integer.getInteger("saros.net.tcp.ADDRESS_RESPONSE_TIMEOUT", 5000);
+
+  /** Timeout for connecting to the addresses of the remote side. */
+  private static final int CONNECT_TIMEOUT =
+      Integer.getInteger("saros.net.tcp.CONNECT_TIMEOUT", 3000);
+
+  /**
+   * Maximum time for the address request and the connect together, so that a peer that cannot be
+   * reached directly does not delay the next stream service for too long.
+   */
+  private static final int CONNECT_BUDGET =
+      Integer.getInteger("saros.net.tcp.CONNECT_BUDGET", 5000);
+
+  /** Timeout for the handshake after the TCP connection is established. */
+  private static final int HANDSHAKE_TIMEOUT =
+      Integer.getInteger("saros.net.tcp.HANDSHAKE_TIMEOUT", 10000);
+
+  /** Time in which a token has to be presented after it was handed out. */
+  private static final int TOKEN_LIFETIME = 60000;
+
+  private static final int MAX_HANDSHAKE_LENGTH = 1024;
+
+  private static final int TOKEN_LENGTH = 16;
+
+  private static final int ACCEPTED = 1;
+
+  private static final int REJECTED = 0;
+
+  /** An outstanding connection of a peer that was handed out a token. */
+  private static class ExpectedConnection {
+    private final JID peer;
+    private final String connectionID;
+    private final long expiration;
+
+    private ExpectedConnection(final JID peer, final String connectionID) {
+      this.peer = peer;
+      this.connectionID = connectionID;
+      this.expiration = System.currentTimeMillis() + TOKEN_LIFETIME;
+    }
+  }
+
+  /** The handshake of an accepted connection that is currently read. */
+  private static class Handshake {
+    private final ByteBuffer header = ByteBuffer.allocate(4);
+    private final long expiration = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+    private ByteBuffer payload;
+  }
+
+  private final Map<String, ExpectedConnection> expectedConnections =
+      new ConcurrentHashMap<String, ExpectedConnection>();
+
+  private final Map<String, BlockingQueue<IQ>> pendingAddressRequests =
+      new ConcurrentHashMap<String, BlockingQueue<IQ>>();
+
+  private final PacketFilter addressExchangeFilter =
+      new PacketFilter() {
+        @Override
+        public boolean accept(Packet packet) {
+          if (!(packet instanceof IQ)) return false;
+
+          // errors do not necessarily contain the request
+          return TCPAddressExchangeExtension.PROVIDER.getIQFilter().accept(packet)
+              || pendingAddressRequests.containsKey(packet.getPacketID());
+        }
+      };
+
+  private final PacketListener addressExchangeListener =
+      new PacketListener() {
+        @Override
+        public void processPacket(Packet packet) {
+          final IQ iq = (IQ) packet;
+
+          if (iq.getType() == IQ.Type.GET) {
+            handleAddressRequest(iq);
+            return;
+          }
+
+          final BlockingQueue<IQ> response = pendingAddressRequests.get(iq.getPacketID());
+
+          if (response != null) response.offer(iq);
+        }
+      };
+
+  private volatile Connection connection;
+  private volatile IByteStreamConnectionListener connectionListener;
+  private volatile JID localAddress;
+
+  private final List<ServerSocketChannel> serverChannels = new ArrayList<ServerSocketChannel>();
+
+  /** The addresses of the server channels. */
+  private final List<String> listenAddresses = new ArrayList<String>();
+
+  private Selector selector;
+  private ExecutorService acceptExecutor;
 
   @Override
-  public IByteStreamConnection connect(String connectionID, JID peer)
+  public IByteStreamConnection connect(String connectionID, JID remoteAddress)
       throws IOException, InterruptedException {
 
-    if (true) throw new RuntimeException("NYI");
+    if (connectionID == null) throw new NullPointerException("connectionID is null");
+
+    if (remoteAddress == null) throw new NullPointerException("remoteAddress is null");
+
+    if (connectionID.isEmpty())
+      throw new IllegalArgumentException("connectionID must not be empty");
+
+    if (connectionID.contains(String.valueOf(IStreamService.SESSION_ID_DELIMITER)))
+      throw new IllegalArgumentException(
+          "connectionID must not contain '" + IStreamService.SESSION_ID_DELIMITER + "'");
+
+    final Connection currentConnection = connection;
+    final IByteStreamConnectionListener currentConnectionListener = connectionListener;
+
+    if (currentConnection == null || currentConnectionListener == null)
+      throw new IOException(this + " is not initialized");
+
+    LOG.debug("establishing TCP connection to: " + remoteAddress);
+
+    final long deadline = System.currentTimeMillis() + CONNECT_BUDGET;
+
+    final TCPAddressExchangeExtension addresses =
+        queryRemoteAddresses(currentConnection, connectionID, remoteAddress, deadline);
 
-    // TODO this should be configurable;
+    if (addresses.getToken() == null || addresses.getAddresses().isEmpty())
+      throw new IOException(remoteAddress + " does not accept TCP connections");
 
-    final Socket socket = new Socket(Proxy.NO_PROXY);
+    final List<InetSocketAddress> socketAddresses = new ArrayList<InetSocketAddress>();
 
-    final InetSocketAddress address = new InetSocketAddress("localhost", 4711);
+    for (final String address : addresses.getAddresses())
+      socketAddresses.add(new InetSocketAddress(address, addresses.getPort()));
 
-    socket.connect(address, 30000);
-    socket.setTcpNoDelay(true);
+    final SocketChannel channel =
+        openChannel(
+            socketAddresses, Math.min(deadline, System.currentTimeMillis() + CONNECT_TIMEOUT));
 
-    final IByteStreamConnectionListener listener = currentListener;
+    final SocketChannelByteStream stream;
 
-    if (listener == null) {
-      socket.close();
-      throw new IOException(this + " transport is not initialized");
+    try {
+      stream = new SocketChannelByteStream(channel);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
     }
 
-    final IByteStreamConnection connection =
-        new BinaryChannelConnection(
-            null, peer, connectionID, new TCPByteStream(socket), StreamMode.TCP, listener);
+    try {
+      stream.setReadTimeout(HANDSHAKE_TIMEOUT);
 
-    return connection;
+      final byte[] handshake =
+          (addresses.getToken() + IStreamService.SESSION_ID_DELIMITER + connectionID)
+              .getBytes(StandardCharsets.UTF_8);
+
+      stream
+          .getOutputStream()
+          .write(
+              ByteBuffer.allocate(4 + handshake.length)
+                  .putInt(handshake.length)
+                  .put(handshake)
+                  .array());
+
+      final int response = stream.getInputStream().read();
+
+      if (response != ACCEPTED)
+        throw new IOException(remoteAddress + " rejected the TCP connection");
+
+      return new BinaryChannelConnection(
+          localAddress,
+          remoteAddress,
+          connectionID,
+          stream,
+          StreamMode.TCP,
+          currentConnectionListener);
+
+    } catch (IOException e) {
+      stream.close();
+      throw e;
+    }
   }
 
   @Override
-  public void initialize(Connection connection, IByteStreamConnectionListener listener) {
+  public synchronized void initialize(
+      Connection connection, IByteStreamConnectionListener listener) {
+
+    localAddress = new JID(connection.getUser());
+    connectionListener = listener;
 
-    currentListener = listener;
+    acceptExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("TCP-Transport-Accept"));
+
+    try {
+      startListening();
+    } catch (IOException e) {
+      LOG.warn("failed to listen on port " + PORT + ", accepting no TCP connections", e);
+      stopListening();
+    }
+
+    this.connection = connection;
+    connection.addPacketListener(addressExchangeListener, addressExchangeFilter);
   }
 
   @Override
-  public void uninitialize() {
-    currentListener = null;
+  public synchronized void uninitialize() {
+    if (connection == null) return;
+
+    connection.removePacketListener(addressExchangeListener);
+    connection = null;
+    connectionListener = null;
+
+    stopListening();
+
+    acceptExecutor.shutdownNow();
+    acceptExecutor = null;
+
+    expectedConnections.clear();
+  }
+
+  /** Returns the local port the service listens on or -1 if it is not listening. */
+  synchronized int getLocalPort() {
+    return serverChannels.isEmpty() ? -1 : serverChannels.get(0).socket().getLocalPort();
+  }
+
+  private synchronized List<String> getListenAddresses() {
+    return new ArrayList<String>(listenAddresses);
   }
 
   @Override
   public String toString() {
     return "TCP-Transport";
   }
+
+  private TCPAddressExchangeExtension queryRemoteAddresses(
+      final Connection connection,
+      final String connectionID,
+      final JID remoteAddress,
+      final long deadline)
+      throws IOException, InterruptedException {
+
+    final List<String> hostAddresses = new ArrayList<String>();
+
+    for (final InetAddress address : getHostAddresses())
+      hostAddresses.add(address.getHostAddress());
+
+    final IQ request =
+        TCPAddressExchangeExtension.PROVIDER.createIQ(
+            new TCPAddressExchangeExtension(connectionID, hostAddresses));
+
+    request.setType(IQ.Type.GET);
+    request.setTo(remoteAddress.toString());
+
+    final BlockingQueue<IQ> response = new ArrayBlockingQueue<IQ>(1);
+
+    pendingAddressRequests.put(request.getPacketID(), response);
+
+    try {
+      sendPacket(connection, request);
+
+      final IQ reply =
+          response.poll(
+              Math.min(ADDRESS_RESPONSE_TIMEOUT, deadline - System.currentTimeMillis()),
+              TimeUnit.MILLISECONDS);
+
+      if (reply == null)
+        throw new SocketTimeoutException(remoteAddress + " did not respond to the address request");
+
+      final TCPAddressExchangeExtension addresses =
+          TCPAddressExchangeExtension.PROVIDER.getPayload(reply);
+
+      if (reply.getType() != IQ.Type.RESULT || addresses == null)
+        throw new IOException(remoteAddress + " refused the address request: " + reply.getError());
+
+      return addresses;
+    } finally {
+      pendingAddressRequests.remove(request.getPacketID());
+    }
+  }
+
+  private void handleAddressRequest(final IQ request) {
+    final TCPAddressExchangeExtension addressRequest =
+        TCPAddressExchangeExtension.PROVIDER.getPayload(request);
+
+    final Connection currentConnection = connection;
+
+    if (addressRequest == null || currentConnection == null) return;
+
+    final String connectionID = addressRequest.getConnectionID();
+    final int port = getLocalPort();
+
+    final TCPAddressExchangeExtension addressResponse;
+
+    if (port == -1 || connectionID == null) {
+      addressResponse = new TCPAddressExchangeExtension(connectionID);
+    } else {
+      final String token = generateToken();
+
+      removeExpiredConnections();
+      expectedConnections.put(
+          token, new ExpectedConnection(new JID(request.getFrom()), connectionID));
+
+      addressResponse =
+          new TCPAddressExchangeExtension(
+              connectionID,
+              token,
+              port,
+              getAdvertisedAddresses(getListenAddresses(), addressRequest.getAddresses()));
+    }
+
+    final IQ reply = TCPAddressExchangeExtension.PROVIDER.createIQ(addressResponse);
+
+    reply.setType(IQ.Type.RESULT);
+    reply.setPacketID(request.getPacketID());
+    reply.setTo(request.getFrom());
+
+    try {
+      sendPacket(currentConnection, reply);
+    } catch (IOException e) {
+      LOG.error("could not send TCP addresses to " + request.getFrom(), e);
+    }
+  }
+
+  /**
+   * Connects to all given addresses at once and returns the first connection that is established.
+   * All other connections are closed.
+   *
+   * @param addresses the addresses to connect to
+   * @param deadline the time in milliseconds at which the connect times out
+   */
+  static SocketChannel openChannel(final List<InetSocketAddress> addresses, final long deadline)
+      throws IOException, InterruptedException {
+
+    final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+
+    SocketChannel connectedChannel = null;
+    IOException lastException = null;
+
+    try (final Selector connectSelector = Selector.open()) {
+
+      for (final InetSocketAddress address : addresses) {
+        final SocketChannel channel = SocketChannel.open();
+        channels.add(channel);
+
+        try {
+          channel.setOption(StandardSocketOptions.TCP_NODELAY, TCP_NODELAY);
+          channel.configureBlocking(false);
+
+          if (channel.connect(address)) {
+            connectedChannel = channel;
+            break;
+          }
+
+          channel.register(connectSelector, SelectionKey.OP_CONNECT, address);
+        } catch (IOException e) {
+          LOG.debug("failed to connect to " + address + ": " + e.getMessage());
+          lastException = e;
+          channel.close();
+        }
+      }
+
+      while (connectedChannel == null && !connectSelector.keys().isEmpty()) {
+        if (Thread.interrupted()) throw new InterruptedException();
+
+        final long wait = deadline - System.currentTimeMillis();
+
+        if (wait <= 0) throw new SocketTimeoutException("connect timed out");
+
+        connectSelector.select(wait);
+
+        for (final SelectionKey key : connectSelector.selectedKeys()) {
+          final SocketChannel channel = (SocketChannel) key.channel();
+
+          try {
+            if (!channel.finishConnect()) continue;
+
+            connectedChannel = channel;
+            break;
+          } catch (IOException e) {
+            LOG.debug("failed to connect to " + key.attachment() + ": " + e.getMessage());
+            lastException = e;
+            key.cancel();
+            channel.close();
+          }
+        }
+
+        connectSelector.selectedKeys().clear();
+      }
+    } finally {
+      for (final SocketChannel channel : channels) {
+        if (channel != connectedChannel) channel.close();
+      }
+    }
+
+    if (connectedChannel == null)
+      throw new IOException(
+          "could not connect to any of the addresses " + addresses, lastException);
+
+    LOG.debug("established TCP connection to " + connectedChannel.getRemoteAddress());
+
+    return connectedChannel;
+  }
+
+  /**
+   * Listens on all addresses of this host and on the loopback address. The first address that can
+   * be bound determines the port that is used for all other addresses.
+   */
+  private void startListening() throws IOException {
+    final List<InetAddress> addresses = getHostAddresses();
+    addresses.add(0, InetAddress.getLoopbackAddress());
+
+    final Selector acceptSelector = Selector.open();
+
+    int port = PORT;
+
+    for (final InetAddress address : addresses) {
+      final ServerSocketChannel channel = ServerSocketChannel.open();
+
+      try {
+        channel.bind(new InetSocketAddress(address, port));
+        channel.configureBlocking(false);
+        channel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+      } catch (IOException e) {
+        LOG.debug("failed to listen on " + address + ": " + e.getMessage());
+        channel.close();
+        continue;
+      }
+
+      port = channel.socket().getLocalPort();
+
+      serverChannels.add(channel);
+      listenAddresses.add(address.getHostAddress());
+    }
+
+    if (serverChannels.isEmpty()) {
+      acceptSelector.close();
+      throw new IOException("could not listen on any local address");
+    }
+
+    selector = acceptSelector;
+
+    final List<ServerSocketChannel> channels = new ArrayList<ServerSocketChannel>(serverChannels);
+    final ExecutorService currentAcceptExecutor = acceptExecutor;
+
+    new NamedThreadFactory("TCP-Transport-Listener", false)
+        .newThread(() -> listen(channels, acceptSelector, currentAcceptExecutor))
+        .start();
+
+    LOG.info(this + " is listening on port " + port + " of " + listenAddresses);
+  }
+
+  /** Stops the listener thread which closes the selector and all pending connections. */
+  private void stopListening() {
+    if (serverChannels.isEmpty()) return;
+
+    for (final ServerSocketChannel channel : serverChannels) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.warn("failed to close the TCP listener", e);
+      }
+    }
+
+    selector.wakeup();
+
+    serverChannels.clear();
+    listenAddresses.clear();
+    selector = null;
+  }
+
+  /**
+   * Accepts incoming connections and reads their handshakes until the server channel is closed.
+   * Accepted connections are handed over to the given executor once their handshake is complete.
+   */
+  private void listen(
+      final List<ServerSocketChannel> channels,
+      final Selector selector,
+      final ExecutorService executor) {
+    try {
+      while (isAnyOpen(channels)) {
+        selector.select(1000);
+
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+
+          try {
+            if (key.isAcceptable()) accept(key);
+            else if (key.isReadable()) readHandshake(key, executor);
+          } catch (IOException e) {
+            LOG.debug("closing incoming TCP connection: " + e.getMessage());
+            key.channel().close();
+          }
+        }
+
+        closeExpiredHandshakes(selector, false);
+      }
+    } catch (IOException e) {
+      LOG.error("TCP listener failed, accepting no more TCP connections", e);
+    } finally {
+      try {
+        closeExpiredHandshakes(selector, true);
+        selector.close();
+
+        for (final ServerSocketChannel channel : channels) channel.close();
+      } catch (IOException e) {
+        LOG.warn("failed to close the TCP listener", e);
+      }
+    }
+  }
+
+  private void accept(final SelectionKey key) throws IOException {
+    final SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+
+    if (channel == null) return;
+
+    try {
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, TCP_NODELAY);
+      channel.configureBlocking(false);
+      channel.register(key.selector(), SelectionKey.OP_READ, new Handshake());
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private void readHandshake(final SelectionKey key, final ExecutorService executor)
+      throws IOException {
+
+    final SocketChannel channel = (SocketChannel) key.channel();
+    final Handshake handshake = (Handshake) key.attachment();
+
+    final ByteBuffer buffer = handshake.payload == null ? handshake.header : handshake.payload;
+
+    if (channel.read(buffer) == -1) throw new IOException("connection closed during handshake");
+
+    if (buffer.hasRemaining()) return;
+
+    if (handshake.payload == null) {
+      final int length = handshake.header.getInt(0);
+
+      if (length <= 0 || length > MAX_HANDSHAKE_LENGTH)
+        throw new IOException("invalid handshake length: " + length);
+
+      handshake.payload = ByteBuffer.allocate(length);
+      return;
+    }
+
+    key.cancel();
+
+    final String data = new String(handshake.payload.array(), StandardCharsets.UTF_8);
+
+    executor.execute(() -> completeHandshake(channel, data));
+  }
+
+  private void completeHandshake(final SocketChannel channel, final String data) {
+    final IByteStreamConnectionListener currentConnectionListener = connectionListener;
+
+    final int delimiter = data.indexOf(IStreamService.SESSION_ID_DELIMITER);
+
+    final ExpectedConnection expected =
+        delimiter == -1 ? null : expectedConnections.remove(data.substring(0, delimiter));
+
+    final String connectionID = delimiter == -1 ? null : data.substring(delimiter + 1);
+
+    SocketChannelByteStream stream = null;
+
+    try {
+      stream = new SocketChannelByteStream(channel);
+
+      if (currentConnectionListener == null
+          || expected == null
+          || expected.expiration < System.currentTimeMillis()
+          || !expected.connectionID.equals(connectionID)) {
+
+        LOG.warn("rejecting TCP connection from " + channel.getRemoteAddress() + ": invalid token");
+        stream.getOutputStream().write(REJECTED);
+        stream.close();
+        return;
+      }
+
+      LOG.debug("accepting TCP connection from: " + expected.peer);
+
+      final IByteStreamConnection connection =
+          new BinaryChannelConnection(
+              localAddress,
+              expected.peer,
+              connectionID,
+              stream,
+              StreamMode.TCP,
+              currentConnectionListener);
+
+      stream.getOutputStream().write(ACCEPTED);
+
+      currentConnectionListener.connectionChanged(connectionID, connection, true);
+
+    } catch (IOException e) {
+      LOG.error("failed to accept TCP connection", e);
+
+      try {
+        if (stream != null) stream.close();
+        else channel.close();
+      } catch (IOException ignore) {
+        LOG.error(ignore);
+      }
+    }
+  }
+
+  private static void closeExpiredHandshakes(final Selector selector, final boolean all)
+      throws IOException {
+    final long now = System.currentTimeMillis();
+
+    for (final SelectionKey key : selector.keys()) {
+      // canceled keys belong to connections that were handed over
+      if (!key.isValid() || !(key.attachment() instanceof Handshake)) continue;
+
+      if (all || ((Handshake) key.attachment()).expiration < now) {
+        LOG.debug("closing incoming TCP connection: handshake aborted");
+        key.channel().close();
+      }
+    }
+  }
+
+  private void removeExpiredConnections() {
+    final long now = System.currentTimeMillis();
+
+    expectedConnections.values().removeIf(expected -> expected.expiration < now);
+  }
+
+  private static boolean isAnyOpen(final List<ServerSocketChannel> channels) {
+    for (final ServerSocketChannel channel : channels) {
+      if (channel.isOpen()) return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the addresses of this host that other hosts may be able to connect to. Loopback and
+   * link-local addresses are omitted.
+   */
+  private static List<InetAddress> getHostAddresses() {
+    final List<InetAddress> addresses = new ArrayList<InetAddress>();
+
+    for (final InetAddress address : NetworkingUtils.getAllNonLoopbackLocalIPAddresses(true)) {
+      if (address.isLinkLocalAddress()) continue;
+
+      // drop the scope of IPv6 addresses as it is meaningless for other hosts
+      try {
+        addresses.add(InetAddress.getByAddress(address.getAddress()));
+      } catch (UnknownHostException e) {
+        LOG.warn("skipping invalid address: " + address, e);
+      }
+    }
+
+    return addresses;
+  }
+
+  /**
+   * Returns the addresses that are sent to a peer which requested them. The loopback address is
+   * only included if the peer runs on the same host, i.e if one of the addresses of the peer is one
+   * of the given listen addresses.
+   *
+   * @param listenAddresses the addresses this service listens on
+   * @param peerAddresses the addresses of the requesting peer's host
+   */
+  static List<String> getAdvertisedAddresses(
+      final List<String> listenAddresses, final List<String> peerAddresses) {
+
+    final String loopbackAddress = InetAddress.getLoopbackAddress().getHostAddress();
+
+    final List<String> addresses = new ArrayList<String>();
+
+    boolean isSameHost = false;
+
+    for (final String address : listenAddresses) {
+      if (address.equals(loopbackAddress)) continue;
+
+      addresses.add(address);
+      isSameHost |= peerAddresses.contains(address);
+    }
+
+    if (isSameHost && listenAddresses.contains(loopbackAddress))
+      addresses.add(0, loopbackAddress);
+
+    return addresses;
+  }
+
+  private static String generateToken() {
+    final byte[] token = new byte[TOKEN_LENGTH];
+    TOKEN_GENERATOR.nextBytes(token);
+
+    final StringBuilder builder = new StringBuilder(TOKEN_LENGTH * 2);
+
+    for (final byte b : token) builder.append(String.format("%02x", b & 0xFF));
+
+    return builder.toString();
+  }
+
+  private static void sendPacket(final Connection connection, final Packet packet)
+      throws IOException {
+    try {
+      connection.sendPacket(packet);
+    } catch (RuntimeException e) {
+      throw new IOException("could not send packet " + packet, e);
+    }
+  }
 }
@@ -28,6 +28,8 @@ public class PreferenceConstants {
 
   public static final String FORCE_IBB_CONNECTIONS = "chatfiletransfer";
 
+  public static final String DIRECT_TCP_CONNECTIONS_ENABLED = "direct_tcp_connections_enabled";
+
   public static final String LOCAL_SOCKS5_PROXY_DISABLED = " local_socks5_proxy_disabled";
 
   public static final String LOCAL_SOCKS5_PROXY_USE_UPNP_EXTERNAL_ADDRESS =
@@ -28,6 +28,7 @@ public class PreferenceInitializer {
 
     store.setDefault(PreferenceConstants.LOCAL_SOCKS5_PROXY_CANDIDATES, "");
     store.setDefault(PreferenceConstants.FORCE_IBB_CONNECTIONS, false);
+    store.setDefault(PreferenceConstants.DIRECT_TCP_CONNECTIONS_ENABLED, false);
 
     store.setDefault(PreferenceConstants.STUN, "");
     store.setDefault(PreferenceConstants.STUN_PORT, 0);
@@ -133,6 +133,16 @@ public abstract class Preferences {
     return store.getBoolean(PreferenceConstants.FORCE_IBB_CONNECTIONS);
   }
 
+  /**
+   * Returns whether direct TCP connections are enabled or not. The direct TCP transport listens on
+   * all local network interfaces and is therefore disabled by default.
+   *
+   * @return true if direct TCP connections are enabled.
+   */
+  public boolean isDirectTCPTransportEnabled() {
+    return store.getBoolean(PreferenceConstants.DIRECT_TCP_CONNECTIONS_ENABLED);
+  }
+
   /**
    * Returns whether concurrent undo is enabled or not.
    *
@@ -1,5 +1,6 @@
 package saros.session;
 
+import saros.communication.extensions.BinaryActivityCodec;
 import saros.concurrent.management.ConcurrentDocumentClient;
 import saros.concurrent.management.ConcurrentDocumentServer;
 import saros.concurrent.management.HeartbeatDispatcher;
@@ -57,6 +58,7 @@ public class SarosCoreSessionContextFactory implements ISarosSessionContextFacto
     // Session-dependent XStream Converter
     container.addComponent(SPathConverter.class);
     container.addComponent(UserConverter.class);
+    container.addComponent(BinaryActivityCodec.class);
 
     // Other
     container.addComponent(ActivityHandler.class);
@@ -0,0 +1,104 @@
+package saros.session.internal;
+
+import java.util.concurrent.TimeUnit;
+import saros.activities.FileActivity;
+import saros.activities.IActivity;
+
+/**
+ * Decides how long the {@link ActivitySequencer} coalesces outgoing {@linkplain IActivity
+ * activities} of a recipient before they are sent as a single packet. Activities are sent as soon
+ * as one of the following limits is reached: the delay budget of the recipient, the maximum number
+ * of activities or the maximum (estimated) size of the activities.
+ *
+ * <p>The delay budget adapts to the measured send time of the recipient. On fast connections it is
+ * close to zero, on slow connections it grows up to the configured maximum delay so that more
+ * activities are coalesced into a single packet.
+ */
+final class ActivityBatchingPolicy {
+
+  /** Default maximum delay in milliseconds. */
+  private static final long MAX_DELAY = Long.getLong("saros.session.ACTIVITY_BATCH_MAX_DELAY", 5L);
+
+  /** Default maximum number of activities. */
+  private static final int MAX_ACTIVITIES =
+      Integer.getInteger("saros.session.ACTIVITY_BATCH_MAX_ACTIVITIES", 64);
+
+  /** Default maximum estimated size in bytes. */
+  private static final int MAX_SIZE =
+      Integer.getInteger("saros.session.ACTIVITY_BATCH_MAX_SIZE", 32 * 1024);
+
+  /** Approximated size in bytes of a marshalled activity without its file content. */
+  private static final int ACTIVITY_SIZE_ESTIMATE = 512;
+
+  private final long maxDelay;
+  private final int maxActivities;
+  private final long maxSize;
+
+  /**
+   * Creates a new policy.
+   *
+   * @param maxDelay the maximum delay in nanoseconds
+   * @param maxActivities the maximum number of activities
+   * @param maxSize the maximum estimated size of the activities in bytes
+   */
+  ActivityBatchingPolicy(long maxDelay, int maxActivities, long maxSize) {
+    if (maxDelay < 0) throw new IllegalArgumentException("maxDelay < 0");
+
+    if (maxActivities < 1) throw new IllegalArgumentException("maxActivities < 1");
+
+    if (maxSize < 1) throw new IllegalArgumentException("maxSize < 1");
+
+    this.maxDelay = maxDelay;
+    this.maxActivities = maxActivities;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the policy that is configured by the system properties <code>
+   * saros.session.ACTIVITY_BATCH_MAX_DELAY</code> (milliseconds), <code>
+   * saros.session.ACTIVITY_BATCH_MAX_ACTIVITIES</code> and <code>
+   * saros.session.ACTIVITY_BATCH_MAX_SIZE</code> (bytes).
+   */
+  static ActivityBatchingPolicy getDefault() {
+    return new ActivityBatchingPolicy(
+        TimeUnit.MILLISECONDS.toNanos(MAX_DELAY), MAX_ACTIVITIES, MAX_SIZE);
+  }
+
+  /**
+   * Returns the delay budget for a recipient.
+   *
+   * @param averageSendTime the average time in nanoseconds it takes to send a packet to the
+   *     recipient
+   * @return the delay budget in nanoseconds
+   */
+  long getDelay(long averageSendTime) {
+    return Math.max(0, Math.min(maxDelay, averageSendTime));
+  }
+
+  /**
+   * Checks if the limits for the number of activities or their size are reached.
+   *
+   * @param activityCount the number of activities
+   * @param size the estimated size of the activities in bytes, see {@link #estimateSize}
+   * @return <code>true</code> if the activities should be sent immediately
+   */
+  boolean isFull(int activityCount, long size) {
+    return activityCount >= maxActivities || size >= maxSize;
+  }
+
+  /**
+   * Returns the estimated size of the given activity once it is marshalled. File activities are
+   * measured by their content.
+   */
+  static long estimateSize(IActivity activity) {
+    long size = ACTIVITY_SIZE_ESTIMATE;
+
+    if (activity instanceof FileActivity) {
+      final byte[] content = ((FileActivity) activity).getContent();
+
+      if (content != null) size += content.length;
+    }
+
+    return size;
+  }
+}
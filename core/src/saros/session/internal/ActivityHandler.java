@@ -4,6 +4,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import saros.activities.ActivityOptimizer;
 import saros.activities.ChecksumActivity;
@@ -20,6 +23,7 @@ import saros.session.IActivityHandlerCallback;
 import saros.session.ISarosSession;
 import saros.session.User;
 import saros.synchronize.UISynchronizer;
+import saros.util.NamedThreadFactory;
 import saros.util.ThreadUtils;
 
 /**
@@ -54,6 +58,14 @@ public final class ActivityHandler implements Startable {
     DISPATCH_MODE = dispatchModeToUse;
   }
 
+  /**
+   * Time in milliseconds consecutive local text edits are merged before they are sent, see {@link
+   * TextEditCoalescer}. A value of 0 disables the merging. The window delays the held back edits
+   * for the remote users, so it must stay well below the delay that is noticeable while typing.
+   */
+  private static final long TEXT_EDIT_COALESCING_WINDOW =
+      Long.getLong("saros.session.TEXT_EDIT_COALESCING_WINDOW", 30L);
+
   private final LinkedBlockingQueue<List<IActivity>> dispatchQueue =
       new LinkedBlockingQueue<List<IActivity>>();
 
@@ -67,6 +79,25 @@ public final class ActivityHandler implements Startable {
 
   private final UISynchronizer synchronizer;
 
+  /** Only accessed by the UI thread. */
+  private final TextEditCoalescer textEditCoalescer;
+
+  /** Only accessed by the UI thread. */
+  private boolean isTextEditFlushScheduled;
+
+  private ScheduledExecutorService textEditFlushTimer;
+
+  private final Runnable flushTextEditsRunnable =
+      new Runnable() {
+        @Override
+        public void run() {
+          isTextEditFlushScheduled = false;
+
+          if (System.nanoTime() - textEditCoalescer.getFlushTime() >= 0) flushTextEdits();
+          else scheduleTextEditFlush();
+        }
+      };
+
   /*
    * We must use a thread for synchronous execution otherwise we would block
    * the DispatchThreadContext which handles the dispatching of all network
@@ -78,7 +109,13 @@ public final class ActivityHandler implements Startable {
       new Runnable() {
 
         final List<List<IActivity>> pendingActivities = new ArrayList<List<IActivity>>();
-        final List<IActivity> activitiesToExecute = new ArrayList<IActivity>();
+
+        /*
+         * activities are executed in chunks so that document and file system
+         * activities that arrive while awareness activities are still waiting
+         * for their execution are executed first
+         */
+        final ActivityPriorityQueue activitiesToExecute = new ActivityPriorityQueue();
 
         @Override
         public void run() {
@@ -86,17 +123,18 @@ public final class ActivityHandler implements Startable {
 
           boolean isPoisoned = false;
 
-          while (!Thread.currentThread().isInterrupted() && !isPoisoned) {
+          while (!Thread.currentThread().isInterrupted()) {
             pendingActivities.clear();
-            activitiesToExecute.clear();
 
-            try {
-              pendingActivities.add(dispatchQueue.take());
-            } catch (InterruptedException e) {
-              break;
-            }
+            if (!isPoisoned) {
+              try {
+                if (activitiesToExecute.isEmpty()) pendingActivities.add(dispatchQueue.take());
+              } catch (InterruptedException e) {
+                break;
+              }
 
-            dispatchQueue.drainTo(pendingActivities);
+              dispatchQueue.drainTo(pendingActivities);
+            }
 
             for (final List<IActivity> activities : pendingActivities) {
               if (activities == POISON_PILL) { // NOPMD - object reference comparison needed
@@ -107,7 +145,13 @@ public final class ActivityHandler implements Startable {
               activitiesToExecute.addAll(activities);
             }
 
-            dispatchAndExecuteActivities(activitiesToExecute);
+            if (activitiesToExecute.isEmpty()) {
+              if (isPoisoned) break;
+
+              continue;
+            }
+
+            dispatchAndExecuteActivities(activitiesToExecute.poll());
           }
 
           LOG.debug("activity dispatcher stopped");
@@ -125,12 +169,21 @@ public final class ActivityHandler implements Startable {
     this.documentServer = documentServer;
     this.documentClient = documentClient;
     this.synchronizer = synchronizer;
+    this.textEditCoalescer =
+        TEXT_EDIT_COALESCING_WINDOW > 0 ? new TextEditCoalescer(TEXT_EDIT_COALESCING_WINDOW) : null;
   }
 
   /**
    * Transforms and dispatches the activities. The {@linkplain IActivityHandlerCallback callback}
    * will be notified about the results.
    *
+   * <p>On the host the activities are transformed, sent and queued for execution under the monitor
+   * of this handler. This keeps the order of the activities for every recipient and serializes
+   * them with the file deletions and editor changes the {@link ConcurrentDocumentServer} tracks.
+   * The {@link saros.concurrent.management.JupiterServer} itself is able to transform different
+   * documents concurrently, but the session dispatches all incoming activities on a single thread
+   * anyway.
+   *
    * @param activities an <b>immutable</b> list containing the activities
    */
   public synchronized void handleIncomingActivities(List<IActivity> activities) {
@@ -143,15 +196,30 @@ public final class ActivityHandler implements Startable {
        * may transform activities again if necessary and afterward sends them to the correct
        * clients. (Note that the callback.send() methods get an actual list of recipients.)
        */
-      TransformationResult result = directServerActivities(activities);
-      for (QueueItem item : result.getSendToPeers()) {
-        List<User> recipients = getRecipientsForQueueItem(item);
-        callback.send(recipients, item.activity);
-      }
+      for (IActivity activity : activities) handleServerActivity(activity);
+
+      return;
+    }
+
+    dispatchActivities(activities);
+  }
+
+  /**
+   * Transforms a single activity received at the server, sends the results to the clients and
+   * queues the results for the local user for execution.
+   */
+  private void handleServerActivity(IActivity activity) {
+    TransformationResult result = directServerActivity(activity);
 
-      activities = result.getLocalActivities();
+    for (QueueItem item : result.getSendToPeers()) {
+      List<User> recipients = getRecipientsForQueueItem(item);
+      callback.send(recipients, item.activity);
     }
 
+    dispatchActivities(result.getLocalActivities());
+  }
+
+  private void dispatchActivities(List<IActivity> activities) {
     /**
      * @JTourBusStop 9, Activity sending, Client Receiver:
      *
@@ -234,18 +302,76 @@ public final class ActivityHandler implements Startable {
 
               @Override
               public void run() {
-                for (IActivity activity : activities) {
+                if (textEditCoalescer == null) {
+                  sendToHost(activities);
+                  return;
+                }
 
-                  IActivity transformationResult = documentClient.transformToJupiter(activity);
+                for (IActivity activity : activities)
+                  sendToHost(textEditCoalescer.add(activity, System.nanoTime()));
 
-                  callback.send(Collections.singletonList(session.getHost()), transformationResult);
-                }
+                scheduleTextEditFlush();
               }
             }));
   }
 
+  /** Transforms the activities and sends them to the host. Must be called by the UI thread. */
+  private void sendToHost(final List<IActivity> activities) {
+    for (IActivity activity : activities) {
+
+      IActivity transformationResult = documentClient.transformToJupiter(activity);
+
+      callback.send(Collections.singletonList(session.getHost()), transformationResult);
+    }
+  }
+
+  /**
+   * Sends all text edits that are held back by the {@link TextEditCoalescer}. Must be called by the
+   * UI thread.
+   */
+  private void flushTextEdits() {
+    if (textEditCoalescer != null) sendToHost(textEditCoalescer.flush(System.nanoTime()));
+  }
+
+  /**
+   * Schedules the sending of the text edits that are held back by the {@link TextEditCoalescer}.
+   * Must be called by the UI thread.
+   */
+  private void scheduleTextEditFlush() {
+    final long flushTime = textEditCoalescer.getFlushTime();
+
+    if (flushTime == -1 || isTextEditFlushScheduled) return;
+
+    final ScheduledExecutorService timer;
+
+    synchronized (this) {
+      timer = textEditFlushTimer;
+    }
+
+    if (timer == null) return;
+
+    isTextEditFlushScheduled = true;
+
+    timer.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            synchronizer.asyncExec(ThreadUtils.wrapSafe(LOG, flushTextEditsRunnable));
+          }
+        },
+        Math.max(0, flushTime - System.nanoTime()),
+        TimeUnit.NANOSECONDS);
+  }
+
   @Override
   public void start() {
+    if (textEditCoalescer != null) {
+      synchronized (this) {
+        textEditFlushTimer =
+            new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("TextEditCoalescer", false));
+      }
+    }
+
     if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) return;
 
     dispatchThread = ThreadUtils.runSafeAsync("activity-dispatcher", LOG, dispatchThreadRunnable);
@@ -253,6 +379,25 @@ public final class ActivityHandler implements Startable {
 
   @Override
   public void stop() {
+    synchronized (this) {
+      if (textEditFlushTimer != null) textEditFlushTimer.shutdownNow();
+
+      textEditFlushTimer = null;
+    }
+
+    // the held back text edits are already part of the local documents
+    if (textEditCoalescer != null) {
+      synchronizer.syncExec(
+          ThreadUtils.wrapSafe(
+              LOG,
+              new Runnable() {
+                @Override
+                public void run() {
+                  flushTextEdits();
+                }
+              }));
+    }
+
     if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) return;
 
     dispatchQueue.add(POISON_PILL);
@@ -319,6 +464,13 @@ public final class ActivityHandler implements Startable {
           @Override
           public void run() {
 
+            /*
+             * the local document already contains the held back text edits
+             * so they must be known by Jupiter before any remote operation
+             * is transformed
+             */
+            flushTextEdits();
+
             for (IActivity activity : optimizedActivities) {
 
               User source = activity.getSource();
@@ -375,48 +527,47 @@ public final class ActivityHandler implements Startable {
   }
 
   /**
-   * This method is responsible for directing activities received at the server to the various
+   * This method is responsible for directing an activity received at the server to the various
    * clients.
    *
-   * @param activities A list of incoming activities
+   * @param activity an incoming activity
    * @return A number of targeted activities.
    */
-  private TransformationResult directServerActivities(List<IActivity> activities) {
+  private TransformationResult directServerActivity(IActivity activity) {
 
     TransformationResult result = new TransformationResult(session.getLocalUser());
 
     final List<User> remoteUsers = session.getRemoteUsers();
     final List<User> allUsers = session.getUsers();
 
-    for (IActivity activity : activities) {
-      documentServer.checkFileDeleted(activity);
+    documentServer.checkFileDeleted(activity);
 
-      if (activity instanceof JupiterActivity || activity instanceof ChecksumActivity) {
+    if (activity instanceof JupiterActivity || activity instanceof ChecksumActivity) {
 
-        result.addAll(documentServer.transformIncoming(activity));
-      } else if (activity instanceof ITargetedActivity) {
-        ITargetedActivity target = (ITargetedActivity) activity;
-        result.add(new QueueItem(target.getTarget(), activity));
+      result.addAll(documentServer.transformIncoming(activity));
+    } else if (activity instanceof ITargetedActivity) {
+      ITargetedActivity target = (ITargetedActivity) activity;
+      result.add(new QueueItem(target.getTarget(), activity));
 
-      } else if (remoteUsers.size() > 0) {
+    } else if (remoteUsers.size() > 0) {
 
-        // We must not send the activity back to the sender
-        List<User> receivers = new ArrayList<User>();
-        for (User user : allUsers) {
-          if (!user.equals(activity.getSource())) {
-            receivers.add(user);
-          }
+      // We must not send the activity back to the sender
+      List<User> receivers = new ArrayList<User>();
+      for (User user : allUsers) {
+        if (!user.equals(activity.getSource())) {
+          receivers.add(user);
         }
-        result.add(new QueueItem(receivers, activity));
-
-        /*
-         * should we really execute an activity from a user that is
-         * about to or has left the session ?
-         */
-      } else if (!(session.getLocalUser().equals(activity.getSource()))) {
-        result.executeLocally.add(activity);
       }
+      result.add(new QueueItem(receivers, activity));
+
+      /*
+       * should we really execute an activity from a user that is
+       * about to or has left the session ?
+       */
+    } else if (!(session.getLocalUser().equals(activity.getSource()))) {
+      result.executeLocally.add(activity);
     }
+
     return result;
   }
 }
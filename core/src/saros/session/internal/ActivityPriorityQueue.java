@@ -0,0 +1,191 @@
+package saros.session.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import saros.activities.ChecksumActivity;
+import saros.activities.FileActivity;
+import saros.activities.FolderDeletedActivity;
+import saros.activities.FolderMovedActivity;
+import saros.activities.IActivity;
+import saros.activities.IFileSystemModificationActivity;
+import saros.activities.IResourceActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.ProgressActivity;
+import saros.activities.SPath;
+import saros.activities.StartFollowingActivity;
+import saros.activities.StopFollowingActivity;
+import saros.activities.TextEditActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+
+/**
+ * Queue that hands out {@linkplain IActivity activities} in chunks ordered by their {@linkplain
+ * Priority priority}. Awareness activities are only handed out once no document or file system
+ * activity that was added after them can be handed out anymore. All other activities keep their
+ * order:
+ *
+ * <ul>
+ *   <li>document and file system activities are never reordered among each other as text edits may
+ *       refer to files that are created or moved by a preceding file system activity
+ *   <li>document and file system activities never overtake an awareness activity on a path they
+ *       affect, e.g the source of a move or a file in a deleted folder, as the offsets of
+ *       selections and viewports refer to the content of the document at the time they were
+ *       created
+ *   <li>activities of {@link Priority#NONE} are never reordered with any other activity
+ *   <li>awareness activities keep their relative order
+ * </ul>
+ *
+ * <p>This class is <b>not</b> thread safe.
+ */
+final class ActivityPriorityQueue {
+
+  /** The priority classes of activities in descending order. */
+  enum Priority {
+    /** Jupiter activities, text edits and checksums. */
+    DOCUMENT,
+
+    /** Activities that modify the file system. */
+    FILE_SYSTEM,
+
+    /** Selections, viewports, progress and follow mode changes. */
+    AWARENESS,
+
+    /** All other activities, they are never reordered. */
+    NONE;
+
+    static Priority of(final IActivity activity) {
+      if (activity instanceof JupiterActivity
+          || activity instanceof TextEditActivity
+          || activity instanceof ChecksumActivity) return DOCUMENT;
+
+      if (activity instanceof IFileSystemModificationActivity) return FILE_SYSTEM;
+
+      if (activity instanceof TextSelectionActivity
+          || activity instanceof ViewportActivity
+          || activity instanceof ProgressActivity
+          || activity instanceof StartFollowingActivity
+          || activity instanceof StopFollowingActivity) return AWARENESS;
+
+      return NONE;
+    }
+  }
+
+  private final LinkedList<IActivity> activities = new LinkedList<IActivity>();
+
+  /**
+   * Adds the activities to the end of the queue.
+   *
+   * @param activities the activities to add
+   */
+  void addAll(final List<IActivity> activities) {
+    this.activities.addAll(activities);
+  }
+
+  boolean isEmpty() {
+    return activities.isEmpty();
+  }
+
+  /**
+   * Removes the next chunk of activities from the queue. If there are activities that can be handed
+   * out in front of awareness activities the chunk contains only those activities. Otherwise it
+   * contains the awareness activities that must be handed out next.
+   *
+   * @return the next chunk of activities, empty if the queue is empty
+   */
+  List<IActivity> poll() {
+    final List<IActivity> result = new ArrayList<IActivity>();
+
+    boolean hasDeferredActivities = false;
+
+    final Set<SPath> deferredPaths = new HashSet<SPath>();
+
+    for (final Iterator<IActivity> it = activities.iterator(); it.hasNext(); ) {
+      final IActivity activity = it.next();
+      final Priority priority = Priority.of(activity);
+
+      if (priority == Priority.AWARENESS) {
+        hasDeferredActivities = true;
+
+        if (activity instanceof IResourceActivity
+            && ((IResourceActivity) activity).getPath() != null)
+          deferredPaths.add(((IResourceActivity) activity).getPath());
+
+        continue;
+      }
+
+      if (priority == Priority.NONE && hasDeferredActivities) break;
+
+      if (affectsAnyOf(activity, deferredPaths)) break;
+
+      result.add(activity);
+      it.remove();
+    }
+
+    if (!result.isEmpty()) return result;
+
+    for (final Iterator<IActivity> it = activities.iterator(); it.hasNext(); ) {
+      final IActivity activity = it.next();
+
+      if (Priority.of(activity) != Priority.AWARENESS) break;
+
+      result.add(activity);
+      it.remove();
+    }
+
+    return result;
+  }
+
+  /** Returns whether the activity changes the document or the file of one of the given paths. */
+  private static boolean affectsAnyOf(final IActivity activity, final Set<SPath> paths) {
+    if (paths.isEmpty() || !(activity instanceof IResourceActivity)) return false;
+
+    for (final SPath path : paths) if (affects(activity, path)) return true;
+
+    return false;
+  }
+
+  @SuppressWarnings("deprecation")
+  private static boolean affects(final IActivity activity, final SPath path) {
+    final SPath activityPath = ((IResourceActivity) activity).getPath();
+
+    if (activity instanceof FolderDeletedActivity) return contains(activityPath, path);
+
+    if (activity instanceof FolderMovedActivity)
+      return contains(activityPath, path)
+          || contains(((FolderMovedActivity) activity).getDestination(), path);
+
+    if (activity instanceof FileActivity && path.equals(((FileActivity) activity).getOldPath()))
+      return true;
+
+    return path.equals(activityPath);
+  }
+
+  /** Returns whether the given path is located in the given folder. */
+  private static boolean contains(final SPath folder, final SPath path) {
+    return folder != null
+        && folder.getProject().equals(path.getProject())
+        && folder.getProjectRelativePath().isPrefixOf(path.getProjectRelativePath());
+  }
+
+  /**
+   * Orders the activities by their priority in the same way the chunks of a queue containing the
+   * activities would be handed out.
+   *
+   * @param activities the activities to order
+   * @return a new list containing the ordered activities
+   */
+  static List<IActivity> prioritize(final List<IActivity> activities) {
+    final ActivityPriorityQueue queue = new ActivityPriorityQueue();
+    queue.addAll(activities);
+
+    final List<IActivity> result = new ArrayList<IActivity>(activities.size());
+
+    while (!queue.isEmpty()) result.addAll(queue.poll());
+
+    return result;
+  }
+}
@@ -24,26 +24,45 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
+import saros.SarosConstants;
 import saros.activities.ActivityOptimizer;
-import saros.activities.FileActivity;
 import saros.activities.IActivity;
+import saros.communication.extensions.ActivitiesAcknowledgedExtension;
 import saros.communication.extensions.ActivitiesExtension;
+import saros.communication.extensions.BinaryActivitiesExtension;
+import saros.communication.extensions.BinaryActivityCodec;
 import saros.net.DispatchThreadContext;
+import saros.net.IConnectionManager;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
+import saros.net.SharedPacketExtension;
+import saros.net.xmpp.discovery.DiscoveryManager;
 import saros.net.xmpp.JID;
 import saros.repackaged.picocontainer.Startable;
 import saros.session.ISarosSession;
 import saros.session.User;
+import saros.synchronize.UISynchronizer;
 import saros.util.ThreadUtils;
 
 /**
@@ -64,6 +83,73 @@ public class ActivitySequencer implements Startable {
   /** Sequence numbers for outgoing and incoming activities start with this value. */
   private static final int FIRST_SEQUENCE_NUMBER = 0;
 
+  /**
+   * If enabled, activities that are sent to multiple recipients at once are only marshalled once.
+   * The sequence numbers of the recipients are transmitted alongside the shared data, so this is
+   * only done for recipients that advertise {@link SarosConstants#NAMESPACE_SEQUENCE_NUMBERS}.
+   */
+  private static final boolean FAN_OUT =
+      Boolean.valueOf(System.getProperty("saros.session.ACTIVITY_FAN_OUT", "true"));
+
+  /**
+   * Maximum amount of memory in bytes the marshalled but not yet sent activity packets of a single
+   * recipient should occupy. While the send window of a recipient is exhausted its activities are
+   * not marshalled and threads that want to send further activities to it are blocked, except for
+   * the UI thread. The activities the UI thread sends meanwhile are held back and compacted, so
+   * that only the newest selection and viewport per user and path is kept.
+   */
+  private static final long SEND_WINDOW =
+      Long.getLong("saros.session.ACTIVITY_SEND_WINDOW", 16L * 1024L * 1024L);
+
+  /**
+   * Maximum time in milliseconds the send window of a recipient may stay exhausted. If the
+   * recipient does not receive any pending activities during this time the transmission to the
+   * recipient is considered as failed.
+   */
+  private static final long SEND_WINDOW_TIMEOUT =
+      Long.getLong("saros.session.ACTIVITY_SEND_WINDOW_TIMEOUT", 60000L);
+
+  /** Maximum estimated size in bytes of the activities that are marshalled into a single packet. */
+  private static final long MAX_PACKET_SIZE = 256 * 1024;
+
+  /**
+   * If enabled, a broken session connection to a recipient is re-established and the activities the
+   * recipient did not acknowledge yet are sent again instead of removing the recipient from the
+   * session. Requires an {@link IConnectionManager}.
+   */
+  private static final boolean RESUMPTION =
+      Boolean.valueOf(System.getProperty("saros.session.ACTIVITY_RESUMPTION", "true"));
+
+  /**
+   * Maximum amount of memory in bytes the sent but not yet acknowledged activity packets of a
+   * single recipient may occupy. Older packets are discarded, so a connection can only be resumed
+   * if the recipient did not miss any of the discarded packets.
+   */
+  private static final long REPLAY_BUFFER =
+      Long.getLong("saros.session.ACTIVITY_REPLAY_BUFFER", 4L * 1024L * 1024L);
+
+  /** Maximum time in milliseconds to re-establish a broken session connection. */
+  private static final long RESUME_TIMEOUT =
+      Long.getLong("saros.session.ACTIVITY_RESUME_TIMEOUT", 30000L);
+
+  /** Time in milliseconds to wait between two attempts to re-establish a session connection. */
+  private static final long RESUME_RETRY_DELAY = 1000;
+
+  /** Number of received activities after which their receipt is acknowledged to the sender. */
+  private static final int ACKNOWLEDGE_INTERVAL =
+      Integer.getInteger("saros.session.ACTIVITY_ACKNOWLEDGE_INTERVAL", 64);
+
+  private static final int NO_ACKNOWLEDGEMENT = -1;
+
+  /**
+   * Minimum number of activities that are held back for a recipient whose send window is exhausted
+   * before they are compacted.
+   */
+  private static final int MIN_COMPACTION_SIZE = 64;
+
+  /** Value of {@link OutgoingActivities#windowExhaustedTime} if the window is not exhausted. */
+  private static final long WINDOW_NOT_EXHAUSTED = Long.MIN_VALUE;
+
   private static class SequencedActivities {
     private final int sequenceNumber;
     private final List<IActivity> activites;
@@ -74,18 +160,632 @@ public class ActivitySequencer implements Startable {
     }
   }
 
-  private static class ActivityBuffer<T> {
+  private static class ActivityBuffer {
+    private int nextSequenceNumber;
+
+    /** Number of executed activities whose receipt was not acknowledged yet. */
+    private int unacknowledgedCount;
+
+    private ActivityBuffer(int firstSequenceNumber) {
+      nextSequenceNumber = firstSequenceNumber;
+    }
+  }
+
+  /** An activity that was passed to {@link #sendActivity} but is not picked up yet. */
+  private static class OutgoingActivity {
+    private final IActivity activity;
+
+    private final List<OutgoingActivities> recipients;
+
+    /** Estimated size of the activity in bytes. */
+    private final long size;
+
+    private OutgoingActivity(IActivity activity, List<OutgoingActivities> recipients, long size) {
+      this.activity = activity;
+      this.recipients = recipients;
+      this.size = size;
+    }
+  }
+
+  /**
+   * The outgoing activities of a single recipient. The buffered activities are only accessed by the
+   * activity sender thread. All other threads only modify the counters of the pending activities.
+   */
+  private class OutgoingActivities {
+
+    private final JID recipient;
+
+    private final SendLane lane;
+
+    /** Only accessed by the activity sender thread. */
+    private final List<IActivity> bufferedActivities = new ArrayList<IActivity>();
+
+    /** Estimated size in bytes of the buffered activities, only accessed by the sender thread. */
+    private long bufferedSize;
+
+    /** Time in nanoseconds the oldest activity was buffered, only accessed by the sender thread. */
+    private long firstActivityTime;
+
+    /** Only accessed by the activity sender thread. */
+    private int nextSequenceNumber = FIRST_SEQUENCE_NUMBER;
+
+    /** Number of buffered activities at which they are compacted, only accessed by the sender. */
+    private int compactionSize = MIN_COMPACTION_SIZE;
+
+    /** Number of activities that are not queued in the send lane yet. */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /** Estimated size in bytes of the activities that are not queued in the send lane yet. */
+    private final AtomicLong pendingSize = new AtomicLong();
+
+    /** Flag to signal that the activities should be sent without any further delay. */
+    private volatile boolean flushRequested;
+
+    /** Number of threads that are waiting in {@link #awaitCredit}. */
+    private volatile int creditWaiters;
+
+    /**
+     * Time in nanoseconds since the send window is exhausted without the recipient receiving any
+     * pending activities or {@link #WINDOW_NOT_EXHAUSTED}.
+     */
+    private final AtomicLong windowExhaustedTime = new AtomicLong(WINDOW_NOT_EXHAUSTED);
+
+    private volatile boolean closed;
+
     /**
-     * Helper flag to signal that there pending data is still send even if the buffer is already
-     * empty.
+     * Helper flag to signal that removed activities are still processed, guarded by this object.
      */
     private boolean isInTransmission;
 
-    private int nextSequenceNumber;
-    private final Deque<T> activities = new LinkedList<T>();
+    private OutgoingActivities(JID recipient) {
+      this.recipient = recipient;
+      this.lane = new SendLane(recipient, this);
+    }
 
-    private ActivityBuffer(int firstSequenceNumber) {
-      nextSequenceNumber = firstSequenceNumber;
+    /** Called by the thread that passes the activity to {@link #sendActivity}. */
+    private void add(final long activitySize) {
+      pendingSize.addAndGet(activitySize);
+      pendingCount.incrementAndGet();
+    }
+
+    /** Buffers the activity, must only be called by the activity sender thread. */
+    private void buffer(final IActivity activity, final long activitySize, final long currentTime) {
+      if (bufferedActivities.isEmpty()) firstActivityTime = currentTime;
+
+      bufferedActivities.add(activity);
+      bufferedSize += activitySize;
+
+      if (!hasWindowCredit() && bufferedActivities.size() >= compactionSize) compact();
+    }
+
+    /**
+     * Reduces the buffered activities with the {@link ActivityOptimizer}, which keeps only the
+     * newest selection and viewport per user and path. The activities are compacted again once
+     * their number doubled, so held back activities do not grow with the awareness traffic.
+     */
+    private void compact() {
+      final List<IActivity> compactedActivities = ActivityOptimizer.optimize(bufferedActivities);
+
+      long compactedSize = 0;
+
+      for (final IActivity activity : compactedActivities)
+        compactedSize += ActivityBatchingPolicy.estimateSize(activity);
+
+      pendingSize.addAndGet(compactedSize - bufferedSize);
+      pendingCount.addAndGet(compactedActivities.size() - bufferedActivities.size());
+
+      bufferedActivities.clear();
+      bufferedActivities.addAll(compactedActivities);
+      bufferedSize = compactedSize;
+
+      compactionSize = Math.max(MIN_COMPACTION_SIZE, 2 * compactedActivities.size());
+
+      notifyCreditWaiters();
+    }
+
+    /**
+     * Removes all buffered activities. Must only be called by the activity sender thread which has
+     * to call {@link #transmissionDone()} once the activities are queued in the send lane.
+     */
+    private List<IActivity> remove() {
+      synchronized (this) {
+        isInTransmission = true;
+        flushRequested = false;
+      }
+
+      final List<IActivity> removedActivities = new ArrayList<IActivity>(bufferedActivities);
+
+      pendingSize.addAndGet(-bufferedSize);
+      pendingCount.addAndGet(-bufferedActivities.size());
+
+      bufferedActivities.clear();
+      bufferedSize = 0;
+      compactionSize = MIN_COMPACTION_SIZE;
+
+      notifyCreditWaiters();
+
+      return removedActivities;
+    }
+
+    private synchronized void transmissionDone() {
+      isInTransmission = false;
+      // notify waiting threads in flush method that we are done
+      notifyAll();
+    }
+
+    /** Waits until all pending activities are queued in the send lane or this object is closed. */
+    private synchronized void flush() throws InterruptedException {
+      while (!closed && (pendingCount.get() > 0 || isInTransmission)) {
+        if (!flushRequested && pendingCount.get() > 0) {
+          flushRequested = true;
+          wakeUpActivitySender();
+        }
+
+        wait();
+      }
+    }
+
+    /**
+     * Notes that the send window of the recipient is exhausted. The activity sender thread is woken
+     * up to watch the {@linkplain #SEND_WINDOW_TIMEOUT timeout} if the window was not exhausted
+     * before.
+     */
+    private void windowExhausted() {
+      if (windowExhaustedTime.compareAndSet(WINDOW_NOT_EXHAUSTED, System.nanoTime()))
+        wakeUpActivitySender();
+    }
+
+    /**
+     * Returns whether further activities may be passed to the recipient. The {@linkplain
+     * #SEND_WINDOW send window} is charged with the real size of the marshalled packets in the send
+     * lane. The activities that are not marshalled yet are limited to the estimated size of a
+     * single packet, so that producers cannot outrun the activity sender thread. A recipient
+     * without any unsent activities always has credit, regardless of the size of the next
+     * activity.
+     */
+    private boolean hasCredit() {
+      return hasWindowCredit() && pendingSize.get() < MAX_PACKET_SIZE;
+    }
+
+    /** Returns whether the marshalled packets in the send lane leave room in the send window. */
+    private boolean hasWindowCredit() {
+      return lane.getQueuedBytes() < sendWindow;
+    }
+
+    /**
+     * Waits until the recipient {@linkplain #hasCredit has credit} or this object is closed. The
+     * activity sender thread closes it if the recipient does not receive any pending activities
+     * within {@link #SEND_WINDOW_TIMEOUT}.
+     */
+    private void awaitCredit() {
+      synchronized (this) {
+        // must be incremented before checking the credit, see notifyCreditWaiters
+        creditWaiters++;
+
+        try {
+          while (!closed && !hasCredit()) wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          creditWaiters--;
+        }
+      }
+    }
+
+    /** Wakes up all threads that are waiting for the recipient to have credit again. */
+    private void notifyCreditWaiters() {
+      if (creditWaiters == 0) return;
+
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+
+    /** Called by the send lane whenever the recipient received pending activities. */
+    private void sent() {
+      windowExhaustedTime.set(WINDOW_NOT_EXHAUSTED);
+
+      // activities may be held back until the window has room again
+      if (pendingCount.get() > 0) wakeUpActivitySender();
+
+      notifyCreditWaiters();
+    }
+
+    /** Closes this object and stops its send lane. */
+    private void close() {
+      synchronized (this) {
+        closed = true;
+        notifyAll();
+      }
+
+      lane.stop();
+    }
+  }
+
+  /**
+   * An activities extension that is ready to be sent to a single recipient. The extension is
+   * marshalled on creation to determine the memory it occupies until it is sent.
+   */
+  private static class ActivityPacket {
+    private final SharedPacketExtension extension;
+
+    /**
+     * The sequence number to transmit alongside the extension or {@link
+     * ActivitiesExtension#NO_SEQUENCE_NUMBER} if it is already included in the extension.
+     */
+    private final int sequenceNumber;
+
+    /** The sequence number of the first activity of the packet. */
+    private final int firstSequenceNumber;
+
+    private final List<IActivity> activities;
+
+    /** Size in bytes of the marshalled extension. */
+    private final long size;
+
+    private ActivityPacket(
+        SharedPacketExtension extension,
+        int sequenceNumber,
+        int firstSequenceNumber,
+        List<IActivity> activities) {
+      this.extension = extension;
+      this.sequenceNumber = sequenceNumber;
+      this.firstSequenceNumber = firstSequenceNumber;
+      this.activities = activities;
+      this.size = extension.toByteArray().length;
+    }
+  }
+
+  /**
+   * Sends the activity packets of a single recipient with its own thread so that a slow connection
+   * to one recipient does not delay the activities of all other recipients.
+   */
+  private class SendLane implements Runnable {
+
+    private final JID recipient;
+
+    private final OutgoingActivities outgoingActivities;
+
+    private final Deque<ActivityPacket> packets = new LinkedList<ActivityPacket>();
+
+    /**
+     * The sent packets the recipient did not acknowledge yet, oldest first. They are sent again if
+     * the session connection has to be re-established.
+     */
+    private final Deque<ActivityPacket> unacknowledgedPackets = new LinkedList<ActivityPacket>();
+
+    /** Size in bytes of the unacknowledged packets. */
+    private long unacknowledgedBytes;
+
+    /** The sequence number the lane should acknowledge to the recipient. */
+    private int pendingAcknowledgement = NO_ACKNOWLEDGEMENT;
+
+    /** Number of activities contained in the queued packets. */
+    private int queuedActivities;
+
+    /** Size in bytes of the queued packets, only modified while holding the lock of this lane. */
+    private volatile long queuedBytes;
+
+    private boolean isInTransmission;
+
+    private boolean stopped;
+
+    private Thread thread;
+
+    /** Smoothed time in nanoseconds it takes to send a packet. */
+    private volatile long averageSendTime;
+
+    private SendLane(JID recipient, OutgoingActivities outgoingActivities) {
+      this.recipient = recipient;
+      this.outgoingActivities = outgoingActivities;
+    }
+
+    private synchronized void start() {
+      if (stopped || thread != null) return;
+
+      thread = ThreadUtils.runSafeAsync("activity-sender-" + recipient.getBase(), LOG, this);
+    }
+
+    /**
+     * Stops this lane and discards all packets that are not sent yet. This method does not wait
+     * until the lane thread terminates.
+     */
+    private synchronized void stop() {
+      stopped = true;
+      isInTransmission = false;
+      packets.clear();
+      queuedActivities = 0;
+      queuedBytes = 0;
+      unacknowledgedPackets.clear();
+      unacknowledgedBytes = 0;
+      notifyAll();
+    }
+
+    private synchronized void add(ActivityPacket packet) {
+      if (stopped) return;
+
+      packets.add(packet);
+      queuedActivities += packet.activities.size();
+      queuedBytes += packet.size;
+      notifyAll();
+    }
+
+    /**
+     * Lets the lane acknowledge the receipt of all activities before the given sequence number to
+     * the recipient.
+     */
+    private synchronized void queueAcknowledgement(final int nextSequenceNumber) {
+      if (stopped) return;
+
+      pendingAcknowledgement = nextSequenceNumber;
+      notifyAll();
+    }
+
+    /**
+     * Discards the sent packets whose activities the recipient acknowledged.
+     *
+     * @param nextSequenceNumber the sequence number of the first activity the recipient did not
+     *     receive yet
+     */
+    private synchronized void discardAcknowledged(final int nextSequenceNumber) {
+      while (!unacknowledgedPackets.isEmpty()) {
+        final ActivityPacket packet = unacknowledgedPackets.peek();
+
+        if (packet.firstSequenceNumber + packet.activities.size() > nextSequenceNumber) break;
+
+        unacknowledgedPackets.remove();
+        unacknowledgedBytes -= packet.size;
+      }
+    }
+
+    /** Keeps the sent packet until the recipient acknowledges it. */
+    private synchronized void retain(final ActivityPacket packet) {
+      if (stopped) return;
+
+      unacknowledgedPackets.add(packet);
+      unacknowledgedBytes += packet.size;
+
+      while (unacknowledgedBytes > REPLAY_BUFFER) {
+        unacknowledgedBytes -= unacknowledgedPackets.remove().size;
+      }
+    }
+
+    /** Waits until all queued packets are sent or the lane was stopped. */
+    private synchronized void flush() throws InterruptedException {
+      while (!stopped && (!packets.isEmpty() || isInTransmission)) wait();
+    }
+
+    private synchronized int getQueuedActivities() {
+      return queuedActivities;
+    }
+
+    private long getQueuedBytes() {
+      return queuedBytes;
+    }
+
+    /** Checks if the lane is currently sending or has packets that are not sent yet. */
+    private synchronized boolean isBusy() {
+      return isInTransmission || !packets.isEmpty();
+    }
+
+    private long getAverageSendTime() {
+      return averageSendTime;
+    }
+
+    private void join(long timeout) throws InterruptedException {
+      final Thread currentThread;
+
+      synchronized (this) {
+        currentThread = thread;
+      }
+
+      if (currentThread == null || currentThread == Thread.currentThread()) return;
+
+      currentThread.join(timeout);
+
+      if (currentThread.isAlive()) LOG.error(currentThread.getName() + " thread is still running");
+    }
+
+    @Override
+    public void run() {
+      try {
+        sendPackets();
+      } finally {
+        // never let a flush wait for a lane that is no longer running
+        stop();
+      }
+    }
+
+    private void sendPackets() {
+      while (true) {
+        ActivityPacket packet = null;
+
+        final int acknowledgement;
+
+        final boolean isIdle;
+
+        synchronized (this) {
+          isIdle = isInTransmission && packets.isEmpty();
+          isInTransmission = false;
+        }
+
+        // the activity sender may hold back activities while the lane is busy
+        if (isIdle) wakeUpActivitySender();
+
+        synchronized (this) {
+          try {
+            while (!stopped && packets.isEmpty() && pendingAcknowledgement == NO_ACKNOWLEDGEMENT) {
+              // notify waiting threads in flush method that we are done
+              notifyAll();
+              wait();
+            }
+          } catch (InterruptedException e) {
+            return;
+          }
+
+          if (stopped) return;
+
+          acknowledgement = pendingAcknowledgement;
+          pendingAcknowledgement = NO_ACKNOWLEDGEMENT;
+
+          if (!packets.isEmpty()) {
+            packet = packets.remove();
+            isInTransmission = true;
+          }
+        }
+
+        if (acknowledgement != NO_ACKNOWLEDGEMENT && !sendAcknowledgement(acknowledgement)) return;
+
+        if (packet == null) continue;
+
+        final long sendStartTime = System.nanoTime();
+
+        if (!send(packet)) return;
+
+        // same smoothing as used for the TCP round trip time
+        averageSendTime += (System.nanoTime() - sendStartTime - averageSendTime) / 8;
+
+        synchronized (this) {
+          queuedActivities -= packet.activities.size();
+          queuedBytes -= packet.size;
+        }
+
+        outgoingActivities.sent();
+      }
+    }
+
+    private boolean send(ActivityPacket packet) {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace(
+            "send ("
+                + String.format("%03d", packet.activities.size())
+                + ") "
+                + recipient
+                + " -> "
+                + packet.activities);
+      } else if (LOG.isDebugEnabled()) {
+        LOG.debug("send (" + String.format("%03d", packet.activities.size()) + ") " + recipient);
+      }
+
+      try {
+        transmit(packet);
+      } catch (IOException e) {
+        if (!resume(packet, e)) {
+          LOG.error("failed to sent activities to " + recipient + ": " + packet.activities, e);
+
+          unregisterUser(recipient);
+          notifyTransmissionError(recipient);
+          return false;
+        }
+      }
+
+      if (resumable) retain(packet);
+
+      return true;
+    }
+
+    private boolean sendAcknowledgement(final int nextSequenceNumber) {
+      try {
+        transmitter.send(
+            ISarosSession.SESSION_CONNECTION_ID,
+            recipient,
+            ActivitiesAcknowledgedExtension.PROVIDER.create(
+                new ActivitiesAcknowledgedExtension(currentSessionID, nextSequenceNumber)));
+      } catch (IOException e) {
+        if (!resume(null, e)) {
+          LOG.error("failed to acknowledge received activities to " + recipient, e);
+
+          unregisterUser(recipient);
+          notifyTransmissionError(recipient);
+          return false;
+        }
+      }
+
+      return true;
+    }
+
+    private void transmit(final ActivityPacket packet) throws IOException {
+      if (packet.sequenceNumber == ActivitiesExtension.NO_SEQUENCE_NUMBER)
+        transmitter.send(ISarosSession.SESSION_CONNECTION_ID, recipient, packet.extension);
+      else
+        transmitter.send(
+            ISarosSession.SESSION_CONNECTION_ID,
+            recipient,
+            packet.extension,
+            packet.sequenceNumber);
+
+      /*
+       * Later packets may omit the dictionary definitions of this one. If the packet gets lost
+       * nevertheless, it is part of the packets that are sent again on resumption.
+       */
+      final PacketExtension extension = packet.extension.getExtension();
+
+      if (extension instanceof BinaryActivitiesExtension)
+        binaryCodec.delivered((BinaryActivitiesExtension) extension, recipient);
+    }
+
+    /**
+     * Re-establishes the session connection to the recipient and sends all packets again the
+     * recipient did not acknowledge yet, followed by the given packet. The recipient discards the
+     * activities it already received.
+     *
+     * @param failedPacket the packet that could not be sent or <code>null</code>
+     * @param cause the reason the connection broke
+     * @return <code>true</code> if the connection was re-established within {@link
+     *     #RESUME_TIMEOUT}, <code>false</code> otherwise
+     */
+    private boolean resume(final ActivityPacket failedPacket, final IOException cause) {
+      if (!resumable) return false;
+
+      LOG.warn(
+          "session connection to "
+              + recipient
+              + " failed, trying to resume it: "
+              + cause.getMessage());
+
+      final long deadline = System.currentTimeMillis() + resumeTimeout;
+
+      while (true) {
+        final List<ActivityPacket> replay;
+
+        synchronized (this) {
+          if (stopped) return false;
+
+          replay = new ArrayList<ActivityPacket>(unacknowledgedPackets);
+        }
+
+        try {
+          connectionManager.connect(ISarosSession.SESSION_CONNECTION_ID, recipient);
+
+          for (final ActivityPacket packet : replay) transmit(packet);
+
+          if (failedPacket != null) transmit(failedPacket);
+
+          LOG.info(
+              "resumed session connection to "
+                  + recipient
+                  + ", sent "
+                  + replay.size()
+                  + " unacknowledged packet(s) again");
+
+          return true;
+        } catch (IOException e) {
+          LOG.debug("failed to resume session connection to " + recipient, e);
+        }
+
+        final long remaining = deadline - System.currentTimeMillis();
+
+        if (remaining <= 0) return false;
+
+        synchronized (this) {
+          try {
+            if (!stopped) wait(Math.min(RESUME_RETRY_DELAY, remaining));
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+          }
+        }
+      }
     }
   }
 
@@ -98,82 +798,189 @@ public class ActivitySequencer implements Startable {
         }
       };
 
+  private final PacketListener acknowledgementPacketListener =
+      new PacketListener() {
+
+        @Override
+        public void processPacket(Packet packet) {
+          receiveAcknowledgement(packet);
+        }
+      };
+
   private final Runnable activitySender =
       new Runnable() {
 
         @Override
         public void run() {
 
-          Map<JID, SequencedActivities> activitiesToSend = new HashMap<JID, SequencedActivities>();
+          activitySendThread = Thread.currentThread();
 
-          send:
-          while (true) {
+          final Map<JID, SequencedActivities> activitiesToSend =
+              new HashMap<JID, SequencedActivities>();
+
+          final List<OutgoingActivities> pendingActivities = new ArrayList<OutgoingActivities>();
+
+          while (!stopSending) {
             activitiesToSend.clear();
+            pendingActivities.clear();
 
-            synchronized (bufferedOutgoingActivities) {
-              if (stopSending) return;
+            // every signal from now on must unpark this thread again
+            activitySenderSignaled.set(false);
 
-              for (Entry<JID, ActivityBuffer<IActivity>> entry :
-                  bufferedOutgoingActivities.entrySet()) {
+            final long currentTime = System.nanoTime();
 
-                ActivityBuffer<IActivity> buffer = entry.getValue();
+            OutgoingActivity outgoingActivity;
 
-                if (buffer == null || buffer.activities.isEmpty()) continue;
+            while ((outgoingActivity = outgoingActivityQueue.poll()) != null) {
+              for (final OutgoingActivities outgoing : outgoingActivity.recipients) {
+                if (outgoing.closed) continue;
+
+                outgoing.buffer(outgoingActivity.activity, outgoingActivity.size, currentTime);
+              }
+            }
 
-                List<IActivity> optimizedActivities = ActivityOptimizer.optimize(buffer.activities);
+            long nextBatchDelay = removeStalledRecipients(currentTime);
 
-                buffer.activities.clear();
-                buffer.isInTransmission = true;
+            boolean isBatchDue = false;
 
-                int currentSequenceNumber = buffer.nextSequenceNumber;
-                buffer.nextSequenceNumber += optimizedActivities.size();
+            for (final OutgoingActivities outgoing : outgoingActivities.values()) {
 
-                activitiesToSend.put(
-                    entry.getKey(),
-                    new SequencedActivities(optimizedActivities, currentSequenceNumber));
-              }
+              if (outgoing.bufferedActivities.isEmpty()) continue;
 
-              if (activitiesToSend.isEmpty()) {
-                try {
-                  bufferedOutgoingActivities.wait();
-                  continue send;
-                } catch (InterruptedException e) {
-                  return;
-                }
-              }
-            }
+              final long batchDelay = getBatchDelay(outgoing, currentTime);
 
-            for (Entry<JID, SequencedActivities> e : activitiesToSend.entrySet()) {
-              sendActivities(e.getKey(), e.getValue().activites, e.getValue().sequenceNumber);
+              if (batchDelay == Long.MAX_VALUE) continue;
+
+              isBatchDue |= batchDelay <= 0;
+              nextBatchDelay = Math.min(nextBatchDelay, batchDelay);
+              pendingActivities.add(outgoing);
             }
 
-            synchronized (bufferedOutgoingActivities) {
-              for (Entry<JID, ActivityBuffer<IActivity>> entry :
-                  bufferedOutgoingActivities.entrySet()) {
+            if (!isBatchDue) {
+              if (nextBatchDelay == Long.MAX_VALUE) LockSupport.park(this);
+              else LockSupport.parkNanos(this, nextBatchDelay);
 
-                ActivityBuffer<IActivity> buffer = entry.getValue();
+              if (Thread.interrupted()) return;
 
-                if (buffer == null) continue;
+              continue;
+            }
 
-                buffer.isInTransmission = false;
-              }
+            /*
+             * once a batch is due, send all activities that are only waiting for their delay to
+             * expire as well so that recipients of the same activities can still share the
+             * marshalled data
+             */
+            for (final OutgoingActivities outgoing : pendingActivities) {
 
-              // notify waiting threads in flush method that we are done
-              bufferedOutgoingActivities.notifyAll();
+              // document activities go into the first packet if the batch has to be split
+              List<IActivity> optimizedActivities =
+                  ActivityPriorityQueue.prioritize(ActivityOptimizer.optimize(outgoing.remove()));
+
+              int currentSequenceNumber = outgoing.nextSequenceNumber;
+              outgoing.nextSequenceNumber += optimizedActivities.size();
+
+              activitiesToSend.put(
+                  outgoing.recipient,
+                  new SequencedActivities(optimizedActivities, currentSequenceNumber));
             }
+
+            sendActivities(activitiesToSend);
+
+            for (final OutgoingActivities outgoing : pendingActivities) outgoing.transmissionDone();
           }
         }
       };
 
+  /**
+   * Unregisters the recipients whose send window stayed exhausted for {@link #SEND_WINDOW_TIMEOUT}
+   * and reports the failed transmission. Must only be called by the activity sender thread.
+   *
+   * @return the time in nanoseconds until the next recipient may time out or {@link
+   *     Long#MAX_VALUE} if the send window of no recipient is exhausted
+   */
+  private long removeStalledRecipients(final long currentTime) {
+    long nextTimeout = Long.MAX_VALUE;
+
+    for (final OutgoingActivities outgoing : outgoingActivities.values()) {
+      final long exhaustedTime = outgoing.windowExhaustedTime.get();
+
+      if (exhaustedTime == WINDOW_NOT_EXHAUSTED) continue;
+
+      final long timeout =
+          exhaustedTime + TimeUnit.MILLISECONDS.toNanos(SEND_WINDOW_TIMEOUT) - currentTime;
+
+      if (timeout > 0) {
+        nextTimeout = Math.min(nextTimeout, timeout);
+        continue;
+      }
+
+      LOG.error(
+          "could not send activities to "
+              + outgoing.recipient
+              + " because it did not receive any pending activities within "
+              + SEND_WINDOW_TIMEOUT
+              + " ms");
+
+      unregisterUser(outgoing.recipient);
+      notifyTransmissionError(outgoing.recipient);
+    }
+
+    return nextTimeout;
+  }
+
+  /**
+   * Returns the time in nanoseconds to wait before the activities should be sent according to the
+   * {@linkplain ActivityBatchingPolicy batching policy}. As long as the send lane of the recipient
+   * is busy there is no need to send the activities unless they already exceed the limits of the
+   * policy.
+   *
+   * @return the delay in nanoseconds, a value less or equal to 0 if the activities should be sent
+   *     immediately or {@link Long#MAX_VALUE} if the activities should be held back until the send
+   *     lane becomes idle
+   */
+  private long getBatchDelay(final OutgoingActivities outgoing, final long currentTime) {
+
+    if (outgoing.flushRequested) return 0;
+
+    // the activities are marshalled once the recipient received enough of the queued packets
+    if (!outgoing.hasWindowCredit()) return Long.MAX_VALUE;
+
+    if (batchingPolicy.isFull(outgoing.bufferedActivities.size(), outgoing.bufferedSize)) return 0;
+
+    final SendLane lane = outgoing.lane;
+
+    if (lane.isBusy()) return Long.MAX_VALUE;
+
+    final long elapsedTime = currentTime - outgoing.firstActivityTime;
+
+    return batchingPolicy.getDelay(lane.getAverageSendTime()) - elapsedTime;
+  }
+
+  /**
+   * Wakes up the activity sender thread. The thread is only unparked if it was not already signaled
+   * since it last looked for activities to send.
+   */
+  private void wakeUpActivitySender() {
+    if (activitySenderSignaled.getAndSet(true)) return;
+
+    final Thread thread = activitySendThread;
+
+    // if the thread is not set yet it did not look for activities to send either
+    if (thread != null) LockSupport.unpark(thread);
+  }
+
   private volatile IActivitySequencerCallback callback;
 
   private boolean started = false;
   private boolean stopped = false;
 
-  private boolean stopSending = false;
+  private volatile boolean stopSending = false;
   private final String currentSessionID;
 
-  private Thread activitySendThread;
+  /** The activity sender thread, also set by the thread itself before it looks for activities. */
+  private volatile Thread activitySendThread;
+
+  private final AtomicBoolean activitySenderSignaled = new AtomicBoolean();
 
   private final ISarosSession sarosSession;
 
@@ -181,26 +988,82 @@ public class ActivitySequencer implements Startable {
 
   private final IReceiver receiver;
 
+  /** Used to re-establish broken session connections, may be <code>null</code>. */
+  private final IConnectionManager connectionManager;
+
+  /** Whether broken session connections are re-established, see {@link #RESUMPTION}. */
+  private final boolean resumable;
+
+  private volatile long resumeTimeout = RESUME_TIMEOUT;
+
   private final DispatchThreadContext dispatchThread;
 
-  private final Map<JID, ActivityBuffer<IActivity>> bufferedIncomingActivities;
+  /**
+   * Used to tell if {@link #sendActivity} is called by the UI thread, may be <code>null</code> in
+   * which case callers are never blocked.
+   */
+  private final UISynchronizer synchronizer;
+
+  /** The codec for recipients that support binary activities, may be <code>null</code>. */
+  private final BinaryActivityCodec binaryCodec;
 
-  private final Map<JID, ActivityBuffer<IActivity>> bufferedOutgoingActivities;
+  /**
+   * Used to check which recipients can receive shared activities, may be <code>null</code> in
+   * which case activities are never shared.
+   */
+  private final DiscoveryManager discoveryManager;
+
+  private final Set<JID> queriedRecipients =
+      Collections.newSetFromMap(new ConcurrentHashMap<JID, Boolean>());
+
+  private final Map<JID, ActivityBuffer> bufferedIncomingActivities;
+
+  private final ConcurrentMap<JID, OutgoingActivities> outgoingActivities;
+
+  /**
+   * Activities that are passed to {@link #sendActivity} by any thread and are picked up by the
+   * activity sender thread. Using a single queue for all recipients ensures that recipients of the
+   * same activities buffer them in the same order.
+   */
+  private final Queue<OutgoingActivity> outgoingActivityQueue =
+      new ConcurrentLinkedQueue<OutgoingActivity>();
+
+  private final ActivityBatchingPolicy batchingPolicy = ActivityBatchingPolicy.getDefault();
+
+  private volatile long sendWindow = SEND_WINDOW;
+
+  public ActivitySequencer(
+      final ISarosSession sarosSession,
+      final ITransmitter transmitter,
+      final IReceiver receiver,
+      final DispatchThreadContext threadContext,
+      final BinaryActivityCodec binaryCodec) {
+    this(sarosSession, transmitter, receiver, null, null, null, threadContext, binaryCodec);
+  }
 
   public ActivitySequencer(
       final ISarosSession sarosSession,
       final ITransmitter transmitter,
       final IReceiver receiver,
-      final DispatchThreadContext threadContext) {
+      final IConnectionManager connectionManager,
+      final DiscoveryManager discoveryManager,
+      final UISynchronizer synchronizer,
+      final DispatchThreadContext threadContext,
+      final BinaryActivityCodec binaryCodec) {
 
     this.dispatchThread = threadContext;
+    this.synchronizer = synchronizer;
+    this.binaryCodec = binaryCodec;
+    this.discoveryManager = discoveryManager;
     this.sarosSession = sarosSession;
     this.transmitter = transmitter;
     this.receiver = receiver;
+    this.connectionManager = connectionManager;
+    this.resumable = RESUMPTION && connectionManager != null;
     this.currentSessionID = sarosSession.getID();
 
-    this.bufferedIncomingActivities = new HashMap<JID, ActivityBuffer<IActivity>>();
-    this.bufferedOutgoingActivities = new HashMap<JID, ActivityBuffer<IActivity>>();
+    this.bufferedIncomingActivities = new HashMap<JID, ActivityBuffer>();
+    this.outgoingActivities = new ConcurrentHashMap<JID, OutgoingActivities>();
   }
 
   /**
@@ -249,7 +1112,13 @@ public class ActivitySequencer implements Startable {
     receiver.addPacketListener(
         activitiesPacketListener, ActivitiesExtension.PROVIDER.getPacketFilter(currentSessionID));
 
+    receiver.addPacketListener(
+        acknowledgementPacketListener,
+        ActivitiesAcknowledgedExtension.PROVIDER.getPacketFilter(currentSessionID));
+
     activitySendThread = ThreadUtils.runSafeAsync("activity-sender", LOG, activitySender);
+
+    for (OutgoingActivities outgoing : outgoingActivities.values()) outgoing.lane.start();
   }
 
   /**
@@ -271,11 +1140,10 @@ public class ActivitySequencer implements Startable {
     }
 
     receiver.removePacketListener(activitiesPacketListener);
+    receiver.removePacketListener(acknowledgementPacketListener);
 
-    synchronized (bufferedOutgoingActivities) {
-      stopSending = true;
-      bufferedOutgoingActivities.notifyAll();
-    }
+    stopSending = true;
+    LockSupport.unpark(activitySendThread);
 
     boolean isStoppingInterrupted = false;
 
@@ -291,9 +1159,26 @@ public class ActivitySequencer implements Startable {
     if (activitySendThread.isAlive())
       LOG.error(activitySendThread.getName() + " thread is still running");
 
-    synchronized (bufferedOutgoingActivities) {
-      bufferedOutgoingActivities.clear();
-      bufferedOutgoingActivities.notifyAll();
+    final List<OutgoingActivities> removedActivities =
+        new ArrayList<OutgoingActivities>(outgoingActivities.values());
+
+    outgoingActivities.clear();
+    outgoingActivityQueue.clear();
+
+    for (OutgoingActivities outgoing : removedActivities) outgoing.close();
+
+    for (OutgoingActivities outgoing : removedActivities) {
+      final SendLane lane = outgoing.lane;
+
+      try {
+        lane.join(TIMEOUT);
+      } catch (InterruptedException e) {
+        LOG.warn(
+            "interrupted while waiting for the send lane of " + lane.recipient + " to terminate");
+
+        isStoppingInterrupted = true;
+        break;
+      }
     }
 
     synchronized (bufferedIncomingActivities) {
@@ -305,17 +1190,29 @@ public class ActivitySequencer implements Startable {
     if (isStoppingInterrupted) Thread.currentThread().interrupt();
   }
 
+  /**
+   * Returns whether the current thread may wait in {@link #sendActivity} until a recipient has
+   * credit again. The UI thread must never be blocked and neither must the activity sender thread
+   * which is the one that frees the credit.
+   */
+  private boolean mayWaitForCredit() {
+    return synchronizer != null
+        && !synchronizer.isUIThread()
+        && Thread.currentThread() != activitySendThread;
+  }
+
   public void setCallback(IActivitySequencerCallback callback) {
     this.callback = callback;
   }
 
-  private void executeActivities(
-      final JID sender, final List<IActivity> activities, final int sequenceNumber) {
+  private void executeActivities(final JID sender, List<IActivity> activities, int sequenceNumber) {
 
     boolean transmissionError = false;
 
+    int acknowledgement = NO_ACKNOWLEDGEMENT;
+
     synchronized (bufferedIncomingActivities) {
-      ActivityBuffer<IActivity> buffer = bufferedIncomingActivities.get(sender);
+      ActivityBuffer buffer = bufferedIncomingActivities.get(sender);
 
       if (buffer == null) {
         LOG.warn(
@@ -326,10 +1223,29 @@ public class ActivitySequencer implements Startable {
         return;
       }
 
+      // activities that are sent again after the sender resumed the session connection
+      if (sequenceNumber < buffer.nextSequenceNumber) {
+        final int receivedCount = buffer.nextSequenceNumber - sequenceNumber;
+
+        if (receivedCount >= activities.size()) {
+          LOG.debug("dropping already received activities from " + sender + ": " + activities);
+          return;
+        }
+
+        activities = activities.subList(receivedCount, activities.size());
+        sequenceNumber = buffer.nextSequenceNumber;
+      }
+
       if (buffer.nextSequenceNumber != sequenceNumber) {
         transmissionError = true;
       } else {
         buffer.nextSequenceNumber += activities.size();
+        buffer.unacknowledgedCount += activities.size();
+
+        if (resumable && buffer.unacknowledgedCount >= ACKNOWLEDGE_INTERVAL) {
+          acknowledgement = buffer.nextSequenceNumber;
+          buffer.unacknowledgedCount = 0;
+        }
       }
     }
 
@@ -339,51 +1255,75 @@ public class ActivitySequencer implements Startable {
       return;
     }
 
+    if (acknowledgement != NO_ACKNOWLEDGEMENT) {
+      final OutgoingActivities outgoing = outgoingActivities.get(sender);
+
+      if (outgoing != null) outgoing.lane.queueAcknowledgement(acknowledgement);
+    }
+
     sarosSession.exec(activities);
   }
 
-  /** Sends an activity to the given recipients. */
+  /**
+   * Sends an activity to the given recipients. If a recipient has no credit, e.g. because its
+   * {@linkplain #SEND_WINDOW send window} is exhausted, this method blocks until the recipient
+   * received enough of its pending activities. It never blocks the UI thread, instead the
+   * activities are held back and compacted until the recipient has credit again.
+   */
   public void sendActivity(List<User> recipients, final IActivity activity) {
 
-    ArrayList<User> remoteRecipients = new ArrayList<User>();
+    List<OutgoingActivities> remoteRecipients = null;
+
+    long activitySize = 0;
+
     for (User user : recipients) {
 
-      if (!user.isLocal()) {
-        remoteRecipients.add(user);
+      if (user.isLocal()) {
+        LOG.trace("dispatching activity " + activity + " to the local user: " + user);
+
+        dispatchThread.executeAsDispatch(
+            new Runnable() {
+              @Override
+              public void run() {
+                sarosSession.exec(Collections.singletonList(activity));
+              }
+            });
+
         continue;
       }
 
-      LOG.trace("dispatching activity " + activity + " to the local user: " + user);
+      final OutgoingActivities outgoing = outgoingActivities.get(user.getJID());
 
-      dispatchThread.executeAsDispatch(
-          new Runnable() {
-            @Override
-            public void run() {
-              sarosSession.exec(Collections.singletonList(activity));
-            }
-          });
-    }
+      if (outgoing == null) {
+        LOG.warn(
+            "cannot send activity to "
+                + user
+                + " because it is currently not registers, dropped activity: "
+                + activity);
+        continue;
+      }
 
-    if (remoteRecipients.isEmpty()) return;
+      if (remoteRecipients == null) {
+        remoteRecipients = new ArrayList<OutgoingActivities>(recipients.size());
+        activitySize = ActivityBatchingPolicy.estimateSize(activity);
+      }
 
-    synchronized (bufferedOutgoingActivities) {
-      for (User recipient : remoteRecipients) {
-        ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(recipient.getJID());
+      if (!outgoing.hasCredit()) {
+        if (!outgoing.hasWindowCredit()) outgoing.windowExhausted();
 
-        if (buffer == null) {
-          LOG.warn(
-              "cannot send activity to "
-                  + recipient
-                  + " because it is currently not registers, dropped activity: "
-                  + activity);
-          continue;
-        }
-        buffer.activities.add(activity);
+        if (mayWaitForCredit()) outgoing.awaitCredit();
       }
 
-      // ActivitySender thread is flushing the buffers
-      bufferedOutgoingActivities.notifyAll();
+      outgoing.add(activitySize);
+      remoteRecipients.add(outgoing);
     }
+
+    if (remoteRecipients == null || remoteRecipients.isEmpty()) return;
+
+    outgoingActivityQueue.add(new OutgoingActivity(activity, remoteRecipients, activitySize));
+
+    // ActivitySender thread is flushing the buffers
+    wakeUpActivitySender();
   }
 
   /**
@@ -394,16 +1334,14 @@ public class ActivitySequencer implements Startable {
    * @param user
    */
   public void registerUser(User user) {
-    synchronized (bufferedOutgoingActivities) {
-      if (bufferedOutgoingActivities.get(user.getJID()) == null)
-        bufferedOutgoingActivities.put(
-            user.getJID(), new ActivityBuffer<IActivity>(FIRST_SEQUENCE_NUMBER));
-    }
+    final OutgoingActivities outgoing = new OutgoingActivities(user.getJID());
+
+    if (outgoingActivities.putIfAbsent(user.getJID(), outgoing) == null && isStarted())
+      outgoing.lane.start();
 
     synchronized (bufferedIncomingActivities) {
       if (bufferedIncomingActivities.get(user.getJID()) == null)
-        bufferedIncomingActivities.put(
-            user.getJID(), new ActivityBuffer<IActivity>(FIRST_SEQUENCE_NUMBER));
+        bufferedIncomingActivities.put(user.getJID(), new ActivityBuffer(FIRST_SEQUENCE_NUMBER));
     }
   }
 
@@ -424,22 +1362,32 @@ public class ActivitySequencer implements Startable {
    * @param user
    */
   public void flush(User user) {
+    final OutgoingActivities outgoing = outgoingActivities.get(user.getJID());
 
-    synchronized (bufferedOutgoingActivities) {
-      while (true) {
-        ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(user.getJID());
-
-        if (buffer == null || (buffer.activities.size() == 0 && !buffer.isInTransmission)) break;
+    if (outgoing == null) return;
 
-        try {
-          bufferedOutgoingActivities.wait();
-        } catch (InterruptedException e) {
-          return;
-        }
-      }
+    try {
+      outgoing.flush();
+      outgoing.lane.flush();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
   }
 
+  /**
+   * Returns the number of activities that are queued for the given user but not sent yet.
+   *
+   * @param user
+   * @return the number of queued activities or 0 if the user is not registered
+   */
+  public int getQueueDepth(User user) {
+    final OutgoingActivities outgoing = outgoingActivities.get(user.getJID());
+
+    if (outgoing == null) return 0;
+
+    return outgoing.pendingCount.get() + outgoing.lane.getQueuedActivities();
+  }
+
   private void unregisterUser(JID jid) {
     /*
      * FIXME This stuff is to lazy if called outside the UI-Thread as it is
@@ -448,93 +1396,209 @@ public class ActivitySequencer implements Startable {
      * the user is not present.
      */
 
-    synchronized (bufferedOutgoingActivities) {
-      bufferedOutgoingActivities.put(jid, null);
-      bufferedOutgoingActivities.notifyAll();
-    }
+    final OutgoingActivities outgoing = outgoingActivities.remove(jid);
+
+    if (outgoing != null) outgoing.close();
+
+    if (binaryCodec != null) binaryCodec.reset(jid);
 
     synchronized (bufferedIncomingActivities) {
       bufferedIncomingActivities.put(jid, null);
     }
   }
 
-  private void sendActivities(JID recipient, List<IActivity> activities, int sequenceNumber) {
+  /**
+   * Queues the given activities in the send lanes of their recipients. If {@link #FAN_OUT} is
+   * enabled, recipients that are about to receive the very same activities are served with the same
+   * marshalled data.
+   */
+  private void sendActivities(final Map<JID, SequencedActivities> activitiesToSend) {
+
+    final List<JID> pendingRecipients = new ArrayList<JID>(activitiesToSend.keySet());
+
+    final Set<JID> binaryRecipients = new HashSet<JID>();
+    final Set<JID> sharingRecipients = new HashSet<JID>();
+
+    for (final JID recipient : pendingRecipients) {
+      if (binaryCodec != null && binaryCodec.isSupportedBy(recipient))
+        binaryRecipients.add(recipient);
+
+      if (isSharingSupportedBy(recipient)) sharingRecipients.add(recipient);
+    }
+
+    while (!pendingRecipients.isEmpty()) {
+      final JID recipient = pendingRecipients.remove(0);
+      final List<IActivity> activities = activitiesToSend.get(recipient).activites;
+      final boolean binary = binaryRecipients.contains(recipient);
+
+      final Map<JID, Integer> recipients = new LinkedHashMap<JID, Integer>();
+      recipients.put(recipient, activitiesToSend.get(recipient).sequenceNumber);
+
+      for (final Iterator<JID> it = pendingRecipients.iterator();
+          sharingRecipients.contains(recipient) && it.hasNext(); ) {
+        final JID otherRecipient = it.next();
+        final SequencedActivities otherActivities = activitiesToSend.get(otherRecipient);
+
+        if (!sharingRecipients.contains(otherRecipient)
+            || !isSameActivities(activities, otherActivities.activites)
+            || binaryRecipients.contains(otherRecipient) != binary) continue;
+
+        recipients.put(otherRecipient, otherActivities.sequenceNumber);
+        it.remove();
+      }
+
+      sendActivities(recipients, activities, binary);
+    }
+  }
+
+  /**
+   * Checks if the given recipient can receive activities that are shared with other recipients,
+   * i.e. if it expects its sequence number in the transfer description instead of the activities
+   * extension. Older clients would misread such a transfer description. If the features of the
+   * recipient are not known yet they are queried in the background and the activities are not
+   * shared meanwhile.
+   */
+  private boolean isSharingSupportedBy(final JID recipient) {
+    if (!FAN_OUT || discoveryManager == null) return false;
+
+    final Boolean supported =
+        discoveryManager.isFeatureSupported(recipient, SarosConstants.NAMESPACE_SEQUENCE_NUMBERS);
+
+    if (supported == null && queriedRecipients.add(recipient))
+      discoveryManager.queryFeatureSupport(
+          recipient, SarosConstants.NAMESPACE_SEQUENCE_NUMBERS, true);
+
+    return Boolean.TRUE.equals(supported);
+  }
+
+  /**
+   * Splits the activities into packets and queues them in the send lanes of the given recipients.
+   *
+   * @param recipients the recipients along with the sequence number of their first activity
+   * @param activities the activities to send
+   * @param binary if the activities should be sent in binary form
+   */
+  private void sendActivities(
+      final Map<JID, Integer> recipients, List<IActivity> activities, final boolean binary) {
 
     if (activities.size() == 0) return;
 
     /*
-     * HACK the following logic tries to reduce the HEAP usage while
-     * marshalling and sending the data. It is still possible to trigger out
-     * of memory errors.
-     *
-     * We do not try to marshal more than 256 kB of data. FileActivities are
-     * measured by their content. In addition every activity is approximated
-     * as 512 bytes. Marshalled activities can only be garbage collected
-     * after the activity packet was send.
-     *
-     * Remark: The hack is very sloppy and allow larger sizes depending on
-     * how large a file activity is.
+     * Marshalled activities can only be garbage collected after the
+     * activity packet was sent. So do not marshal more than
+     * MAX_PACKET_SIZE bytes at once. The memory that is used by all
+     * marshalled packets of a recipient is limited by its send window.
      */
 
-    final int maxFileActivitySize = 256 * 1024; // 256 kB
-    final int minActivitySize = 512; // bytes
-    int currentFileActivitySize = 0;
+    long currentPacketSize = 0;
 
-    final List<IActivity> activitiesToMarshall = new ArrayList<IActivity>();
+    List<IActivity> activitiesToMarshall = new ArrayList<IActivity>();
     final Iterator<IActivity> it = activities.iterator();
 
     while (it.hasNext()) {
 
       final IActivity activity = it.next();
 
-      if (activity instanceof FileActivity) {
-        final byte[] fileContent = ((FileActivity) (activity)).getContent();
+      currentPacketSize += ActivityBatchingPolicy.estimateSize(activity);
 
-        if (fileContent != null) currentFileActivitySize += fileContent.length;
-      }
+      activitiesToMarshall.add(activity);
 
-      currentFileActivitySize += minActivitySize;
+      if (it.hasNext() && currentPacketSize < MAX_PACKET_SIZE) continue;
 
-      activitiesToMarshall.add(activity);
+      if (recipients.size() == 1)
+        queueSequencedActivities(recipients, activitiesToMarshall, binary);
+      else queueSharedActivities(recipients, activitiesToMarshall, binary);
 
-      if (it.hasNext() && currentFileActivitySize < maxFileActivitySize) continue;
+      for (final Entry<JID, Integer> entry : recipients.entrySet())
+        entry.setValue(entry.getValue() + activitiesToMarshall.size());
 
-      final PacketExtension activityPacketExtension =
-          ActivitiesExtension.PROVIDER.create(
-              new ActivitiesExtension(currentSessionID, activitiesToMarshall, sequenceNumber));
+      activitiesToMarshall = new ArrayList<IActivity>();
+      currentPacketSize = 0;
+    }
+  }
 
-      if (LOG.isTraceEnabled()) {
-        LOG.trace(
-            "send ("
-                + String.format("%03d", activities.size())
-                + ") "
-                + recipient
-                + " -> "
-                + activities);
-      } else if (LOG.isDebugEnabled()) {
-        LOG.debug("send (" + String.format("%03d", activities.size()) + ") " + recipient);
-      }
+  /**
+   * Queues the activities for the only recipient with the sequence number included in the
+   * activities extension.
+   */
+  private void queueSequencedActivities(
+      final Map<JID, Integer> recipients, final List<IActivity> activities, final boolean binary) {
+
+    final Entry<JID, Integer> recipient = recipients.entrySet().iterator().next();
+
+    final SharedPacketExtension activityPacketExtension =
+        createPacketExtension(
+            new ActivitiesExtension(currentSessionID, activities, recipient.getValue()),
+            recipients.keySet(),
+            binary);
+
+    queueActivityPacket(
+        recipient.getKey(),
+        new ActivityPacket(
+            activityPacketExtension,
+            ActivitiesExtension.NO_SEQUENCE_NUMBER,
+            recipient.getValue(),
+            activities));
+  }
 
-      try {
-        transmitter.send(ISarosSession.SESSION_CONNECTION_ID, recipient, activityPacketExtension);
-      } catch (IOException e) {
-        LOG.error("failed to sent activities: " + activities, e);
+  /**
+   * Queues the activities for all recipients so that they are only marshalled once. The sequence
+   * numbers are transmitted alongside the shared activities extension.
+   */
+  private void queueSharedActivities(
+      final Map<JID, Integer> recipients, final List<IActivity> activities, final boolean binary) {
+
+    final SharedPacketExtension activityPacketExtension =
+        createPacketExtension(
+            new ActivitiesExtension(
+                currentSessionID, activities, ActivitiesExtension.NO_SEQUENCE_NUMBER),
+            recipients.keySet(),
+            binary);
+
+    for (final Entry<JID, Integer> recipient : recipients.entrySet()) {
+      queueActivityPacket(
+          recipient.getKey(),
+          new ActivityPacket(
+              activityPacketExtension, recipient.getValue(), recipient.getValue(), activities));
+    }
+  }
 
-        unregisterUser(recipient);
-        notifyTransmissionError(recipient);
-        return;
-      } finally {
-        sequenceNumber += activitiesToMarshall.size();
-
-        /*
-         * ensure to clear the list here as the ActivitiesExtension only
-         * holds a reference to the list and so cannot be deleted until
-         * the extension was sent
-         */
-        activitiesToMarshall.clear();
-        currentFileActivitySize = 0;
-      }
+  private SharedPacketExtension createPacketExtension(
+      final ActivitiesExtension extension, final Set<JID> recipients, final boolean binary) {
+
+    if (binary) return new SharedPacketExtension(binaryCodec.create(extension, recipients));
+
+    return new SharedPacketExtension(ActivitiesExtension.PROVIDER.create(extension));
+  }
+
+  private void queueActivityPacket(final JID recipient, final ActivityPacket packet) {
+    final OutgoingActivities outgoing = outgoingActivities.get(recipient);
+
+    if (outgoing == null) {
+      LOG.warn(
+          "cannot send activities to "
+              + recipient
+              + " because it is currently not registered, dropped activities: "
+              + packet.activities);
+
+      return;
+    }
+
+    outgoing.lane.add(packet);
+  }
+
+  /** Checks if both lists contain the same activity instances in the same order. */
+  private static boolean isSameActivities(final List<IActivity> a, final List<IActivity> b) {
+    if (a.size() != b.size()) return false;
+
+    final Iterator<IActivity> itA = a.iterator();
+    final Iterator<IActivity> itB = b.iterator();
+
+    while (itA.hasNext()) {
+      if (itA.next() != itB.next()) return false;
     }
+
+    return true;
   }
 
   private void receiveActivities(Packet activityPacket) {
@@ -574,7 +1638,34 @@ public class ActivitySequencer implements Startable {
       LOG.debug("rcvd (" + String.format("%03d", activities.size()) + ") " + from);
     }
 
-    executeActivities(from, activities, payload.getSequenceNumber());
+    int sequenceNumber = payload.getSequenceNumber();
+
+    if (sequenceNumber == ActivitiesExtension.NO_SEQUENCE_NUMBER) {
+      final Object property = activityPacket.getProperty(IReceiver.SEQUENCE_NUMBER_PROPERTY);
+
+      if (!(property instanceof Integer)) {
+        LOG.warn("activity packet from " + from + " does not contain a sequence number");
+        return;
+      }
+
+      sequenceNumber = (Integer) property;
+    }
+
+    executeActivities(from, activities, sequenceNumber);
+  }
+
+  private void receiveAcknowledgement(Packet packet) {
+    final ActivitiesAcknowledgedExtension payload =
+        ActivitiesAcknowledgedExtension.PROVIDER.getPayload(packet);
+
+    if (payload == null) {
+      LOG.warn("acknowledgement packet payload is corrupted");
+      return;
+    }
+
+    final OutgoingActivities outgoing = outgoingActivities.get(new JID(packet.getFrom()));
+
+    if (outgoing != null) outgoing.lane.discardAcknowledged(payload.getNextSequenceNumber());
   }
 
   /**
@@ -584,11 +1675,47 @@ public class ActivitySequencer implements Startable {
    * @return
    */
   boolean isUserRegistered(User user) {
-    synchronized (bufferedOutgoingActivities) {
-      return bufferedOutgoingActivities.get(user.getJID()) != null;
+    return outgoingActivities.containsKey(user.getJID());
+  }
+
+  /**
+   * For testing purposes only.
+   *
+   * @param sendWindow
+   */
+  void setSendWindow(long sendWindow) {
+    this.sendWindow = sendWindow;
+  }
+
+  /**
+   * For testing purposes only.
+   *
+   * @param resumeTimeout
+   */
+  void setResumeTimeout(long resumeTimeout) {
+    this.resumeTimeout = resumeTimeout;
+  }
+
+  /**
+   * For testing purposes only.
+   *
+   * @param user
+   * @return the number of sent packets the user did not acknowledge yet
+   */
+  int getUnacknowledgedPacketCount(User user) {
+    final OutgoingActivities outgoing = outgoingActivities.get(user.getJID());
+
+    if (outgoing == null) return 0;
+
+    synchronized (outgoing.lane) {
+      return outgoing.lane.unacknowledgedPackets.size();
     }
   }
 
+  private synchronized boolean isStarted() {
+    return started && !stopped;
+  }
+
   private void notifyTransmissionError(final JID user) {
     IActivitySequencerCallback currentCallback = callback;
 
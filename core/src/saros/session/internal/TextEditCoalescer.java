@@ -0,0 +1,210 @@
+package saros.session.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import saros.activities.IActivity;
+import saros.activities.SPath;
+import saros.activities.TextEditActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+
+/**
+ * Merges consecutive local {@linkplain TextEditActivity text edits} of the same document before
+ * they are transformed into Jupiter operations. The first text edit is passed on immediately. Text
+ * edits that follow within the coalescing window are held back and merged as long as they continue
+ * the pending edit, e.g. typing or deleting characters with backspace.
+ *
+ * <p>Selection and viewport changes of the document with the pending edit are held back as well and
+ * are passed on after the edit. Any other activity passes on all held back activities first so the
+ * order of the activities is not changed.
+ *
+ * <p>This class is <b>not</b> thread safe. The {@link ActivityHandler} only accesses it from the UI
+ * thread.
+ */
+final class TextEditCoalescer {
+
+  private final long window;
+
+  /** The path of the held back activities or <code>null</code> if nothing is held back. */
+  private SPath pendingPath;
+
+  /** The merged text edit, may be <code>null</code> if all merged edits cancel each other out. */
+  private TextEditActivity pendingEdit;
+
+  private TextSelectionActivity pendingSelection;
+
+  private ViewportActivity pendingViewport;
+
+  private SPath lastEditPath;
+
+  private long lastEditTime;
+
+  /**
+   * Creates a new coalescer.
+   *
+   * @param window the coalescing window in milliseconds
+   */
+  TextEditCoalescer(long window) {
+    if (window < 0) throw new IllegalArgumentException("window < 0");
+
+    this.window = TimeUnit.MILLISECONDS.toNanos(window);
+  }
+
+  /**
+   * Adds an outgoing activity.
+   *
+   * @param activity the activity
+   * @param currentTime the current time in nanoseconds
+   * @return the activities that must be passed on now, in order
+   */
+  List<IActivity> add(final IActivity activity, final long currentTime) {
+
+    if (activity instanceof TextEditActivity) {
+      final TextEditActivity edit = (TextEditActivity) activity;
+
+      if (pendingPath != null && pendingPath.equals(edit.getPath())) {
+
+        if (pendingEdit == null) {
+          pendingEdit = edit;
+          return Collections.emptyList();
+        }
+
+        final TextEditActivity mergedEdit = merge(pendingEdit, edit);
+
+        if (mergedEdit != null) {
+          pendingEdit = isEmpty(mergedEdit) ? null : mergedEdit;
+          return Collections.emptyList();
+        }
+      }
+
+      final List<IActivity> result = flush(currentTime);
+
+      if (edit.getPath().equals(lastEditPath) && currentTime - lastEditTime < window) {
+        pendingPath = edit.getPath();
+        pendingEdit = edit;
+        return result;
+      }
+
+      lastEditPath = edit.getPath();
+      lastEditTime = currentTime;
+
+      return append(result, edit);
+    }
+
+    if (pendingPath != null) {
+      if (activity instanceof TextSelectionActivity
+          && pendingPath.equals(((TextSelectionActivity) activity).getPath())) {
+        pendingSelection = (TextSelectionActivity) activity;
+        return Collections.emptyList();
+      }
+
+      if (activity instanceof ViewportActivity
+          && pendingPath.equals(((ViewportActivity) activity).getPath())) {
+        pendingViewport = (ViewportActivity) activity;
+        return Collections.emptyList();
+      }
+    }
+
+    return append(flush(currentTime), activity);
+  }
+
+  /**
+   * Returns all held back activities.
+   *
+   * @param currentTime the current time in nanoseconds
+   * @return the activities that must be passed on now, in order
+   */
+  List<IActivity> flush(final long currentTime) {
+    if (pendingPath == null) return Collections.emptyList();
+
+    final List<IActivity> result = new ArrayList<IActivity>(3);
+
+    if (pendingEdit != null) {
+      result.add(pendingEdit);
+      lastEditTime = currentTime;
+    }
+
+    if (pendingSelection != null) result.add(pendingSelection);
+
+    if (pendingViewport != null) result.add(pendingViewport);
+
+    pendingPath = null;
+    pendingEdit = null;
+    pendingSelection = null;
+    pendingViewport = null;
+
+    return result;
+  }
+
+  /**
+   * Returns the time in nanoseconds at which the held back activities should be passed on.
+   *
+   * @return the flush time or <code>-1</code> if no activities are held back
+   */
+  long getFlushTime() {
+    return pendingPath == null ? -1 : lastEditTime + window;
+  }
+
+  /**
+   * Merges two consecutive text edits of the same document into a single text edit.
+   *
+   * @return the merged text edit or <code>null</code> if the edits cannot be merged
+   */
+  static TextEditActivity merge(final TextEditActivity first, final TextEditActivity second) {
+
+    final int offset = first.getOffset();
+    final String text = first.getText();
+    final String replacedText = first.getReplacedText();
+
+    final int nextOffset = second.getOffset();
+    final String nextText = second.getText();
+    final String nextReplacedText = second.getReplacedText();
+
+    final int end = offset + text.length();
+
+    // typing: insert directly after the text of the first edit
+    if (nextReplacedText.isEmpty() && nextOffset == end)
+      return create(first, offset, text + nextText, replacedText);
+
+    if (!nextText.isEmpty()) return null;
+
+    // deleting the tail of the text of the first edit
+    if (nextOffset >= offset
+        && nextOffset + nextReplacedText.length() == end
+        && text.endsWith(nextReplacedText))
+      return create(first, offset, text.substring(0, nextOffset - offset), replacedText);
+
+    if (!text.isEmpty()) return null;
+
+    // backspace: delete directly before the deletion of the first edit
+    if (nextOffset + nextReplacedText.length() == offset)
+      return create(first, nextOffset, "", nextReplacedText + replacedText);
+
+    // delete: delete directly after the deletion of the first edit
+    if (nextOffset == offset) return create(first, offset, "", replacedText + nextReplacedText);
+
+    return null;
+  }
+
+  private static TextEditActivity create(
+      final TextEditActivity template,
+      final int offset,
+      final String text,
+      final String replacedText) {
+    return new TextEditActivity(
+        template.getSource(), offset, text, replacedText, template.getPath());
+  }
+
+  private static boolean isEmpty(final TextEditActivity edit) {
+    return edit.getText().isEmpty() && edit.getReplacedText().isEmpty();
+  }
+
+  private static List<IActivity> append(final List<IActivity> activities, IActivity activity) {
+    if (activities.isEmpty()) return Collections.singletonList(activity);
+
+    activities.add(activity);
+    return activities;
+  }
+}
@@ -20,6 +20,7 @@ import saros.context.IContextKeyBindings.SarosVersion;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.PacketCollector;
+import saros.net.PresetDictionary;
 import saros.net.xmpp.JID;
 
 /**
@@ -36,6 +37,7 @@ public class VersionManager {
   private static final String VERSION_KEY = "version";
   private static final String COMPATIBILITY_KEY = "compatibility";
   private static final String ID_KEY = "id";
+  private static final String DICTIONARY_KEY = "dictionary";
 
   private static final Random ID_GENERATOR = new Random();
 
@@ -53,6 +55,7 @@ public class VersionManager {
   private final Version localVersion;
   private final ITransmitter transmitter;
   private final IReceiver receiver;
+  private final PresetDictionary presetDictionary;
 
   private final PacketListener versionRequestListener =
       new PacketListener() {
@@ -73,8 +76,14 @@ public class VersionManager {
             return;
           }
 
+          presetDictionary.setRemoteVersion(
+              new JID(packet.getFrom()), versionExchangeRequest.get(DICTIONARY_KEY));
+
           VersionExchangeExtension versionExchangeResponse = new VersionExchangeExtension();
 
+          versionExchangeResponse.set(
+              DICTIONARY_KEY, String.valueOf(PresetDictionary.LATEST_VERSION));
+
           createResponseData:
           {
             versionExchangeResponse.set(VERSION_KEY, localVersion.toString());
@@ -117,7 +126,10 @@ public class VersionManager {
       };
 
   public VersionManager(
-      @SarosVersion String version, final IReceiver receiver, final ITransmitter transmitter) {
+      @SarosVersion String version,
+      final IReceiver receiver,
+      final ITransmitter transmitter,
+      final PresetDictionary presetDictionary) {
 
     this.localVersion = Version.parseVersion(version);
 
@@ -128,6 +140,7 @@ public class VersionManager {
 
     this.receiver = receiver;
     this.transmitter = transmitter;
+    this.presetDictionary = presetDictionary;
 
     receiver.addPacketListener(
         versionRequestListener,
@@ -161,6 +174,8 @@ public class VersionManager {
 
     if (versionExchangeResponse == null) return null;
 
+    presetDictionary.setRemoteVersion(rqJID, versionExchangeResponse.get(DICTIONARY_KEY));
+
     Compatibility remoteCompatibility = Compatibility.UNKNOWN;
     Compatibility compatibility = Compatibility.UNKNOWN;
     Version remoteVersion = Version.INVALID;
@@ -267,6 +282,7 @@ public class VersionManager {
 
     versionExchangeRequest.set(VERSION_KEY, localVersion.toString());
     versionExchangeRequest.set(ID_KEY, String.valueOf(exchangeID));
+    versionExchangeRequest.set(DICTIONARY_KEY, String.valueOf(PresetDictionary.LATEST_VERSION));
 
     IQ request = VersionExchangeExtension.PROVIDER.createIQ(versionExchangeRequest);
 
@@ -9,7 +9,9 @@ import org.junit.runners.Suite;
   saros.activities.TestSuite.class,
   saros.communication.extensions.TestSuite.class,
   saros.concurrent.TestSuite.class,
+  saros.concurrent.jupiter.internal.TestSuite.class,
   saros.concurrent.jupiter.test.puzzles.TestSuite.class,
+  saros.concurrent.management.TestSuite.class,
   saros.editor.colorstorage.TestSuite.class,
   saros.editor.remote.TestSuite.class,
   saros.filesystem.TestSuite.class,
@@ -18,6 +20,7 @@ import org.junit.runners.Suite;
   saros.negotiation.TestSuite.class,
   saros.net.TestSuite.class,
   saros.net.internal.TestSuite.class,
+  saros.net.stream.TestSuite.class,
   saros.preferences.TestSuite.class,
   saros.session.TestSuite.class,
   saros.session.internal.TestSuite.class,
@@ -4,10 +4,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
+import saros.activities.EditorActivity.Type;
+import saros.activities.ProgressActivity.ProgressAction;
 import saros.filesystem.IPath;
 import saros.filesystem.IProject;
 import saros.net.xmpp.JID;
@@ -144,6 +148,120 @@ public class ActivityOptimizerTest {
     assertRange(23, 23, optimized, nop);
   }
 
+  @Test
+  public void testOptimizeKeepsSelectionsOfDifferentUsers() {
+    SPath path = new SPath(fooProject, fooPath);
+
+    TextSelectionActivity aliceSelection = new TextSelectionActivity(alice, 0, 1, path);
+    TextSelectionActivity bobSelection = new TextSelectionActivity(bob, 0, 1, path);
+
+    assertEquals(
+        Arrays.asList(aliceSelection, bobSelection),
+        ActivityOptimizer.optimize(Arrays.<IActivity>asList(aliceSelection, bobSelection)));
+  }
+
+  @Test
+  public void testOptimizeProgress() {
+    ProgressActivity begin = progress("1", 0, ProgressAction.BEGINTASK);
+    ProgressActivity update0 = progress("1", 1, ProgressAction.UPDATE);
+    ProgressActivity update1 = progress("1", 2, ProgressAction.UPDATE);
+    ProgressActivity update2 = progress("1", 3, ProgressAction.UPDATE);
+    ProgressActivity otherUpdate0 = progress("2", 1, ProgressAction.UPDATE);
+    ProgressActivity otherUpdate1 = progress("2", 2, ProgressAction.UPDATE);
+    ProgressActivity otherUpdate2 = progress("2", 3, ProgressAction.UPDATE);
+    ProgressActivity otherDone = progress("2", 3, ProgressAction.DONE);
+
+    List<IActivity> activities =
+        Arrays.<IActivity>asList(
+            begin, update0, otherUpdate0, update1, otherUpdate1, update2, otherUpdate2, otherDone);
+
+    assertEquals(
+        Arrays.asList(begin, update0, otherUpdate0, update2, otherDone),
+        ActivityOptimizer.optimize(activities));
+  }
+
+  @Test
+  public void testOptimizeEditorActivities() {
+    SPath foo = new SPath(fooProject, fooPath);
+    SPath bar = new SPath(fooProject, barPath);
+
+    EditorActivity activateFoo0 = new EditorActivity(alice, Type.ACTIVATED, foo);
+    EditorActivity activateFoo1 = new EditorActivity(alice, Type.ACTIVATED, foo);
+    EditorActivity activateBar = new EditorActivity(alice, Type.ACTIVATED, bar);
+    EditorActivity activateFoo2 = new EditorActivity(alice, Type.ACTIVATED, foo);
+    EditorActivity saveFoo0 = new EditorActivity(alice, Type.SAVED, foo);
+    EditorActivity saveFoo1 = new EditorActivity(alice, Type.SAVED, foo);
+    TextEditActivity edit = new TextEditActivity(alice, 0, "a", "", foo);
+    EditorActivity saveFoo2 = new EditorActivity(alice, Type.SAVED, foo);
+
+    List<IActivity> activities =
+        Arrays.<IActivity>asList(
+            activateFoo0,
+            activateFoo1,
+            activateBar,
+            activateFoo2,
+            saveFoo0,
+            saveFoo1,
+            edit,
+            saveFoo2);
+
+    assertEquals(
+        Arrays.asList(activateFoo0, activateBar, activateFoo2, saveFoo0, edit, saveFoo2),
+        ActivityOptimizer.optimize(activities));
+  }
+
+  @Test
+  public void testOptimizeFollowMode() {
+    StartFollowingActivity aliceStart = new StartFollowingActivity(alice, bob);
+    StartFollowingActivity bobStart = new StartFollowingActivity(bob, alice);
+    StopFollowingActivity aliceStop = new StopFollowingActivity(alice);
+
+    assertEquals(
+        Arrays.asList(bobStart, aliceStop),
+        ActivityOptimizer.optimize(Arrays.<IActivity>asList(aliceStart, bobStart, aliceStop)));
+  }
+
+  @Test
+  public void testOptimizeFolderCreation() {
+    SPath foo = new SPath(fooProject, fooPath);
+    SPath bar = new SPath(fooProject, barPath);
+
+    FolderCreatedActivity createFoo0 = new FolderCreatedActivity(alice, foo);
+    FolderCreatedActivity createBar = new FolderCreatedActivity(alice, bar);
+    FolderCreatedActivity createFoo1 = new FolderCreatedActivity(alice, foo);
+    FolderDeletedActivity deleteFoo = new FolderDeletedActivity(alice, foo);
+    FolderCreatedActivity createFoo2 = new FolderCreatedActivity(alice, foo);
+
+    List<IActivity> activities =
+        Arrays.<IActivity>asList(createFoo0, createBar, createFoo1, deleteFoo, createFoo2);
+
+    assertEquals(
+        Arrays.asList(createFoo0, createBar, deleteFoo, createFoo2),
+        ActivityOptimizer.optimize(activities));
+  }
+
+  @Test
+  public void testCustomRule() {
+    ActivityOptimizer.Rule dropNOPs =
+        (activities, drop) -> {
+          for (int i = 0; i < activities.size(); i++)
+            if (activities.get(i) instanceof NOPActivity) drop.set(i);
+        };
+
+    ActivityOptimizer optimizer = new ActivityOptimizer(Collections.singletonList(dropNOPs));
+
+    TextSelectionActivity selection =
+        new TextSelectionActivity(alice, 0, 1, new SPath(fooProject, fooPath));
+
+    assertEquals(
+        Collections.singletonList(selection),
+        optimizer.reduce(Arrays.<IActivity>asList(nop, selection, nop)));
+  }
+
+  private ProgressActivity progress(String id, int workCurrent, ProgressAction action) {
+    return new ProgressActivity(alice, bob, id, workCurrent, 3, null, action);
+  }
+
   private void assertRange(int l, int h, List<IActivity> activities, IActivity activity) {
     for (int i = l; i <= h; i++)
       assertSame("optimization resulted in wrong activity order", activity, activities.get(i));
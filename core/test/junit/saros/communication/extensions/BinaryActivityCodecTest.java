@@ -0,0 +1,355 @@
+package saros.communication.extensions;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import org.easymock.EasyMock;
+import org.jivesoftware.smack.packet.DefaultPacketExtension;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+import saros.activities.ChecksumActivity;
+import saros.activities.EditorActivity;
+import saros.activities.IActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.NOPActivity;
+import saros.activities.SPath;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.SplitOperation;
+import saros.filesystem.IPath;
+import saros.filesystem.IPathFactory;
+import saros.filesystem.IProject;
+import saros.misc.xstream.SPathConverter;
+import saros.misc.xstream.UserConverter;
+import saros.net.IBinaryPacketExtension;
+import saros.net.xmpp.JID;
+import saros.session.ISarosSession;
+import saros.session.User;
+
+public class BinaryActivityCodecTest {
+
+  private static final String SESSION_ID = "4711";
+
+  private static final JID LOCAL = new JID("local@junit/Saros");
+  private static final JID REMOTE = new JID("remote@junit/Saros");
+
+  private final User alice = new User(new JID("alice@junit/Saros"), true, true, null);
+  private final User bob = new User(new JID("bob@junit/Saros"), false, false, null);
+
+  private SPath path;
+
+  private BinaryActivityCodec codec;
+
+  private SPathConverter pathConverter;
+  private UserConverter userConverter;
+
+  @Before
+  public void setUp() {
+    final IProject project = EasyMock.createNiceMock(IProject.class);
+    final IPath projectRelativePath = EasyMock.createNiceMock(IPath.class);
+
+    final IPathFactory pathFactory = EasyMock.createNiceMock(IPathFactory.class);
+    EasyMock.expect(pathFactory.fromPath(projectRelativePath)).andStubReturn("src/Foo.java");
+    EasyMock.expect(pathFactory.fromString("src/Foo.java")).andStubReturn(projectRelativePath);
+
+    final ISarosSession session = EasyMock.createNiceMock(ISarosSession.class);
+    EasyMock.expect(session.getProjectID(project)).andStubReturn("P");
+    EasyMock.expect(session.getProject("P")).andStubReturn(project);
+    EasyMock.expect(session.getUser(alice.getJID())).andStubReturn(alice);
+    EasyMock.expect(session.getUser(bob.getJID())).andStubReturn(bob);
+
+    EasyMock.replay(project, projectRelativePath, pathFactory, session);
+
+    path = new SPath(project, projectRelativePath);
+
+    codec = new BinaryActivityCodec(session, pathFactory, null);
+
+    pathConverter = new SPathConverter(session, pathFactory);
+    userConverter = new UserConverter(session);
+
+    pathConverter.start();
+    userConverter.start();
+  }
+
+  @After
+  public void tearDown() {
+    pathConverter.stop();
+    userConverter.stop();
+  }
+
+  @Test
+  public void testJupiterActivities() throws IOException {
+    final JupiterVectorTime timestamp = new JupiterVectorTime(3, 42);
+
+    assertRoundTrip(
+        new JupiterActivity(timestamp, new InsertOperation(10, "<a&b>ä", 7), alice, path),
+        new JupiterActivity(timestamp, new DeleteOperation(0, "xyz"), alice, path),
+        new JupiterActivity(timestamp, new NoOperation(), bob, path),
+        new JupiterActivity(
+            timestamp,
+            new SplitOperation(new DeleteOperation(5, "a"), new InsertOperation(0, "b")),
+            bob,
+            path));
+  }
+
+  @Test
+  public void testAwarenessActivities() throws IOException {
+    assertRoundTrip(
+        new TextSelectionActivity(alice, 12, 3, path),
+        new ViewportActivity(alice, 100, 40, path),
+        new EditorActivity(alice, EditorActivity.Type.ACTIVATED, path),
+        new EditorActivity(alice, EditorActivity.Type.ACTIVATED, null));
+  }
+
+  @Test
+  public void testChecksumActivities() throws IOException {
+    assertRoundTrip(
+        new ChecksumActivity(alice, path, -17, ChecksumActivity.NON_EXISTING_DOC, null),
+        new ChecksumActivity(alice, path, Long.MAX_VALUE, 4096, new JupiterVectorTime(1, 2)));
+  }
+
+  @Test
+  public void testOtherActivitiesAreEmbeddedAsXML() throws IOException {
+    assertRoundTrip(
+        new NOPActivity(alice, bob, 1),
+        new TextSelectionActivity(alice, 0, 0, path),
+        new NOPActivity(bob, alice, 2));
+  }
+
+  @Test
+  public void testXMLFormContainsBinaryForm() throws Exception {
+    final ActivitiesExtension extension =
+        new ActivitiesExtension(
+            SESSION_ID,
+            Collections.<IActivity>singletonList(new TextSelectionActivity(alice, 12, 3, path)),
+            7);
+
+    final BinaryActivitiesExtension binaryExtension =
+        codec.create(extension, Collections.singleton(REMOTE));
+
+    final XmlPullParser parser = new MXParser();
+    parser.setInput(new StringReader(binaryExtension.toXML()));
+    parser.next();
+
+    final DefaultPacketExtension xmlForm =
+        (DefaultPacketExtension)
+            PacketParserUtils.parsePacketExtension(
+                BinaryActivitiesExtension.ELEMENT_NAME, BinaryActivitiesExtension.NAMESPACE, parser);
+
+    final byte[] data =
+        Base64.getDecoder().decode(xmlForm.getValue(IBinaryPacketExtension.DATA_ELEMENT_NAME));
+
+    assertArrayEquals(binaryExtension.toByteArray(), data);
+    assertEquals(extension.getActivities(), decode(data).getActivities());
+  }
+
+  @Test
+  public void testSequenceNumber() throws IOException {
+    final List<IActivity> activities =
+        Collections.<IActivity>singletonList(new TextSelectionActivity(alice, 1, 2, path));
+
+    for (final int sequenceNumber :
+        new int[] {ActivitiesExtension.NO_SEQUENCE_NUMBER, 0, 1, Integer.MAX_VALUE}) {
+
+      final ActivitiesExtension decoded =
+          decode(encode(new ActivitiesExtension(SESSION_ID, activities, sequenceNumber)));
+
+      assertEquals(sequenceNumber, decoded.getSequenceNumber());
+    }
+  }
+
+  @Test
+  public void testUnknownUserIsNotInSession() throws IOException {
+    final User carl = new User(new JID("carl@junit/Saros"), false, false, null);
+    carl.setInSession(true);
+
+    final ActivitiesExtension decoded =
+        decode(
+            encode(
+                new ActivitiesExtension(
+                    SESSION_ID,
+                    Collections.<IActivity>singletonList(
+                        new TextSelectionActivity(carl, 0, 0, path)),
+                    0)));
+
+    final User source = decoded.getActivities().get(0).getSource();
+
+    assertEquals(carl, source);
+    assertFalse(source.isInSession());
+  }
+
+  @Test(expected = IOException.class)
+  public void testMalformedData() throws IOException {
+    final byte[] data =
+        encode(
+            new ActivitiesExtension(
+                SESSION_ID,
+                Collections.<IActivity>singletonList(new TextSelectionActivity(alice, 0, 0, path)),
+                0));
+
+    decode(Arrays.copyOf(data, data.length - 1));
+  }
+
+  @Test
+  public void testBinaryFormIsSmallerThanXML() {
+    final ActivitiesExtension extension =
+        new ActivitiesExtension(
+            SESSION_ID,
+            Collections.<IActivity>singletonList(
+                new JupiterActivity(
+                    new JupiterVectorTime(1024, 512), new InsertOperation(42, "a"), alice, path)),
+            0);
+
+    final int xmlSize =
+        ActivitiesExtension.PROVIDER
+            .create(extension)
+            .toXML()
+            .getBytes(StandardCharsets.UTF_8)
+            .length;
+
+    final int binarySize = encode(extension).length;
+
+    assertTrue(
+        "binary size " + binarySize + " not smaller than XML size " + xmlSize,
+        binarySize * 4 < xmlSize);
+  }
+
+  @Test
+  public void testDefinitionsAreOnlySentOnce() throws IOException {
+    final ActivitiesExtension extension = extension(new TextSelectionActivity(alice, 1, 2, path));
+
+    final byte[] first = encode(extension);
+    final byte[] second = encode(extension);
+
+    assertTrue(contains(first, "alice@junit/Saros"));
+    assertTrue(contains(first, "src/Foo.java"));
+    assertFalse(contains(second, "alice@junit/Saros"));
+    assertFalse(contains(second, "src/Foo.java"));
+
+    assertEquals(extension.getActivities(), decode(first).getActivities());
+    assertEquals(extension.getActivities(), decode(second).getActivities());
+  }
+
+  @Test
+  public void testDefinitionsAreSentAgainUntilDelivered() throws IOException {
+    final ActivitiesExtension extension = extension(new TextSelectionActivity(alice, 1, 2, path));
+
+    // created but never delivered, e.g. because the send lane was stopped
+    codec.create(extension, Collections.singleton(REMOTE));
+
+    final BinaryActivitiesExtension sent = codec.create(extension, Collections.singleton(REMOTE));
+
+    assertTrue(contains(sent.toByteArray(), "alice@junit/Saros"));
+    assertTrue(contains(sent.toByteArray(), "src/Foo.java"));
+
+    assertEquals(extension.getActivities(), decode(sent.toByteArray()).getActivities());
+
+    codec.delivered(sent, REMOTE);
+
+    assertFalse(contains(encode(extension), "alice@junit/Saros"));
+  }
+
+  @Test
+  public void testDefinitionsAreSentToEachRecipient() throws IOException {
+    final JID other = new JID("other@junit/Saros");
+    final ActivitiesExtension extension = extension(new TextSelectionActivity(alice, 1, 2, path));
+
+    codec.decode(LOCAL, encode(extension));
+
+    final byte[] shared = codec.encode(extension, Arrays.asList(REMOTE, other));
+
+    assertTrue(contains(shared, "alice@junit/Saros"));
+    assertEquals(extension.getActivities(), codec.decode(LOCAL, shared).getActivities());
+
+    // an empty dictionary as on the receiving side of the other recipient
+    assertEquals(extension.getActivities(), codec.decode(other, shared).getActivities());
+  }
+
+  @Test
+  public void testDefinitionsAreSentAgainAfterReset() throws IOException {
+    final ActivitiesExtension extension = extension(new TextSelectionActivity(alice, 1, 2, path));
+
+    decode(encode(extension));
+
+    codec.reset(REMOTE);
+    codec.reset(LOCAL);
+
+    final byte[] data = encode(extension);
+
+    assertTrue(contains(data, "alice@junit/Saros"));
+    assertEquals(extension.getActivities(), decode(data).getActivities());
+  }
+
+  @Test(expected = IOException.class)
+  public void testUndefinedReference() throws IOException {
+    final ActivitiesExtension extension = extension(new TextSelectionActivity(alice, 1, 2, path));
+
+    encode(extension);
+
+    decode(encode(extension));
+  }
+
+  @Test
+  public void testDefinitionsAreNotSentForEmbeddedActivities() throws IOException {
+    final ActivitiesExtension extension =
+        extension(new NOPActivity(alice, bob, 1), new TextSelectionActivity(bob, 1, 2, path));
+
+    final byte[] data = encode(extension);
+
+    // the NOP activity is embedded as XML and must not define alice
+    assertEquals(extension.getActivities(), decode(data).getActivities());
+    assertTrue(
+        contains(
+            encode(extension(new TextSelectionActivity(alice, 1, 2, path))), "alice@junit/Saros"));
+  }
+
+  private static ActivitiesExtension extension(final IActivity... activities) {
+    return new ActivitiesExtension(SESSION_ID, Arrays.asList(activities), 0);
+  }
+
+  /** Encodes the extension as sent and delivered from the local side to the remote side. */
+  private byte[] encode(final ActivitiesExtension extension) {
+    final BinaryActivitiesExtension binaryExtension =
+        codec.create(extension, Collections.singleton(REMOTE));
+
+    codec.delivered(binaryExtension, REMOTE);
+
+    return binaryExtension.toByteArray();
+  }
+
+  /** Decodes the extension as received by the remote side from the local side. */
+  private ActivitiesExtension decode(final byte[] data) throws IOException {
+    return codec.decode(LOCAL, data);
+  }
+
+  private static boolean contains(final byte[] data, final String value) {
+    return new String(data, StandardCharsets.ISO_8859_1)
+        .contains(new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1));
+  }
+
+  private void assertRoundTrip(final IActivity... activities) throws IOException {
+    final ActivitiesExtension decoded =
+        decode(encode(new ActivitiesExtension(SESSION_ID, Arrays.asList(activities), 7)));
+
+    assertEquals(SESSION_ID, decoded.getSessionID());
+    assertEquals(7, decoded.getSequenceNumber());
+    assertEquals(Arrays.asList(activities), decoded.getActivities());
+  }
+}
@@ -0,0 +1,154 @@
+package saros.concurrent.jupiter.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import saros.activities.JupiterActivity;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+/**
+ * Offline tool that measures the cost of receiving operations on the client side of the {@link
+ * Jupiter} algorithm.
+ *
+ * <p>The tool runs three scenarios: a client that is in sync with the server, a client that has the
+ * given number of operations outstanding which the server acknowledges one by one and a client
+ * whose outstanding operations are all acknowledged by a single server operation. For each scenario
+ * it prints the time and the number of bytes allocated per received operation. Allocations are read
+ * from the HotSpot specific thread management bean and are reported as "n/a" on other virtual
+ * machines.
+ *
+ * <pre>
+ * JupiterBenchmark [-outstanding count] [-operations count]
+ * </pre>
+ */
+public class JupiterBenchmark {
+
+  private static final User CLIENT = new User(new JID("client@saros-benchmark"), false, true, null);
+
+  private static final User SERVER = new User(new JID("server@saros-benchmark"), true, false, null);
+
+  private final int outstanding;
+  private final int operations;
+
+  private JupiterBenchmark(final int outstanding, final int operations) {
+    this.outstanding = outstanding;
+    this.operations = operations;
+  }
+
+  public static void main(String... args) throws Exception {
+    int outstanding = 10000;
+    int operations = 100000;
+
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      final int value = Integer.parseInt(args[i + 1]);
+
+      if (args[i].equals("-outstanding")) outstanding = value;
+      else if (args[i].equals("-operations")) operations = value;
+      else {
+        System.err.println("usage: JupiterBenchmark [-outstanding count] [-operations count]");
+        System.exit(1);
+      }
+    }
+
+    final JupiterBenchmark benchmark = new JupiterBenchmark(outstanding, operations);
+
+    System.out.printf("%-32s %12s %12s%n", "scenario", "ns/op", "bytes/op");
+
+    // warm up
+    benchmark.inSync();
+    benchmark.acknowledgedOneByOne();
+    benchmark.acknowledgedAtOnce();
+
+    report("in sync (" + operations + " ops)", benchmark.inSync());
+    report(outstanding + " outstanding, acked 1 by 1", benchmark.acknowledgedOneByOne());
+    report(outstanding + " outstanding, acked at once", benchmark.acknowledgedAtOnce());
+  }
+
+  private static void report(final String scenario, final double[] result) {
+    System.out.printf(
+        "%-32s %12.1f %12s%n",
+        scenario, result[0], result[1] < 0 ? "n/a" : String.format("%.1f", result[1]));
+  }
+
+  /** The client has no outstanding operations and receives the operations of the server. */
+  private double[] inSync() throws Exception {
+    final Jupiter server = new Jupiter(false);
+
+    final List<JupiterActivity> activities = new ArrayList<JupiterActivity>(operations);
+
+    for (int i = 0; i < operations; i++)
+      activities.add(server.generateJupiterActivity(insert(i), SERVER, null));
+
+    return receive(new Jupiter(true), activities);
+  }
+
+  /**
+   * The client has sent operations the server did not process yet. The server processes them one by
+   * one and answers each with an operation of its own.
+   */
+  private double[] acknowledgedOneByOne() throws Exception {
+    final Jupiter client = new Jupiter(true);
+    final Jupiter server = new Jupiter(false);
+
+    final List<JupiterActivity> activities = new ArrayList<JupiterActivity>(outstanding);
+
+    for (int i = 0; i < outstanding; i++) {
+      server.receiveJupiterActivity(client.generateJupiterActivity(insert(i), CLIENT, null));
+      activities.add(server.generateJupiterActivity(insert(i), SERVER, null));
+    }
+
+    return receive(client, activities);
+  }
+
+  /**
+   * The client has sent operations the server did not process yet. The server processes all of them
+   * before it sends a single operation of its own.
+   */
+  private double[] acknowledgedAtOnce() throws Exception {
+    final Jupiter client = new Jupiter(true);
+    final Jupiter server = new Jupiter(false);
+
+    for (int i = 0; i < outstanding; i++)
+      server.receiveJupiterActivity(client.generateJupiterActivity(insert(i), CLIENT, null));
+
+    final List<JupiterActivity> activities = new ArrayList<JupiterActivity>(1);
+    activities.add(server.generateJupiterActivity(insert(0), SERVER, null));
+
+    return receive(client, activities);
+  }
+
+  /** Returns the time and the bytes allocated per received activity. */
+  private static double[] receive(final Jupiter client, final List<JupiterActivity> activities)
+      throws Exception {
+
+    final long allocatedBefore = getAllocatedBytes();
+    final long start = System.nanoTime();
+
+    for (final JupiterActivity activity : activities) client.receiveJupiterActivity(activity);
+
+    final long duration = System.nanoTime() - start;
+    final long allocatedAfter = getAllocatedBytes();
+
+    return new double[] {
+      (double) duration / activities.size(),
+      allocatedBefore < 0 ? -1 : (double) (allocatedAfter - allocatedBefore) / activities.size()
+    };
+  }
+
+  private static Operation insert(final int i) {
+    return new InsertOperation(i, "x");
+  }
+
+  /** Returns the bytes allocated by the current thread or -1 if they are unknown. */
+  private static long getAllocatedBytes() {
+    final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+
+    return ((com.sun.management.ThreadMXBean) threads)
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
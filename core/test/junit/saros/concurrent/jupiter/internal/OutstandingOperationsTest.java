@@ -0,0 +1,80 @@
+package saros.concurrent.jupiter.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+
+public class OutstandingOperationsTest {
+
+  private final OutstandingOperations outstanding = new OutstandingOperations();
+
+  @Test
+  public void testOperationsKeepTheirOrderWhileTheBufferWrapsAndGrows() {
+    final List<Operation> expected = new ArrayList<Operation>();
+
+    int next = 0;
+    int acknowledged = 0;
+
+    // add three and acknowledge two operations per round so the head moves through the buffer
+    for (int round = 0; round < 100; round++) {
+      for (int i = 0; i < 3; i++) {
+        final Operation operation = new InsertOperation(next, "x");
+        outstanding.add(operation, next++);
+        expected.add(operation);
+      }
+
+      acknowledged += 2;
+      outstanding.discardAcknowledged(acknowledged);
+      expected.subList(0, 2).clear();
+
+      assertEquals(expected.size(), outstanding.size());
+
+      for (int i = 0; i < expected.size(); i++) {
+        assertSame(expected.get(i), outstanding.getOperation(i));
+        assertEquals(acknowledged + i, outstanding.getLocalOperationCount(i));
+      }
+    }
+  }
+
+  @Test
+  public void testDiscardAcknowledgedStopsAtFirstUnacknowledgedOperation() {
+    for (int i = 0; i < 5; i++) outstanding.add(new InsertOperation(i, "x"), i);
+
+    outstanding.discardAcknowledged(0);
+    assertEquals(5, outstanding.size());
+
+    outstanding.discardAcknowledged(3);
+    assertEquals(2, outstanding.size());
+    assertEquals(3, outstanding.getLocalOperationCount(0));
+
+    outstanding.discardAcknowledged(10);
+    assertTrue(outstanding.isEmpty());
+  }
+
+  @Test
+  public void testSetOperationReplacesInPlace() {
+    for (int i = 0; i < 20; i++) outstanding.add(new InsertOperation(i, "x"), i);
+
+    outstanding.discardAcknowledged(10);
+
+    final Operation transformed = new InsertOperation(42, "y");
+    outstanding.setOperation(3, transformed);
+
+    assertSame(transformed, outstanding.getOperation(3));
+    assertEquals(13, outstanding.getLocalOperationCount(3));
+    assertEquals(10, outstanding.size());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testAccessBeyondSize() {
+    outstanding.add(new InsertOperation(0, "x"), 0);
+    outstanding.discardAcknowledged(1);
+    outstanding.getOperation(0);
+  }
+}
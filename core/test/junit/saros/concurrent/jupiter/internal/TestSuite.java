@@ -0,0 +1,11 @@
+package saros.concurrent.jupiter.internal;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({OutstandingOperationsTest.class})
+public class TestSuite {
+  // the class remains completely empty,
+  // being used only as a holder for the above annotations
+}
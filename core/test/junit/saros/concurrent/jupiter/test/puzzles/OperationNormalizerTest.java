@@ -0,0 +1,180 @@
+package saros.concurrent.jupiter.test.puzzles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.ITextOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.OperationNormalizer;
+import saros.concurrent.jupiter.internal.text.SplitOperation;
+
+public class OperationNormalizerTest {
+
+  private static Operation S(Operation one, Operation two) {
+    return new SplitOperation(one, two);
+  }
+
+  private static Operation I(int i, String s) {
+    return new InsertOperation(i, s);
+  }
+
+  private static Operation D(int i, String s) {
+    return new DeleteOperation(i, s);
+  }
+
+  private static final Operation NOP = new NoOperation();
+
+  @Test
+  public void testTextOperationsAreNotChanged() {
+    final Operation insert = I(3, "abc");
+
+    assertSame(insert, OperationNormalizer.normalize(insert));
+    assertSame(NOP, OperationNormalizer.normalize(NOP));
+  }
+
+  @Test
+  public void testNoOperationsAreDropped() {
+    assertEquals(D(2, "x"), OperationNormalizer.normalize(S(NOP, S(D(2, "x"), NOP))));
+    assertEquals(NOP, OperationNormalizer.normalize(S(S(NOP, NOP), NOP)));
+  }
+
+  @Test
+  public void testNestedSplitsAreFlattened() {
+    assertEquals(
+        S(S(D(1, "a"), I(5, "b")), D(9, "c")),
+        OperationNormalizer.normalize(S(D(1, "a"), S(I(5, "b"), D(9, "c")))));
+  }
+
+  @Test
+  public void testAdjacentDeletesAreMerged() {
+    // the text deleted second directly follows the text deleted first
+    assertEquals(D(2, "234"), OperationNormalizer.normalize(S(D(2, "2"), D(2, "34"))));
+
+    // the text deleted second directly precedes the text deleted first
+    assertEquals(D(1, "123"), OperationNormalizer.normalize(S(D(3, "3"), D(1, "12"))));
+
+    // the text deleted first was located within the text deleted second
+    assertEquals(D(1, "1234"), OperationNormalizer.normalize(S(D(2, "23"), D(1, "14"))));
+  }
+
+  @Test
+  public void testAdjacentInsertsAreMerged() {
+    assertEquals(I(5, "abxyc"), OperationNormalizer.normalize(S(I(5, "abc"), I(7, "xy"))));
+    assertEquals(I(5, "abcxy"), OperationNormalizer.normalize(S(I(5, "abc"), I(8, "xy"))));
+  }
+
+  @Test
+  public void testMergedOperationIsMergedWithItsPredecessor() {
+    // abcde -> bcde -> bc -> empty
+    assertEquals(
+        D(0, "abcde"), OperationNormalizer.normalize(S(S(D(0, "a"), D(2, "de")), D(0, "bc"))));
+  }
+
+  @Test
+  public void testDistantOperationsAreKept() {
+    assertEquals(
+        S(S(D(1, "a"), D(5, "b")), I(9, "c")),
+        OperationNormalizer.normalize(S(S(D(1, "a"), NOP), S(D(5, "b"), I(9, "c")))));
+  }
+
+  @Test
+  public void testRandomOperationsKeepTheirEffect() {
+    final Random random = new Random(42);
+
+    for (int i = 0; i < 5000; i++) {
+      String document = randomText(random, 5 + random.nextInt(10));
+      final String original = document;
+
+      final List<Operation> operations = new ArrayList<Operation>();
+
+      for (int k = random.nextInt(6); k >= 0; k--) {
+        final Operation operation = randomOperation(random, document);
+        document = apply(document, operation);
+        operations.add(operation);
+      }
+
+      final Operation tree = randomTree(random, operations);
+      final Operation normalized = OperationNormalizer.normalize(tree);
+
+      assertEquals(tree.toString(), document, apply(original, normalized));
+
+      assertNormalized(tree.toString(), normalized);
+    }
+  }
+
+  private static void assertNormalized(final String message, final Operation operation) {
+    Operation current = operation;
+
+    while (current instanceof SplitOperation) {
+      final Operation second = ((SplitOperation) current).getSecond();
+
+      assertFalse(message, second instanceof SplitOperation);
+      assertFalse(message, second instanceof NoOperation);
+
+      current = ((SplitOperation) current).getFirst();
+    }
+
+    if (current != operation) assertFalse(message, current instanceof NoOperation);
+  }
+
+  private static Operation randomOperation(final Random random, final String document) {
+    if (random.nextInt(8) == 0) return NOP;
+
+    final int position = random.nextInt(document.length() + 1);
+
+    if (document.isEmpty() || random.nextBoolean())
+      return I(position, randomText(random, 1 + random.nextInt(3)));
+
+    final int start = Math.min(position, document.length() - 1);
+    final int end = Math.min(document.length(), start + 1 + random.nextInt(3));
+
+    return D(start, document.substring(start, end));
+  }
+
+  private static Operation randomTree(final Random random, final List<Operation> operations) {
+    if (operations.size() == 1) return operations.get(0);
+
+    final int split = 1 + random.nextInt(operations.size() - 1);
+
+    return S(
+        randomTree(random, operations.subList(0, split)),
+        randomTree(random, operations.subList(split, operations.size())));
+  }
+
+  private static String randomText(final Random random, final int length) {
+    final StringBuilder text = new StringBuilder(length);
+
+    for (int i = 0; i < length; i++) text.append((char) ('a' + random.nextInt(3)));
+
+    return text.toString();
+  }
+
+  private static String apply(final String document, final Operation operation) {
+    final StringBuilder result = new StringBuilder(document);
+
+    for (final ITextOperation textOperation : operation.getTextOperations()) {
+      final int position = textOperation.getPosition();
+
+      if (textOperation instanceof InsertOperation) {
+        result.insert(position, textOperation.getText());
+        continue;
+      }
+
+      final int end = position + textOperation.getTextLength();
+
+      assertEquals(textOperation.getText(), result.substring(position, end));
+
+      result.delete(position, end);
+    }
+
+    return result.toString();
+  }
+}
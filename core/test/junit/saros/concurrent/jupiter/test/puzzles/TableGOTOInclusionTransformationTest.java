@@ -0,0 +1,195 @@
+package saros.concurrent.jupiter.test.puzzles;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import saros.concurrent.jupiter.InclusionTransformation;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.TransformationException;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.GOTOInclusionTransformation;
+import saros.concurrent.jupiter.internal.text.ITextOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.SplitOperation;
+import saros.concurrent.jupiter.internal.text.TableGOTOInclusionTransformation;
+import saros.concurrent.jupiter.test.util.JupiterSimulator;
+
+/**
+ * Runs the tests of the {@link GOTOInclusionTransformation} against the {@link
+ * TableGOTOInclusionTransformation} and checks on random operations that both produce the same
+ * results.
+ */
+public class TableGOTOInclusionTransformationTest extends GOTOInclusionTransformationTest {
+
+  private static final int PAIRS = 5000;
+
+  private static final int SIMULATIONS = 50;
+
+  private static final int STEPS = 200;
+
+  private final InclusionTransformation reference = new GOTOInclusionTransformation();
+
+  private final Random random = new Random(42);
+
+  public TableGOTOInclusionTransformationTest() {
+    inclusion = new TableGOTOInclusionTransformation();
+  }
+
+  @Test
+  public void testRandomOperationsAreTransformedLikeTheReference() {
+    for (int i = 0; i < PAIRS; i++) {
+      final String document = randomText(random.nextInt(12));
+
+      final Operation op1 = randomOperation(document);
+      final Operation op2 = randomOperation(document);
+
+      for (final Boolean privileged : new Boolean[] {Boolean.TRUE, Boolean.FALSE}) {
+        final Operation expected = reference.transform(op2, op1, privileged);
+        final Operation actual = inclusion.transform(op2, op1, privileged);
+
+        final String message =
+            "transforming " + op2 + " against " + op1 + " (privileged==" + privileged + ")";
+
+        assertEquals(message, expected.getTextOperations(), actual.getTextOperations());
+
+        if (!(op1 instanceof SplitOperation) && !(op2 instanceof SplitOperation))
+          assertEquals(message, expected, actual);
+
+        assertEquals(
+            message, apply(apply(document, op1), expected), apply(apply(document, op1), actual));
+      }
+    }
+  }
+
+  @Test
+  public void testRandomConcurrentEditsConverge() throws TransformationException {
+    for (int simulation = 0; simulation < SIMULATIONS; simulation++) {
+      final JupiterSimulator simulator = new JupiterSimulator(randomText(10));
+
+      int toServer = 0;
+      int toClient = 0;
+
+      for (int step = 0; step < STEPS; step++) {
+        switch (random.nextInt(4)) {
+          case 0:
+            simulator.client.generate(randomEdit(simulator.client.getDocument()));
+            toServer++;
+            break;
+          case 1:
+            simulator.server.generate(randomEdit(simulator.server.getDocument()));
+            toClient++;
+            break;
+          case 2:
+            if (toServer > 0) {
+              simulator.server.receive();
+              toServer--;
+            }
+            break;
+          default:
+            if (toClient > 0) {
+              simulator.client.receive();
+              toClient--;
+            }
+        }
+      }
+
+      for (; toServer > 0; toServer--) simulator.server.receive();
+      for (; toClient > 0; toClient--) simulator.client.receive();
+
+      simulator.assertDocs(simulator.server.getDocument());
+    }
+  }
+
+  /** Returns a random operation that consists of up to three edits of the given document. */
+  private Operation randomOperation(final String document) {
+    final List<Operation> operations = new ArrayList<Operation>();
+
+    String current = document;
+
+    for (int i = random.nextInt(3); i >= 0; i--) {
+      final Operation operation = randomTextOperation(current);
+      current = apply(current, operation);
+      operations.add(operation);
+    }
+
+    return randomTree(operations);
+  }
+
+  /**
+   * Returns a random operation as it could result from transformations: a NoOperation or an edit of
+   * the document whose origin may differ from its position.
+   */
+  private Operation randomTextOperation(final String document) {
+    if (random.nextInt(10) == 0) return new NoOperation();
+
+    final Operation edit = randomEdit(document);
+
+    if (!(edit instanceof InsertOperation) || random.nextInt(4) != 0) return edit;
+
+    final InsertOperation insert = (InsertOperation) edit;
+
+    return new InsertOperation(
+        insert.getPosition(), insert.getText(), random.nextInt(document.length() + 1));
+  }
+
+  /** Returns a random insert or delete operation as it is generated by a user. */
+  private Operation randomEdit(final String document) {
+    if (document.isEmpty() || random.nextBoolean()) {
+      final int position = random.nextInt(document.length() + 1);
+
+      return new InsertOperation(position, randomText(1 + random.nextInt(3)));
+    }
+
+    final int position = random.nextInt(document.length());
+    final int end = Math.min(document.length(), position + 1 + random.nextInt(3));
+
+    return new DeleteOperation(position, document.substring(position, end));
+  }
+
+  /** Combines the operations into split operations of a random shape. */
+  private Operation randomTree(final List<Operation> operations) {
+    if (operations.size() == 1) return operations.get(0);
+
+    final int split = 1 + random.nextInt(operations.size() - 1);
+
+    return new SplitOperation(
+        randomTree(operations.subList(0, split)),
+        randomTree(operations.subList(split, operations.size())));
+  }
+
+  private String randomText(final int length) {
+    final StringBuilder text = new StringBuilder(length);
+
+    for (int i = 0; i < length; i++) text.append((char) ('a' + random.nextInt(6)));
+
+    return text.toString();
+  }
+
+  private static String apply(final String document, final Operation operation) {
+    final StringBuilder result = new StringBuilder(document);
+
+    for (final ITextOperation textOperation : operation.getTextOperations()) {
+      final int position = textOperation.getPosition();
+
+      if (textOperation instanceof InsertOperation) {
+        result.insert(position, textOperation.getText());
+        continue;
+      }
+
+      final int end = position + textOperation.getTextLength();
+
+      assertEquals(
+          "deleted text does not match the document",
+          textOperation.getText(),
+          result.substring(position, Math.min(end, result.length())));
+
+      result.delete(position, end);
+    }
+
+    return result.toString();
+  }
+}
@@ -10,9 +10,11 @@ import org.junit.runners.Suite;
   DOptPuzzleTest.class,
   GOTOInclusionTransformationTest.class,
   InclusionTransformationTest.class,
+  OperationNormalizerTest.class,
   SimpleClientServerTest.class,
   SimpleJupiterDocumentTest.class,
-  SimpleServerProxyTest.class
+  SimpleServerProxyTest.class,
+  TableGOTOInclusionTransformationTest.class
 })
 public class TestSuite {
   // the class remains completely empty,
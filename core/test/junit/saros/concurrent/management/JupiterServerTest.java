@@ -0,0 +1,380 @@
+package saros.concurrent.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.IActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.SPath;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.Jupiter;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.test.util.Document;
+import saros.concurrent.jupiter.test.util.PathFake;
+import saros.editor.IEditorManager;
+import saros.editor.ISharedEditorListener;
+import saros.filesystem.IProject;
+import saros.net.xmpp.JID;
+import saros.session.IActivityHandlerCallback;
+import saros.session.ISarosSession;
+import saros.session.User;
+import saros.session.internal.ActivityHandler;
+import saros.synchronize.UISynchronizer;
+import saros.test.fakes.synchonize.NonUISynchronizer;
+
+public class JupiterServerTest {
+
+  private static final int DOCUMENTS = 8;
+
+  private static final int ROUNDS = 500;
+
+  private final User host = createRemoteUser("host");
+  private final User alice = createRemoteUser("alice");
+  private final User bob = createRemoteUser("bob");
+  private final User carl = createRemoteUser("carl");
+
+  private IProject project;
+
+  private ISarosSession session;
+
+  private JupiterServer server;
+
+  /** Routes the activities through the host side of the session like the real session does. */
+  private ActivityHandler handler;
+
+  /** The activities the handler sent for each document, by recipient. */
+  private final Map<SPath, Map<User, JupiterActivity>> sentActivities =
+      new ConcurrentHashMap<SPath, Map<User, JupiterActivity>>();
+
+  private final IActivityHandlerCallback callback =
+      new IActivityHandlerCallback() {
+
+        @Override
+        public void send(final List<User> recipients, final IActivity activity) {
+          final JupiterActivity jupiterActivity = (JupiterActivity) activity;
+          final SPath path = jupiterActivity.getPath();
+
+          final Map<User, JupiterActivity> sent =
+              sentActivities.computeIfAbsent(
+                  path, p -> new ConcurrentHashMap<User, JupiterActivity>());
+
+          for (final User recipient : recipients) sent.put(recipient, jupiterActivity);
+        }
+
+        @Override
+        public void execute(final IActivity activity) {
+          throw new AssertionError("activity must not be executed locally: " + activity);
+        }
+      };
+
+  /** The copy of a document at one site along with the site's Jupiter client. */
+  private class Site {
+    private final User user;
+    private final SPath path;
+    private final Document document;
+    private final Jupiter jupiter = new Jupiter(true);
+
+    private Site(final User user, final SPath path, final String content) {
+      this.user = user;
+      this.path = path;
+      this.document = new Document(content, project, path.getProjectRelativePath());
+    }
+
+    /** Performs a random local edit and returns the activity that is sent to the server. */
+    private JupiterActivity edit(final Random random) {
+      final String content = document.getDocument();
+      final int position = random.nextInt(content.length() + 1);
+
+      final Operation operation;
+
+      if (content.isEmpty() || random.nextBoolean()) {
+        operation = new InsertOperation(position, user.getJID().getName().substring(0, 1));
+      } else {
+        final int start = Math.min(position, content.length() - 1);
+        final int end = Math.min(content.length(), start + 1 + random.nextInt(3));
+        operation = new DeleteOperation(start, content.substring(start, end));
+      }
+
+      document.execOperation(operation);
+
+      return jupiter.generateJupiterActivity(operation, user, path);
+    }
+
+    private void receive(final JupiterActivity activity) throws Exception {
+      document.execOperation(jupiter.receiveJupiterActivity(activity));
+    }
+
+    /** Returns a heartbeat that acknowledges the received operations. */
+    private JupiterActivity heartbeat() {
+      return jupiter.generateJupiterActivity(new NoOperation(), user, path);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    project = EasyMock.createMock(IProject.class);
+    EasyMock.replay(project);
+
+    session = EasyMock.createNiceMock(ISarosSession.class);
+
+    EasyMock.expect(session.isHost()).andStubReturn(true);
+    EasyMock.expect(session.getHost()).andStubReturn(host);
+    EasyMock.expect(session.getLocalUser()).andStubReturn(host);
+    EasyMock.expect(
+            session.userHasProject(
+                EasyMock.anyObject(User.class), EasyMock.anyObject(IProject.class)))
+        .andStubReturn(true);
+
+    EasyMock.replay(session);
+
+    server = new JupiterServer(session);
+    server.addUser(alice);
+    server.addUser(bob);
+
+    handler =
+        new ActivityHandler(
+            session,
+            callback,
+            new ConcurrentDocumentServer(
+                session,
+                EasyMock.createNiceMock(IEditorManager.class),
+                EasyMock.createNiceMock(UISynchronizer.class),
+                server),
+            EasyMock.createNiceMock(ConcurrentDocumentClient.class),
+            EasyMock.createNiceMock(UISynchronizer.class));
+  }
+
+  private static User createRemoteUser(final String name) {
+    return new User(new JID(name + "@jabber.org"), false, false, null);
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentEditsOfDifferentDocumentsConverge() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(DOCUMENTS + 1);
+
+    final AtomicBoolean editing = new AtomicBoolean(true);
+
+    try {
+      // users join and leave and documents are checked for eviction while they are edited
+      final Future<?> membershipChanges =
+          executor.submit(
+              () -> {
+                while (editing.get()) {
+                  server.addUser(carl);
+                  server.removeUser(carl);
+                  server.evictIdleDocuments(0);
+                }
+              });
+
+      final List<Future<Site[]>> results = new ArrayList<Future<Site[]>>();
+
+      for (int i = 0; i < DOCUMENTS; i++) {
+        final SPath path = new SPath(project, new PathFake("document" + i));
+        final long seed = i;
+
+        results.add(executor.submit((Callable<Site[]>) () -> editConcurrently(path, seed)));
+      }
+
+      for (final Future<Site[]> result : results) {
+        final Site[] sites = result.get(50, TimeUnit.SECONDS);
+
+        final String expected = sites[0].document.getDocument();
+
+        for (final Site site : sites)
+          assertEquals(
+              "document of " + site.user + " did not converge",
+              expected,
+              site.document.getDocument());
+      }
+
+      editing.set(false);
+      membershipChanges.get(10, TimeUnit.SECONDS);
+    } finally {
+      editing.set(false);
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testIdleDocumentIsEvictedAndRestoredTransparently() throws Exception {
+    final Random random = new Random(0);
+    final SPath path = new SPath(project, new PathFake("evicted"));
+
+    final Site aliceSite = new Site(alice, path, "some content");
+    final Site bobSite = new Site(bob, path, "some content");
+    final Site hostSite = new Site(host, path, "some content");
+
+    server.editorOpened(path, alice);
+
+    send(aliceSite.edit(random), bobSite, hostSite);
+
+    assertEquals("document with open editor was evicted", 0, server.evictIdleDocuments(0));
+
+    server.editorClosed(path, alice);
+
+    assertEquals("unacknowledged document was evicted", 0, server.evictIdleDocuments(0));
+
+    send(bobSite.heartbeat(), aliceSite, hostSite);
+    send(hostSite.heartbeat(), aliceSite, bobSite);
+
+    final long sizeBefore = server.getMemoryUsage().get(path);
+
+    assertEquals(1, server.evictIdleDocuments(0));
+    assertTrue(server.isEvicted(path));
+    assertTrue(server.getMemoryUsage().get(path) < sizeBefore);
+
+    assertTrue(
+        "heartbeat of an evicted document was forwarded",
+        server.transform(aliceSite.heartbeat()).isEmpty());
+
+    assertTrue("heartbeat restored the document", server.isEvicted(path));
+
+    // concurrent edits after the eviction need no reset of the clients
+    final JupiterActivity fromBob = bobSite.edit(random);
+    final JupiterActivity fromHost = hostSite.edit(random);
+
+    send(fromBob, aliceSite, hostSite);
+    send(fromHost, aliceSite, bobSite);
+
+    assertFalse(server.isEvicted(path));
+
+    assertEquals(aliceSite.document.getDocument(), bobSite.document.getDocument());
+    assertEquals(aliceSite.document.getDocument(), hostSite.document.getDocument());
+  }
+
+  @Test
+  public void testDocumentOpenOnTheHostIsNotEvicted() throws Exception {
+    final SPath openBeforeStart = new SPath(project, new PathFake("openBeforeStart"));
+    final SPath openedLater = new SPath(project, new PathFake("openedLater"));
+
+    final Capture<ISharedEditorListener> editorListener = EasyMock.newCapture();
+
+    final IEditorManager editorManager = EasyMock.createNiceMock(IEditorManager.class);
+    editorManager.addSharedEditorListener(EasyMock.capture(editorListener));
+    EasyMock.expect(editorManager.getOpenEditors())
+        .andStubReturn(Collections.singleton(openBeforeStart));
+    EasyMock.replay(editorManager);
+
+    final NonUISynchronizer synchronizer = new NonUISynchronizer();
+    synchronizer.start();
+
+    final ConcurrentDocumentServer documentServer =
+        new ConcurrentDocumentServer(session, editorManager, synchronizer, server);
+
+    documentServer.start();
+
+    try {
+      // wait until the editors that were open before the start are known
+      synchronizer.syncExec(() -> {});
+
+      editorListener.getValue().editorActivated(host, openedLater);
+
+      editAndAcknowledge(openBeforeStart);
+      editAndAcknowledge(openedLater);
+
+      assertEquals("document open on the host was evicted", 0, server.evictIdleDocuments(0));
+
+      editorListener.getValue().editorClosed(host, openedLater);
+
+      assertEquals(1, server.evictIdleDocuments(0));
+      assertTrue(server.isEvicted(openedLater));
+      assertFalse(server.isEvicted(openBeforeStart));
+    } finally {
+      documentServer.stop();
+      synchronizer.stop();
+    }
+  }
+
+  @Test
+  public void testDocumentIsNotEvictedBeforeIdleTime() throws Exception {
+    final SPath path = new SPath(project, new PathFake("busy"));
+
+    final Site aliceSite = new Site(alice, path, "some content");
+    final Site bobSite = new Site(bob, path, "some content");
+    final Site hostSite = new Site(host, path, "some content");
+
+    send(aliceSite.edit(new Random(0)), bobSite, hostSite);
+    send(bobSite.heartbeat(), aliceSite, hostSite);
+    send(hostSite.heartbeat(), aliceSite, bobSite);
+
+    assertEquals(0, server.evictIdleDocuments(60000));
+    assertFalse(server.isEvicted(path));
+  }
+
+  /** Lets alice edit the document and all other users acknowledge the edit. */
+  private void editAndAcknowledge(final SPath path) throws Exception {
+    final Site aliceSite = new Site(alice, path, "some content");
+    final Site bobSite = new Site(bob, path, "some content");
+    final Site hostSite = new Site(host, path, "some content");
+
+    send(aliceSite.edit(new Random(0)), bobSite, hostSite);
+    send(bobSite.heartbeat(), aliceSite, hostSite);
+    send(hostSite.heartbeat(), aliceSite, bobSite);
+  }
+
+  /** Passes the activity to the host side of the session and returns the sent activities. */
+  private Map<User, JupiterActivity> handle(final JupiterActivity activity) {
+    handler.handleIncomingActivities(Collections.<IActivity>singletonList(activity));
+
+    final Map<User, JupiterActivity> sent = sentActivities.remove(activity.getPath());
+
+    return sent != null ? sent : Collections.<User, JupiterActivity>emptyMap();
+  }
+
+  /** Transforms the activity and delivers the results to the given sites. */
+  private void send(final JupiterActivity activity, final Site... receivers) throws Exception {
+    final Map<User, JupiterActivity> result = server.transform(activity);
+
+    for (final Site receiver : receivers) receiver.receive(result.get(receiver.user));
+  }
+
+  /**
+   * Lets alice and bob edit the document concurrently in every round and forwards the activities
+   * the host side of the session sent to the other sites.
+   */
+  private Site[] editConcurrently(final SPath path, final long seed) throws Exception {
+    final Random random = new Random(seed);
+
+    final String content = "initial content of " + path;
+
+    final Site aliceSite = new Site(alice, path, content);
+    final Site bobSite = new Site(bob, path, content);
+    final Site hostSite = new Site(host, path, content);
+
+    for (int round = 0; round < ROUNDS; round++) {
+      final JupiterActivity aliceActivity = aliceSite.edit(random);
+      final JupiterActivity bobActivity = bobSite.edit(random);
+
+      final Map<User, JupiterActivity> fromAlice = handle(aliceActivity);
+
+      bobSite.receive(fromAlice.get(bob));
+      hostSite.receive(fromAlice.get(host));
+
+      final Map<User, JupiterActivity> fromBob = handle(bobActivity);
+
+      aliceSite.receive(fromBob.get(alice));
+      hostSite.receive(fromBob.get(host));
+    }
+
+    return new Site[] {aliceSite, bobSite, hostSite};
+  }
+}
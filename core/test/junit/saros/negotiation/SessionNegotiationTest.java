@@ -26,6 +26,7 @@ import saros.negotiation.hooks.SessionNegotiationHookManager;
 import saros.net.IConnectionManager;
 import saros.net.ITransmitter;
 import saros.net.PacketCollector;
+import saros.net.PresetDictionary;
 import saros.net.xmpp.JID;
 import saros.net.xmpp.discovery.DiscoveryManager;
 import saros.preferences.IPreferenceStore;
@@ -102,9 +103,12 @@ public class SessionNegotiationTest {
 
     replay(aliceConnectionManager, bobConnectionManager);
 
-    aliceVersionManager = new VersionManager("47.11.8015.TEST", aliceReceiver, aliceTransmitter);
+    aliceVersionManager =
+        new VersionManager(
+            "47.11.8015.TEST", aliceReceiver, aliceTransmitter, new PresetDictionary());
 
-    bobVersionManager = new VersionManager("47.11.8015.TEST", bobReceiver, bobTransmitter);
+    bobVersionManager =
+        new VersionManager("47.11.8015.TEST", bobReceiver, bobTransmitter, new PresetDictionary());
 
     aliceDiscoveryManager = discoveryManagerMockFor(BOB);
 
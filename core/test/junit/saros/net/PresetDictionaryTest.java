@@ -0,0 +1,124 @@
+package saros.net;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.Test;
+import saros.net.xmpp.JID;
+
+public class PresetDictionaryTest {
+
+  private static final JID ALICE = new JID("alice@junit/Saros");
+
+  private static final byte[] DATA =
+      ("<ados xmlns=\"saros\"><payload class=\"ADOS\" v=\"SPXV1\" sid=\"4711\" seq=\"42\">"
+              + "<textSelectionActivity source=\"alice%40junit%2FSaros\" o=\"12\" l=\"0\">"
+              + "<p i=\"4711\" p=\"src%2FFoo.java\"/></textSelectionActivity></payload></ados>")
+          .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void testGetDictionary() {
+    assertNull(PresetDictionary.getDictionary(PresetDictionary.NONE));
+    assertNull(PresetDictionary.getDictionary(PresetDictionary.LATEST_VERSION + 1));
+
+    for (int version = PresetDictionary.NONE + 1;
+        version <= PresetDictionary.LATEST_VERSION;
+        version++) assertTrue(PresetDictionary.getDictionary(version).length > 0);
+  }
+
+  @Test
+  public void testRoundTrip() throws DataFormatException {
+    final byte[] dictionary = PresetDictionary.getDictionary(PresetDictionary.LATEST_VERSION);
+
+    final byte[] compressed = deflate(DATA, dictionary);
+
+    assertTrue(compressed.length < deflate(DATA, null).length);
+    assertArrayEquals(DATA, inflate(compressed));
+  }
+
+  @Test
+  public void testUnknownDictionary() throws DataFormatException {
+    final Inflater inflater = new Inflater();
+
+    try {
+      inflater.setInput(deflate(DATA, "unknown".getBytes(StandardCharsets.UTF_8)));
+
+      assertEquals(0, inflater.inflate(new byte[DATA.length]));
+      assertTrue(inflater.needsDictionary());
+      assertFalse(PresetDictionary.setDictionary(inflater));
+    } finally {
+      inflater.end();
+    }
+  }
+
+  @Test
+  public void testNegotiatedVersion() {
+    final PresetDictionary presetDictionary = new PresetDictionary();
+
+    assertEquals(PresetDictionary.NONE, presetDictionary.getVersion(ALICE));
+
+    presetDictionary.setRemoteVersion(ALICE, null);
+    assertEquals(PresetDictionary.NONE, presetDictionary.getVersion(ALICE));
+
+    presetDictionary.setRemoteVersion(ALICE, "garbage");
+    assertEquals(PresetDictionary.NONE, presetDictionary.getVersion(ALICE));
+
+    presetDictionary.setRemoteVersion(ALICE, String.valueOf(PresetDictionary.LATEST_VERSION + 1));
+    assertEquals(PresetDictionary.LATEST_VERSION, presetDictionary.getVersion(ALICE));
+
+    presetDictionary.setRemoteVersion(ALICE, String.valueOf(PresetDictionary.NONE));
+    assertEquals(PresetDictionary.NONE, presetDictionary.getVersion(ALICE));
+  }
+
+  private static byte[] deflate(final byte[] data, final byte[] dictionary) {
+    final Deflater deflater = new Deflater();
+
+    try {
+      if (dictionary != null) deflater.setDictionary(dictionary);
+
+      deflater.setInput(data);
+      deflater.finish();
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+
+      while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(final byte[] data) throws DataFormatException {
+    final Inflater inflater = new Inflater();
+
+    try {
+      inflater.setInput(data);
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[1024];
+
+      while (!inflater.finished()) {
+        final int count = inflater.inflate(buffer);
+
+        if (count == 0 && inflater.needsDictionary())
+          assertTrue(PresetDictionary.setDictionary(inflater));
+
+        out.write(buffer, 0, count);
+      }
+
+      return out.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -2,6 +2,7 @@ package saros.net.internal;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -10,7 +11,11 @@ import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.junit.Before;
@@ -179,6 +184,72 @@ public class BinaryChannelConnectionTest {
         bobJID.toString(), extensions.get(1).getTransferDescription().getRecipient().toString());
   }
 
+  @Test
+  public void testTransferDescriptionFlags() throws Exception {
+
+    final List<BinaryXMPPExtension> extensions = new ArrayList<BinaryXMPPExtension>();
+
+    final CountDownLatch received = new CountDownLatch(2);
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver(
+        (e) -> {
+          extensions.add(e);
+          received.countDown();
+        });
+
+    alice.initialize();
+    bob.initialize();
+
+    final byte[] bytesToSend = new byte[512];
+
+    try {
+      alice.send(
+          TransferDescription.newDescription()
+              .setNamespace("foo-namespace")
+              .setElementName("bar")
+              .setCompressContent(true)
+              .setSequenceNumber(4711),
+          bytesToSend);
+
+      alice.send(
+          TransferDescription.newDescription().setNamespace("foo-namespace").setElementName("bar"),
+          bytesToSend);
+
+      received.await(10000, TimeUnit.MILLISECONDS);
+    } finally {
+      alice.close();
+      bob.close();
+    }
+
+    assertEquals(2, extensions.size());
+
+    assertTrue(extensions.get(0).getTransferDescription().compressContent());
+    assertEquals(4711, extensions.get(0).getTransferDescription().getSequenceNumber());
+
+    assertFalse(extensions.get(1).getTransferDescription().compressContent());
+    assertEquals(
+        TransferDescription.NO_SEQUENCE_NUMBER,
+        extensions.get(1).getTransferDescription().getSequenceNumber());
+  }
+
   @Test
   public void testFragmentationOnLargeDataToBeSend() throws Exception {
 
@@ -302,6 +373,297 @@ public class BinaryChannelConnectionTest {
     assertArrayEquals("fragmentation error", bytesToSend, receivedBytes);
   }
 
+  @Test
+  public void testStreamCompression() throws Exception {
+
+    final int packetsToSend = 100;
+
+    final List<BinaryXMPPExtension> extensions = new ArrayList<BinaryXMPPExtension>();
+
+    final CountDownLatch received = new CountDownLatch(packetsToSend);
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID, bobJID, "junit", aliceStream, StreamMode.IBB, new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID, aliceJID, "junit", bobStream, StreamMode.IBB, new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver(
+        (e) -> {
+          extensions.add(e);
+          received.countDown();
+        });
+
+    alice.initialize();
+    bob.initialize();
+
+    final byte[] bytesToSend =
+        "<ADOS xmlns=\"saros\"><editActivity offset=\"42\" text=\"a\"/></ADOS>".getBytes("UTF-8");
+
+    try {
+      waitUntilCompressing(alice);
+
+      for (int i = 0; i < packetsToSend; i++)
+        alice.send(
+            TransferDescription.newDescription()
+                .setNamespace("foo-namespace")
+                .setElementName("bar"),
+            bytesToSend);
+
+      received.await(10000, TimeUnit.MILLISECONDS);
+    } finally {
+      alice.close();
+      bob.close();
+    }
+
+    assertEquals(packetsToSend, extensions.size());
+
+    for (final BinaryXMPPExtension extension : extensions) {
+      assertArrayEquals(bytesToSend, extension.getPayload());
+      assertFalse(extension.getTransferDescription().compressContent());
+    }
+
+    final BinaryXMPPExtension last = extensions.get(packetsToSend - 1);
+
+    assertEquals(bytesToSend.length, last.getUncompressedSize());
+    assertTrue(
+        "compressed size: " + last.getCompressedSize(),
+        last.getCompressedSize() < bytesToSend.length / 4);
+  }
+
+  @Test
+  public void testStreamCompressionOfIncompressibleData() throws Exception {
+
+    final CountDownLatch received = new CountDownLatch(2);
+
+    final List<byte[]> payloads = new ArrayList<byte[]>();
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver(
+        (e) -> {
+          payloads.add(e.getPayload());
+          received.countDown();
+        });
+
+    alice.initialize();
+    bob.initialize();
+
+    final byte[] randomBytes = new byte[512 * 1024];
+    new Random(4711).nextBytes(randomBytes);
+
+    final byte[] bytesToSend = new byte[512 * 1024];
+
+    for (int i = 0; i < bytesToSend.length; i++) bytesToSend[i] = (byte) i;
+
+    try {
+      waitUntilCompressing(alice);
+
+      alice.send(
+          TransferDescription.newDescription().setNamespace("foo-namespace").setElementName("bar"),
+          randomBytes);
+
+      alice.send(
+          TransferDescription.newDescription().setNamespace("foo-namespace").setElementName("bar"),
+          bytesToSend);
+
+      received.await(10000, TimeUnit.MILLISECONDS);
+    } finally {
+      alice.close();
+      bob.close();
+    }
+
+    assertEquals(2, payloads.size());
+    assertArrayEquals(randomBytes, payloads.get(0));
+    assertArrayEquals(bytesToSend, payloads.get(1));
+  }
+
+  @Test
+  public void testPayloadBuffersAreReused() throws Exception {
+
+    final int packetsToSend = 8;
+
+    final CountDownLatch received = new CountDownLatch(packetsToSend);
+
+    final List<Long> allocatedSizes = new ArrayList<Long>();
+
+    final byte[] bytesToSend = new byte[1024 * 1024];
+    new Random(4711).nextBytes(bytesToSend);
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver(
+        (e) -> {
+          if (e.getPayloadLength() == bytesToSend.length
+              && Arrays.equals(
+                  bytesToSend, Arrays.copyOf(e.getPayloadBuffer(), e.getPayloadLength())))
+            allocatedSizes.add(BufferPool.SHARED.getAllocatedSize());
+
+          e.release();
+          received.countDown();
+        });
+
+    alice.initialize();
+    bob.initialize();
+
+    try {
+      for (int i = 0; i < packetsToSend; i++)
+        alice.send(
+            TransferDescription.newDescription()
+                .setNamespace("foo-namespace")
+                .setElementName("bar"),
+            bytesToSend);
+
+      received.await(60000, TimeUnit.MILLISECONDS);
+    } finally {
+      alice.close();
+      bob.close();
+    }
+
+    assertEquals("corrupted payloads", packetsToSend, allocatedSizes.size());
+
+    // only the first packet needs a new buffer
+    assertEquals(allocatedSizes.get(0), allocatedSizes.get(packetsToSend - 1));
+  }
+
+  @Test
+  public void testInterleavedBulkAndSmallPackets() throws Exception {
+
+    final int smallPacketsToSend = 50;
+
+    final CountDownLatch received = new CountDownLatch(2 + smallPacketsToSend);
+
+    final Map<String, byte[]> payloads = new ConcurrentHashMap<String, byte[]>();
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID, bobJID, "junit", aliceStream, StreamMode.IBB, new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID, aliceJID, "junit", bobStream, StreamMode.IBB, new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver(
+        (e) -> {
+          payloads.put(e.getTransferDescription().getElementName(), e.getPayload());
+          received.countDown();
+        });
+
+    alice.initialize();
+    bob.initialize();
+
+    final byte[] randomBytes = new byte[1024 * 1024];
+    new Random(4711).nextBytes(randomBytes);
+
+    final byte[] compressibleBytes = new byte[1024 * 1024];
+
+    for (int i = 0; i < compressibleBytes.length; i++) compressibleBytes[i] = (byte) (i / 1000);
+
+    final byte[] smallBytes = "<ADOS xmlns=\"saros\"/>".getBytes("UTF-8");
+
+    final List<Thread> senders = new ArrayList<Thread>();
+
+    // piped streams fail once a thread that wrote to them has terminated
+    final CountDownLatch done = new CountDownLatch(1);
+
+    try {
+      senders.add(startSender(alice, "random", randomBytes, done));
+      senders.add(startSender(alice, "compressible", compressibleBytes, done));
+
+      for (int i = 0; i < smallPacketsToSend; i++)
+        alice.send(
+            TransferDescription.newDescription()
+                .setNamespace("foo-namespace")
+                .setElementName("small" + i),
+            smallBytes);
+
+      received.await(60000, TimeUnit.MILLISECONDS);
+    } finally {
+      done.countDown();
+
+      for (final Thread sender : senders) sender.join(10000);
+
+      alice.close();
+      bob.close();
+    }
+
+    assertEquals(2 + smallPacketsToSend, payloads.size());
+    assertArrayEquals(randomBytes, payloads.get("random"));
+    assertArrayEquals(compressibleBytes, payloads.get("compressible"));
+
+    for (int i = 0; i < smallPacketsToSend; i++)
+      assertArrayEquals(smallBytes, payloads.get("small" + i));
+  }
+
+  private static Thread startSender(
+      final BinaryChannelConnection connection,
+      final String elementName,
+      final byte[] data,
+      final CountDownLatch done) {
+
+    final Thread thread =
+        new Thread(
+            () -> {
+              try {
+                connection.send(
+                    TransferDescription.newDescription()
+                        .setNamespace("foo-namespace")
+                        .setElementName(elementName),
+                    data);
+
+                done.await();
+              } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            });
+
+    thread.start();
+
+    return thread;
+  }
+
+  private static void waitUntilCompressing(final BinaryChannelConnection connection)
+      throws InterruptedException {
+
+    for (int i = 0; i < 1000 && !connection.isCompressing(); i++) Thread.sleep(10);
+
+    assertTrue("stream compression was not negotiated", connection.isCompressing());
+  }
+
   @Test
   public void testIDPool() {
 
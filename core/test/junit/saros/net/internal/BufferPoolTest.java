@@ -0,0 +1,79 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+  @Test
+  public void testBufferSizes() {
+    final BufferPool pool = new BufferPool(0);
+
+    assertEquals(1024, pool.acquire(1).length);
+    assertEquals(1024, pool.acquire(1024).length);
+    assertEquals(2048, pool.acquire(1025).length);
+    assertEquals(32 * 1024, pool.acquire(32 * 1024 - 1).length);
+  }
+
+  @Test
+  public void testReleasedBuffersAreReused() {
+    final BufferPool pool = new BufferPool(1024 * 1024);
+
+    final byte[] buffer = pool.acquire(4000);
+
+    pool.release(buffer);
+
+    assertEquals(buffer.length, pool.getRetainedSize());
+    assertSame(buffer, pool.acquire(3000));
+    assertEquals(0, pool.getRetainedSize());
+
+    assertEquals(buffer.length, pool.getAllocatedSize());
+    assertEquals(buffer.length * 2, pool.getAcquiredSize());
+  }
+
+  @Test
+  public void testRetainedSizeIsLimited() {
+    final BufferPool pool = new BufferPool(4096);
+
+    final byte[] first = pool.acquire(4096);
+    final byte[] second = pool.acquire(4096);
+
+    pool.release(first);
+    pool.release(second);
+
+    assertEquals(4096, pool.getRetainedSize());
+    assertSame(first, pool.acquire(4096));
+    assertNotSame(second, pool.acquire(4096));
+  }
+
+  @Test
+  public void testForeignBuffersAreNotRetained() {
+    final BufferPool pool = new BufferPool(1024 * 1024);
+
+    pool.release(new byte[1000]);
+    pool.release(new byte[16]);
+
+    assertEquals(0, pool.getRetainedSize());
+  }
+
+  @Test
+  public void testGrowKeepsContent() {
+    final BufferPool pool = new BufferPool(1024 * 1024);
+
+    final byte[] buffer = pool.acquire(1024);
+    Arrays.fill(buffer, (byte) 42);
+
+    final byte[] grown = pool.grow(buffer, 100, 1500);
+
+    assertEquals(2048, grown.length);
+    assertArrayEquals(Arrays.copyOf(buffer, 100), Arrays.copyOf(grown, 100));
+
+    // the old buffer was released
+    assertSame(buffer, pool.acquire(1024));
+  }
+}
@@ -0,0 +1,73 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+import saros.net.internal.CompressionSelector.Compression;
+import saros.net.stream.StreamMode;
+
+public class CompressionSelectorTest {
+
+  @Test
+  public void testInitialSelection() {
+    assertEquals(Compression.NONE, new CompressionSelector(StreamMode.TCP).getSelected());
+    assertEquals(Compression.NONE, new CompressionSelector(StreamMode.SOCKS5_DIRECT).getSelected());
+    assertEquals(Compression.DEFLATE, new CompressionSelector(StreamMode.IBB).getSelected());
+  }
+
+  @Test
+  public void testSelectsCompressionOnSlowLink() {
+    final CompressionSelector selector = new CompressionSelector(StreamMode.SOCKS5_DIRECT);
+
+    // 1 KB in 10 ms
+    for (int i = 0; i < 100; i++) selector.transmitted(1024, 10_000_000L);
+
+    selectInterval(selector);
+
+    assertNotEquals(Compression.NONE, selector.getSelected());
+  }
+
+  @Test
+  public void testSelectsNoCompressionForIncompressibleData() {
+    final CompressionSelector selector = new CompressionSelector(StreamMode.SOCKS5_MEDIATED);
+
+    for (int i = 0; i < 100; i++) {
+      selector.compressed(Compression.FAST, 1024, 1030, 10_000L);
+      selector.compressed(Compression.DEFLATE, 1024, 1030, 30_000L);
+    }
+
+    selectInterval(selector);
+
+    assertEquals(Compression.NONE, selector.getSelected());
+  }
+
+  @Test
+  public void testSelectsNoCompressionOnFastLink() {
+    final CompressionSelector selector = new CompressionSelector(StreamMode.IBB);
+
+    // 1 MB in 1 ms
+    for (int i = 0; i < 100; i++) selector.transmitted(1024 * 1024, 1_000_000L);
+
+    selectInterval(selector);
+
+    assertEquals(Compression.NONE, selector.getSelected());
+  }
+
+  @Test
+  public void testProbesOtherCompressions() {
+    final CompressionSelector selector = new CompressionSelector(StreamMode.TCP);
+
+    int probes = 0;
+
+    for (int i = 0; i < CompressionSelector.EVALUATION_INTERVAL * 4; i++) {
+      if (selector.select() != selector.getSelected()) probes++;
+    }
+
+    assertEquals(4, probes);
+  }
+
+  private static void selectInterval(final CompressionSelector selector) {
+    for (int i = 0; i < CompressionSelector.EVALUATION_INTERVAL; i++) selector.select();
+  }
+}
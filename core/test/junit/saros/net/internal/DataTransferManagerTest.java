@@ -173,6 +173,11 @@ public class DataTransferManagerTest {
       // NOP
     }
 
+    @Override
+    public boolean isCompressing() {
+      return false;
+    }
+
     @Override
     public void setBinaryXMPPExtensionReceiver(IBinaryXMPPExtensionReceiver receiver) {
       // NOP
@@ -210,7 +215,7 @@ public class DataTransferManagerTest {
   @Test(expected = NullPointerException.class)
   public void testEstablishConnectionWithNullPeer() throws Exception {
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null);
+    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -220,7 +225,7 @@ public class DataTransferManagerTest {
   @Test(expected = NullPointerException.class)
   public void testEstablishConnectionWithNullConnectionID() throws Exception {
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null);
+    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -230,7 +235,7 @@ public class DataTransferManagerTest {
   @Test(expected = IOException.class)
   public void testEstablishConnectionWithNoTransports() throws Exception {
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null);
+    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, null, null, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -244,7 +249,7 @@ public class DataTransferManagerTest {
     IStreamService fallbackTransport = new Transport(StreamMode.IBB);
 
     IConnectionManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, null, mainTransport, fallbackTransport);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -272,7 +277,7 @@ public class DataTransferManagerTest {
     EasyMock.replay(mainTransport);
 
     IConnectionManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, null, mainTransport, fallbackTransport);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -291,7 +296,7 @@ public class DataTransferManagerTest {
     IStreamService fallbackTransport = new Transport(StreamMode.IBB);
 
     DataTransferManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, null, mainTransport, fallbackTransport);
 
     dtm.setServices(IConnectionManager.IBB_SERVICE);
 
@@ -305,12 +310,60 @@ public class DataTransferManagerTest {
         dtm.getTransferMode(new JID("foo@bar.com")));
   }
 
+  @Test
+  public void testDirectTransportIsPreferred() throws Exception {
+
+    IStreamService directTransport = new Transport(StreamMode.TCP);
+    IStreamService mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
+    IStreamService fallbackTransport = new Transport(StreamMode.IBB);
+
+    IConnectionManager dtm =
+        new DataTransferManager(
+            connectionServiceStub, directTransport, mainTransport, fallbackTransport);
+
+    connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
+
+    dtm.connect(new JID("foo@bar.com"));
+
+    assertEquals(StreamMode.TCP, dtm.getTransferMode(new JID("foo@bar.com")));
+  }
+
+  @Test
+  public void testDirectTransportFallsBackToMainTransport() throws Exception {
+
+    IStreamService directTransport = EasyMock.createNiceMock(IStreamService.class);
+    IStreamService mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
+    IStreamService fallbackTransport = new Transport(StreamMode.IBB);
+
+    EasyMock.expect(directTransport.connect(EasyMock.isA(String.class), EasyMock.isA(JID.class)))
+        .andThrow(new IOException())
+        .once();
+
+    EasyMock.replay(directTransport);
+
+    IConnectionManager dtm =
+        new DataTransferManager(
+            connectionServiceStub, directTransport, mainTransport, fallbackTransport);
+
+    connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
+
+    dtm.connect(new JID("foo@bar.com"));
+
+    EasyMock.verify(directTransport);
+
+    assertEquals(
+        "Wrong transport fallback",
+        StreamMode.SOCKS5_DIRECT,
+        dtm.getTransferMode(new JID("foo@bar.com")));
+  }
+
   @Test
   public void testConnectionCaching() throws Exception {
 
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, null, mainTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -330,7 +383,8 @@ public class DataTransferManagerTest {
   public void testGetTransferMode() throws Exception {
     IStreamService mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, null, mainTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -350,7 +404,8 @@ public class DataTransferManagerTest {
   public void testGetConnectionOnInvalidConnectionIdentifierWithNoConnection() throws Exception {
     IStreamService mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    DataTransferManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    DataTransferManager dtm =
+        new DataTransferManager(connectionServiceStub, null, mainTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -362,7 +417,8 @@ public class DataTransferManagerTest {
   public void testGetConnectionOnInvalidConnectionIdentifier() throws Exception {
     IStreamService mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    DataTransferManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    DataTransferManager dtm =
+        new DataTransferManager(connectionServiceStub, null, mainTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -374,7 +430,8 @@ public class DataTransferManagerTest {
   public void testGetConnectionOnValidConnectionIdentifier() throws Exception {
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    DataTransferManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    DataTransferManager dtm =
+        new DataTransferManager(connectionServiceStub, null, mainTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -400,7 +457,7 @@ public class DataTransferManagerTest {
     Transport fallbackTransport = new Transport(StreamMode.IBB);
 
     final IConnectionManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, null, mainTransport, fallbackTransport);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -487,7 +544,8 @@ public class DataTransferManagerTest {
   public void connectWithRemoteSideConnectedFirst() throws Exception {
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, null, mainTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -513,7 +571,7 @@ public class DataTransferManagerTest {
     Transport fallbackTransport = new Transport(StreamMode.IBB);
 
     final DataTransferManager dtm =
-        new DataTransferManager(connectionServiceStub, mainTransport, fallbackTransport);
+        new DataTransferManager(connectionServiceStub, null, mainTransport, fallbackTransport);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -560,7 +618,8 @@ public class DataTransferManagerTest {
   public void testConnectionClosureOnManualClose() throws Exception {
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, null, mainTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -584,7 +643,8 @@ public class DataTransferManagerTest {
   public void testConnectionClosureOnDisconnect() throws Exception {
     Transport mainTransport = new Transport(StreamMode.SOCKS5_DIRECT);
 
-    IConnectionManager dtm = new DataTransferManager(connectionServiceStub, mainTransport, null);
+    IConnectionManager dtm =
+        new DataTransferManager(connectionServiceStub, null, mainTransport, null);
 
     connectionListener.getValue().connectionStateChanged(connectionMock, ConnectionState.CONNECTED);
 
@@ -0,0 +1,246 @@
+package saros.net.internal;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import saros.net.stream.SocketChannelByteStream;
+import saros.net.stream.StreamMode;
+import saros.net.xmpp.JID;
+
+/**
+ * Offline tool that compares the receive models of the {@link BinaryChannelConnection}: a receiver
+ * thread per connection and the shared {@link ReceiveSelector}.
+ *
+ * <p>For each model the tool opens the given number of connection pairs over loopback TCP, waits
+ * while all connections are idle and then sends the given number of packets over every connection.
+ * It prints the number of threads the connections use, the peak number of threads, the context
+ * switches of all threads during the idle and the active phase and the packet rate. Context
+ * switches are read from <code>/proc/self/task</code> and are therefore only reported on Linux.
+ *
+ * <pre>
+ * ReceiveModelBenchmark [-connections count] [-packets count] [-size bytes] [-threads count]
+ * </pre>
+ */
+public class ReceiveModelBenchmark {
+
+  private static final JID ALICE = new JID("alice@saros-benchmark/Saros");
+
+  private static final JID BOB = new JID("bob@saros-benchmark/Saros");
+
+  private static final long IDLE_TIME = 2000;
+
+  private static final IByteStreamConnectionListener NO_LISTENER =
+      new IByteStreamConnectionListener() {
+        @Override
+        public void connectionClosed(String connectionID, IByteStreamConnection connection) {
+          // NOP
+        }
+
+        @Override
+        public void connectionChanged(
+            String connectionID, IByteStreamConnection connection, boolean incomingRequest) {
+          // NOP
+        }
+      };
+
+  private final int connectionCount;
+  private final int packetCount;
+  private final int packetSize;
+  private final int receiveThreads;
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+  private ReceiveModelBenchmark(
+      int connectionCount, int packetCount, int packetSize, int receiveThreads) {
+    this.connectionCount = connectionCount;
+    this.packetCount = packetCount;
+    this.packetSize = packetSize;
+    this.receiveThreads = receiveThreads;
+  }
+
+  public static void main(String... args) throws Exception {
+    int connectionCount = 64;
+    int packetCount = 1000;
+    int packetSize = 256;
+    int receiveThreads = ReceiveSelector.RECEIVE_THREADS;
+
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      final int value = Integer.parseInt(args[i + 1]);
+
+      if (args[i].equals("-connections")) connectionCount = value;
+      else if (args[i].equals("-packets")) packetCount = value;
+      else if (args[i].equals("-size")) packetSize = value;
+      else if (args[i].equals("-threads")) receiveThreads = value;
+      else {
+        System.err.println(
+            "usage: ReceiveModelBenchmark [-connections count] [-packets count] [-size bytes]"
+                + " [-threads count]");
+        System.exit(1);
+      }
+    }
+
+    final ReceiveModelBenchmark benchmark =
+        new ReceiveModelBenchmark(connectionCount, packetCount, packetSize, receiveThreads);
+
+    System.out.printf(
+        "%d connection pairs, %d packets of %d bytes per connection%n%n",
+        connectionCount, packetCount, packetSize);
+
+    System.out.printf(
+        "%-22s %8s %8s %14s %14s %12s%n",
+        "model", "threads", "peak", "idle switches", "active switches", "packets/s");
+
+    // warm up
+    benchmark.measure(false);
+    benchmark.measure(true);
+
+    benchmark.report("THREAD", false);
+    benchmark.report("SELECTOR (" + receiveThreads + " threads)", true);
+  }
+
+  private void report(final String model, final boolean useSelector) throws Exception {
+    final long[] result = measure(useSelector);
+
+    System.out.printf(
+        "%-22s %8d %8d %14s %14s %12d%n",
+        model,
+        result[0],
+        result[1],
+        result[2] < 0 ? "n/a" : String.valueOf(result[2]),
+        result[3] < 0 ? "n/a" : String.valueOf(result[3]),
+        result[4]);
+  }
+
+  /**
+   * Returns the number of threads used by the idle connections, the peak number of threads, the
+   * context switches while idle and while active and the packet rate.
+   */
+  private long[] measure(final boolean useSelector) throws Exception {
+    final List<BinaryChannelConnection> senders = new ArrayList<BinaryChannelConnection>();
+    final List<BinaryChannelConnection> connections = new ArrayList<BinaryChannelConnection>();
+
+    final CountDownLatch received = new CountDownLatch(connectionCount * packetCount);
+
+    final int threadsBefore = threads.getThreadCount();
+
+    final ReceiveSelector selector = useSelector ? new ReceiveSelector(receiveThreads) : null;
+
+    try (final ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+      for (int i = 0; i < connectionCount; i++) {
+        final BinaryChannelConnection alice =
+            createConnection(ALICE, BOB, SocketChannel.open(server.getLocalAddress()), selector);
+
+        final BinaryChannelConnection bob = createConnection(BOB, ALICE, server.accept(), selector);
+
+        bob.setBinaryXMPPExtensionReceiver(e -> received.countDown());
+
+        alice.initialize();
+        bob.initialize();
+
+        senders.add(alice);
+        connections.add(alice);
+        connections.add(bob);
+      }
+
+      final long idleSwitches = getContextSwitches();
+      Thread.sleep(IDLE_TIME);
+      final long activeSwitches = getContextSwitches();
+
+      final long connectionThreads = threads.getThreadCount() - threadsBefore;
+
+      threads.resetPeakThreadCount();
+
+      final TransferDescription description =
+          TransferDescription.newDescription().setNamespace("benchmark").setElementName("packet");
+
+      final byte[] packet = new byte[packetSize];
+
+      final long start = System.nanoTime();
+
+      for (int i = 0; i < packetCount; i++)
+        for (final BinaryChannelConnection sender : senders) sender.send(description, packet);
+
+      if (!received.await(10, TimeUnit.MINUTES)) throw new IOException("packets were lost");
+
+      final long duration = System.nanoTime() - start;
+      final long end = getContextSwitches();
+
+      return new long[] {
+        connectionThreads,
+        threads.getPeakThreadCount() - threadsBefore,
+        idleSwitches < 0 ? -1 : activeSwitches - idleSwitches,
+        activeSwitches < 0 ? -1 : end - activeSwitches,
+        (long) connectionCount * packetCount * 1000000000L / Math.max(1, duration)
+      };
+
+    } finally {
+      for (final BinaryChannelConnection connection : connections) connection.close();
+
+      if (selector != null) selector.shutdown();
+    }
+  }
+
+  private static BinaryChannelConnection createConnection(
+      final JID local,
+      final JID remote,
+      final SocketChannel channel,
+      final ReceiveSelector selector)
+      throws IOException {
+
+    final BinaryChannelConnection connection =
+        new BinaryChannelConnection(
+            local,
+            remote,
+            "benchmark",
+            new SocketChannelByteStream(channel),
+            StreamMode.TCP,
+            NO_LISTENER);
+
+    connection.setReceiveSelector(selector);
+
+    return connection;
+  }
+
+  /** Returns the sum of the context switches of all live threads or -1 if they are unknown. */
+  private static long getContextSwitches() {
+    final Path tasks = Paths.get("/proc/self/task");
+
+    if (!Files.isDirectory(tasks)) return -1;
+
+    long switches = 0;
+
+    try (final DirectoryStream<Path> stream = Files.newDirectoryStream(tasks)) {
+      for (final Path task : stream) {
+        try {
+          for (final String line :
+              Files.readAllLines(task.resolve("status"), StandardCharsets.UTF_8)) {
+            if (line.startsWith("voluntary_ctxt_switches:")
+                || line.startsWith("nonvoluntary_ctxt_switches:"))
+              switches += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+          }
+        } catch (IOException e) {
+          // the thread terminated in the meantime
+        }
+      }
+    } catch (IOException e) {
+      return -1;
+    }
+
+    return switches;
+  }
+}
@@ -0,0 +1,221 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import saros.net.stream.SocketChannelByteStream;
+import saros.net.stream.StreamMode;
+import saros.net.xmpp.JID;
+
+public class ReceiveSelectorTest {
+
+  private static final int CONNECTIONS = 8;
+
+  private static final int RECEIVE_THREADS = 2;
+
+  private static class ConnectionListener implements IByteStreamConnectionListener {
+
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    @Override
+    public void connectionClosed(String connectionID, IByteStreamConnection connection) {
+      closed.countDown();
+    }
+
+    @Override
+    public void connectionChanged(
+        String connectionID, IByteStreamConnection connection, boolean incomingRequest) {
+      // NOP
+    }
+  }
+
+  private final JID aliceJID = new JID("alice@baumeister.de");
+
+  private final JID bobJID = new JID("bob@baumeister.de");
+
+  private ReceiveSelector selector;
+
+  private ServerSocketChannel server;
+
+  private final List<BinaryChannelConnection> connections =
+      new ArrayList<BinaryChannelConnection>();
+
+  @Before
+  public void setUp() throws IOException {
+    selector = new ReceiveSelector(RECEIVE_THREADS);
+
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (final BinaryChannelConnection connection : connections) connection.close();
+
+    server.close();
+    selector.shutdown();
+  }
+
+  @Test
+  public void testManyConnectionsAreReadByFewThreads() throws Exception {
+    final byte[] small = new byte[] {1, 2, 3};
+    final byte[] large = new byte[256 * 1024];
+
+    for (int i = 0; i < large.length; i++) large[i] = (byte) i;
+
+    final List<BinaryChannelConnection> senders = new ArrayList<BinaryChannelConnection>();
+    final List<BlockingQueue<byte[]>> received = new ArrayList<BlockingQueue<byte[]>>();
+
+    for (int i = 0; i < CONNECTIONS; i++) {
+      final BinaryChannelConnection[] pair = connect(new ConnectionListener());
+      final BlockingQueue<byte[]> payloads = new LinkedBlockingQueue<byte[]>();
+
+      pair[1].setBinaryXMPPExtensionReceiver(e -> payloads.add(e.getPayload()));
+
+      pair[0].initialize();
+      pair[1].initialize();
+
+      senders.add(pair[0]);
+      received.add(payloads);
+    }
+
+    for (final BinaryChannelConnection sender : senders) {
+      sender.send(description(), small);
+      sender.send(description(), large);
+      sender.send(description(), small);
+    }
+
+    for (final BlockingQueue<byte[]> payloads : received) {
+      assertArrayEquals(small, payloads.poll(10000, TimeUnit.MILLISECONDS));
+      assertArrayEquals(large, payloads.poll(10000, TimeUnit.MILLISECONDS));
+      assertArrayEquals(small, payloads.poll(10000, TimeUnit.MILLISECONDS));
+    }
+
+    for (final Thread thread : Thread.getAllStackTraces().keySet())
+      assertFalse(
+          "connection started a receiver thread: " + thread.getName(),
+          thread.getName().startsWith("BinaryChannel-" + aliceJID.getName())
+              || thread.getName().startsWith("BinaryChannel-" + bobJID.getName()));
+  }
+
+  @Test
+  public void testClosedConnectionIsNoticed() throws Exception {
+    final ConnectionListener listener = new ConnectionListener();
+
+    final BinaryChannelConnection[] pair = connect(listener);
+
+    pair[0].initialize();
+    pair[1].initialize();
+
+    pair[0].close();
+
+    assertTrue(
+        "closed connection was not noticed by the remote side",
+        listener.closed.await(10000, TimeUnit.MILLISECONDS));
+
+    assertFalse(pair[1].isConnected());
+  }
+
+  @Test
+  public void testStalledConnectionsDoNotBlockOtherConnections() throws Exception {
+    final List<SocketChannel> stalledChannels = new ArrayList<SocketChannel>();
+
+    try {
+      for (int i = 0; i < RECEIVE_THREADS * 2; i++) {
+        final SocketChannel channel = SocketChannel.open(server.getLocalAddress());
+        stalledChannels.add(channel);
+
+        accept(new ConnectionListener()).initialize();
+
+        // a transfer description (opcode 0xFA) for a single chunk followed by the start of the data
+        // frame (opcode 0xFB) with 4096 bytes of payload that never arrives
+        channel.write(
+            ByteBuffer.wrap(
+                new byte[] {
+                  (byte) 0xFA, 0, 0, 0, 0, 0, 1, 0, 0, 0, 0, (byte) 0xFB, 0, 0, 0, 0, 0x10, 0, 1, 2, 3
+                }));
+      }
+
+      final byte[] payload = new byte[] {1, 2, 3};
+
+      final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+
+      final BinaryChannelConnection[] pair = connect(new ConnectionListener());
+
+      pair[1].setBinaryXMPPExtensionReceiver(e -> received.add(e.getPayload()));
+
+      pair[0].initialize();
+      pair[1].initialize();
+
+      pair[0].send(description(), payload);
+
+      assertArrayEquals(
+          "stalled connections blocked the receive threads",
+          payload,
+          received.poll(5000, TimeUnit.MILLISECONDS));
+
+    } finally {
+      for (final SocketChannel channel : stalledChannels) channel.close();
+    }
+  }
+
+  /** Returns a connection from alice to bob and the corresponding connection of bob. */
+  private BinaryChannelConnection[] connect(final IByteStreamConnectionListener bobListener)
+      throws IOException {
+
+    final SocketChannel aliceChannel = SocketChannel.open(server.getLocalAddress());
+
+    final BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            new SocketChannelByteStream(aliceChannel),
+            StreamMode.TCP,
+            new ConnectionListener());
+
+    alice.setReceiveSelector(selector);
+    connections.add(alice);
+
+    return new BinaryChannelConnection[] {alice, accept(bobListener)};
+  }
+
+  /** Returns the connection of bob for the next connection to the server. */
+  private BinaryChannelConnection accept(final IByteStreamConnectionListener bobListener)
+      throws IOException {
+
+    final BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            new SocketChannelByteStream(server.accept()),
+            StreamMode.TCP,
+            bobListener);
+
+    bob.setReceiveSelector(selector);
+    connections.add(bob);
+
+    return bob;
+  }
+
+  private static TransferDescription description() {
+    return TransferDescription.newDescription().setNamespace("junit").setElementName("junit");
+  }
+}
@@ -0,0 +1,79 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class SendSchedulerTest {
+
+  private final SendScheduler scheduler = new SendScheduler();
+
+  private final List<String> turns = Collections.synchronizedList(new ArrayList<String>());
+
+  @Test
+  public void testUrgentSenderPrecedesBulkSender() throws Exception {
+    scheduler.acquire(true);
+
+    final Thread bulk = startSender("bulk", false, 1);
+    final Thread urgent = startSender("urgent", true, 1);
+
+    scheduler.release();
+
+    bulk.join(10000);
+    urgent.join(10000);
+
+    assertEquals(Arrays.asList("urgent", "bulk"), turns);
+  }
+
+  @Test
+  public void testBulkSendersTakeTurns() throws Exception {
+    scheduler.acquire(true);
+
+    final Thread first = startSender("first", false, 3);
+    final Thread second = startSender("second", false, 3);
+
+    scheduler.release();
+
+    first.join(10000);
+    second.join(10000);
+
+    assertEquals(Arrays.asList("first", "second", "first", "second", "first", "second"), turns);
+  }
+
+  /** Starts a sender and returns as soon as it waits for its first turn. */
+  private Thread startSender(final String name, final boolean urgent, final int frames)
+      throws InterruptedException {
+
+    final Thread thread =
+        new Thread(
+            () -> {
+              for (int i = 0; i < frames; i++) {
+                scheduler.acquire(urgent);
+                turns.add(name);
+
+                // gives the other senders the time to request their next turn
+                sleep(20);
+
+                scheduler.release();
+              }
+            });
+
+    thread.start();
+
+    while (thread.getState() != Thread.State.WAITING) Thread.sleep(1);
+
+    return thread;
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
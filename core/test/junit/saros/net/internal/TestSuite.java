@@ -6,8 +6,13 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
   BinaryChannelConnectionTest.class,
+  BufferPoolTest.class,
+  CompressionSelectorTest.class,
   ConnectionPoolTest.class,
-  DataTransferManagerTest.class
+  DataTransferManagerTest.class,
+  ReceiveSelectorTest.class,
+  SendSchedulerTest.class,
+  XMPPReceiverTest.class
 })
 public class TestSuite {
   // the class remains completely empty,
@@ -0,0 +1,241 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.easymock.EasyMock;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.filter.PacketExtensionFilter;
+import org.jivesoftware.smack.packet.DefaultPacketExtension;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.provider.PacketExtensionProvider;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+import saros.net.DispatchThreadContext;
+import saros.net.ExtensionPacketFilter;
+import saros.net.IBinaryPacketExtension;
+import saros.net.IBinaryPacketExtensionProvider;
+import saros.net.stream.StreamMode;
+import saros.net.xmpp.JID;
+import saros.net.xmpp.XMPPConnectionService;
+
+public class XMPPReceiverTest {
+
+  private static final String ELEMENT_NAME = "receivertest";
+
+  private static final String NAMESPACE = "saros.junit";
+
+  private static final JID ALICE = new JID("alice@baumeister.de/Saros");
+
+  private static final JID BOB = new JID("bob@baumeister.de/Saros");
+
+  private static final JID CARL = new JID("carl@baumeister.de/Saros");
+
+  /**
+   * Returns the text of the element as extension. Texts starting with "wait" are returned after the
+   * release latch is counted down.
+   */
+  private class SlowProvider implements PacketExtensionProvider {
+
+    @Override
+    public PacketExtension parseExtension(XmlPullParser parser) throws Exception {
+      final String text = parser.nextText();
+
+      if (text.startsWith("wait")) release.await(10000, TimeUnit.MILLISECONDS);
+      else parsed.countDown();
+
+      final DefaultPacketExtension extension = new DefaultPacketExtension(ELEMENT_NAME, NAMESPACE);
+      extension.setValue("text", text);
+      return extension;
+    }
+  }
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private final CountDownLatch parsed = new CountDownLatch(1);
+
+  private final BlockingQueue<String> dispatched = new LinkedBlockingQueue<String>();
+
+  private DispatchThreadContext dispatchThreadContext;
+
+  private XMPPReceiver receiver;
+
+  @Before
+  public void setUp() {
+    ProviderManager.getInstance().addExtensionProvider(ELEMENT_NAME, NAMESPACE, new SlowProvider());
+
+    final XMPPConnectionService connectionService =
+        EasyMock.createNiceMock(XMPPConnectionService.class);
+
+    final DataTransferManager dataTransferManager =
+        EasyMock.createNiceMock(DataTransferManager.class);
+
+    EasyMock.replay(connectionService, dataTransferManager);
+
+    dispatchThreadContext = new DispatchThreadContext();
+
+    receiver = new XMPPReceiver(dispatchThreadContext, connectionService, dataTransferManager);
+
+    receiver.addPacketListener(
+        packet -> {
+          final DefaultPacketExtension extension =
+              (DefaultPacketExtension) packet.getExtension(ELEMENT_NAME, NAMESPACE);
+
+          dispatched.add(extension.getValue("text"));
+        },
+        new ExtensionPacketFilter(ELEMENT_NAME, NAMESPACE));
+  }
+
+  @After
+  public void tearDown() {
+    ProviderManager.getInstance().removeExtensionProvider(ELEMENT_NAME, NAMESPACE);
+    dispatchThreadContext.dispose();
+  }
+
+  @Test
+  public void testPacketsOfOneSenderAreDispatchedInOrder() throws Exception {
+    receiver.receive(createExtension(ALICE, "wait"));
+    receiver.receive(createExtension(ALICE, "second"));
+
+    assertTrue(
+        "packets of one sender are not decoded in parallel",
+        parsed.await(10000, TimeUnit.MILLISECONDS));
+
+    assertNull("packet was dispatched too early", dispatched.poll(100, TimeUnit.MILLISECONDS));
+
+    release.countDown();
+
+    assertEquals("wait", dispatched.poll(10000, TimeUnit.MILLISECONDS));
+    assertEquals("second", dispatched.poll(10000, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testSlowPacketDoesNotDelayOtherSenders() throws Exception {
+    receiver.receive(createExtension(ALICE, "wait"));
+    receiver.receive(createExtension(BOB, "bob"));
+
+    assertEquals("bob", dispatched.poll(10000, TimeUnit.MILLISECONDS));
+
+    release.countDown();
+
+    assertEquals("wait", dispatched.poll(10000, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testListenersAreSelectedByExtension() throws Exception {
+    final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+
+    receiver.addPacketListener(
+        packet -> received.add("indexed"), new ExtensionPacketFilter("indexed", NAMESPACE));
+
+    receiver.addPacketListener(
+        packet -> received.add("condition"),
+        new ExtensionPacketFilter("indexed", NAMESPACE)
+            .and(packet -> ALICE.equals(packet.getFrom())));
+
+    receiver.addPacketListener(
+        packet -> received.add("other"), new ExtensionPacketFilter("other", NAMESPACE));
+
+    receiver.addPacketListener(
+        packet -> received.add("unindexed"), new PacketExtensionFilter("indexed", NAMESPACE));
+
+    final Message message = new Message();
+    message.setFrom(BOB.toString());
+    message.addExtension(new DefaultPacketExtension("indexed", NAMESPACE));
+    message.addExtension(new DefaultPacketExtension("indexed", NAMESPACE));
+
+    receiver.processPacket(message);
+
+    final List<String> dispatchedTo = new ArrayList<String>();
+
+    dispatchedTo.add(received.poll(10000, TimeUnit.MILLISECONDS));
+    dispatchedTo.add(received.poll(10000, TimeUnit.MILLISECONDS));
+
+    assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+
+    Collections.sort(dispatchedTo);
+    assertEquals(Arrays.asList("indexed", "unindexed"), dispatchedTo);
+  }
+
+  @Test
+  public void testRemovedListenerIsNotCalled() throws Exception {
+    final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+
+    final PacketListener listener = packet -> received.add("removed");
+
+    receiver.addPacketListener(listener, new ExtensionPacketFilter("indexed", NAMESPACE));
+    receiver.removePacketListener(listener);
+
+    final Message message = new Message();
+    message.addExtension(new DefaultPacketExtension("indexed", NAMESPACE));
+
+    receiver.processPacket(message);
+
+    assertNull(received.poll(500, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testBinaryExtensionReceivedAsXMLIsParsedByBinaryProvider() throws Exception {
+    final IBinaryPacketExtensionProvider binaryProvider =
+        (sender, data, offset, length) -> {
+          final DefaultPacketExtension extension =
+              new DefaultPacketExtension(ELEMENT_NAME, NAMESPACE);
+
+          extension.setValue("text", sender + ": " + new String(data, offset, length, "UTF-8"));
+          return extension;
+        };
+
+    ProviderManager.getInstance().addExtensionProvider("binary", NAMESPACE, binaryProvider);
+
+    try {
+      final DefaultPacketExtension xmlForm = new DefaultPacketExtension("binary", NAMESPACE);
+      xmlForm.setValue(
+          IBinaryPacketExtension.DATA_ELEMENT_NAME,
+          Base64.getEncoder().encodeToString("binary".getBytes(StandardCharsets.UTF_8)));
+
+      final Message message = new Message();
+      message.setFrom(ALICE.toString());
+      message.addExtension(xmlForm);
+
+      receiver.processPacket(message);
+
+      assertEquals(ALICE + ": binary", dispatched.poll(10000, TimeUnit.MILLISECONDS));
+    } finally {
+      ProviderManager.getInstance().removeExtensionProvider("binary", NAMESPACE);
+    }
+  }
+
+  private static BinaryXMPPExtension createExtension(final JID sender, final String text) {
+    final TransferDescription description =
+        TransferDescription.newDescription()
+            .setSender(sender)
+            .setRecipient(CARL)
+            .setElementName(ELEMENT_NAME)
+            .setNamespace(NAMESPACE);
+
+    final BinaryXMPPExtension extension = new BinaryXMPPExtension(StreamMode.TCP, description, 0);
+
+    final byte[] payload =
+        ("<" + ELEMENT_NAME + " xmlns='" + NAMESPACE + "'>" + text + "</" + ELEMENT_NAME + ">")
+            .getBytes(StandardCharsets.UTF_8);
+
+    extension.setPayload(payload.length, payload);
+
+    return extension;
+  }
+}
@@ -0,0 +1,296 @@
+package saros.net.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.jivesoftware.smack.Connection;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.Packet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import saros.net.internal.IByteStreamConnection;
+import saros.net.internal.IByteStreamConnectionListener;
+import saros.net.xmpp.JID;
+
+public class TCPTransportTest {
+
+  /** A peer whose XMPP connection delivers packets directly to the XMPP connection of another. */
+  private static class Peer implements IByteStreamConnectionListener {
+
+    private final JID jid;
+
+    private final TCPTransport transport = new TCPTransport();
+
+    private final Capture<PacketListener> packetListener = Capture.newInstance();
+
+    private final Capture<PacketFilter> packetFilter = Capture.newInstance();
+
+    private final BlockingQueue<IByteStreamConnection> incomingConnections =
+        new LinkedBlockingQueue<IByteStreamConnection>();
+
+    private final BlockingQueue<IByteStreamConnection> closedConnections =
+        new LinkedBlockingQueue<IByteStreamConnection>();
+
+    private Peer remote;
+
+    private Peer(final String jid) {
+      this.jid = new JID(jid);
+    }
+
+    private void initialize() {
+      final Connection connection = EasyMock.createMock(Connection.class);
+
+      EasyMock.expect(connection.getUser()).andReturn(jid.toString()).anyTimes();
+
+      connection.addPacketListener(
+          EasyMock.capture(packetListener), EasyMock.capture(packetFilter));
+      EasyMock.expectLastCall().anyTimes();
+
+      connection.removePacketListener(EasyMock.isA(PacketListener.class));
+      EasyMock.expectLastCall().anyTimes();
+
+      connection.sendPacket(EasyMock.isA(Packet.class));
+      EasyMock.expectLastCall()
+          .andAnswer(
+              () -> {
+                final Packet packet = (Packet) EasyMock.getCurrentArguments()[0];
+                packet.setFrom(jid.toString());
+                remote.deliver(packet);
+                return null;
+              })
+          .anyTimes();
+
+      EasyMock.replay(connection);
+
+      transport.initialize(connection, this);
+    }
+
+    private void deliver(final Packet packet) {
+      if (!packetListener.hasCaptured()) return;
+
+      if (packetFilter.getValue().accept(packet)) packetListener.getValue().processPacket(packet);
+    }
+
+    @Override
+    public void connectionChanged(
+        String connectionID, IByteStreamConnection connection, boolean incomingRequest) {
+      if (incomingRequest) incomingConnections.add(connection);
+    }
+
+    @Override
+    public void connectionClosed(String connectionID, IByteStreamConnection connection) {
+      closedConnections.add(connection);
+    }
+  }
+
+  private Peer alice;
+  private Peer bob;
+
+  @Before
+  public void setUp() {
+    alice = new Peer("alice@localhost/Saros");
+    bob = new Peer("bob@localhost/Saros");
+
+    alice.remote = bob;
+    bob.remote = alice;
+
+    alice.initialize();
+    bob.initialize();
+  }
+
+  @After
+  public void tearDown() {
+    alice.transport.uninitialize();
+    bob.transport.uninitialize();
+  }
+
+  @Test
+  public void testConnectOverLoopback() throws Exception {
+    final IByteStreamConnection aliceConnection = alice.transport.connect("junit", bob.jid);
+
+    final IByteStreamConnection bobConnection =
+        bob.incomingConnections.poll(10000, TimeUnit.MILLISECONDS);
+
+    assertNotNull("bob did not accept the connection", bobConnection);
+
+    try {
+      assertEquals(StreamMode.TCP, aliceConnection.getMode());
+      assertEquals(StreamMode.TCP, bobConnection.getMode());
+      assertEquals("junit", bobConnection.getConnectionID());
+      assertEquals(alice.jid, bobConnection.getRemoteAddress());
+
+      aliceConnection.initialize();
+      bobConnection.initialize();
+
+      aliceConnection.close();
+
+      assertEquals(
+          "bob did not notice that alice closed the connection",
+          bobConnection,
+          bob.closedConnections.poll(10000, TimeUnit.MILLISECONDS));
+    } finally {
+      aliceConnection.close();
+      bobConnection.close();
+    }
+  }
+
+  @Test
+  public void testConnectionWithInvalidTokenIsRejected() throws Exception {
+    final byte[] handshake = "0123456789abcdef:junit".getBytes(StandardCharsets.UTF_8);
+
+    try (final Socket socket =
+        new Socket(InetAddress.getLoopbackAddress(), bob.transport.getLocalPort())) {
+
+      socket.setSoTimeout(10000);
+
+      final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(handshake.length);
+      out.write(handshake);
+      out.flush();
+
+      assertEquals(0, socket.getInputStream().read());
+    }
+
+    assertNull(bob.incomingConnections.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testReconnectAfterClose() throws Exception {
+    final IByteStreamConnection aliceConnection = alice.transport.connect("junit", bob.jid);
+    final IByteStreamConnection bobConnection =
+        bob.incomingConnections.poll(10000, TimeUnit.MILLISECONDS);
+
+    aliceConnection.close();
+    bobConnection.close();
+
+    final IByteStreamConnection secondConnection = alice.transport.connect("junit", bob.jid);
+
+    try {
+      assertEquals(StreamMode.TCP, secondConnection.getMode());
+      assertNotNull(bob.incomingConnections.poll(10000, TimeUnit.MILLISECONDS));
+    } finally {
+      secondConnection.close();
+    }
+  }
+
+  @Test
+  public void testLoopbackAddressIsOnlyAdvertisedToPeersOnTheSameHost() {
+    final String loopback = InetAddress.getLoopbackAddress().getHostAddress();
+
+    final List<String> listenAddresses = Arrays.asList(loopback, "192.0.2.1", "2001:db8:0:0:0:0:0:1");
+
+    assertEquals(
+        Arrays.asList("192.0.2.1", "2001:db8:0:0:0:0:0:1"),
+        TCPTransport.getAdvertisedAddresses(listenAddresses, Arrays.asList("203.0.113.7")));
+
+    assertEquals(
+        Arrays.asList(loopback, "192.0.2.1", "2001:db8:0:0:0:0:0:1"),
+        TCPTransport.getAdvertisedAddresses(listenAddresses, Arrays.asList("192.0.2.1")));
+  }
+
+  @Test
+  public void testUnreachableAddressDoesNotDelayConnect() throws Exception {
+    try (final ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+      final InetSocketAddress reachable = (InetSocketAddress) server.getLocalAddress();
+
+      // non-routable address, connecting to it either fails at once or times out
+      final InetSocketAddress unreachable = new InetSocketAddress("10.255.255.1", 9);
+
+      final long start = System.currentTimeMillis();
+
+      try (final SocketChannel channel =
+          TCPTransport.openChannel(Arrays.asList(unreachable, reachable), start + 10000)) {
+
+        assertEquals(reachable, channel.getRemoteAddress());
+      }
+
+      assertTrue(
+          "connect waited for the unreachable address", System.currentTimeMillis() - start < 5000);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testConnectWithoutInitialization() throws Exception {
+    new TCPTransport().connect("junit", bob.jid);
+  }
+
+  @Test
+  public void testStreamIsFullDuplex() throws Exception {
+    final byte[] data = new byte[4 * 1024 * 1024];
+
+    for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+
+    try (final ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+      final SocketChannelByteStream a =
+          new SocketChannelByteStream(SocketChannel.open(server.getLocalAddress()));
+      final SocketChannelByteStream b = new SocketChannelByteStream(server.accept());
+
+      try {
+        final Future<byte[]> aReceived = readFully(a, data.length);
+        final Future<byte[]> bReceived = readFully(b, data.length);
+
+        // both sides write while both sides are reading
+        final Thread writer =
+            new Thread(
+                () -> {
+                  try {
+                    b.getOutputStream().write(data);
+                  } catch (IOException e) {
+                    throw new RuntimeException(e);
+                  }
+                });
+
+        writer.start();
+        a.getOutputStream().write(data);
+
+        assertArrayEquals(data, aReceived.get(10000, TimeUnit.MILLISECONDS));
+        assertArrayEquals(data, bReceived.get(10000, TimeUnit.MILLISECONDS));
+
+        writer.join(10000);
+      } finally {
+        a.close();
+        b.close();
+      }
+    }
+  }
+
+  private static Future<byte[]> readFully(final ByteStream stream, final int length) {
+    final FutureTask<byte[]> task =
+        new FutureTask<byte[]>(
+            () -> {
+              final byte[] data = new byte[length];
+              new DataInputStream(stream.getInputStream()).readFully(data);
+              return data;
+            });
+
+    new Thread(task).start();
+    return task;
+  }
+}
@@ -0,0 +1,354 @@
+package saros.net.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import saros.net.PresetDictionary;
+
+/**
+ * Offline tool that generates a new {@link PresetDictionary} from recorded packet extensions.
+ *
+ * <p>The input files contain one marshalled packet extension, e.g an activities extension, per
+ * line. Every tenth packet is put aside to evaluate the generated dictionary, all other packets are
+ * used to generate it. The tool prints the compressed sizes of the evaluation packets without a
+ * dictionary, with the latest shipped dictionary and with the generated dictionary to the standard
+ * error stream and the generated dictionary as a Java string constant to the standard output
+ * stream.
+ *
+ * <p>The dictionary is assembled from the segments of the training packets that contain the most
+ * byte sequences which occur in many different packets. Segments are added until the dictionary is
+ * full, the most valuable segments are placed at the end of the dictionary as deflate can refer to
+ * them with shorter distances.
+ *
+ * <pre>
+ * PresetDictionaryGenerator [-size bytes] [-segment bytes] file...
+ * </pre>
+ */
+public class PresetDictionaryGenerator {
+
+  /** Length of the byte sequences whose frequencies are counted. */
+  private static final int SEQUENCE_LENGTH = 8;
+
+  /** Every n-th packet is used for the evaluation. */
+  private static final int EVALUATION_RATIO = 10;
+
+  private static final int DEFAULT_SIZE = 4096;
+
+  private static final int DEFAULT_SEGMENT_SIZE = 128;
+
+  private static final int LITERAL_LINE_LENGTH = 72;
+
+  private static class Segment {
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+    private final long score;
+
+    private Segment(byte[] data, int offset, int length, long score) {
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+      this.score = score;
+    }
+  }
+
+  /** Number of packets each sequence occurs in. */
+  private final Map<Long, Integer> frequencies = new HashMap<Long, Integer>();
+
+  private final List<byte[]> packets;
+
+  private final int size;
+
+  private final int segmentSize;
+
+  private PresetDictionaryGenerator(List<byte[]> packets, int size, int segmentSize) {
+    this.packets = packets;
+    this.size = size;
+    this.segmentSize = Math.max(segmentSize, SEQUENCE_LENGTH);
+  }
+
+  public static void main(String... args) throws IOException {
+    int size = DEFAULT_SIZE;
+    int segmentSize = DEFAULT_SEGMENT_SIZE;
+
+    final List<byte[]> trainingPackets = new ArrayList<byte[]>();
+    final List<byte[]> evaluationPackets = new ArrayList<byte[]>();
+
+    int packetCount = 0;
+
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-size") && i + 1 < args.length) {
+        size = Integer.parseInt(args[++i]);
+        continue;
+      }
+
+      if (args[i].equals("-segment") && i + 1 < args.length) {
+        segmentSize = Integer.parseInt(args[++i]);
+        continue;
+      }
+
+      for (final String line : Files.readAllLines(Paths.get(args[i]), StandardCharsets.UTF_8)) {
+        if (line.trim().isEmpty()) continue;
+
+        final byte[] packet = line.getBytes(StandardCharsets.UTF_8);
+
+        if (packetCount++ % EVALUATION_RATIO == 0) evaluationPackets.add(packet);
+        else trainingPackets.add(packet);
+      }
+    }
+
+    if (trainingPackets.isEmpty()) {
+      System.err.println("usage: PresetDictionaryGenerator [-size bytes] [-segment bytes] file...");
+      System.exit(1);
+    }
+
+    final byte[] dictionary =
+        new PresetDictionaryGenerator(trainingPackets, size, segmentSize).generate();
+
+    report(evaluationPackets, dictionary);
+
+    System.out.println(
+        toJavaConstant("VERSION_" + (PresetDictionary.LATEST_VERSION + 1), dictionary));
+  }
+
+  private byte[] generate() {
+    countFrequencies();
+
+    final List<Segment> segments = new ArrayList<Segment>();
+
+    int available = size;
+    final int epochs = Math.max(1, Math.min(packets.size(), size / segmentSize));
+    final int epochSize = Math.max(1, packets.size() / epochs);
+
+    boolean progress = true;
+
+    // every pass selects the best segment of each epoch until the dictionary is full
+    while (available > 0 && progress) {
+      progress = false;
+
+      for (int epoch = 0; epoch < epochs && available > 0; epoch++) {
+        final int end = epoch == epochs - 1 ? packets.size() : (epoch + 1) * epochSize;
+
+        final Segment segment = selectSegment(epoch * epochSize, end);
+
+        if (segment == null) continue;
+
+        removeSequences(segment);
+        segments.add(segment);
+
+        available -= segment.length;
+        progress = true;
+      }
+    }
+
+    segments.sort((a, b) -> Long.compare(b.score, a.score));
+
+    // the most valuable segments go to the end of the dictionary
+    final byte[] dictionary = new byte[size - Math.max(0, available)];
+    int position = dictionary.length;
+
+    for (final Segment segment : segments) {
+      final int length = Math.min(segment.length, position);
+
+      position -= length;
+      System.arraycopy(
+          segment.data, segment.offset + segment.length - length, dictionary, position, length);
+
+      if (position == 0) break;
+    }
+
+    return dictionary;
+  }
+
+  private void countFrequencies() {
+    for (final byte[] packet : packets) {
+      final Set<Long> sequences = new HashSet<Long>();
+
+      for (int i = 0; i + SEQUENCE_LENGTH <= packet.length; i++) sequences.add(sequence(packet, i));
+
+      for (final Long sequence : sequences) frequencies.merge(sequence, 1, Integer::sum);
+    }
+
+    // sequences that occur in a single packet are worthless for a dictionary
+    frequencies.values().removeIf(frequency -> frequency < 2);
+  }
+
+  /**
+   * Returns the segment of the given packets that contains the most frequent distinct sequences or
+   * <code>null</code> if no segment contains a frequent sequence.
+   */
+  private Segment selectSegment(final int begin, final int end) {
+    Segment best = null;
+
+    for (int p = begin; p < end; p++) {
+      final byte[] packet = packets.get(p);
+
+      final int sequenceCount = packet.length - SEQUENCE_LENGTH + 1;
+      final int windowSize = segmentSize - SEQUENCE_LENGTH + 1;
+
+      if (sequenceCount <= 0) continue;
+
+      final Map<Long, Integer> window = new HashMap<Long, Integer>();
+      long score = 0;
+
+      for (int i = 0; i < sequenceCount; i++) {
+        score += add(window, sequence(packet, i));
+
+        if (i >= windowSize) score -= remove(window, sequence(packet, i - windowSize));
+
+        if (i < windowSize - 1 && i < sequenceCount - 1) continue;
+
+        if (best == null || score > best.score) {
+          final int first = Math.max(0, i - windowSize + 1);
+          best = new Segment(packet, first, i - first + SEQUENCE_LENGTH, score);
+        }
+      }
+    }
+
+    if (best == null || best.score == 0) return null;
+
+    return trim(best);
+  }
+
+  /** Removes the leading and trailing sequences that do not contribute to the score. */
+  private Segment trim(final Segment segment) {
+    int first = segment.offset;
+    int last = segment.offset + segment.length - SEQUENCE_LENGTH;
+
+    while (first < last && getFrequency(sequence(segment.data, first)) == 0) first++;
+
+    while (last > first && getFrequency(sequence(segment.data, last)) == 0) last--;
+
+    return new Segment(segment.data, first, last - first + SEQUENCE_LENGTH, segment.score);
+  }
+
+  /** Removes the sequences of the segment so that further segments are scored without them. */
+  private void removeSequences(final Segment segment) {
+    for (int i = segment.offset; i + SEQUENCE_LENGTH <= segment.offset + segment.length; i++)
+      frequencies.remove(sequence(segment.data, i));
+  }
+
+  private int add(final Map<Long, Integer> window, final long sequence) {
+    return window.merge(sequence, 1, Integer::sum) == 1 ? getFrequency(sequence) : 0;
+  }
+
+  private int remove(final Map<Long, Integer> window, final long sequence) {
+    final int count = window.get(sequence);
+
+    if (count > 1) {
+      window.put(sequence, count - 1);
+      return 0;
+    }
+
+    window.remove(sequence);
+    return getFrequency(sequence);
+  }
+
+  private int getFrequency(final long sequence) {
+    final Integer frequency = frequencies.get(sequence);
+    return frequency == null ? 0 : frequency;
+  }
+
+  private static long sequence(final byte[] data, final int offset) {
+    long sequence = 0;
+
+    for (int i = 0; i < SEQUENCE_LENGTH; i++)
+      sequence = (sequence << 8) | (data[offset + i] & 0xFF);
+
+    return sequence;
+  }
+
+  private static void report(final List<byte[]> packets, final byte[] dictionary) {
+    long uncompressed = 0;
+
+    for (final byte[] packet : packets) uncompressed += packet.length;
+
+    System.err.println(packets.size() + " evaluation packets, " + uncompressed + " bytes");
+
+    reportCompressedSize("no dictionary", packets, null, uncompressed);
+
+    if (PresetDictionary.LATEST_VERSION != PresetDictionary.NONE)
+      reportCompressedSize(
+          "dictionary version " + PresetDictionary.LATEST_VERSION,
+          packets,
+          PresetDictionary.getDictionary(PresetDictionary.LATEST_VERSION),
+          uncompressed);
+
+    reportCompressedSize(
+        "generated dictionary (" + dictionary.length + " bytes)",
+        packets,
+        dictionary,
+        uncompressed);
+  }
+
+  private static void reportCompressedSize(
+      final String name,
+      final List<byte[]> packets,
+      final byte[] dictionary,
+      final long uncompressed) {
+
+    long compressed = 0;
+
+    for (final byte[] packet : packets) compressed += deflate(packet, dictionary);
+
+    System.err.printf(
+        "%-40s %10d bytes, ratio %.3f%n",
+        name + ":", compressed, uncompressed == 0 ? 0D : (double) compressed / uncompressed);
+  }
+
+  private static int deflate(final byte[] data, final byte[] dictionary) {
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+    try {
+      if (dictionary != null) deflater.setDictionary(dictionary);
+
+      deflater.setInput(data);
+      deflater.finish();
+
+      final byte[] buffer = new byte[data.length + 64];
+      int size = 0;
+
+      while (!deflater.finished()) size += deflater.deflate(buffer);
+
+      return size;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static String toJavaConstant(final String name, final byte[] data) {
+    final StringBuilder builder = new StringBuilder();
+
+    builder.append("  static final String ").append(name).append(" =\n      \"");
+
+    int lineLength = 0;
+
+    for (final byte b : data) {
+      final int c = b & 0xFF;
+
+      final String literal;
+
+      if (c == '"' || c == '\\') literal = "\\" + (char) c;
+      else if (c >= 0x20 && c < 0x7F) literal = String.valueOf((char) c);
+      else literal = String.format("\\u%04x", c);
+
+      if (lineLength + literal.length() > LITERAL_LINE_LENGTH) {
+        builder.append("\"\n          + \"");
+        lineLength = 0;
+      }
+
+      builder.append(literal);
+      lineLength += literal.length();
+    }
+
+    return builder.append("\";").toString();
+  }
+}
@@ -0,0 +1,67 @@
+package saros.session.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import saros.activities.FileActivity;
+import saros.activities.FileActivity.Purpose;
+import saros.activities.FileActivity.Type;
+import saros.activities.NOPActivity;
+import saros.activities.SPath;
+import saros.filesystem.IPath;
+import saros.filesystem.IProject;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class ActivityBatchingPolicyTest {
+
+  private static final User ALICE = new User(new JID("alice@test/Saros"), true, true, null);
+
+  @Test
+  public void testDelayFollowsSendTime() {
+    final ActivityBatchingPolicy policy = new ActivityBatchingPolicy(5000000L, 64, 32 * 1024);
+
+    assertEquals("no delay on fast connections", 0, policy.getDelay(0));
+    assertEquals(1000000L, policy.getDelay(1000000L));
+    assertEquals("delay exceeds the maximum", 5000000L, policy.getDelay(200000000L));
+  }
+
+  @Test
+  public void testIsFull() {
+    final ActivityBatchingPolicy policy = new ActivityBatchingPolicy(5000000L, 64, 32 * 1024);
+
+    assertFalse(policy.isFull(1, 512));
+    assertTrue("activity limit is ignored", policy.isFull(64, 512));
+    assertTrue("size limit is ignored", policy.isFull(1, 32 * 1024));
+  }
+
+  @Test
+  public void testEstimateSize() {
+    final long nopSize = ActivityBatchingPolicy.estimateSize(new NOPActivity(ALICE, ALICE, 0));
+
+    final IProject project = EasyMock.createNiceMock(IProject.class);
+    final IPath path = EasyMock.createNiceMock(IPath.class);
+
+    EasyMock.replay(project, path);
+
+    final FileActivity fileActivity =
+        new FileActivity(
+            ALICE,
+            Type.CREATED,
+            Purpose.ACTIVITY,
+            new SPath(project, path),
+            null,
+            new byte[4096],
+            null);
+
+    assertEquals(nopSize + 4096, ActivityBatchingPolicy.estimateSize(fileActivity));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidActivityLimit() {
+    new ActivityBatchingPolicy(0, 0, 1);
+  }
+}
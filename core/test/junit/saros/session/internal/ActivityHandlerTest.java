@@ -268,6 +268,29 @@ public class ActivityHandlerTest {
     }
   }
 
+  /** This tests that text edits which are held back to be merged are sent when stopping. */
+  @Test
+  public void testHeldBackTextEditIsSentOnStop() {
+
+    setParameters(bob, alice, true);
+
+    final TextEditActivity first = EasyMock.createNiceMock(TextEditActivity.class);
+    final TextEditActivity second = EasyMock.createNiceMock(TextEditActivity.class);
+
+    EasyMock.expect(first.getPath()).andStubReturn(path);
+    EasyMock.expect(second.getPath()).andStubReturn(path);
+    EasyMock.replay(first, second);
+
+    handler.handleOutgoingActivities(Collections.<IActivity>singletonList(first));
+
+    willBeSent = false;
+
+    handler.handleOutgoingActivities(Collections.<IActivity>singletonList(second));
+    handler.stop();
+
+    assertTrue("held back text edit was not sent", willBeSent);
+  }
+
   /**
    * Specifies the roles of participants in the session. Should be called at the start of every test
    * case
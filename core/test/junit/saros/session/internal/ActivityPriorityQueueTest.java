@@ -0,0 +1,192 @@
+package saros.session.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.FileActivity;
+import saros.activities.FolderCreatedActivity;
+import saros.activities.FolderDeletedActivity;
+import saros.activities.IActivity;
+import saros.activities.NOPActivity;
+import saros.activities.SPath;
+import saros.activities.TextEditActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+import saros.filesystem.IPath;
+import saros.filesystem.IProject;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class ActivityPriorityQueueTest {
+
+  private static final User ALICE = new User(new JID("alice@test/Saros"), true, true, null);
+
+  private static final User BOB = new User(new JID("bob@test/Saros"), false, false, null);
+
+  private SPath path;
+
+  /** Path of the awareness activities unless a test needs them on {@link #path}. */
+  private SPath otherPath;
+
+  /** Path of a folder that contains {@link #path}. */
+  private SPath folderPath;
+
+  private ActivityPriorityQueue queue;
+
+  @Before
+  public void setUp() {
+    final IProject project = EasyMock.createNiceMock(IProject.class);
+    final IPath foo = EasyMock.createNiceMock(IPath.class);
+    final IPath bar = EasyMock.createNiceMock(IPath.class);
+    final IPath folder = EasyMock.createNiceMock(IPath.class);
+
+    EasyMock.expect(folder.isPrefixOf(foo)).andStubReturn(true);
+
+    EasyMock.replay(project, foo, bar, folder);
+
+    path = new SPath(project, foo);
+    otherPath = new SPath(project, bar);
+    folderPath = new SPath(project, folder);
+
+    queue = new ActivityPriorityQueue();
+  }
+
+  @Test
+  public void testEditsArePolledBeforeAwareness() {
+    final IActivity selection = selection(0);
+    final IActivity viewport = new ViewportActivity(ALICE, 0, 10, otherPath);
+    final IActivity edit0 = edit(0);
+    final IActivity edit1 = edit(1);
+
+    queue.addAll(Arrays.asList(selection, edit0, viewport, edit1));
+
+    assertEquals(Arrays.asList(edit0, edit1), queue.poll());
+    assertEquals(Arrays.asList(selection, viewport), queue.poll());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testEditsAddedLaterArePolledBeforeAwareness() {
+    final IActivity selection = selection(0);
+    final IActivity edit0 = edit(0);
+    final IActivity edit1 = edit(1);
+
+    queue.addAll(Arrays.asList(edit0, selection));
+
+    assertEquals(Collections.singletonList(edit0), queue.poll());
+
+    queue.addAll(Collections.singletonList(edit1));
+
+    assertEquals(Collections.singletonList(edit1), queue.poll());
+    assertEquals(Collections.singletonList(selection), queue.poll());
+  }
+
+  @Test
+  public void testFileActivitiesKeepOrderWithEdits() {
+    final IActivity selection = selection(0);
+    final IActivity created = new FolderCreatedActivity(ALICE, path);
+    final IActivity edit = edit(0);
+
+    queue.addAll(Arrays.asList(selection, created, edit));
+
+    assertEquals(Arrays.asList(created, edit), queue.poll());
+    assertEquals(Collections.singletonList(selection), queue.poll());
+  }
+
+  @Test
+  public void testActivitiesAreNotMovedAcrossOtherActivities() {
+    final IActivity selection0 = selection(0);
+    final IActivity selection1 = selection(1);
+    final IActivity nop = new NOPActivity(ALICE, BOB, 0);
+    final IActivity edit0 = edit(0);
+    final IActivity edit1 = edit(1);
+
+    final List<IActivity> activities = Arrays.asList(selection0, edit0, nop, selection1, edit1);
+
+    assertEquals(
+        Arrays.asList(edit0, selection0, nop, edit1, selection1),
+        ActivityPriorityQueue.prioritize(activities));
+  }
+
+  @Test
+  public void testEditsDoNotOvertakeAwarenessOnTheSamePath() {
+    final IActivity selection = new TextSelectionActivity(ALICE, 5, 0, path);
+    final IActivity insert = edit(0);
+
+    queue.addAll(Arrays.asList(selection, insert));
+
+    assertEquals(Collections.singletonList(selection), queue.poll());
+    assertEquals(Collections.singletonList(insert), queue.poll());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testEditsOfOtherPathsDoNotOvertakeBlockedEdits() {
+    final IActivity viewport = new ViewportActivity(ALICE, 0, 10, path);
+    final IActivity edit = edit(0);
+    final IActivity otherEdit = new TextEditActivity(ALICE, 0, "a", "", otherPath);
+
+    queue.addAll(Arrays.asList(viewport, edit, otherEdit));
+
+    assertEquals(Collections.singletonList(viewport), queue.poll());
+    assertEquals(Arrays.asList(edit, otherEdit), queue.poll());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testMoveDoesNotOvertakeAwarenessOnTheOldPath() {
+    final IActivity selection = new TextSelectionActivity(ALICE, 5, 0, path);
+    final IActivity move =
+        new FileActivity(
+            ALICE,
+            FileActivity.Type.MOVED,
+            FileActivity.Purpose.ACTIVITY,
+            otherPath,
+            path,
+            null,
+            null);
+
+    queue.addAll(Arrays.asList(selection, move));
+
+    assertEquals(Collections.singletonList(selection), queue.poll());
+    assertEquals(Collections.singletonList(move), queue.poll());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testFolderDeletionDoesNotOvertakeAwarenessInTheFolder() {
+    final IActivity viewport = new ViewportActivity(ALICE, 0, 10, path);
+    final IActivity otherViewport = new ViewportActivity(ALICE, 0, 10, otherPath);
+    final IActivity deletion = new FolderDeletedActivity(ALICE, folderPath);
+
+    queue.addAll(Arrays.asList(otherViewport, deletion));
+
+    assertEquals(Collections.singletonList(deletion), queue.poll());
+    assertEquals(Collections.singletonList(otherViewport), queue.poll());
+
+    queue.addAll(Arrays.asList(viewport, deletion));
+
+    assertEquals(Collections.singletonList(viewport), queue.poll());
+    assertEquals(Collections.singletonList(deletion), queue.poll());
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testPollEmptyQueue() {
+    assertTrue(queue.poll().isEmpty());
+  }
+
+  private TextEditActivity edit(int offset) {
+    return new TextEditActivity(ALICE, offset, "a", "", path);
+  }
+
+  private TextSelectionActivity selection(int offset) {
+    return new TextSelectionActivity(ALICE, offset, 0, otherPath);
+  }
+}
@@ -6,24 +6,37 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import saros.SarosConstants;
 import saros.activities.IActivity;
 import saros.activities.NOPActivity;
+import saros.activities.SPath;
+import saros.activities.TextSelectionActivity;
+import saros.concurrent.jupiter.test.util.PathFake;
+import saros.filesystem.IProject;
+import saros.net.IConnectionManager;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
+import saros.net.xmpp.discovery.DiscoveryManager;
 import saros.net.xmpp.JID;
 import saros.session.ISarosSession;
 import saros.session.User;
+import saros.synchronize.UISynchronizer;
 import saros.test.fakes.net.FakeConnectionFactory;
 import saros.test.fakes.net.FakeConnectionFactory.FakeConnectionFactoryResult;
 
@@ -96,7 +109,7 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000)
   public void testStartAndStop() {
     ActivitySequencer sequencer =
-        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     sequencer.start();
     sequencer.stop();
@@ -105,7 +118,7 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000, expected = IllegalStateException.class)
   public void testMultipleStarts() {
     ActivitySequencer sequencer =
-        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     for (int i = 0; i < Integer.MAX_VALUE; i++) sequencer.start();
   }
@@ -113,7 +126,7 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000, expected = IllegalStateException.class)
   public void testStopWithoutStart() {
     ActivitySequencer sequencer =
-        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     sequencer.stop();
   }
@@ -121,7 +134,7 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000)
   public void testMultipleStops() {
     ActivitySequencer sequencer =
-        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     sequencer.start();
     try {
@@ -152,7 +165,7 @@ public class ActivitySequencerTest {
     EasyMock.replay(brokenTransmitter);
 
     aliceSequencer =
-        new ActivitySequencer(sessionStubAlice, brokenTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, brokenTransmitter, aliceReceiver, null, null);
 
     aliceSequencer.start();
 
@@ -174,9 +187,10 @@ public class ActivitySequencerTest {
 
     int activityCount = 1000;
 
-    aliceSequencer = new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
-    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null);
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
 
     aliceSequencer.start();
     bobSequencer.start();
@@ -199,12 +213,444 @@ public class ActivitySequencerTest {
     }
   }
 
+  @Test(timeout = 30000)
+  public void testFanOutToMultipleRecipients() throws Exception {
+    testFanOut(true);
+  }
+
+  @Test(timeout = 30000)
+  public void testNoFanOutToRecipientsWithoutSequenceNumberSupport() throws Exception {
+    testFanOut(false);
+  }
+
+  private void testFanOut(final boolean carlSupportsSequenceNumbers) throws Exception {
+
+    final JID carlJID = new JID("carl@test/Saros");
+
+    final User carlUserInAliceSession = new User(carlJID, false, false, null);
+    final User aliceUserInCarlSession = new User(ALICE_JID, true, false, null);
+
+    final List<IActivity> carlReceivedActivitiesBuffer =
+        Collections.synchronizedList(new ArrayList<>());
+
+    final ISarosSession sessionStubCarl =
+        createSessionMock(
+            new User(carlJID, false, true, null),
+            aliceUserInCarlSession,
+            bobSessionId,
+            carlReceivedActivitiesBuffer);
+
+    FakeConnectionFactoryResult result =
+        FakeConnectionFactory.createConnections(ALICE_JID, BOB_JID, carlJID)
+            .withStrictJIDLookup()
+            .get();
+
+    final List<PacketExtension> sharedExtensions = Collections.synchronizedList(new ArrayList<>());
+
+    final ITransmitter transmitter = result.getTransmitter(ALICE_JID);
+
+    final ITransmitter recordingTransmitter = EasyMock.createMock(ITransmitter.class);
+
+    final Capture<JID> recipient = Capture.newInstance();
+    final Capture<PacketExtension> extension = Capture.newInstance();
+    final Capture<Integer> sequenceNumber = Capture.newInstance();
+
+    recordingTransmitter.send(
+        EasyMock.anyObject(String.class),
+        EasyMock.capture(recipient),
+        EasyMock.capture(extension),
+        EasyMock.captureInt(sequenceNumber));
+
+    EasyMock.expectLastCall()
+        .andAnswer(
+            () -> {
+              sharedExtensions.add(extension.getValue());
+              transmitter.send(
+                  null, recipient.getValue(), extension.getValue(), sequenceNumber.getValue());
+              return null;
+            })
+        .anyTimes();
+
+    // activities that are not shared (e.g. due to batching) are sent directly
+    recordingTransmitter.send(
+        EasyMock.anyObject(String.class), EasyMock.capture(recipient), EasyMock.capture(extension));
+
+    EasyMock.expectLastCall()
+        .andAnswer(
+            () -> {
+              transmitter.send(null, recipient.getValue(), extension.getValue());
+              return null;
+            })
+        .anyTimes();
+
+    EasyMock.replay(recordingTransmitter);
+
+    final DiscoveryManager discoveryManager = EasyMock.createNiceMock(DiscoveryManager.class);
+
+    EasyMock.expect(
+            discoveryManager.isFeatureSupported(BOB_JID, SarosConstants.NAMESPACE_SEQUENCE_NUMBERS))
+        .andStubReturn(true);
+
+    EasyMock.expect(
+            discoveryManager.isFeatureSupported(carlJID, SarosConstants.NAMESPACE_SEQUENCE_NUMBERS))
+        .andStubReturn(carlSupportsSequenceNumbers);
+
+    EasyMock.replay(discoveryManager);
+
+    aliceSequencer =
+        new ActivitySequencer(
+            sessionStubAlice,
+            recordingTransmitter,
+            result.getReceiver(ALICE_JID),
+            null,
+            discoveryManager,
+            null,
+            null,
+            null);
+
+    bobSequencer =
+        new ActivitySequencer(
+            sessionStubBob, bobTransmitter, result.getReceiver(BOB_JID), null, null);
+
+    final ActivitySequencer carlSequencer =
+        new ActivitySequencer(
+            sessionStubCarl,
+            result.getTransmitter(carlJID),
+            result.getReceiver(carlJID),
+            null,
+            null);
+
+    aliceSequencer.start();
+    bobSequencer.start();
+    carlSequencer.start();
+
+    try {
+      aliceSequencer.registerUser(bobUserInAliceSession);
+      aliceSequencer.registerUser(carlUserInAliceSession);
+      bobSequencer.registerUser(aliceUserInBobSession);
+      carlSequencer.registerUser(aliceUserInCarlSession);
+
+      final int activityCount = 1000;
+
+      for (int i = 0; i < activityCount; i++)
+        aliceSequencer.sendActivity(
+            Arrays.asList(bobUserInAliceSession, carlUserInAliceSession),
+            new NOPActivity(aliceUser, bobUserInAliceSession, i));
+
+      aliceSequencer.flush(bobUserInAliceSession);
+      aliceSequencer.flush(carlUserInAliceSession);
+
+      assertEquals("not all activies received", activityCount, bobReceivedActivitiesBuffer.size());
+      assertEquals("not all activies received", activityCount, carlReceivedActivitiesBuffer.size());
+
+      for (int i = 0; i < activityCount; i++) {
+        assertEquals(
+            "activity is out of order",
+            i,
+            ((NOPActivity) bobReceivedActivitiesBuffer.get(i)).getID());
+        assertEquals(
+            "activity is out of order",
+            i,
+            ((NOPActivity) carlReceivedActivitiesBuffer.get(i)).getID());
+      }
+
+      if (!carlSupportsSequenceNumbers) {
+        assertTrue("activities were shared with an older client", sharedExtensions.isEmpty());
+        return;
+      }
+
+      assertFalse("activities were not shared", sharedExtensions.isEmpty());
+
+      for (final PacketExtension sharedExtension : sharedExtensions)
+        assertEquals(
+            "activities were marshalled for every recipient",
+            2,
+            sharedExtensions.stream().filter(e -> e == sharedExtension).count());
+
+    } finally {
+      carlSequencer.stop();
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testSlowRecipientDoesNotDelayOtherRecipients() throws Exception {
+
+    final JID carlJID = new JID("carl@test/Saros");
+
+    final User carlUserInAliceSession = new User(carlJID, false, false, null);
+
+    final CountDownLatch carlConnectionReleased = new CountDownLatch(1);
+
+    /*
+     * do not use a mock here, EasyMock would serialize the concurrent calls
+     */
+    final ITransmitter slowTransmitter =
+        new ForwardingTransmitter(aliceTransmitter) {
+          @Override
+          public void send(String connectionID, JID recipient, PacketExtension extension)
+              throws IOException {
+
+            if (!isCarl(recipient)) super.send(connectionID, recipient, extension);
+          }
+
+          @Override
+          public void send(
+              String connectionID, JID recipient, PacketExtension extension, int sequenceNumber)
+              throws IOException {
+
+            if (!isCarl(recipient)) super.send(connectionID, recipient, extension, sequenceNumber);
+          }
+
+          private boolean isCarl(JID recipient) throws IOException {
+            if (!recipient.equals(carlJID)) return false;
+
+            try {
+              carlConnectionReleased.await();
+            } catch (InterruptedException e) {
+              throw new InterruptedIOException();
+            }
+
+            return true;
+          }
+        };
+
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, slowTransmitter, aliceReceiver, null, null);
+
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
+
+    aliceSequencer.start();
+    bobSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+    aliceSequencer.registerUser(carlUserInAliceSession);
+    bobSequencer.registerUser(aliceUserInBobSession);
+
+    final int activityCount = 100;
+
+    try {
+      for (int i = 0; i < activityCount; i++) {
+        aliceSequencer.sendActivity(
+            Arrays.asList(bobUserInAliceSession, carlUserInAliceSession),
+            new NOPActivity(aliceUser, bobUserInAliceSession, i));
+
+        aliceSequencer.flush(bobUserInAliceSession);
+      }
+
+      assertEquals("not all activies received", activityCount, bobReceivedActivitiesBuffer.size());
+
+      assertEquals(0, aliceSequencer.getQueueDepth(bobUserInAliceSession));
+
+      assertTrue(
+          "activities for the slow recipient are not queued",
+          aliceSequencer.getQueueDepth(carlUserInAliceSession) > 0);
+    } finally {
+      carlConnectionReleased.countDown();
+    }
+
+    aliceSequencer.flush(carlUserInAliceSession);
+
+    assertEquals(0, aliceSequencer.getQueueDepth(carlUserInAliceSession));
+  }
+
+  @Test(timeout = 30000)
+  public void testExhaustedSendWindowBlocksSender() throws Exception {
+
+    final CountDownLatch transmissionStarted = new CountDownLatch(1);
+    final CountDownLatch bobConnectionReleased = new CountDownLatch(1);
+
+    final ITransmitter slowTransmitter =
+        new ForwardingTransmitter(aliceTransmitter) {
+          @Override
+          public void send(String connectionID, JID recipient, PacketExtension extension)
+              throws IOException {
+
+            transmissionStarted.countDown();
+
+            try {
+              bobConnectionReleased.await();
+            } catch (InterruptedException e) {
+              throw new InterruptedIOException();
+            }
+
+            super.send(connectionID, recipient, extension);
+          }
+        };
+
+    aliceSequencer =
+        new ActivitySequencer(
+            sessionStubAlice,
+            slowTransmitter,
+            aliceReceiver,
+            null,
+            null,
+            createSynchronizer(false),
+            null,
+            null);
+
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
+
+    aliceSequencer.setSendWindow(1);
+
+    aliceSequencer.start();
+    bobSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+    bobSequencer.registerUser(aliceUserInBobSession);
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(bobUserInAliceSession),
+        new NOPActivity(aliceUser, bobUserInAliceSession, 0));
+
+    assertTrue("first activity was not sent", transmissionStarted.await(10, TimeUnit.SECONDS));
+
+    final CountDownLatch activitySent = new CountDownLatch(1);
+
+    final Thread sender =
+        new Thread(
+            () -> {
+              aliceSequencer.sendActivity(
+                  Collections.singletonList(bobUserInAliceSession),
+                  new NOPActivity(aliceUser, bobUserInAliceSession, 1));
+
+              activitySent.countDown();
+            });
+
+    sender.start();
+
+    try {
+      assertFalse(
+          "sender was not blocked although the send window is exhausted",
+          activitySent.await(500, TimeUnit.MILLISECONDS));
+    } finally {
+      bobConnectionReleased.countDown();
+    }
+
+    sender.join();
+
+    aliceSequencer.flush(bobUserInAliceSession);
+
+    assertEquals("not all activies received", 2, bobReceivedActivitiesBuffer.size());
+  }
+
+  @Test(timeout = 30000)
+  public void testExhaustedSendWindowDoesNotBlockUIThread() throws Exception {
+
+    final CountDownLatch transmissionStarted = new CountDownLatch(1);
+    final CountDownLatch bobConnectionReleased = new CountDownLatch(1);
+
+    final ITransmitter slowTransmitter =
+        new ForwardingTransmitter(aliceTransmitter) {
+          @Override
+          public void send(String connectionID, JID recipient, PacketExtension extension)
+              throws IOException {
+
+            transmissionStarted.countDown();
+
+            try {
+              bobConnectionReleased.await();
+            } catch (InterruptedException e) {
+              throw new InterruptedIOException();
+            }
+
+            super.send(connectionID, recipient, extension);
+          }
+        };
+
+    aliceSequencer =
+        new ActivitySequencer(
+            sessionStubAlice,
+            slowTransmitter,
+            aliceReceiver,
+            null,
+            null,
+            createSynchronizer(true),
+            null,
+            null);
+
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
+
+    aliceSequencer.setSendWindow(1);
+
+    aliceSequencer.start();
+    bobSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+    bobSequencer.registerUser(aliceUserInBobSession);
+
+    final SPath path = new SPath(EasyMock.createMock(IProject.class), new PathFake("file"));
+
+    final int selectionCount = 1000;
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(bobUserInAliceSession),
+        new NOPActivity(aliceUser, bobUserInAliceSession, 0));
+
+    assertTrue("first activity was not sent", transmissionStarted.await(10, TimeUnit.SECONDS));
+
+    final CountDownLatch activitiesSent = new CountDownLatch(1);
+
+    final Thread sender =
+        new Thread(
+            () -> {
+              aliceSequencer.sendActivity(
+                  Collections.singletonList(bobUserInAliceSession),
+                  new NOPActivity(aliceUser, bobUserInAliceSession, 1));
+
+              for (int i = 0; i < selectionCount; i++)
+                aliceSequencer.sendActivity(
+                    Collections.singletonList(bobUserInAliceSession),
+                    new TextSelectionActivity(aliceUser, i, 0, path));
+
+              activitiesSent.countDown();
+            });
+
+    sender.start();
+
+    try {
+      assertTrue(
+          "UI thread was blocked because the send window is exhausted",
+          activitiesSent.await(10, TimeUnit.SECONDS));
+
+      final long deadline = System.currentTimeMillis() + 10000;
+
+      while (aliceSequencer.getQueueDepth(bobUserInAliceSession) > selectionCount / 10
+          && System.currentTimeMillis() < deadline) Thread.sleep(10);
+
+      assertTrue(
+          "held back selections are not compacted",
+          aliceSequencer.getQueueDepth(bobUserInAliceSession) <= selectionCount / 10);
+    } finally {
+      bobConnectionReleased.countDown();
+    }
+
+    sender.join();
+
+    aliceSequencer.flush(bobUserInAliceSession);
+
+    final List<Integer> nopIDs = new ArrayList<>();
+    final List<Integer> selectionOffsets = new ArrayList<>();
+
+    for (final IActivity activity : bobReceivedActivitiesBuffer) {
+      if (activity instanceof NOPActivity) nopIDs.add(((NOPActivity) activity).getID());
+      else selectionOffsets.add(((TextSelectionActivity) activity).getOffset());
+    }
+
+    assertEquals("not all activies received", Arrays.asList(0, 1), nopIDs);
+
+    assertEquals(
+        "newest selection was not sent or older ones were not replaced",
+        Collections.singletonList(selectionCount - 1),
+        selectionOffsets);
+  }
+
   @Test(timeout = 30000)
   public void testSendWithoutRegisteredUser() {
 
-    aliceSequencer = new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
-    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null);
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
 
     aliceSequencer.start();
     bobSequencer.start();
@@ -226,9 +672,10 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000)
   public void testReceiveWithoutRegisteredUser() {
 
-    aliceSequencer = new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
-    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null);
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
 
     aliceSequencer.start();
     bobSequencer.start();
@@ -250,10 +697,11 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000)
   public void testSendAndReceiveWithDifferendSessionIDs() {
 
-    aliceSequencer = new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     bobSessionId.set("4711");
-    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null);
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
 
     aliceSequencer.start();
     bobSequencer.start();
@@ -273,6 +721,176 @@ public class ActivitySequencerTest {
         bobReceivedActivitiesBuffer.size());
   }
 
+  @Test(timeout = 30000)
+  public void testResumeAfterTransmissionFailure() throws Exception {
+
+    final AtomicInteger sendCount = new AtomicInteger();
+
+    // loses the 100th packet on the wire and fails to send the 101st one
+    final ITransmitter flakyTransmitter =
+        new ForwardingTransmitter(aliceTransmitter) {
+          @Override
+          public void send(String connectionID, JID recipient, PacketExtension extension)
+              throws IOException {
+
+            if (isDelivered()) super.send(connectionID, recipient, extension);
+          }
+
+          @Override
+          public void send(
+              String connectionID, JID recipient, PacketExtension extension, int sequenceNumber)
+              throws IOException {
+
+            if (isDelivered()) super.send(connectionID, recipient, extension, sequenceNumber);
+          }
+
+          private boolean isDelivered() throws IOException {
+            final int count = sendCount.incrementAndGet();
+
+            if (count == 101) throw new IOException("connection reset");
+
+            return count != 100;
+          }
+        };
+
+    final IConnectionManager connectionManager = EasyMock.createNiceMock(IConnectionManager.class);
+
+    EasyMock.replay(connectionManager);
+
+    aliceSequencer =
+        new ActivitySequencer(
+            sessionStubAlice,
+            flakyTransmitter,
+            aliceReceiver,
+            connectionManager,
+            null,
+            null,
+            null,
+            null);
+
+    bobSequencer =
+        new ActivitySequencer(
+            sessionStubBob, bobTransmitter, bobReceiver, connectionManager, null, null, null, null);
+
+    aliceSequencer.start();
+    bobSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+    bobSequencer.registerUser(aliceUserInBobSession);
+
+    final int activityCount = 200;
+
+    for (int i = 0; i < activityCount; i++) {
+      aliceSequencer.sendActivity(
+          Collections.singletonList(bobUserInAliceSession),
+          new NOPActivity(aliceUser, bobUserInAliceSession, i));
+
+      aliceSequencer.flush(bobUserInAliceSession);
+    }
+
+    assertTrue("Bob was unregistered", aliceSequencer.isUserRegistered(bobUserInAliceSession));
+
+    assertTrue("Alice was unregistered", bobSequencer.isUserRegistered(aliceUserInBobSession));
+
+    assertEquals("not all activies received", activityCount, bobReceivedActivitiesBuffer.size());
+
+    for (int i = 0; i < activityCount; i++) {
+      NOPActivity activity = (NOPActivity) bobReceivedActivitiesBuffer.get(i);
+      assertEquals("activity is out of order", i, activity.getID());
+    }
+
+    assertTrue(
+        "acknowledged packets are not discarded",
+        aliceSequencer.getUnacknowledgedPacketCount(bobUserInAliceSession) < activityCount / 2);
+  }
+
+  @Test(timeout = 30000)
+  public void testUnregisterUserIfResumptionFails() throws Exception {
+
+    final ITransmitter brokenTransmitter =
+        new ForwardingTransmitter(aliceTransmitter) {
+          @Override
+          public void send(String connectionID, JID recipient, PacketExtension extension)
+              throws IOException {
+            throw new IOException("connection reset");
+          }
+        };
+
+    final IConnectionManager connectionManager = EasyMock.createMock(IConnectionManager.class);
+
+    EasyMock.expect(
+            connectionManager.connect(
+                EasyMock.eq(ISarosSession.SESSION_CONNECTION_ID), EasyMock.eq(BOB_JID)))
+        .andThrow(new IOException("network is unreachable"))
+        .atLeastOnce();
+
+    EasyMock.replay(connectionManager);
+
+    aliceSequencer =
+        new ActivitySequencer(
+            sessionStubAlice,
+            brokenTransmitter,
+            aliceReceiver,
+            connectionManager,
+            null,
+            null,
+            null,
+            null);
+
+    aliceSequencer.setResumeTimeout(100);
+
+    aliceSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(bobUserInAliceSession),
+        new NOPActivity(aliceUser, bobUserInAliceSession, 0));
+
+    aliceSequencer.flush(bobUserInAliceSession);
+
+    assertFalse("Bob is still registered", aliceSequencer.isUserRegistered(bobUserInAliceSession));
+
+    EasyMock.verify(connectionManager);
+  }
+
+  private static class ForwardingTransmitter implements ITransmitter {
+
+    private final ITransmitter delegate;
+
+    private ForwardingTransmitter(ITransmitter delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void sendPacket(Packet packet) throws IOException {
+      delegate.sendPacket(packet);
+    }
+
+    @Override
+    public void sendPacketExtension(JID jid, PacketExtension extension) {
+      delegate.sendPacketExtension(jid, extension);
+    }
+
+    @Override
+    public void send(JID recipient, PacketExtension extension) throws IOException {
+      delegate.send(recipient, extension);
+    }
+
+    @Override
+    public void send(String connectionID, JID recipient, PacketExtension extension)
+        throws IOException {
+      delegate.send(connectionID, recipient, extension);
+    }
+
+    @Override
+    public void send(
+        String connectionID, JID recipient, PacketExtension extension, int sequenceNumber)
+        throws IOException {
+      delegate.send(connectionID, recipient, extension, sequenceNumber);
+    }
+  }
+
   private static ISarosSession createSessionMock(
       final User host,
       final User client,
@@ -298,4 +916,13 @@ public class ActivitySequencerTest {
     EasyMock.replay(session);
     return session;
   }
+
+  private static UISynchronizer createSynchronizer(final boolean isUIThread) {
+    final UISynchronizer synchronizer = EasyMock.createMock(UISynchronizer.class);
+
+    EasyMock.expect(synchronizer.isUIThread()).andStubReturn(isUIThread);
+
+    EasyMock.replay(synchronizer);
+    return synchronizer;
+  }
 }
@@ -5,10 +5,13 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+  ActivityBatchingPolicyTest.class,
   ActivityHandlerTest.class,
+  ActivityPriorityQueueTest.class,
   ActivityQueuerTest.class,
   ActivitySequencerTest.class,
   SharedProjectMapperTest.class,
+  TextEditCoalescerTest.class,
   UserInformationHandlerTest.class
 })
 public class TestSuite {
@@ -0,0 +1,153 @@
+package saros.session.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.EditorActivity;
+import saros.activities.EditorActivity.Type;
+import saros.activities.SPath;
+import saros.activities.TextEditActivity;
+import saros.activities.TextSelectionActivity;
+import saros.filesystem.IPath;
+import saros.filesystem.IProject;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class TextEditCoalescerTest {
+
+  private static final User ALICE = new User(new JID("alice@test/Saros"), true, true, null);
+
+  private static final long WINDOW = 100;
+
+  private static final long MS = 1000000L;
+
+  private SPath fooPath;
+  private SPath barPath;
+
+  private TextEditCoalescer coalescer;
+
+  @Before
+  public void setUp() {
+    final IProject project = EasyMock.createNiceMock(IProject.class);
+    final IPath foo = EasyMock.createNiceMock(IPath.class);
+    final IPath bar = EasyMock.createNiceMock(IPath.class);
+
+    EasyMock.replay(project, foo, bar);
+
+    fooPath = new SPath(project, foo);
+    barPath = new SPath(project, bar);
+
+    coalescer = new TextEditCoalescer(WINDOW);
+  }
+
+  @Test
+  public void testMergeTyping() {
+    assertEquals(edit(4, "abc", ""), TextEditCoalescer.merge(edit(4, "ab", ""), edit(6, "c", "")));
+
+    assertEquals(
+        "insert after a replacement",
+        edit(4, "xyz", "ab"),
+        TextEditCoalescer.merge(edit(4, "xy", "ab"), edit(6, "z", "")));
+
+    assertNull(
+        "insert in front of the inserted text",
+        TextEditCoalescer.merge(edit(4, "ab", ""), edit(4, "c", "")));
+  }
+
+  @Test
+  public void testMergeDeletion() {
+    assertEquals(
+        "backspace",
+        edit(3, "", "abc"),
+        TextEditCoalescer.merge(edit(5, "", "c"), edit(3, "", "ab")));
+
+    assertEquals(
+        "delete", edit(5, "", "cde"), TextEditCoalescer.merge(edit(5, "", "c"), edit(5, "", "de")));
+
+    assertEquals(
+        "backspace over typed text",
+        edit(4, "a", ""),
+        TextEditCoalescer.merge(edit(4, "abc", ""), edit(5, "", "bc")));
+
+    assertNull(
+        "delete after typed text", TextEditCoalescer.merge(edit(4, "abc", ""), edit(7, "", "d")));
+  }
+
+  @Test
+  public void testFirstEditIsPassedOnImmediately() {
+    final TextEditActivity edit = edit(0, "a", "");
+
+    assertEquals(Collections.singletonList(edit), coalescer.add(edit, 0));
+    assertEquals(-1, coalescer.getFlushTime());
+  }
+
+  @Test
+  public void testTypingIsCoalesced() {
+    coalescer.add(edit(0, "a", ""), 0);
+
+    assertTrue(coalescer.add(edit(1, "b", ""), 10 * MS).isEmpty());
+    assertTrue(coalescer.add(edit(2, "c", ""), 20 * MS).isEmpty());
+
+    assertEquals(WINDOW * MS, coalescer.getFlushTime());
+
+    assertEquals(Collections.singletonList(edit(1, "bc", "")), coalescer.flush(WINDOW * MS));
+  }
+
+  @Test
+  public void testSelectionIsPassedOnAfterEdit() {
+    coalescer.add(edit(0, "a", ""), 0);
+
+    final TextEditActivity edit = edit(1, "b", "");
+    final TextSelectionActivity selection = new TextSelectionActivity(ALICE, 2, 0, fooPath);
+
+    assertTrue(coalescer.add(edit, 10 * MS).isEmpty());
+    assertTrue(coalescer.add(selection, 10 * MS).isEmpty());
+
+    assertEquals(Arrays.asList(edit, selection), coalescer.flush(WINDOW * MS));
+  }
+
+  @Test
+  public void testOtherActivityPassesOnHeldBackEdit() {
+    coalescer.add(edit(0, "a", ""), 0);
+
+    final TextEditActivity edit = edit(1, "b", "");
+    final EditorActivity editorActivity = new EditorActivity(ALICE, Type.SAVED, fooPath);
+
+    coalescer.add(edit, 10 * MS);
+
+    assertEquals(Arrays.asList(edit, editorActivity), coalescer.add(editorActivity, 20 * MS));
+    assertEquals(-1, coalescer.getFlushTime());
+  }
+
+  @Test
+  public void testEditOfOtherDocumentIsNotHeldBack() {
+    coalescer.add(edit(0, "a", ""), 0);
+
+    final TextEditActivity fooEdit = edit(1, "b", "");
+    final TextEditActivity barEdit = new TextEditActivity(ALICE, 0, "x", "", barPath);
+
+    coalescer.add(fooEdit, 10 * MS);
+
+    assertEquals(Arrays.asList(fooEdit, barEdit), coalescer.add(barEdit, 20 * MS));
+  }
+
+  @Test
+  public void testEditsCancellingEachOtherAreDropped() {
+    coalescer.add(edit(0, "a", ""), 0);
+
+    coalescer.add(edit(1, "b", ""), 10 * MS);
+    coalescer.add(edit(1, "", "b"), 20 * MS);
+
+    assertTrue(coalescer.flush(WINDOW * MS).isEmpty());
+  }
+
+  private TextEditActivity edit(int offset, String text, String replacedText) {
+    return new TextEditActivity(ALICE, offset, text, replacedText, fooPath);
+  }
+}
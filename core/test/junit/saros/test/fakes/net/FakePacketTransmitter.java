@@ -8,6 +8,7 @@ import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
+import saros.net.SharedPacketExtension;
 import saros.net.xmpp.JID;
 
 class FakePacketTransmitter implements ITransmitter {
@@ -48,6 +49,17 @@ class FakePacketTransmitter implements ITransmitter {
     sendPacketExtension(recipient, extension);
   }
 
+  @Override
+  public void send(
+      String connectionID, JID recipient, PacketExtension extension, int sequenceNumber)
+      throws IOException {
+    Message message = new Message();
+    message.addExtension(unwrap(extension));
+    message.setTo(recipient.toString());
+    message.setProperty(IReceiver.SEQUENCE_NUMBER_PROPERTY, sequenceNumber);
+    sendPacket(message);
+  }
+
   @Override
   public void send(JID recipient, PacketExtension extension) throws IOException {
     sendPacketExtension(recipient, extension);
@@ -56,7 +68,7 @@ class FakePacketTransmitter implements ITransmitter {
   @Override
   public void sendPacketExtension(JID jid, PacketExtension extension) {
     Message message = new Message();
-    message.addExtension(extension);
+    message.addExtension(unwrap(extension));
     message.setTo(jid.toString());
     try {
       sendPacket(message);
@@ -64,4 +76,12 @@ class FakePacketTransmitter implements ITransmitter {
       throw new RuntimeException(e);
     }
   }
+
+  // there is no marshalling involved so the receiver must get the original extension
+  private static PacketExtension unwrap(PacketExtension extension) {
+    if (extension instanceof SharedPacketExtension)
+      return ((SharedPacketExtension) extension).getExtension();
+
+    return extension;
+  }
 }
@@ -28,6 +28,7 @@ import org.junit.Before;
 import org.junit.Test;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
+import saros.net.PresetDictionary;
 import saros.net.xmpp.JID;
 import saros.test.fakes.net.FakeConnectionFactory;
 import saros.test.fakes.net.FakeConnectionFactory.FakeConnectionFactoryResult;
@@ -43,6 +44,9 @@ public class VersionManagerTest {
   private VersionManager versionManagerRemote;
   private VersionManager versionManagerLocal;
 
+  private PresetDictionary presetDictionaryRemote;
+  private PresetDictionary presetDictionaryLocal;
+
   private final JID aliceJID = new JID("alice@alice.com/Saros");
   private final JID bobJID = new JID("bob@bob.com/Saros");
 
@@ -60,9 +64,15 @@ public class VersionManagerTest {
 
   private void init(Version local, Version remote) {
 
-    versionManagerLocal = new VersionManager(local.toString(), aliceReceiver, aliceTransmitter);
+    presetDictionaryLocal = new PresetDictionary();
+    presetDictionaryRemote = new PresetDictionary();
+
+    versionManagerLocal =
+        new VersionManager(
+            local.toString(), aliceReceiver, aliceTransmitter, presetDictionaryLocal);
 
-    versionManagerRemote = new VersionManager(remote.toString(), bobReceiver, bobTransmitter);
+    versionManagerRemote =
+        new VersionManager(remote.toString(), bobReceiver, bobTransmitter, presetDictionaryRemote);
   }
 
   @Test
@@ -171,4 +181,19 @@ public class VersionManagerTest {
 
     assertEquals(resultLocal.getCompatibility(), resultRemote.getCompatibility());
   }
+
+  @Test
+  public void testDictionaryVersionIsExchanged() {
+    Version version = Version.parseVersion("1.1.1.r1");
+
+    init(version, version);
+
+    assertEquals(PresetDictionary.NONE, presetDictionaryLocal.getVersion(bobJID));
+    assertEquals(PresetDictionary.NONE, presetDictionaryRemote.getVersion(aliceJID));
+
+    versionManagerLocal.determineVersionCompatibility(bobJID);
+
+    assertEquals(PresetDictionary.LATEST_VERSION, presetDictionaryLocal.getVersion(bobJID));
+    assertEquals(PresetDictionary.LATEST_VERSION, presetDictionaryRemote.getVersion(aliceJID));
+  }
 }